@@ -295,6 +295,13 @@ public class VespaMetricSet {
         metrics.add(new Metric("documents_total.count"));
         metrics.add(new Metric("dispatch_internal.rate"));
         metrics.add(new Metric("dispatch_fdispatch.rate"));
+        metrics.add(new Metric("dispatch_result_cache_hits.rate"));
+        metrics.add(new Metric("dispatch_result_cache_misses.rate"));
+        metrics.add(new Metric("dispatch_result_cache_hit_ratio.average"));
+        metrics.add(new Metric("dispatch_result_cache_size.max"));
+        metrics.add(new Metric("dispatch_hedged_requests.rate"));
+        metrics.add(new Metric("dispatch_compression_ratio.average"));
+        metrics.add(new Metric("dispatch_compression_nanos_per_byte.average"));
 
         metrics.add(new Metric("totalhits_per_query.max"));
         metrics.add(new Metric("totalhits_per_query.sum"));
@@ -6,6 +6,7 @@ import com.yahoo.cloud.config.ClusterInfoConfig;
 import com.yahoo.component.AbstractComponent;
 import com.yahoo.component.ComponentId;
 import com.yahoo.compress.Compressor;
+import com.yahoo.concurrent.ThreadFactoryFactory;
 import com.yahoo.container.handler.VipStatus;
 import com.yahoo.jdisc.Metric;
 import com.yahoo.prelude.fastsearch.VespaBackEndSearcher;
@@ -31,7 +32,10 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.OptionalInt;
+import java.util.OptionalLong;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 /**
@@ -54,6 +58,7 @@ public class Dispatcher extends AbstractComponent {
     private static final String TOP_K_PROBABILITY = "topKProbability";
 
     private static final String INTERNAL_METRIC = "dispatch_internal";
+    private static final String HEDGED_METRIC = "dispatch_hedged_requests";
 
     private static final int MAX_GROUP_SELECTION_ATTEMPTS = 3;
 
@@ -76,6 +81,12 @@ public class Dispatcher extends AbstractComponent {
 
     private final int maxHitsPerNode;
 
+    /** The cache of merged query results, or null if result caching is disabled */
+    private final ResultCache resultCache;
+
+    /** The executor collecting the results of hedged queries, or null if hedging is disabled */
+    private final ExecutorService hedgeExecutor;
+
     private static final QueryProfileType argumentType;
 
     static {
@@ -119,11 +130,19 @@ public class Dispatcher extends AbstractComponent {
         this.searchCluster = searchCluster;
         this.clusterMonitor = clusterMonitor;
         this.loadBalancer = new LoadBalancer(searchCluster,
-                                  dispatchConfig.distributionPolicy() == DispatchConfig.DistributionPolicy.ROUNDROBIN);
+                                  dispatchConfig.distributionPolicy() == DispatchConfig.DistributionPolicy.ROUNDROBIN,
+                                  dispatchConfig.hedgePercentile(),
+                                  dispatchConfig.hedgeBudget());
         this.invokerFactory = invokerFactory;
         this.metric = metric;
         this.metricContext = metric.createContext(null);
         this.maxHitsPerNode = dispatchConfig.maxHitsPerNode();
+        this.resultCache = (dispatchConfig.resultCacheMaxEntries() > 0)
+                ? new ResultCache(dispatchConfig.resultCacheMaxEntries(), dispatchConfig.resultCacheTtl(), searchCluster, metric)
+                : null;
+        this.hedgeExecutor = (dispatchConfig.hedgePercentile() > 0)
+                ? Executors.newCachedThreadPool(ThreadFactoryFactory.getDaemonThreadFactory("search.hedge"))
+                : null;
         searchCluster.addMonitoring(clusterMonitor);
         Thread warmup = new Thread(new Runnable() {
             @Override
@@ -167,6 +186,9 @@ public class Dispatcher extends AbstractComponent {
         /* The clustermonitor must be shutdown first as it uses the invokerfactory through the searchCluster. */
         clusterMonitor.shutdown();
         invokerFactory.release();
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdown();
+        }
     }
 
     public FillInvoker getFillInvoker(Result result, VespaBackEndSearcher searcher) {
@@ -174,7 +196,16 @@ public class Dispatcher extends AbstractComponent {
     }
 
     public SearchInvoker getSearchInvoker(Query query, VespaBackEndSearcher searcher) {
+        Optional<ResultCache.Key> cacheKey = (resultCache != null) ? resultCache.keyOf(query, searcher) : Optional.empty();
+        if (cacheKey.isPresent()) {
+            Optional<SearchInvoker> cached = resultCache.lookup(cacheKey.get());
+            if (cached.isPresent()) return cached.get();
+        }
+
         SearchInvoker invoker = getSearchPathInvoker(query, searcher).orElseGet(() -> getInternalInvoker(query, searcher));
+        if (cacheKey.isPresent()) {
+            invoker = resultCache.caching(cacheKey.get(), invoker);
+        }
 
         if (query.properties().getBoolean(com.yahoo.search.query.Model.ESTIMATE)) {
             query.setHits(0);
@@ -238,6 +269,13 @@ public class Dispatcher extends AbstractComponent {
                 query.trace(false, 2, "Dispatching to group ", group.id());
                 query.getModel().setSearchPath("/" + group.id());
                 invoker.get().teardown((success, time) -> loadBalancer.releaseGroup(group, success, time));
+                OptionalLong hedgeDelay = loadBalancer.hedgeDelay(group);
+                if (hedgeDelay.isPresent()) {
+                    Set<Integer> excluded = (rejected != null) ? new HashSet<>(rejected) : new HashSet<>();
+                    excluded.add(group.id());
+                    return new HedgedSearchInvoker(invoker.get(), hedgeDelay.getAsLong(),
+                                                   () -> getHedgeInvoker(query, searcher, excluded), hedgeExecutor);
+                }
                 return invoker.get();
             } else {
                 loadBalancer.releaseGroup(group, false, 0);
@@ -250,6 +288,26 @@ public class Dispatcher extends AbstractComponent {
         throw new IllegalStateException("No suitable groups to dispatch query. Rejected: " + rejected);
     }
 
+    /** Returns an invoker for hedging a query to a group not in the given set, if the hedging budget allows */
+    private Optional<SearchInvoker> getHedgeInvoker(Query query, VespaBackEndSearcher searcher, Set<Integer> excluded) {
+        if ( ! loadBalancer.tryHedge()) return Optional.empty();
+        Optional<Group> groupInCluster = loadBalancer.takeGroup(excluded);
+        if (groupInCluster.isEmpty()) return Optional.empty();
+
+        Group group = groupInCluster.get();
+        Optional<SearchInvoker> invoker = group.hasSufficientCoverage()
+                ? invokerFactory.createSearchInvoker(searcher, query, OptionalInt.of(group.id()), group.nodes(), false, maxHitsPerNode)
+                : Optional.empty();
+        if (invoker.isEmpty()) {
+            loadBalancer.releaseGroup(group, false, 0);
+            return Optional.empty();
+        }
+        query.trace(false, 2, "Hedging to group ", group.id());
+        invoker.get().teardown((success, time) -> loadBalancer.releaseGroup(group, success, time));
+        metric.add(HEDGED_METRIC, 1, metricContext);
+        return invoker;
+    }
+
     /**
      * We want to avoid groups blocking feed because their data may be out of date.
      * If there is a single group blocking feed, we want to reject it.
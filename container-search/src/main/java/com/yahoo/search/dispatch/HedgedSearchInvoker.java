@@ -0,0 +1,228 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.dispatch;
+
+import com.yahoo.search.Query;
+import com.yahoo.search.searchchain.Execution;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A search invoker which sends a query to one group, and if that group has not completed within the given delay
+ * after the query was sent, sends the same query to another group and uses the result which is produced first.
+ * Once hedged, the results of both groups are collected in parallel, each subject to the timeout and coverage
+ * handling of its own invoker, such that the first result may be a degraded one.
+ *
+ * The invokers must signal their monitor once their full result is available.
+ *
+ * Each group is queried with a clone of the query which traces to an execution of its own, such that the group
+ * not used may keep working on its query after the result is returned without touching the query or execution of
+ * the caller. The result and trace of the group used are moved to the query of the caller once it is chosen.
+ *
+ * @author agent
+ */
+class HedgedSearchInvoker extends SearchInvoker implements ResponseMonitor<SearchInvoker> {
+
+    private final SearchInvoker primary;
+    private final long hedgeDelayMs;
+    private final Supplier<Optional<SearchInvoker>> hedgeSupplier;
+    private final Executor executor;
+    private final LinkedBlockingQueue<SearchInvoker> completed = new LinkedBlockingQueue<>();
+
+    private SearchInvoker hedge = null;
+    private SearchInvoker winner = null;
+    private Collector fromPrimary = null;
+    private Collector fromHedge = null;
+    private Query query;
+    private Query primaryQuery;
+    private Query hedgeQuery;
+    private Object context;
+    private long sentAt;
+
+    /**
+     * @param primary the invoker of the group the query is dispatched to
+     * @param hedgeDelayMs the time to wait for the primary invoker after sending the query, before hedging
+     * @param hedgeSupplier supplies the invoker of another group, or empty if the query should not be hedged after all
+     * @param executor the executor collecting the results of both groups when the query is hedged
+     */
+    HedgedSearchInvoker(SearchInvoker primary, long hedgeDelayMs, Supplier<Optional<SearchInvoker>> hedgeSupplier, Executor executor) {
+        super(Optional.empty());
+        this.primary = primary;
+        this.hedgeDelayMs = hedgeDelayMs;
+        this.hedgeSupplier = hedgeSupplier;
+        this.executor = executor;
+    }
+
+    @Override
+    protected Object sendSearchRequest(Query query, Object context) throws IOException {
+        this.query = query;
+        this.context = context;
+        primaryQuery = detachedClone(query);
+        primary.setMonitor(this);
+        sentAt = currentTime();
+        return primary.sendSearchRequest(primaryQuery, context);
+    }
+
+    @Override
+    protected InvokerResult getSearchResult(Execution execution) throws IOException {
+        winner = primary;
+        try {
+            long hedgeInMs = Math.max(0, hedgeDelayMs - (currentTime() - sentAt));
+            if (hedgeInMs < query.getTimeLeft() && completed.poll(hedgeInMs, TimeUnit.MILLISECONDS) == null) {
+                hedge = hedgeSupplier.get().orElse(null);
+                if (hedge != null) {
+                    query.trace(false, 2, "No result after ", hedgeDelayMs, " ms, hedging query to another group");
+                    hedgeQuery = detachedClone(query);
+                    hedge.sendSearchRequest(hedgeQuery, context);
+                    return firstResult();
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted while waiting for search results", e);
+        }
+        return adopt(primary.getSearchResult(primaryQuery.getModel().getExecution()), primaryQuery);
+    }
+
+    /** Collects the results of both groups in parallel, and returns the first result successfully produced */
+    private InvokerResult firstResult() throws IOException, InterruptedException {
+        LinkedBlockingQueue<Collector> collected = new LinkedBlockingQueue<>();
+        fromPrimary = new Collector(primary, primaryQuery, collected);
+        fromHedge = new Collector(hedge, hedgeQuery, collected);
+        executor.execute(fromPrimary);
+        executor.execute(fromHedge);
+
+        Collector first = collected.take();
+        if (first.failure != null) {
+            Collector second = collected.take();
+            if (second.failure == null) {
+                first = second;
+            }
+        }
+        first.won = true;
+        winner = first.invoker;
+        if (first.failure instanceof IOException) throw (IOException) first.failure;
+        if (first.failure != null) throw (RuntimeException) first.failure;
+
+        if (winner == hedge) {
+            query.trace(false, 2, "Using the result of the hedged query");
+        }
+        return adopt(first.result, first.query);
+    }
+
+    /** Returns a clone of the given query which traces to an execution of its own, not attached to that of the query */
+    private static Query detachedClone(Query query) {
+        Query clone = query.clone();
+        Execution traceRoot = new Execution(Execution.Context.createContextStub());
+        clone.getModel().setExecution(new Execution(traceRoot.context()));
+        return clone;
+    }
+
+    /** Moves the given result, produced for the given clone, and the trace of the clone to the query of the caller */
+    private InvokerResult adopt(InvokerResult result, Query clone) {
+        result.getResult().setQuery(query);
+        if (query.getTraceLevel() > 0) {
+            query.getModel().getExecution().trace().traceNode().add(clone.getModel().getExecution().trace().traceNode().root());
+        }
+        return result;
+    }
+
+    @Override
+    protected void setFinalStatus(boolean success) {
+        super.setFinalStatus(success);
+        if (winner != null) {
+            winner.setFinalStatus(success);
+        }
+    }
+
+    @Override
+    protected List<Integer> queriedNodes() {
+        return winner != null ? winner.queriedNodes() : primary.queriedNodes();
+    }
+
+    @Override
+    protected void release() {
+        if (fromPrimary != null) {
+            fromPrimary.release();
+            fromHedge.release();
+        } else {
+            primary.close();
+            if (hedge != null) {
+                hedge.close();
+            }
+        }
+    }
+
+    @Override
+    public void responseAvailable(SearchInvoker from) {
+        completed.add(from);
+    }
+
+    // For overriding in tests
+    protected long currentTime() {
+        return System.currentTimeMillis();
+    }
+
+    // For testing
+    boolean hedged() { return hedge != null; }
+
+    /**
+     * Collects the result of a group invoker, and closes the invoker once it is released and its result is collected.
+     * The invoker not used is thereby closed only once it has produced its own result, such that its outcome and
+     * latency are recorded as for any other query to its group.
+     */
+    private static class Collector implements Runnable {
+
+        private final SearchInvoker invoker;
+        private final Query query;
+        private final LinkedBlockingQueue<Collector> collected;
+
+        private InvokerResult result = null;
+        private Exception failure = null;
+        private volatile boolean won = false;
+        private boolean done = false;
+        private boolean released = false;
+
+        Collector(SearchInvoker invoker, Query query, LinkedBlockingQueue<Collector> collected) {
+            this.invoker = invoker;
+            this.query = query;
+            this.collected = collected;
+        }
+
+        @Override
+        public void run() {
+            try {
+                result = invoker.getSearchResult(query.getModel().getExecution());
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+            }
+            collected.add(this);
+            synchronized (this) {
+                done = true;
+                if (released) {
+                    close();
+                }
+            }
+        }
+
+        synchronized void release() {
+            released = true;
+            if (done) {
+                close();
+            }
+        }
+
+        private void close() {
+            if ( ! won) {
+                invoker.setFinalStatus(failure == null && result.getResult().hits().getError() == null);
+            }
+            invoker.close();
+        }
+
+    }
+
+}
@@ -11,7 +11,6 @@ import com.yahoo.search.searchchain.Execution;
 import com.yahoo.vespa.config.search.DispatchConfig;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.IdentityHashMap;
@@ -21,6 +20,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
@@ -43,7 +43,12 @@ public class InterleavedSearchInvoker extends SearchInvoker implements ResponseM
     private final SearchCluster searchCluster;
     private final LinkedBlockingQueue<SearchInvoker> availableForProcessing;
     private final Set<Integer> alreadyFailedNodes;
+    private final List<Integer> queriedNodes;
+    private final AtomicInteger responsesAvailable = new AtomicInteger();
+    private volatile int expectedResponses = 0;
     private Query query;
+    private int hits;
+    private int offset;
 
     private boolean adaptiveTimeoutCalculated = false;
     private long adaptiveTimeoutMin = 0;
@@ -63,6 +68,7 @@ public class InterleavedSearchInvoker extends SearchInvoker implements ResponseM
         super(Optional.empty());
         this.invokers = Collections.newSetFromMap(new IdentityHashMap<>());
         this.invokers.addAll(invokers);
+        this.queriedNodes = invokers.stream().flatMap(invoker -> invoker.queriedNodes().stream()).collect(Collectors.toList());
         this.searchCluster = searchCluster;
         this.availableForProcessing = newQueue();
         this.alreadyFailedNodes = alreadyFailedNodes;
@@ -74,14 +80,14 @@ public class InterleavedSearchInvoker extends SearchInvoker implements ResponseM
      * will be adjusted accordingly.
      */
     @Override
-    protected Object sendSearchRequest(Query query, Object unusedContext) throws IOException {
+    protected Object sendSearchRequest(Query query, Object incomingContext) throws IOException {
         this.query = query;
         invokers.forEach(invoker -> invoker.setMonitor(this));
         deadline = currentTime() + query.getTimeLeft();
 
-        int originalHits = query.getHits();
-        int originalOffset = query.getOffset();
-        int neededHits = originalHits + originalOffset;
+        hits = query.getHits();
+        offset = query.getOffset();
+        int neededHits = hits + offset;
         Double topkProbabilityOverrride = query.properties().getDouble(Dispatcher.topKProbability);
         int q = (topkProbabilityOverrride != null)
                 ? searchCluster.estimateHitsToFetch(neededHits, invokers.size(), topkProbabilityOverrride)
@@ -89,21 +95,22 @@ public class InterleavedSearchInvoker extends SearchInvoker implements ResponseM
         query.setHits(q);
         query.setOffset(0);
 
-        Object context = null;
+        expectedResponses = invokers.size();
+        Object context = incomingContext;
         for (SearchInvoker invoker : invokers) {
             context = invoker.sendSearchRequest(query, context);
             askedNodes++;
         }
 
-        query.setHits(originalHits);
-        query.setOffset(originalOffset);
+        query.setHits(hits);
+        query.setOffset(offset);
         return null;
     }
 
     @Override
     protected InvokerResult getSearchResult(Execution execution) throws IOException {
-        InvokerResult result = new InvokerResult(query, query.getHits());
-        List<LeanHit> merged = Collections.emptyList();
+        InvokerResult result = new InvokerResult(query, hits);
+        LeanHitMerger merger = new LeanHitMerger();
         long nextTimeout = query.getTimeLeft();
         try {
             while (!invokers.isEmpty() && nextTimeout >= 0) {
@@ -112,7 +119,7 @@ public class InterleavedSearchInvoker extends SearchInvoker implements ResponseM
                     log.fine(() -> "Search timed out with " + askedNodes + " requests made, " + answeredNodes + " responses received");
                     break;
                 } else {
-                    merged = mergeResult(result.getResult(), invoker.getSearchResult(execution), merged);
+                    mergeResult(result.getResult(), invoker.getSearchResult(execution), merger);
                     ejectInvoker(invoker);
                 }
                 nextTimeout = nextTimeout();
@@ -123,10 +130,8 @@ public class InterleavedSearchInvoker extends SearchInvoker implements ResponseM
 
         insertNetworkErrors(result.getResult());
         result.getResult().setCoverage(createCoverage());
-        int needed = query.getOffset() + query.getHits();
-        for (int index = query.getOffset(); (index < merged.size()) && (index < needed); index++) {
-            result.getLeanHits().add(merged.get(index));
-        }
+        // Window by the hits and offset requested when sending
+        result.getLeanHits().addAll(merger.merge(offset, hits));
         query.setOffset(0);  // Now we are all trimmed down
         return result;
     }
@@ -197,7 +202,7 @@ public class InterleavedSearchInvoker extends SearchInvoker implements ResponseM
         return nextAdaptive;
     }
 
-    private List<LeanHit> mergeResult(Result result, InvokerResult partialResult, List<LeanHit> current) {
+    private void mergeResult(Result result, InvokerResult partialResult, LeanHitMerger merger) {
         collectCoverage(partialResult.getResult().getCoverage(true));
 
         result.mergeWith(partialResult.getResult());
@@ -207,42 +212,7 @@ public class InterleavedSearchInvoker extends SearchInvoker implements ResponseM
                 result.hits().add(hit);
             }
         }
-        if (current.isEmpty() ) {
-            return partialResult.getLeanHits();
-        }
-        List<LeanHit> partial = partialResult.getLeanHits();
-        if (partial.isEmpty()) {
-            return current;
-        }
-
-        int needed = query.getOffset() + query.getHits();
-        List<LeanHit> merged = new ArrayList<>(needed);
-        int indexCurrent = 0;
-        int indexPartial = 0;
-        while (indexCurrent < current.size() && indexPartial < partial.size() && merged.size() < needed) {
-            LeanHit incommingHit = partial.get(indexPartial);
-            LeanHit currentHit = current.get(indexCurrent);
-
-            int cmpRes = currentHit.compareTo(incommingHit);
-            if (cmpRes < 0) {
-                merged.add(currentHit);
-                indexCurrent++;
-            } else if (cmpRes > 0) {
-                merged.add(incommingHit);
-                indexPartial++;
-            } else { // Duplicates
-                merged.add(currentHit);
-                indexCurrent++;
-                indexPartial++;
-            }
-        }
-        while ((indexCurrent < current.size()) && (merged.size() < needed)) {
-            merged.add(current.get(indexCurrent++));
-        }
-        while ((indexPartial < partial.size()) && (merged.size() < needed)) {
-            merged.add(partial.get(indexPartial++));
-        }
-        return merged;
+        merger.add(partialResult);
     }
 
     private void collectCoverage(Coverage source) {
@@ -299,6 +269,11 @@ public class InterleavedSearchInvoker extends SearchInvoker implements ResponseM
         invoker.release();
     }
 
+    @Override
+    protected List<Integer> queriedNodes() {
+        return queriedNodes;
+    }
+
     @Override
     protected void release() {
         if (!invokers.isEmpty()) {
@@ -307,18 +282,17 @@ public class InterleavedSearchInvoker extends SearchInvoker implements ResponseM
         }
     }
 
+    /** Queues the response for processing, and signals the monitor of this, if any, once all nodes have responded */
     @Override
     public void responseAvailable(SearchInvoker from) {
         if (availableForProcessing != null) {
             availableForProcessing.add(from);
+            if (responsesAvailable.incrementAndGet() == expectedResponses) {
+                responseAvailable();
+            }
         }
     }
 
-    @Override
-    protected void setMonitor(ResponseMonitor<SearchInvoker> monitor) {
-        // never to be called
-    }
-
     // For overriding in tests
     protected long currentTime() {
         return System.currentTimeMillis();
@@ -11,11 +11,12 @@ import java.util.Collections;
 import java.util.List;
 
 /**
- * Wraps a Result and a flat, skinny hit list
+ * Wraps a Result and a flat, skinny hit list, which may be held in packed form until it is needed as objects
  */
 public class InvokerResult {
     private final Result result;
     private final List<LeanHit> leanHits;
+    private LeanHitBuffer hitBuffer;
     public InvokerResult(Result result) {
         this.result = result;
         this.leanHits = Collections.emptyList();
@@ -24,27 +25,57 @@ public class InvokerResult {
         result = new Result(query);
         leanHits = new ArrayList<>(expectedHits);
     }
+    public InvokerResult(Query query, LeanHitBuffer hitBuffer) {
+        result = new Result(query);
+        leanHits = new ArrayList<>();
+        this.hitBuffer = hitBuffer;
+    }
 
     public Result getResult() {
         return result;
     }
 
     public List<LeanHit> getLeanHits() {
+        if (hitBuffer != null) {
+            for (int i = 0; i < hitBuffer.size(); i++) {
+                leanHits.add(hitBuffer.get(i));
+            }
+            hitBuffer = null;
+        }
         return leanHits;
     }
+
+    /** Returns the packed hits of this, or null if hits are held as lean hit objects */
+    LeanHitBuffer hitBuffer() {
+        return hitBuffer;
+    }
+
     void complete() {
         Query query = result.getQuery();
         Sorting sorting = query.getRanking().getSorting();
+        if (hitBuffer != null) {
+            for (int i = 0; i < hitBuffer.size(); i++) {
+                FastHit fh = new FastHit(hitBuffer.getGid(i), hitBuffer.getRelevance(i), hitBuffer.getPartId(), hitBuffer.getDistributionKey());
+                if (hitBuffer.hasSortData(i)) {
+                    fh.setSortData(hitBuffer.getSortData(i), sorting);
+                }
+                addFillable(fh, query);
+            }
+            hitBuffer = null;
+        }
         for (LeanHit hit : leanHits) {
             FastHit fh = new FastHit(hit.getGid(), hit.getRelevance(), hit.getPartId(), hit.getDistributionKey());
             if (hit.hasSortData()) {
                 fh.setSortData(hit.getSortData(), sorting);
             }
-            fh.setQuery(query);
-            fh.setFillable();
-            fh.setCached(false);
-            result.hits().add(fh);
+            addFillable(fh, query);
         }
         leanHits.clear();
     }
+    private void addFillable(FastHit fh, Query query) {
+        fh.setQuery(query);
+        fh.setFillable();
+        fh.setCached(false);
+        result.hits().add(fh);
+    }
 }
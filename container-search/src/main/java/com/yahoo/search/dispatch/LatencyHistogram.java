@@ -0,0 +1,70 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.dispatch;
+
+/**
+ * A histogram of query latencies with exponentially sized buckets, four per doubling, from 1 ms to about a minute.
+ * Old samples are decayed by halving all counts whenever the number of samples reaches twice the window size,
+ * such that percentiles follow changes in latency. This class is not thread safe.
+ *
+ * @author agent
+ */
+class LatencyHistogram {
+
+    private static final int BUCKETS_PER_DOUBLING = 4;
+    private static final int NUM_BUCKETS = 16 * BUCKETS_PER_DOUBLING;
+
+    private final long[] counts = new long[NUM_BUCKETS + 1];
+    private final long window;
+    private long total = 0;
+
+    LatencyHistogram(long window) {
+        this.window = window;
+    }
+
+    void add(double latencyMs) {
+        counts[bucketOf(latencyMs)]++;
+        total++;
+        if (total >= 2 * window) {
+            decay();
+        }
+    }
+
+    /** Returns the number of samples currently contributing to this */
+    long samples() { return total; }
+
+    /**
+     * Returns the upper bound in milliseconds of the bucket containing the given percentile,
+     * or 0 if there are no samples.
+     *
+     * @param percentile the percentile, between 0 and 100
+     */
+    double percentile(double percentile) {
+        if (total == 0) return 0;
+        long needed = (long) Math.ceil(total * percentile / 100.0);
+        long accumulated = 0;
+        for (int i = 0; i < counts.length; i++) {
+            accumulated += counts[i];
+            if (accumulated >= needed) return upperBound(i);
+        }
+        return upperBound(NUM_BUCKETS);
+    }
+
+    private void decay() {
+        total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] /= 2;
+            total += counts[i];
+        }
+    }
+
+    private static int bucketOf(double latencyMs) {
+        if (latencyMs <= 1.0) return 0;
+        int bucket = (int) Math.ceil(Math.log(latencyMs) / Math.log(2) * BUCKETS_PER_DOUBLING);
+        return Math.min(bucket, NUM_BUCKETS);
+    }
+
+    private static double upperBound(int bucket) {
+        return Math.pow(2, (double) bucket / BUCKETS_PER_DOUBLING);
+    }
+
+}
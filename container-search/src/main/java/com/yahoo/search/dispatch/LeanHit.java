@@ -37,16 +37,11 @@ public class LeanHit implements Comparable<LeanHit> {
     }
 
     private static int compareData(byte [] left, byte [] right) {
-        int i = Arrays.mismatch(left, right);
-        if (i < 0) {
-            return 0;
-        }
-        int max = Integer.min(left.length, right.length);
-        if (i >= max) {
-            return left.length - right.length;
-        }
-        int vl = (int) left[i] & 0xFF;
-        int vr = (int) right[i] & 0xFF;
-        return vl - vr;
+        return compareData(left, 0, left.length, right, 0, right.length);
+    }
+
+    /** Compares two byte ranges as unsigned bytes, shorter ranges first when one is a prefix of the other */
+    static int compareData(byte [] left, int leftFrom, int leftTo, byte [] right, int rightFrom, int rightTo) {
+        return Arrays.compareUnsigned(left, leftFrom, leftTo, right, rightFrom, rightTo);
     }
 }
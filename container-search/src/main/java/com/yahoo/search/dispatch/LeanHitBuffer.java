@@ -0,0 +1,149 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.dispatch;
+
+import com.google.protobuf.ByteString;
+
+import java.util.Arrays;
+
+/**
+ * A packed, columnar alternative to a list of {@link LeanHit}s, holding the sorted hits from a single node.
+ * Global ids and sort data are stored back to back in one byte array each, indexed by offset,
+ * and relevances are stored in a double array. Hits can be compared and merged without creating
+ * any per hit objects; a {@link LeanHit} is only materialized for hits which survive the merge.
+ *
+ * @author agent
+ */
+public class LeanHitBuffer {
+
+    private static final int EXPECTED_GID_SIZE = 12;
+    private static final byte[] EMPTY = new byte[0];
+
+    private final int partId;
+    private final int distributionKey;
+
+    private int size = 0;
+    private double[] relevances;
+    private byte[] gids;
+    private int[] gidOffsets;
+    private byte[] sortData;
+    private int[] sortOffsets;
+
+    public LeanHitBuffer(int partId, int distributionKey, int expectedHits) {
+        this.partId = partId;
+        this.distributionKey = distributionKey;
+        int capacity = Math.max(expectedHits, 1);
+        relevances = new double[capacity];
+        gids = new byte[capacity * EXPECTED_GID_SIZE];
+        gidOffsets = new int[capacity + 1];
+        sortData = null;
+        sortOffsets = new int[capacity + 1];
+    }
+
+    public void add(ByteString gid, double relevance, ByteString sortBlob) {
+        int index = reserve();
+        relevances[index] = Double.isNaN(relevance) ? Double.NEGATIVE_INFINITY : relevance;
+        int gidOffset = gidOffsets[index];
+        gids = ensureCapacity(gids, gidOffset + gid.size());
+        gid.copyTo(gids, 0, gidOffset, gid.size());
+        gidOffsets[index + 1] = gidOffset + gid.size();
+        int sortOffset = sortOffsets[index];
+        if (sortBlob != null && ! sortBlob.isEmpty()) {
+            sortData = ensureCapacity(sortData, sortOffset + sortBlob.size());
+            sortBlob.copyTo(sortData, 0, sortOffset, sortBlob.size());
+            sortOffset += sortBlob.size();
+        }
+        sortOffsets[index + 1] = sortOffset;
+        size++;
+    }
+
+    public void add(byte[] gid, double relevance, byte[] sortBlob) {
+        add(ByteString.copyFrom(gid), relevance, sortBlob != null ? ByteString.copyFrom(sortBlob) : null);
+    }
+
+    /**
+     * Adds a hit whose global id and sort data are ranges of the given array, which is typically the
+     * serialized reply they are read from. The ranges are copied into this.
+     */
+    public void add(byte[] data, int gidOffset, int gidLength, double relevance, int sortOffset, int sortLength) {
+        int index = reserve();
+        relevances[index] = Double.isNaN(relevance) ? Double.NEGATIVE_INFINITY : relevance;
+        int gidEnd = gidOffsets[index];
+        gids = ensureCapacity(gids, gidEnd + gidLength);
+        System.arraycopy(data, gidOffset, gids, gidEnd, gidLength);
+        gidOffsets[index + 1] = gidEnd + gidLength;
+        int sortEnd = sortOffsets[index];
+        if (sortLength > 0) {
+            sortData = ensureCapacity(sortData, sortEnd + sortLength);
+            System.arraycopy(data, sortOffset, sortData, sortEnd, sortLength);
+        }
+        sortOffsets[index + 1] = sortEnd + sortLength;
+        size++;
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+    public int getPartId() { return partId; }
+    public int getDistributionKey() { return distributionKey; }
+
+    public double getRelevance(int index) { return relevances[index]; }
+    public boolean hasSortData(int index) { return sortOffsets[index + 1] > sortOffsets[index]; }
+
+    public byte[] getGid(int index) {
+        return Arrays.copyOfRange(gids, gidOffsets[index], gidOffsets[index + 1]);
+    }
+
+    public byte[] getSortData(int index) {
+        return hasSortData(index) ? Arrays.copyOfRange(sortData, sortOffsets[index], sortOffsets[index + 1]) : null;
+    }
+
+    /** Creates a lean hit object for the hit at the given index */
+    public LeanHit get(int index) {
+        return new LeanHit(getGid(index), partId, distributionKey, relevances[index], getSortData(index));
+    }
+
+    /** Compares the hit at the given index in this to a hit in another buffer, with the same ordering as {@link LeanHit} */
+    public int compare(int index, LeanHitBuffer other, int otherIndex) {
+        int res = hasSortData(index)
+                ? LeanHit.compareData(sortData, sortOffsets[index], sortOffsets[index + 1],
+                                      other.sortDataOrEmpty(), other.sortOffsets[otherIndex], other.sortOffsets[otherIndex + 1])
+                : Double.compare(other.relevances[otherIndex], relevances[index]);
+        return (res != 0)
+                ? res
+                : LeanHit.compareData(gids, gidOffsets[index], gidOffsets[index + 1],
+                                      other.gids, other.gidOffsets[otherIndex], other.gidOffsets[otherIndex + 1]);
+    }
+
+    /** Compares the hit at the given index in this to a lean hit, with the same ordering as {@link LeanHit} */
+    public int compare(int index, LeanHit other) {
+        int res;
+        if (hasSortData(index)) {
+            byte[] otherSortData = other.hasSortData() ? other.getSortData() : EMPTY;
+            res = LeanHit.compareData(sortData, sortOffsets[index], sortOffsets[index + 1], otherSortData, 0, otherSortData.length);
+        } else {
+            res = Double.compare(other.getRelevance(), relevances[index]);
+        }
+        byte[] otherGid = other.getGid();
+        return (res != 0) ? res : LeanHit.compareData(gids, gidOffsets[index], gidOffsets[index + 1], otherGid, 0, otherGid.length);
+    }
+
+    private byte[] sortDataOrEmpty() {
+        return (sortData != null) ? sortData : EMPTY;
+    }
+
+    private int reserve() {
+        if (size == relevances.length) {
+            int capacity = relevances.length * 2;
+            relevances = Arrays.copyOf(relevances, capacity);
+            gidOffsets = Arrays.copyOf(gidOffsets, capacity + 1);
+            sortOffsets = Arrays.copyOf(sortOffsets, capacity + 1);
+        }
+        return size;
+    }
+
+    private static byte[] ensureCapacity(byte[] data, int needed) {
+        if (data == null) return new byte[Math.max(needed, 64)];
+        if (data.length >= needed) return data;
+        return Arrays.copyOf(data, Math.max(needed, data.length * 2));
+    }
+
+}
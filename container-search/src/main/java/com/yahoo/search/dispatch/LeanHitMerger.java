@@ -0,0 +1,201 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.dispatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Merges the sorted lean hit lists returned from the individual content nodes into a single sorted window.
+ * Partial results are added as they arrive, which only costs a heap insertion. The merged window is
+ * built once, by a k-way merge over a heap of per-node cursors, when {@link #merge} is called.
+ * Hits comparing equal to the previously emitted hit are considered duplicates and dropped,
+ * keeping the one from the earliest arriving partial result. Partial results may be given either as
+ * lists of lean hits or as packed {@link LeanHitBuffer}s, in which case lean hits are only created
+ * for the hits inside the merged window.
+ *
+ * @author agent
+ */
+class LeanHitMerger {
+
+    private Cursor[] heap = new Cursor[8];
+    private int size = 0;
+    private int arrivals = 0;
+
+    /** Adds a sorted list of hits from one node. The list is not copied and must not be modified after this. */
+    void add(List<LeanHit> hits) {
+        if (hits.isEmpty()) return;
+        push(new ListCursor(hits, arrivals++));
+    }
+
+    /** Adds a packed buffer of sorted hits from one node. The buffer is not copied and must not be modified after this. */
+    void add(LeanHitBuffer hits) {
+        if (hits.isEmpty()) return;
+        push(new BufferCursor(hits, arrivals++));
+    }
+
+    /** Adds the hits of a partial result, packed or not */
+    void add(InvokerResult partialResult) {
+        if (partialResult.hitBuffer() != null) {
+            add(partialResult.hitBuffer());
+        } else {
+            add(partialResult.getLeanHits());
+        }
+    }
+
+    private void push(Cursor cursor) {
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        heap[size] = cursor;
+        siftUp(size++);
+    }
+
+    /** Returns the number of non-empty partial results added so far. */
+    int partialCount() { return size; }
+
+    /**
+     * Returns the merged hits in the window [offset, offset + hits), consuming the content of this.
+     */
+    List<LeanHit> merge(int offset, int hits) {
+        int needed = offset + hits;
+        if (size == 0 || hits <= 0) return Collections.emptyList();
+        if (size == 1 && heap[0] instanceof ListCursor) {
+            List<LeanHit> single = ((ListCursor) heap[0]).hits;
+            size = 0;
+            return (offset >= single.size()) ? Collections.emptyList() : single.subList(offset, Math.min(needed, single.size()));
+        }
+
+        List<LeanHit> merged = new ArrayList<>(hits);
+        Cursor previous = null;
+        int previousIndex = 0;
+        int emitted = 0;
+        while (size > 0 && emitted < needed) {
+            Cursor top = heap[0];
+            if (previous == null || previous.compareAt(previousIndex, top, top.index) != 0) {
+                if (emitted >= offset) {
+                    merged.add(top.hitAt(top.index));
+                }
+                emitted++;
+                previous = top;
+                previousIndex = top.index;
+            }
+            if (top.advance()) {
+                siftDown(0);
+            } else {
+                heap[0] = heap[--size];
+                heap[size] = null;
+                if (size > 0) {
+                    siftDown(0);
+                }
+            }
+        }
+        size = 0;
+        return merged;
+    }
+
+    private void siftUp(int index) {
+        Cursor cursor = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent].compareTo(cursor) <= 0) break;
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = cursor;
+    }
+
+    private void siftDown(int index) {
+        Cursor cursor = heap[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && heap[right].compareTo(heap[child]) < 0) {
+                child = right;
+            }
+            if (cursor.compareTo(heap[child]) <= 0) break;
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = cursor;
+    }
+
+    private static abstract class Cursor implements Comparable<Cursor> {
+
+        private final int arrival;
+        int index = 0;
+
+        Cursor(int arrival) {
+            this.arrival = arrival;
+        }
+
+        abstract int size();
+
+        abstract LeanHit hitAt(int i);
+
+        /** Compares the hit at index i in this to the hit at index j in the other cursor */
+        abstract int compareAt(int i, Cursor other, int j);
+
+        boolean advance() { return ++index < size(); }
+
+        @Override
+        public int compareTo(Cursor other) {
+            int res = compareAt(index, other, other.index);
+            return (res != 0) ? res : Integer.compare(arrival, other.arrival);
+        }
+
+    }
+
+    private static final class ListCursor extends Cursor {
+
+        private final List<LeanHit> hits;
+
+        ListCursor(List<LeanHit> hits, int arrival) {
+            super(arrival);
+            this.hits = hits;
+        }
+
+        @Override
+        int size() { return hits.size(); }
+
+        @Override
+        LeanHit hitAt(int i) { return hits.get(i); }
+
+        @Override
+        int compareAt(int i, Cursor other, int j) {
+            if (other instanceof ListCursor) {
+                return hits.get(i).compareTo(((ListCursor) other).hits.get(j));
+            }
+            return - ((BufferCursor) other).hits.compare(j, hits.get(i));
+        }
+
+    }
+
+    private static final class BufferCursor extends Cursor {
+
+        private final LeanHitBuffer hits;
+
+        BufferCursor(LeanHitBuffer hits, int arrival) {
+            super(arrival);
+            this.hits = hits;
+        }
+
+        @Override
+        int size() { return hits.size(); }
+
+        @Override
+        LeanHit hitAt(int i) { return hits.get(i); }
+
+        @Override
+        int compareAt(int i, Cursor other, int j) {
+            if (other instanceof BufferCursor) {
+                return hits.compare(i, ((BufferCursor) other).hits, j);
+            }
+            return hits.compare(i, ((ListCursor) other).hits.get(j));
+        }
+
+    }
+
+}
@@ -7,6 +7,7 @@ import com.yahoo.search.dispatch.searchcluster.SearchCluster;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.Random;
 import java.util.Set;
 import java.util.logging.Logger;
@@ -26,11 +27,27 @@ public class LoadBalancer {
     private static final long MIN_LATENCY_DECAY_RATE = 42;
     private static final double INITIAL_QUERY_TIME = 0.001;
     private static final double MIN_QUERY_TIME = 0.001;
+    private static final long LATENCY_HISTOGRAM_WINDOW = 1000;
+    private static final long MIN_HEDGE_SAMPLES = 100;
+    private static final double MAX_HEDGE_TOKENS = 10.0;
 
     private final List<GroupStatus> scoreboard;
     private final GroupScheduler scheduler;
+    private final double hedgePercentile;
+    private final double hedgeBudget;
+    private double hedgeTokens = 0;
 
     public LoadBalancer(SearchCluster searchCluster, boolean roundRobin) {
+        this(searchCluster, roundRobin, 0, 0);
+    }
+
+    /**
+     * @param hedgePercentile the percentile of a group's latency after which a query to it should be hedged, or 0 to disable hedging
+     * @param hedgeBudget the maximum number of hedged requests as a fraction of the queries dispatched
+     */
+    public LoadBalancer(SearchCluster searchCluster, boolean roundRobin, double hedgePercentile, double hedgeBudget) {
+        this.hedgePercentile = hedgePercentile;
+        this.hedgeBudget = hedgeBudget;
         this.scoreboard = new ArrayList<>(searchCluster.groups().size());
         for (Group group : searchCluster.orderedGroups()) {
             scoreboard.add(new GroupStatus(group));
@@ -83,8 +100,38 @@ public class LoadBalancer {
         }
     }
 
+    /**
+     * Returns the time in milliseconds after which a query dispatched to the given group should be hedged
+     * by also sending it to another group, or empty if it should not be hedged. This should be called once
+     * for each query dispatched to a group, as each call earns budget for hedging.
+     */
+    public OptionalLong hedgeDelay(Group group) {
+        if (hedgePercentile <= 0 || scoreboard.size() < 2) return OptionalLong.empty();
+        synchronized (this) {
+            hedgeTokens = Math.min(hedgeTokens + hedgeBudget, MAX_HEDGE_TOKENS);
+            if (hedgeTokens < 1) return OptionalLong.empty();
+            for (GroupStatus gs : scoreboard) {
+                if (gs.group.id() == group.id()) {
+                    if (gs.latencySamples() < MIN_HEDGE_SAMPLES) return OptionalLong.empty();
+                    return OptionalLong.of((long) Math.ceil(gs.latencyPercentileMs(hedgePercentile)));
+                }
+            }
+            return OptionalLong.empty();
+        }
+    }
+
+    /** Spends budget for sending one hedged request. Returns false if the budget is exhausted, and no request should be sent. */
+    public boolean tryHedge() {
+        synchronized (this) {
+            if (hedgeTokens < 1) return false;
+            hedgeTokens--;
+            return true;
+        }
+    }
+
     static class GroupStatus {
         private final Group group;
+        private final LatencyHistogram latencies = new LatencyHistogram(LATENCY_HISTOGRAM_WINDOW);
         private int allocations = 0;
         private long queries = 0;
         private double averageSearchTime = INITIAL_QUERY_TIME;
@@ -107,6 +154,7 @@ public class LoadBalancer {
                 searchTime = Math.max(searchTime, MIN_QUERY_TIME);
                 double decayRate = Math.min(queries + MIN_LATENCY_DECAY_RATE, DEFAULT_LATENCY_DECAY_RATE);
                 averageSearchTime = (searchTime + (decayRate - 1) * averageSearchTime) / decayRate;
+                latencies.add(searchTime * 1000.0);
                 queries++;
             }
         }
@@ -115,6 +163,14 @@ public class LoadBalancer {
             return averageSearchTime;
         }
 
+        long latencySamples() {
+            return latencies.samples();
+        }
+
+        double latencyPercentileMs(double percentile) {
+            return latencies.percentile(percentile);
+        }
+
         double averageSearchTimeInverse() {
             return 1.0 / averageSearchTime;
         }
@@ -0,0 +1,300 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.dispatch;
+
+import com.yahoo.jdisc.Metric;
+import com.yahoo.prelude.fastsearch.VespaBackEndSearcher;
+import com.yahoo.search.Query;
+import com.yahoo.search.Result;
+import com.yahoo.search.dispatch.rpc.PreserializedSearchRequest;
+import com.yahoo.search.dispatch.rpc.ProtobufSerialization;
+import com.yahoo.search.dispatch.searchcluster.Group;
+import com.yahoo.search.dispatch.searchcluster.Node;
+import com.yahoo.search.dispatch.searchcluster.SearchCluster;
+import com.yahoo.search.grouping.vespa.GroupingExecutor;
+import com.yahoo.search.result.Coverage;
+import com.yahoo.search.searchchain.Execution;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.LongSupplier;
+
+/**
+ * A bounded LRU cache of merged query results in the dispatcher. Queries are keyed on their serialized
+ * search request, and the cached hits are returned without contacting any content nodes.
+ * Entries expire after a fixed time to live, and are invalidated as soon as the active documents
+ * changes on any of the nodes which were queried to produce it, whether or not they returned hits.
+ *
+ * This class is multithread safe.
+ *
+ * @author agent
+ */
+class ResultCache {
+
+    private static final String HITS_METRIC = "dispatch_result_cache_hits";
+    private static final String MISSES_METRIC = "dispatch_result_cache_misses";
+    private static final String HIT_RATIO_METRIC = "dispatch_result_cache_hit_ratio";
+    private static final String SIZE_METRIC = "dispatch_result_cache_size";
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Map<Integer, Node> nodesByKey;
+    private final LongSupplier nanoClock;
+    private final Metric metric;
+    private final Metric.Context metricContext;
+    private final Map<Key, Entry> entries;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    ResultCache(int maxEntries, double ttlSeconds, SearchCluster searchCluster, Metric metric) {
+        this(maxEntries, ttlSeconds, searchCluster, metric, System::nanoTime);
+    }
+
+    ResultCache(int maxEntries, double ttlSeconds, SearchCluster searchCluster, Metric metric, LongSupplier nanoClock) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = (long) (ttlSeconds * 1_000_000_000L);
+        this.nodesByKey = new HashMap<>();
+        for (Group group : searchCluster.orderedGroups()) {
+            for (Node node : group.nodes()) {
+                nodesByKey.put(node.key(), node);
+            }
+        }
+        this.nanoClock = nanoClock;
+        this.metric = metric;
+        this.metricContext = metric.createContext(null);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > ResultCache.this.maxEntries;
+            }
+        };
+    }
+
+    /** Returns the key to cache the result of this query under, or empty if the result of this query should not be cached */
+    Optional<Key> keyOf(Query query, VespaBackEndSearcher searcher) {
+        if (query.getNoCache()) return Optional.empty();
+        if (query.getTraceLevel() > 0 || query.getExplainLevel() > 0) return Optional.empty();
+        if (query.getModel().getSearchPath() != null) return Optional.empty();
+        if (query.properties().getBoolean(com.yahoo.search.query.Model.ESTIMATE)) return Optional.empty();
+        if (GroupingExecutor.hasGroupingList(query)) return Optional.empty();
+        return Optional.of(new Key(ProtobufSerialization.serializeSearchRequestWithoutTimeout(query, searcher.getServerId()).bytes()));
+    }
+
+    /** Returns an invoker producing the cached result for this key if there is a valid one, or empty on a cache miss */
+    Optional<SearchInvoker> lookup(Key key) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && ! isValid(entry)) {
+                entries.remove(key);
+                entry = null;
+            }
+            if (entry != null) hits++; else misses++;
+        }
+        reportMetrics(entry != null);
+        return Optional.ofNullable(entry).map(CachedInvoker::new);
+    }
+
+    /** Returns an invoker which delegates to the given invoker, and stores its result in this if it is cacheable */
+    SearchInvoker caching(Key key, SearchInvoker delegate) {
+        return new CachingInvoker(key, delegate);
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private void store(Key key, InvokerResult result, int finalOffset, List<Integer> queriedNodes) {
+        Result searchResult = result.getResult();
+        if (searchResult.hits().getError() != null) return;
+        if (searchResult.hits().size() > 0) return; // Auxiliary hits, such as grouping
+        Coverage coverage = searchResult.getCoverage(false);
+        if (coverage == null || coverage.isDegraded()) return;
+        if (queriedNodes.isEmpty()) return; // No way to tell when the result becomes stale
+
+        List<LeanHit> hits = List.copyOf(result.getLeanHits());
+        int[] distributionKeys = queriedNodes.stream().mapToInt(Integer::intValue).distinct().toArray();
+        long[] generations = new long[distributionKeys.length];
+        for (int i = 0; i < distributionKeys.length; i++) {
+            Node node = nodesByKey.get(distributionKeys[i]);
+            if (node == null) return;
+            generations[i] = node.activeDocumentsGeneration();
+        }
+        Entry entry = new Entry(hits, searchResult.getTotalHitCount(), coverage, finalOffset,
+                                distributionKeys, generations, nanoClock.getAsLong() + ttlNanos);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    private boolean isValid(Entry entry) {
+        if (nanoClock.getAsLong() - entry.expiresAt > 0) return false;
+        for (int i = 0; i < entry.distributionKeys.length; i++) {
+            if (nodesByKey.get(entry.distributionKeys[i]).activeDocumentsGeneration() != entry.generations[i]) return false;
+        }
+        return true;
+    }
+
+    private void reportMetrics(boolean hit) {
+        long lookups;
+        long hitCount;
+        int size;
+        synchronized (entries) {
+            hitCount = hits;
+            lookups = hits + misses;
+            size = entries.size();
+        }
+        metric.add(hit ? HITS_METRIC : MISSES_METRIC, 1, metricContext);
+        metric.set(HIT_RATIO_METRIC, (double) hitCount / lookups, metricContext);
+        metric.set(SIZE_METRIC, size, metricContext);
+    }
+
+    /** A cache key wrapping the bytes of a serialized search request */
+    static final class Key {
+
+        private final byte[] request;
+        private final int hash;
+
+        Key(byte[] request) {
+            this.request = request;
+            this.hash = Arrays.hashCode(request);
+        }
+
+        @Override
+        public int hashCode() { return hash; }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if ( ! (o instanceof Key)) return false;
+            Key other = (Key) o;
+            return hash == other.hash && Arrays.equals(request, other.request);
+        }
+
+    }
+
+    private static final class Entry {
+
+        final List<LeanHit> hits;
+        final long totalHitCount;
+        final long docs;
+        final long active;
+        final long soonActive;
+        final int nodes;
+        final int resultSets;
+        final int nodesTried;
+        final int finalOffset;
+        final int[] distributionKeys;
+        final long[] generations;
+        final long expiresAt;
+
+        Entry(List<LeanHit> hits, long totalHitCount, Coverage coverage, int finalOffset,
+              int[] distributionKeys, long[] generations, long expiresAt) {
+            this.hits = hits;
+            this.totalHitCount = totalHitCount;
+            this.docs = coverage.getDocs();
+            this.active = coverage.getActive();
+            this.soonActive = coverage.getSoonActive();
+            this.nodes = coverage.getNodes();
+            this.resultSets = coverage.getResultSets();
+            this.nodesTried = coverage.getNodesTried();
+            this.finalOffset = finalOffset;
+            this.distributionKeys = distributionKeys;
+            this.generations = generations;
+            this.expiresAt = expiresAt;
+        }
+
+        Coverage coverage() {
+            Coverage coverage = new Coverage(docs, active, nodes, resultSets);
+            coverage.setNodesTried(nodesTried);
+            coverage.setSoonActive(soonActive);
+            return coverage;
+        }
+
+    }
+
+    /** Produces a result from a cache entry without contacting any nodes */
+    private static final class CachedInvoker extends SearchInvoker {
+
+        private final Entry entry;
+        private Query query;
+
+        CachedInvoker(Entry entry) {
+            super(Optional.empty());
+            this.entry = entry;
+        }
+
+        @Override
+        protected Object sendSearchRequest(Query query, Object context) {
+            this.query = query;
+            return context;
+        }
+
+        @Override
+        protected InvokerResult getSearchResult(Execution execution) {
+            InvokerResult result = new InvokerResult(query, entry.hits.size());
+            result.getResult().setTotalHitCount(entry.totalHitCount);
+            result.getResult().setCoverage(entry.coverage());
+            result.getLeanHits().addAll(entry.hits);
+            query.setOffset(entry.finalOffset);
+            query.trace(false, 2, "Result served from dispatcher result cache");
+            return result;
+        }
+
+        @Override
+        protected void release() {
+            // nothing to release
+        }
+
+    }
+
+    /**
+     * Delegates to the invoker doing the actual search, and caches the result.
+     * The key is passed on as the serialized request to send, such that the query is only serialized once.
+     */
+    private final class CachingInvoker extends SearchInvoker {
+
+        private final Key key;
+        private final SearchInvoker delegate;
+        private Query query;
+
+        CachingInvoker(Key key, SearchInvoker delegate) {
+            super(Optional.empty());
+            this.key = key;
+            this.delegate = delegate;
+        }
+
+        @Override
+        protected Object sendSearchRequest(Query query, Object context) throws IOException {
+            this.query = query;
+            return delegate.sendSearchRequest(query, context != null ? context : new PreserializedSearchRequest(key.request));
+        }
+
+        @Override
+        protected InvokerResult getSearchResult(Execution execution) throws IOException {
+            InvokerResult result = delegate.getSearchResult(execution);
+            store(key, result, query.getOffset(), delegate.queriedNodes());
+            return result;
+        }
+
+        @Override
+        protected void setFinalStatus(boolean success) {
+            super.setFinalStatus(success);
+            delegate.setFinalStatus(success);
+        }
+
+        @Override
+        protected void release() {
+            delegate.close();
+        }
+
+    }
+
+}
@@ -9,6 +9,7 @@ import com.yahoo.search.result.ErrorMessage;
 import com.yahoo.search.searchchain.Execution;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -64,6 +65,11 @@ public abstract class SearchInvoker extends CloseableInvoker {
         return node.map(Node::key);
     }
 
+    /** Returns the distribution keys of all the nodes which were queried to produce the result of this */
+    protected List<Integer> queriedNodes() {
+        return node.map(n -> List.of(n.key())).orElse(List.of());
+    }
+
     protected InvokerResult errorResult(Query query, ErrorMessage errorMessage) {
         Result error = new Result(query, errorMessage);
         Coverage errorCoverage = new Coverage(0, 0, 0);
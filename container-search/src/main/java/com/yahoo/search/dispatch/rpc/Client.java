@@ -3,6 +3,7 @@ package com.yahoo.search.dispatch.rpc;
 
 import com.yahoo.compress.CompressionType;
 import com.yahoo.prelude.fastsearch.FastHit;
+import com.yahoo.slime.Slime;
 
 import java.util.List;
 import java.util.Optional;
@@ -22,6 +23,10 @@ interface Client {
         void receive(ResponseOrError<ProtobufResponse> response);
     }
 
+    interface GetDocsumsReceiver {
+        void receive(ResponseOrError<GetDocsumsResponse> response);
+    }
+
     class ResponseOrError<T> {
 
         final Optional<T> response;
@@ -57,12 +62,29 @@ interface Client {
         private final int uncompressedSize;
         private final byte[] compressedSlimeBytes;
         private final List<FastHit> hitsContext;
+        private final Slime decoded;
+        private final int offset;
 
         public GetDocsumsResponse(byte compression, int uncompressedSize, byte[] compressedSlimeBytes, List<FastHit> hitsContext) {
             this.compression = compression;
             this.uncompressedSize = uncompressedSize;
             this.compressedSlimeBytes = compressedSlimeBytes;
             this.hitsContext = hitsContext;
+            this.decoded = null;
+            this.offset = 0;
+        }
+
+        /**
+         * Creates a response for some of the hits of a coalesced request, from the reply decoded once
+         * for all of them. The docsums of the given hits start at the given offset in the reply.
+         */
+        public GetDocsumsResponse(Slime decoded, int offset, List<FastHit> hitsContext) {
+            this.compression = CompressionType.NONE.getCode();
+            this.uncompressedSize = 0;
+            this.compressedSlimeBytes = null;
+            this.hitsContext = hitsContext;
+            this.decoded = decoded;
+            this.offset = offset;
         }
 
         public byte compression() {
@@ -81,11 +103,21 @@ interface Client {
             return hitsContext;
         }
 
+        /** Returns the decoded reply if this is part of a coalesced response, or empty if it must be decoded */
+        public Optional<Slime> decoded() {
+            return Optional.ofNullable(decoded);
+        }
+
+        /** Returns the index in the reply of the docsum of the first hit in the context */
+        public int offset() {
+            return offset;
+        }
+
     }
 
     interface NodeConnection {
         void getDocsums(List<FastHit> hits, CompressionType compression, int uncompressedLength, byte[] compressedSlime,
-                RpcFillInvoker.GetDocsumsResponseReceiver responseReceiver, double timeoutSeconds);
+                        GetDocsumsReceiver responseReceiver, double timeoutSeconds);
 
         void request(String rpcMethod, CompressionType compression, int uncompressedLength, byte[] compressedPayload,
                      ResponseReceiver responseReceiver, double timeoutSeconds);
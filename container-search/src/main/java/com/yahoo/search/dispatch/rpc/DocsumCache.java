@@ -0,0 +1,203 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.dispatch.rpc;
+
+import com.yahoo.compress.CompressionType;
+import com.yahoo.compress.Compressor;
+import com.yahoo.compress.DictionaryCompressor;
+import com.yahoo.data.access.Inspector;
+import com.yahoo.data.access.slime.SlimeAdapter;
+import com.yahoo.prelude.fastsearch.DocumentDatabase;
+import com.yahoo.prelude.fastsearch.FastHit;
+import com.yahoo.slime.BinaryFormat;
+import com.yahoo.slime.Injector;
+import com.yahoo.slime.Slime;
+import com.yahoo.slime.SlimeInserter;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * A container local cache of document summaries, keyed on global id, summary class, document type
+ * and the schema generation, which changes whenever the document database is reconfigured.
+ * Summaries are stored as compressed binary slime, and the cache is bounded by the total size of these.
+ * They are compressed either with LZ4, or with a dictionary trained in the background from the summaries stored.
+ * Entries expire after a fixed time to live, as changes to documents are not tracked.
+ *
+ * Only summaries which do not depend on the query may be stored in this, see
+ * {@link com.yahoo.prelude.fastsearch.VespaBackEndSearcher#summaryNeedsQuery}.
+ *
+ * This class is multithread safe.
+ *
+ * @author agent
+ */
+public class DocsumCache {
+
+    /** Approximate per entry overhead in addition to the summary bytes */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final Compressor compressor;
+    private final DictionaryCompressor dictionaryCompressor;
+    private final LongSupplier nanoClock;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(128, 0.75f, true);
+    private final Map<DocumentDatabase, Long> schemaGenerations = new WeakHashMap<>();
+    private long nextSchemaGeneration = 0;
+    private long bytes = 0;
+
+    public DocsumCache(long maxBytes, double ttlSeconds, Compressor compressor) {
+        this(maxBytes, ttlSeconds, compressor, null, System::nanoTime);
+    }
+
+    /**
+     * Creates a cache compressing summaries with the given dictionary compressor,
+     * which is trained from the summaries stored, or with LZ4 if it is null
+     */
+    public DocsumCache(long maxBytes, double ttlSeconds, Compressor compressor, DictionaryCompressor dictionaryCompressor) {
+        this(maxBytes, ttlSeconds, compressor, dictionaryCompressor, System::nanoTime);
+    }
+
+    DocsumCache(long maxBytes, double ttlSeconds, Compressor compressor, DictionaryCompressor dictionaryCompressor,
+                LongSupplier nanoClock) {
+        this.maxBytes = maxBytes;
+        this.ttlNanos = (long) (ttlSeconds * 1_000_000_000L);
+        this.compressor = compressor;
+        this.dictionaryCompressor = dictionaryCompressor;
+        this.nanoClock = nanoClock;
+    }
+
+    /** Returns the cached summary of the given class for this hit, or empty if it is not cached */
+    public Optional<Inspector> lookup(FastHit hit, String summaryClass, DocumentDatabase documentDb) {
+        Key key = new Key(hit.getRawGlobalId(), summaryClass, documentDb.getName(), schemaGeneration(documentDb));
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) return Optional.empty();
+            if (nanoClock.getAsLong() - entry.expiresAt > 0) {
+                remove(key);
+                return Optional.empty();
+            }
+        }
+        byte[] slimeBytes;
+        if (entry.compression == null) {
+            try {
+                slimeBytes = dictionaryCompressor.decompress(entry.data, entry.uncompressedSize);
+            }
+            catch (IllegalArgumentException e) { // compressed with a dictionary which is no longer kept
+                synchronized (this) {
+                    if (entries.get(key) == entry) remove(key);
+                }
+                return Optional.empty();
+            }
+        }
+        else {
+            slimeBytes = compressor.decompress(entry.data, entry.compression, entry.uncompressedSize);
+        }
+        return Optional.of(new SlimeAdapter(BinaryFormat.decode(slimeBytes).get()));
+    }
+
+    /** Stores the summary of the given class for this hit */
+    public void store(FastHit hit, String summaryClass, DocumentDatabase documentDb, com.yahoo.slime.Inspector summary) {
+        Slime slime = new Slime();
+        new Injector().inject(summary, new SlimeInserter(slime));
+        byte[] slimeBytes = BinaryFormat.encode(slime);
+        Key key = new Key(hit.getRawGlobalId(), summaryClass, documentDb.getName(), schemaGeneration(documentDb));
+        Entry entry;
+        if (dictionaryCompressor != null) {
+            dictionaryCompressor.sample(slimeBytes);
+            entry = new Entry(dictionaryCompressor.compress(slimeBytes), null, slimeBytes.length, nanoClock.getAsLong() + ttlNanos);
+        }
+        else {
+            Compressor.Compression compressed = compressor.compress(CompressionType.LZ4, slimeBytes);
+            entry = new Entry(compressed.data(), compressed.type(), compressed.uncompressedSize(), nanoClock.getAsLong() + ttlNanos);
+        }
+        if (entry.size() > maxBytes) return;
+
+        synchronized (this) {
+            remove(key);
+            entries.put(key, entry);
+            bytes += entry.size();
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().size();
+                eldest.remove();
+            }
+        }
+    }
+
+    /** Returns the number of summaries in this */
+    public synchronized int size() { return entries.size(); }
+
+    /** Returns the number of bytes currently used by this, including an estimate of the overhead */
+    public synchronized long bytes() { return bytes; }
+
+    private void remove(Key key) {
+        Entry removed = entries.remove(key);
+        if (removed != null) {
+            bytes -= removed.size();
+        }
+    }
+
+    private synchronized long schemaGeneration(DocumentDatabase documentDb) {
+        return schemaGenerations.computeIfAbsent(documentDb, db -> nextSchemaGeneration++);
+    }
+
+    private static final class Key {
+
+        private final byte[] gid;
+        private final String summaryClass;
+        private final String documentType;
+        private final long schemaGeneration;
+        private final int hash;
+
+        Key(byte[] gid, String summaryClass, String documentType, long schemaGeneration) {
+            this.gid = gid;
+            this.summaryClass = summaryClass;
+            this.documentType = documentType;
+            this.schemaGeneration = schemaGeneration;
+            this.hash = Objects.hash(Arrays.hashCode(gid), summaryClass, documentType, schemaGeneration);
+        }
+
+        @Override
+        public int hashCode() { return hash; }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if ( ! (o instanceof Key)) return false;
+            Key other = (Key) o;
+            return hash == other.hash
+                   && schemaGeneration == other.schemaGeneration
+                   && Arrays.equals(gid, other.gid)
+                   && Objects.equals(summaryClass, other.summaryClass)
+                   && Objects.equals(documentType, other.documentType);
+        }
+
+    }
+
+    private static final class Entry {
+
+        final byte[] data;
+        /** The compression of the data, or null if it is compressed by the dictionary compressor */
+        final CompressionType compression;
+        final int uncompressedSize;
+        final long expiresAt;
+
+        Entry(byte[] data, CompressionType compression, int uncompressedSize, long expiresAt) {
+            this.data = data;
+            this.compression = compression;
+            this.uncompressedSize = uncompressedSize;
+            this.expiresAt = expiresAt;
+        }
+
+        long size() { return data.length + ENTRY_OVERHEAD; }
+
+    }
+
+}
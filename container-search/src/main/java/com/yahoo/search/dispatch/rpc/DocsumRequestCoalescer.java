@@ -0,0 +1,239 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.dispatch.rpc;
+
+import com.yahoo.compress.CompressionType;
+import com.yahoo.compress.Compressor;
+import com.yahoo.concurrent.ThreadFactoryFactory;
+import com.yahoo.prelude.fastsearch.FastHit;
+import com.yahoo.search.dispatch.rpc.Client.GetDocsumsResponse;
+import com.yahoo.search.dispatch.rpc.Client.ResponseOrError;
+import com.yahoo.slime.BinaryFormat;
+import com.yahoo.slime.Slime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Coalesces getDocsums requests from concurrent queries to the same node, for the same summary class, document
+ * type and rank profile, into single requests, and gives each query the part of the reply which holds its hits.
+ * This reduces the number of small requests each content node must handle at high query rates with few hits.
+ *
+ * A request which finds no other request with the same parameters waiting is sent directly, unless another
+ * such request arrived within the coalescing window, as coalescing would otherwise only add latency. If it is held
+ * back, it waits at most the window for others to join it, or until the requests waiting reach the max hits.
+ * Requests for queries which have less than a hundred windows of time left are always sent directly.
+ *
+ * This class is multithread safe.
+ *
+ * @author agent
+ */
+class DocsumRequestCoalescer {
+
+    /** Requests are only held back for queries with at least this many windows of time left */
+    private static final long minTimeLeftInWindows = 100;
+
+    private final RpcResourcePool resourcePool;
+    private final long windowNanos;
+    private final int maxHits;
+    private final LongSupplier nanoClock;
+    private final ScheduledExecutorService scheduler;
+
+    /** Requests waiting to be sent and the last arrival time, by request parameters. Guarded by this. */
+    private final Map<Key, Slot> slots = new HashMap<>();
+
+    DocsumRequestCoalescer(RpcResourcePool resourcePool, double windowSeconds, int maxHits) {
+        this(resourcePool, windowSeconds, maxHits, System::nanoTime);
+    }
+
+    DocsumRequestCoalescer(RpcResourcePool resourcePool, double windowSeconds, int maxHits, LongSupplier nanoClock) {
+        this.resourcePool = resourcePool;
+        this.windowNanos = (long) (windowSeconds * 1_000_000_000L);
+        this.maxHits = maxHits;
+        this.nanoClock = nanoClock;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(ThreadFactoryFactory.getDaemonThreadFactory("docsum-coalescer"));
+    }
+
+    /**
+     * Requests the summaries of the given hits from a node as part of a coalesced request, if possible.
+     *
+     * @return true if the summaries are requested, and the response will be passed to the given receiver,
+     *         false if this could not coalesce the request, which must then be sent by the caller
+     */
+    boolean getDocsums(int nodeId, String summaryClass, String docType, String rankProfile,
+                       Optional<CompressionType> compression, List<FastHit> hits, Client.GetDocsumsReceiver receiver,
+                       long timeLeftMillis) {
+        if (hits.size() >= maxHits) return false;
+        if (TimeUnit.MILLISECONDS.toNanos(timeLeftMillis) < minTimeLeftInWindows * windowNanos) return false;
+
+        long now = nanoClock.getAsLong();
+        Part part = new Part(hits, receiver, now + TimeUnit.MILLISECONDS.toNanos(timeLeftMillis));
+        Key key = new Key(nodeId, summaryClass, docType, rankProfile, compression);
+        Batch full;
+        synchronized (this) {
+            Slot slot = slots.computeIfAbsent(key, __ -> new Slot());
+            long previousArrival = slot.lastArrival;
+            slot.lastArrival = now;
+            if (slot.batch == null) {
+                if (previousArrival == Long.MIN_VALUE || now - previousArrival > windowNanos) return false;
+                Batch batch = new Batch(key);
+                try {
+                    scheduler.schedule(() -> flush(batch), windowNanos, TimeUnit.NANOSECONDS);
+                }
+                catch (RejectedExecutionException e) { // shut down
+                    return false;
+                }
+                slot.batch = batch;
+            }
+            slot.batch.add(part);
+            if (slot.batch.hitCount < maxHits) return true;
+            full = slot.batch;
+            slot.batch = null;
+        }
+        send(full);
+        return true;
+    }
+
+    /** Returns the number of hits in requests which are waiting to be sent. For testing. */
+    synchronized int waitingHits() {
+        return slots.values().stream().mapToInt(slot -> slot.batch == null ? 0 : slot.batch.hitCount).sum();
+    }
+
+    /** Stops accepting new requests. Requests already waiting are sent at the end of their window. */
+    void shutdown() {
+        scheduler.shutdown();
+    }
+
+    private void flush(Batch batch) {
+        synchronized (this) {
+            Slot slot = slots.get(batch.key);
+            if (slot.batch != batch) return; // Already sent by the request which filled it
+            slot.batch = null;
+        }
+        send(batch);
+    }
+
+    private void send(Batch batch) {
+        Client.NodeConnection node = resourcePool.getConnection(batch.key.nodeId);
+        if (node == null) {
+            batch.receive(ResponseOrError.fromError("Could not fill hits from unknown node " + batch.key.nodeId));
+            return;
+        }
+        List<FastHit> hits = new ArrayList<>(batch.hitCount);
+        long deadline = Long.MAX_VALUE;
+        for (Part part : batch.parts) {
+            hits.addAll(part.hits);
+            deadline = Math.min(deadline, part.deadline);
+        }
+        byte[] serializedSlime = BinaryFormat.encode(RpcFillInvoker.toSlime(batch.key.rankProfile, batch.key.summaryClass,
+                                                                             batch.key.docType, null, null, hits));
+        Compressor.Compression compressionResult = resourcePool.compress(batch.key.compression,
+                                                                         RpcResourcePool.Payload.DOCSUM_REQUEST,
+                                                                         serializedSlime);
+        double timeoutSeconds = ((double) (deadline - nanoClock.getAsLong()) / 1_000_000.0 - 3.0) / 1000.0;
+        node.getDocsums(hits, compressionResult.type(), serializedSlime.length, compressionResult.data(), batch, timeoutSeconds);
+    }
+
+    /** The requests waiting to be coalesced for some request parameters, and the time the last of them arrived */
+    private static class Slot {
+
+        private Batch batch = null;
+        private long lastArrival = Long.MIN_VALUE;
+
+    }
+
+    /** Requests which are sent as one, and which passes each of them its part of the response */
+    private class Batch implements Client.GetDocsumsReceiver {
+
+        private final Key key;
+        private final List<Part> parts = new ArrayList<>();
+        private int hitCount = 0;
+
+        Batch(Key key) {
+            this.key = key;
+        }
+
+        void add(Part part) {
+            parts.add(part);
+            hitCount += part.hits.size();
+        }
+
+        @Override
+        public void receive(ResponseOrError<GetDocsumsResponse> responseOrError) {
+            if (responseOrError.error().isPresent()) {
+                for (Part part : parts)
+                    part.receiver.receive(responseOrError);
+                return;
+            }
+            GetDocsumsResponse response = responseOrError.response().get();
+            byte[] slimeBytes = resourcePool.compressor().decompress(response.compressedSlimeBytes(),
+                                                                     CompressionType.valueOf(response.compression()),
+                                                                     response.uncompressedSize());
+            Slime reply = BinaryFormat.decode(slimeBytes);
+            int offset = 0;
+            for (Part part : parts) {
+                part.receiver.receive(ResponseOrError.fromResponse(new GetDocsumsResponse(reply, offset, part.hits)));
+                offset += part.hits.size();
+            }
+        }
+
+    }
+
+    private static class Part {
+
+        private final List<FastHit> hits;
+        private final Client.GetDocsumsReceiver receiver;
+        private final long deadline;
+
+        Part(List<FastHit> hits, Client.GetDocsumsReceiver receiver, long deadline) {
+            this.hits = hits;
+            this.receiver = receiver;
+            this.deadline = deadline;
+        }
+
+    }
+
+    private static class Key {
+
+        private final int nodeId;
+        private final String summaryClass;
+        private final String docType;
+        private final String rankProfile;
+        private final Optional<CompressionType> compression;
+
+        Key(int nodeId, String summaryClass, String docType, String rankProfile, Optional<CompressionType> compression) {
+            this.nodeId = nodeId;
+            this.summaryClass = summaryClass;
+            this.docType = docType;
+            this.rankProfile = rankProfile;
+            this.compression = compression;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) return true;
+            if ( ! (o instanceof Key)) return false;
+            Key other = (Key) o;
+            return nodeId == other.nodeId &&
+                   Objects.equals(summaryClass, other.summaryClass) &&
+                   Objects.equals(docType, other.docType) &&
+                   Objects.equals(rankProfile, other.rankProfile) &&
+                   compression.equals(other.compression);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(nodeId, summaryClass, docType, rankProfile, compression);
+        }
+
+    }
+
+}
@@ -0,0 +1,21 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.dispatch.rpc;
+
+/**
+ * A search request serialized without the timeout, which may be passed as the context when sending a search request
+ * to an {@link RpcSearchInvoker}, to avoid serializing the query again.
+ *
+ * @author agent
+ */
+public final class PreserializedSearchRequest {
+
+    private final byte[] bytes;
+
+    public PreserializedSearchRequest(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /** Returns the serialized request. This must not be modified. */
+    public byte[] bytes() { return bytes; }
+
+}
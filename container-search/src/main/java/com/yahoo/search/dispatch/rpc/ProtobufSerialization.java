@@ -5,6 +5,7 @@ import ai.vespa.searchlib.searchprotocol.protobuf.SearchProtocol;
 import ai.vespa.searchlib.searchprotocol.protobuf.SearchProtocol.StringProperty;
 import ai.vespa.searchlib.searchprotocol.protobuf.SearchProtocol.TensorProperty;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.yahoo.data.access.simple.Value;
 import com.yahoo.data.access.slime.SlimeAdapter;
@@ -17,7 +18,6 @@ import com.yahoo.prelude.fastsearch.VespaBackEndSearcher;
 import com.yahoo.search.Query;
 import com.yahoo.search.Result;
 import com.yahoo.search.dispatch.InvokerResult;
-import com.yahoo.search.dispatch.LeanHit;
 import com.yahoo.search.grouping.vespa.GroupingExecutor;
 import com.yahoo.search.query.Model;
 import com.yahoo.search.query.QueryTree;
@@ -26,9 +26,10 @@ import com.yahoo.search.query.Sorting;
 import com.yahoo.search.query.Sorting.Order;
 import com.yahoo.search.result.Coverage;
 import com.yahoo.searchlib.aggregation.Grouping;
-import com.yahoo.slime.BinaryFormat;
 import com.yahoo.vespa.objects.BufferSerializer;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
@@ -39,18 +40,79 @@ public class ProtobufSerialization {
     private static final int INITIAL_SERIALIZATION_BUFFER_SIZE = 10 * 1024;
 
     static byte[] serializeSearchRequest(Query query, int hits, String serverId) {
-        return convertFromQuery(query, hits, serverId).toByteArray();
+        return convertFromQuery(query, hits, serverId, null).toByteArray();
     }
 
-    private static SearchProtocol.SearchRequest convertFromQuery(Query query, int hits, String serverId) {
-        var builder = SearchProtocol.SearchRequest.newBuilder().setHits(hits).setOffset(query.getOffset())
-                .setTimeout((int) query.getTimeLeft());
+    /**
+     * Serializes the search request into the given buffer, which is reused between queries.
+     *
+     * @return the number of bytes written to {@link RequestBuffer#request}
+     */
+    static int serializeSearchRequest(Query query, int hits, String serverId, RequestBuffer buffer) {
+        var request = convertFromQuery(query, hits, serverId, buffer);
+        int size = request.getSerializedSize();
+        var output = CodedOutputStream.newInstance(buffer.request(size), 0, size);
+        try {
+            request.writeTo(output);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed serializing search request", e);
+        }
+        output.checkNoSpaceLeft();
+        return size;
+    }
+
+    /**
+     * Returns the search request for the given query serialized without the timeout,
+     * such that identical queries produce identical bytes. This is also the start of the request sent
+     * to the nodes, such that it need only be serialized once, see {@link #serializeSearchRequest(PreserializedSearchRequest, Query, int, RequestBuffer)}.
+     */
+    public static PreserializedSearchRequest serializeSearchRequestWithoutTimeout(Query query, String serverId) {
+        return new PreserializedSearchRequest(createSearchRequestBuilder(query, query.getHits(), serverId, null).build().toByteArray());
+    }
+
+    /**
+     * Serializes the search request into the given buffer from a request serialized without the timeout,
+     * by appending the offset, hits and timeout, which take precedence over any values of these in the
+     * preserialized request when it is parsed.
+     *
+     * @return the number of bytes written to {@link RequestBuffer#request}
+     */
+    static int serializeSearchRequest(PreserializedSearchRequest request, Query query, int hits, RequestBuffer buffer) {
+        byte[] prefix = request.bytes();
+        int offset = query.getOffset();
+        int timeout = (int) query.getTimeLeft();
+        int size = prefix.length
+                   + CodedOutputStream.computeInt32Size(SearchProtocol.SearchRequest.OFFSET_FIELD_NUMBER, offset)
+                   + CodedOutputStream.computeInt32Size(SearchProtocol.SearchRequest.HITS_FIELD_NUMBER, hits)
+                   + CodedOutputStream.computeInt32Size(SearchProtocol.SearchRequest.TIMEOUT_FIELD_NUMBER, timeout);
+        byte[] target = buffer.request(size);
+        System.arraycopy(prefix, 0, target, 0, prefix.length);
+        var output = CodedOutputStream.newInstance(target, prefix.length, size - prefix.length);
+        try {
+            // Written even when zero, as they must override the values in the prefix
+            output.writeInt32(SearchProtocol.SearchRequest.OFFSET_FIELD_NUMBER, offset);
+            output.writeInt32(SearchProtocol.SearchRequest.HITS_FIELD_NUMBER, hits);
+            output.writeInt32(SearchProtocol.SearchRequest.TIMEOUT_FIELD_NUMBER, timeout);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed serializing search request", e);
+        }
+        output.checkNoSpaceLeft();
+        return size;
+    }
+
+    private static SearchProtocol.SearchRequest convertFromQuery(Query query, int hits, String serverId, RequestBuffer buffer) {
+        return createSearchRequestBuilder(query, hits, serverId, buffer).setTimeout((int) query.getTimeLeft()).build();
+    }
+
+    /** Returns a builder of the search request for the given query, with everything but the timeout set */
+    private static SearchProtocol.SearchRequest.Builder createSearchRequestBuilder(Query query, int hits, String serverId, RequestBuffer buffer) {
+        var builder = SearchProtocol.SearchRequest.newBuilder().setHits(hits).setOffset(query.getOffset());
 
         var documentDb = query.getModel().getDocumentDb();
         if (documentDb != null) {
             builder.setDocumentType(documentDb);
         }
-        builder.setQueryTreeBlob(serializeQueryTree(query.getModel().getQueryTree()));
+        builder.setQueryTreeBlob(serializeQueryTree(query.getModel().getQueryTree(), buffer));
 
         if (query.getGroupingSessionCache() || query.getRanking().getQueryCache()) {
             // TODO verify that the session key is included whenever rank properties would have been
@@ -77,7 +139,7 @@ public class ProtobufSerialization {
 
         mergeToSearchRequestFromRanking(query.getRanking(), builder);
 
-        return builder.build();
+        return builder;
     }
 
     public static int getTraceLevelForBackend(Query query) {
@@ -123,6 +185,15 @@ public class ProtobufSerialization {
                                                                            String serverId,
                                                                            String summaryClass,
                                                                            boolean includeQueryData) {
+        return createDocsumRequestBuilder(query, serverId, summaryClass, includeQueryData, null);
+    }
+
+    /** Creates a docsum request builder, serializing any query data with the given buffer, or with new buffers if it is null */
+    static SearchProtocol.DocsumRequest.Builder createDocsumRequestBuilder(Query query,
+                                                                           String serverId,
+                                                                           String summaryClass,
+                                                                           boolean includeQueryData,
+                                                                           RequestBuffer buffer) {
         var builder = SearchProtocol.DocsumRequest.newBuilder()
                 .setTimeout((int) query.getTimeLeft())
                 .setDumpFeatures(query.properties().getBoolean(Ranking.RANKFEATURES, false));
@@ -147,7 +218,7 @@ public class ProtobufSerialization {
             builder.setGeoLocation(ranking.getLocation().backendString());
         }
         if (includeQueryData) {
-            mergeQueryDataToDocsumRequest(query, builder);
+            mergeQueryDataToDocsumRequest(query, builder, buffer);
         }
         if (query.getTraceLevel() >= 3) {
             query.trace((includeQueryData ? "ProtoBuf: Resending " : "Not resending ") + "query during document summary fetching", 3);
@@ -164,11 +235,11 @@ public class ProtobufSerialization {
         return builder.build().toByteArray();
     }
 
-    private static void mergeQueryDataToDocsumRequest(Query query, SearchProtocol.DocsumRequest.Builder builder) {
+    private static void mergeQueryDataToDocsumRequest(Query query, SearchProtocol.DocsumRequest.Builder builder, RequestBuffer buffer) {
         var ranking = query.getRanking();
         var featureMap = ranking.getFeatures().asMap();
 
-        builder.setQueryTreeBlob(serializeQueryTree(query.getModel().getQueryTree()));
+        builder.setQueryTreeBlob(serializeQueryTree(query.getModel().getQueryTree(), buffer));
 
         MapConverter.convertMapPrimitives(featureMap, builder::addFeatureOverrides);
         MapConverter.convertMapTensors(featureMap, builder::addTensorFeatureOverrides);
@@ -184,21 +255,30 @@ public class ProtobufSerialization {
 
     static InvokerResult deserializeToSearchResult(byte[] payload, Query query, VespaBackEndSearcher searcher, int partId, int distKey)
             throws InvalidProtocolBufferException {
-        var protobuf = SearchProtocol.SearchReply.parseFrom(payload);
-        return convertToResult(query, protobuf, searcher.getDocumentDatabase(query), partId, distKey);
+        var reply = new SearchReplyView(payload, partId, distKey, query.getHits() + query.getOffset());
+        return convertToResult(query, reply, searcher.getDocumentDatabase(query));
     }
 
     static InvokerResult convertToResult(Query query, SearchProtocol.SearchReply protobuf,
                                                  DocumentDatabase documentDatabase, int partId, int distKey)
     {
-        InvokerResult result = new InvokerResult(query, protobuf.getHitsCount());
+        try {
+            var reply = new SearchReplyView(protobuf.toByteArray(), partId, distKey, protobuf.getHitsCount());
+            return convertToResult(query, reply, documentDatabase);
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalStateException("Could not read serialized " + protobuf, e);
+        }
+    }
+
+    private static InvokerResult convertToResult(Query query, SearchReplyView reply, DocumentDatabase documentDatabase) {
+        InvokerResult result = new InvokerResult(query, reply.hits());
 
-        result.getResult().setTotalHitCount(protobuf.getTotalHitCount());
-        result.getResult().setCoverage(convertToCoverage(protobuf));
+        result.getResult().setTotalHitCount(reply.totalHitCount());
+        result.getResult().setCoverage(convertToCoverage(reply));
 
-        var haveGrouping = protobuf.getGroupingBlob() != null && !protobuf.getGroupingBlob().isEmpty();
-        if (haveGrouping) {
-            BufferSerializer buf = new BufferSerializer(new GrowableByteBuffer(protobuf.getGroupingBlob().asReadOnlyByteBuffer()));
+        var groupingBlob = reply.groupingBlob();
+        if (groupingBlob.isPresent()) {
+            BufferSerializer buf = new BufferSerializer(new GrowableByteBuffer(groupingBlob.get()));
             int cnt = buf.getInt(null);
             ArrayList<Grouping> list = new ArrayList<>(cnt);
             for (int i = 0; i < cnt; i++) {
@@ -211,30 +291,23 @@ public class ProtobufSerialization {
             result.getResult().hits().add(hit);
         }
 
-        for (var replyHit : protobuf.getHitsList()) {
-            LeanHit hit = (replyHit.getSortData().isEmpty())
-                    ? new LeanHit(replyHit.getGlobalId().toByteArray(), partId, distKey, replyHit.getRelevance())
-                    : new LeanHit(replyHit.getGlobalId().toByteArray(), partId, distKey, replyHit.getRelevance(), replyHit.getSortData().toByteArray());
-            result.getLeanHits().add(hit);
-        }
-
-        var slimeTrace = protobuf.getSlimeTrace();
-        if (slimeTrace != null && !slimeTrace.isEmpty()) {
+        var slimeTrace = reply.slimeTrace();
+        if (slimeTrace.isPresent()) {
             var traces = new Value.ArrayValue();
-            traces.add(new SlimeAdapter(BinaryFormat.decode(slimeTrace.toByteArray()).get()));
+            traces.add(new SlimeAdapter(slimeTrace.get().get()));
             query.trace(traces, query.getTraceLevel());
         }
         return result;
     }
 
-    private static Coverage convertToCoverage(SearchProtocol.SearchReply protobuf) {
-        var coverage = new Coverage(protobuf.getCoverageDocs(), protobuf.getActiveDocs(), 1);
-        coverage.setNodesTried(1).setSoonActive(protobuf.getSoonActiveDocs());
+    private static Coverage convertToCoverage(SearchReplyView reply) {
+        var coverage = new Coverage(reply.coverageDocs(), reply.activeDocs(), 1);
+        coverage.setNodesTried(1).setSoonActive(reply.soonActiveDocs());
 
         int degradedReason = 0;
-        if (protobuf.getDegradedByMatchPhase())
+        if (reply.degradedByMatchPhase())
             degradedReason |= Coverage.DEGRADED_BY_MATCH_PHASE;
-        if (protobuf.getDegradedBySoftTimeout())
+        if (reply.degradedBySoftTimeout())
             degradedReason |= Coverage.DEGRADED_BY_TIMEOUT;
         coverage.setDegradedReason(degradedReason);
 
@@ -264,16 +337,18 @@ public class ProtobufSerialization {
         return builder.build();
     }
 
-    private static ByteString serializeQueryTree(QueryTree queryTree) {
-        int bufferSize = INITIAL_SERIALIZATION_BUFFER_SIZE;
+    /** Serializes the query tree with the given buffer, or with new buffers if it is null */
+    private static ByteString serializeQueryTree(QueryTree queryTree, RequestBuffer buffer) {
+        ByteBuffer treeBuffer = buffer != null ? buffer.queryTree() : ByteBuffer.allocate(INITIAL_SERIALIZATION_BUFFER_SIZE);
         while (true) {
             try {
-                ByteBuffer treeBuffer = ByteBuffer.allocate(bufferSize);
                 queryTree.encode(treeBuffer);
                 treeBuffer.flip();
-                return ByteString.copyFrom(treeBuffer);
+                ByteString serialized = ByteString.copyFrom(treeBuffer);
+                if (buffer != null) buffer.trim();
+                return serialized;
             } catch (java.nio.BufferOverflowException e) {
-                bufferSize *= 2;
+                treeBuffer = buffer != null ? buffer.growQueryTree() : ByteBuffer.allocate(treeBuffer.capacity() * 2);
             }
         }
     }
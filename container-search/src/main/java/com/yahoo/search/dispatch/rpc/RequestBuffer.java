@@ -0,0 +1,127 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.dispatch.rpc;
+
+import com.yahoo.jdisc.Metric;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per thread buffers which are reused for serializing search requests, such that the only allocation
+ * needed per query is the final, compressed payload which is shared by all nodes the query is sent to.
+ * Buffers which have grown larger than a limit are not kept after use, to avoid holding on to memory
+ * after a single large query.
+ *
+ * The buffers of each thread are obtained from a {@link Pool}, which counts the requests serialized
+ * and the bytes allocated, to make the allocation rate per query observable.
+ *
+ * @author agent
+ */
+class RequestBuffer {
+
+    private static final int INITIAL_SIZE = 10 * 1024;
+    private static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+    private final Pool pool;
+    private byte[] request;
+    private ByteBuffer queryTree;
+
+    private RequestBuffer(Pool pool) {
+        this.pool = pool;
+        request = allocate(INITIAL_SIZE);
+        queryTree = ByteBuffer.wrap(allocate(INITIAL_SIZE));
+    }
+
+    /** Returns a request buffer of at least the given size. The content is undefined. */
+    byte[] request(int size) {
+        if (request.length < size) {
+            request = allocate(Math.max(size, request.length * 2));
+        }
+        return request;
+    }
+
+    /** Returns a cleared buffer for serializing a query tree into */
+    ByteBuffer queryTree() {
+        queryTree.clear();
+        return queryTree;
+    }
+
+    /** Replaces the query tree buffer by one twice as large, and returns it */
+    ByteBuffer growQueryTree() {
+        queryTree = ByteBuffer.wrap(allocate(queryTree.capacity() * 2));
+        return queryTree;
+    }
+
+    /** Releases buffers which have grown too large to be retained. Must be called when serialization is done. */
+    void trim() {
+        if (request.length > MAX_RETAINED_SIZE) {
+            request = allocate(INITIAL_SIZE);
+        }
+        if (queryTree.capacity() > MAX_RETAINED_SIZE) {
+            queryTree = ByteBuffer.wrap(allocate(INITIAL_SIZE));
+        }
+    }
+
+    /** Records the serialization of a search request, and the allocation of the payload which is sent to the nodes */
+    void requestSerialized(int payloadBytes) {
+        pool.requestSerialized(payloadBytes);
+    }
+
+    private byte[] allocate(int size) {
+        pool.bufferAllocated(size);
+        return new byte[size];
+    }
+
+    /** The request buffers of each thread, with counters of their use which are also reported as metrics */
+    static class Pool {
+
+        private static final String SERIALIZED_REQUESTS_METRIC = "dispatch_serialized_requests";
+        private static final String BUFFER_BYTES_METRIC = "dispatch_request_buffer_bytes_allocated";
+        private static final String PAYLOAD_BYTES_METRIC = "dispatch_request_payload_bytes_allocated";
+
+        private final ThreadLocal<RequestBuffer> current = ThreadLocal.withInitial(() -> new RequestBuffer(this));
+
+        private final LongAdder serializedRequests = new LongAdder();
+        private final LongAdder bufferBytesAllocated = new LongAdder();
+        private final LongAdder payloadBytesAllocated = new LongAdder();
+
+        private final Metric metric;
+        private final Metric.Context metricContext;
+
+        /** Creates a pool which reports to the given metric, or only counts if it is null */
+        Pool(Metric metric) {
+            this.metric = metric;
+            this.metricContext = metric == null ? null : metric.createContext(null);
+        }
+
+        /** Returns the buffer of the calling thread */
+        RequestBuffer current() { return current.get(); }
+
+        /** Returns the number of search requests serialized with the buffers of this */
+        long serializedRequests() { return serializedRequests.sum(); }
+
+        /** Returns the number of bytes allocated for the buffers of this */
+        long bufferBytesAllocated() { return bufferBytesAllocated.sum(); }
+
+        /** Returns the number of bytes allocated for payloads of requests serialized with the buffers of this */
+        long payloadBytesAllocated() { return payloadBytesAllocated.sum(); }
+
+        private void requestSerialized(int payloadBytes) {
+            serializedRequests.increment();
+            payloadBytesAllocated.add(payloadBytes);
+            if (metric != null) {
+                metric.add(SERIALIZED_REQUESTS_METRIC, 1, metricContext);
+                metric.add(PAYLOAD_BYTES_METRIC, payloadBytes, metricContext);
+            }
+        }
+
+        private void bufferAllocated(int bytes) {
+            bufferBytesAllocated.add(bytes);
+            if (metric != null) {
+                metric.add(BUFFER_BYTES_METRIC, bytes, metricContext);
+            }
+        }
+
+    }
+
+}
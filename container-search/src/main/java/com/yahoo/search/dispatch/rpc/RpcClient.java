@@ -2,6 +2,7 @@
 package com.yahoo.search.dispatch.rpc;
 
 import com.yahoo.compress.CompressionType;
+import com.yahoo.jrt.CryptoEngine;
 import com.yahoo.jrt.DataValue;
 import com.yahoo.jrt.Int32Value;
 import com.yahoo.jrt.Int8Value;
@@ -26,7 +27,11 @@ class RpcClient implements Client {
     private final Supervisor supervisor;
 
     public RpcClient(String name, int transportThreads) {
-        supervisor = new Supervisor(new Transport(name, transportThreads));
+        this(name, transportThreads, false);
+    }
+
+    public RpcClient(String name, int transportThreads, boolean directBuffers) {
+        supervisor = new Supervisor(new Transport(name, null, CryptoEngine.createDefault(), transportThreads, true, 1, directBuffers));
     }
 
     @Override
@@ -61,7 +66,7 @@ class RpcClient implements Client {
 
         @Override
         public void getDocsums(List<FastHit> hits, CompressionType compression, int uncompressedLength,
-                               byte[] compressedSlime, RpcFillInvoker.GetDocsumsResponseReceiver responseReceiver, double timeoutSeconds) {
+                               byte[] compressedSlime, GetDocsumsReceiver responseReceiver, double timeoutSeconds) {
             Request request = new Request("proton.getDocsums");
             request.parameters().add(new Int8Value(compression.getCode()));
             request.parameters().add(new Int32Value(uncompressedLength));
@@ -110,9 +115,9 @@ class RpcClient implements Client {
         private final RpcNodeConnection node;
 
         /** The handler to which the response is forwarded */
-        private final RpcFillInvoker.GetDocsumsResponseReceiver handler;
+        private final GetDocsumsReceiver handler;
 
-        public RpcDocsumResponseWaiter(RpcNodeConnection node, RpcFillInvoker.GetDocsumsResponseReceiver handler) {
+        public RpcDocsumResponseWaiter(RpcNodeConnection node, GetDocsumsReceiver handler) {
             this.node = node;
             this.handler = handler;
         }
@@ -26,6 +26,7 @@ import com.yahoo.slime.Slime;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -43,11 +44,18 @@ public class RpcFillInvoker extends FillInvoker {
 
     private final DocumentDatabase documentDb;
     private final RpcResourcePool resourcePool;
+    /** Coalesces requests with those of other queries, or null if requests should be sent directly */
+    private final DocsumRequestCoalescer coalescer;
     private GetDocsumsResponseReceiver responseReceiver;
 
     RpcFillInvoker(RpcResourcePool resourcePool, DocumentDatabase documentDb) {
+        this(resourcePool, documentDb, null);
+    }
+
+    RpcFillInvoker(RpcResourcePool resourcePool, DocumentDatabase documentDb, DocsumRequestCoalescer coalescer) {
         this.documentDb = documentDb;
         this.resourcePool = resourcePool;
+        this.coalescer = coalescer;
     }
 
     @Override
@@ -55,8 +63,7 @@ public class RpcFillInvoker extends FillInvoker {
         ListMap<Integer, FastHit> hitsByNode = hitsByNode(result);
         Query query = result.getQuery();
 
-        CompressionType compression = CompressionType
-                .valueOf(query.properties().getString(RpcResourcePool.dispatchCompression, "LZ4").toUpperCase());
+        Optional<CompressionType> compression = resourcePool.requestedCompression(query);
 
         if (query.getTraceLevel() >= 3) {
             query.trace("Sending " + hitsByNode.size() + " summary fetch RPC requests", 3);
@@ -100,7 +107,8 @@ public class RpcFillInvoker extends FillInvoker {
     }
 
     /** Send a getDocsums request to a node. Responses will be added to the given receiver. */
-    private void sendGetDocsumsRequest(int nodeId, List<FastHit> hits, String summaryClass, CompressionType compression,
+    private void sendGetDocsumsRequest(int nodeId, List<FastHit> hits, String summaryClass,
+                                       Optional<CompressionType> compression,
                                        Result result, GetDocsumsResponseReceiver responseReceiver) {
         Client.NodeConnection node = resourcePool.getConnection(nodeId);
         if (node == null) {
@@ -113,15 +121,21 @@ public class RpcFillInvoker extends FillInvoker {
 
         Query query = result.getQuery();
         String rankProfile = query.getRanking().getProfile();
+        SessionId sessionId = query.getSessionId();
+        Location location = query.getRanking().getLocation();
+        if (coalescer != null && sessionId == null && location == null &&
+            coalescer.getDocsums(nodeId, summaryClass, query.getModel().getDocumentDb(), rankProfile, compression,
+                                 hits, responseReceiver, query.getTimeLeft()))
+            return;
+
         byte[] serializedSlime = BinaryFormat
-                .encode(toSlime(rankProfile, summaryClass, query.getModel().getDocumentDb(),
-                                query.getSessionId(), query.getRanking().getLocation(), hits));
+                .encode(toSlime(rankProfile, summaryClass, query.getModel().getDocumentDb(), sessionId, location, hits));
         double timeoutSeconds = ((double) query.getTimeLeft() - 3.0) / 1000.0;
-        Compressor.Compression compressionResult = resourcePool.compress(query, serializedSlime);
+        Compressor.Compression compressionResult = resourcePool.compress(compression, RpcResourcePool.Payload.DOCSUM_REQUEST, serializedSlime);
         node.getDocsums(hits, compressionResult.type(), serializedSlime.length, compressionResult.data(), responseReceiver, timeoutSeconds);
     }
 
-    static private Slime toSlime(String rankProfile, String summaryClass, String docType, SessionId sessionId, Location location, List<FastHit> hits) {
+    static Slime toSlime(String rankProfile, String summaryClass, String docType, SessionId sessionId, Location location, List<FastHit> hits) {
         Slime slime = new Slime();
         Cursor root = slime.setObject();
         if (summaryClass != null) {
@@ -147,7 +161,7 @@ public class RpcFillInvoker extends FillInvoker {
     }
 
     /** Receiver of the responses to a set of getDocsums requests */
-    public static class GetDocsumsResponseReceiver {
+    public static class GetDocsumsResponseReceiver implements Client.GetDocsumsReceiver {
 
         private final BlockingQueue<Client.ResponseOrError<GetDocsumsResponse>> responses;
         private final Compressor compressor;
@@ -167,6 +181,7 @@ public class RpcFillInvoker extends FillInvoker {
         }
 
         /** Called by a thread belonging to the client when a valid response becomes available */
+        @Override
         public void receive(Client.ResponseOrError<GetDocsumsResponse> response) {
             responses.add(response);
         }
@@ -214,9 +229,11 @@ public class RpcFillInvoker extends FillInvoker {
             }
             else {
                 Client.GetDocsumsResponse response = responseOrError.response().get();
+                if (response.decoded().isPresent())
+                    return fill(response.hitsContext(), response.offset(), summaryClass, documentDb, response.decoded().get().get());
                 CompressionType compression = CompressionType.valueOf(response.compression());
                 byte[] slimeBytes = compressor.decompress(response.compressedSlimeBytes(), compression, response.uncompressedSize());
-                return fill(response.hitsContext(), summaryClass, documentDb, slimeBytes);
+                return fill(response.hitsContext(), 0, summaryClass, documentDb, BinaryFormat.decode(slimeBytes).get());
             }
             return 0;
         }
@@ -231,8 +248,8 @@ public class RpcFillInvoker extends FillInvoker {
             });
         }
 
-        private int fill(List<FastHit> hits, String summaryClass, DocumentDatabase documentDb, byte[] slimeBytes) {
-            com.yahoo.slime.Inspector root = BinaryFormat.decode(slimeBytes).get();
+        private int fill(List<FastHit> hits, int offset, String summaryClass, DocumentDatabase documentDb,
+                         com.yahoo.slime.Inspector root) {
             com.yahoo.slime.Inspector errors = root.field("errors");
             boolean hasErrors = errors.valid() && (errors.entries() > 0);
             if (hasErrors) {
@@ -244,7 +261,7 @@ public class RpcFillInvoker extends FillInvoker {
                 return 0; // No summaries; Perhaps we requested a non-existing summary class
             int skippedHits = 0;
             for (int i = 0; i < hits.size(); i++) {
-                Inspector summary = summaries.entry(i).field("docsum");
+                Inspector summary = summaries.entry(offset + i).field("docsum");
                 if (summary.valid()) {
                     hits.get(i).setField(Hit.SDDOCNAME_FIELD, documentDb.getName());
                     hits.get(i).addSummary(documentDb.getDocsumDefinitionSet().getDocsum(summaryClass), summary);
@@ -1,6 +1,7 @@
 // Copyright 2019 Oath Inc. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
 package com.yahoo.search.dispatch.rpc;
 
+import com.yahoo.compress.DictionaryCompressor;
 import com.yahoo.prelude.fastsearch.DocumentDatabase;
 import com.yahoo.prelude.fastsearch.VespaBackEndSearcher;
 import com.yahoo.processing.request.CompoundName;
@@ -12,6 +13,8 @@ import com.yahoo.search.dispatch.InvokerFactory;
 import com.yahoo.search.dispatch.SearchInvoker;
 import com.yahoo.search.dispatch.searchcluster.Node;
 import com.yahoo.search.dispatch.searchcluster.SearchCluster;
+import com.yahoo.search.query.Ranking;
+import com.yahoo.vespa.config.search.DispatchConfig;
 
 import java.util.Optional;
 
@@ -25,9 +28,23 @@ public class RpcInvokerFactory extends InvokerFactory {
 
     private final RpcResourcePool rpcResourcePool;
 
+    /** The cache of document summaries, or null if summary caching is disabled */
+    private final DocsumCache docsumCache;
+
+    /** Coalesces summary requests of concurrent queries, or null if coalescing is disabled */
+    private final DocsumRequestCoalescer docsumCoalescer;
+
     public RpcInvokerFactory(RpcResourcePool rpcResourcePool, SearchCluster searchCluster) {
         super(searchCluster);
         this.rpcResourcePool = rpcResourcePool;
+        DispatchConfig dispatchConfig = (searchCluster != null) ? searchCluster.dispatchConfig() : null;
+        this.docsumCache = (dispatchConfig != null && dispatchConfig.docsumCacheMaxBytes() > 0)
+                ? new DocsumCache(dispatchConfig.docsumCacheMaxBytes(), dispatchConfig.docsumCacheTtl(), rpcResourcePool.compressor(),
+                                  dispatchConfig.docsumCacheDictionaryCompression() ? new DictionaryCompressor() : null)
+                : null;
+        this.docsumCoalescer = (dispatchConfig != null && dispatchConfig.docsumCoalescingWindow() > 0)
+                ? new DocsumRequestCoalescer(rpcResourcePool, dispatchConfig.docsumCoalescingWindow(), dispatchConfig.docsumCoalescingMaxHits())
+                : null;
     }
 
     @Override
@@ -45,15 +62,29 @@ public class RpcInvokerFactory extends InvokerFactory {
         boolean summaryNeedsQuery = searcher.summaryNeedsQuery(query);
         boolean useProtoBuf = query.properties().getBoolean(Dispatcher.dispatchProtobuf, true);
         boolean useDispatchDotSummaries = query.properties().getBoolean(dispatchSummaries, false);
+        // Only the slime requests, which do not carry the query, can be coalesced
+        boolean coalesce = docsumCoalescer != null && ! useDocsumCache(query, summaryNeedsQuery);
+
+        return  ((useDispatchDotSummaries || !useProtoBuf || coalesce) && ! summaryNeedsQuery)
+                ? new RpcFillInvoker(rpcResourcePool, searcher.getDocumentDatabase(query), docsumCoalescer)
+                : new RpcProtobufFillInvoker(rpcResourcePool, searcher.getDocumentDatabase(query), searcher.getServerId(), summaryNeedsQuery,
+                                             useDocsumCache(query, summaryNeedsQuery) ? docsumCache : null);
+    }
 
-        return  ((useDispatchDotSummaries || !useProtoBuf) && ! summaryNeedsQuery)
-                ? new RpcFillInvoker(rpcResourcePool, searcher.getDocumentDatabase(query))
-                : new RpcProtobufFillInvoker(rpcResourcePool, searcher.getDocumentDatabase(query), searcher.getServerId(), summaryNeedsQuery);
+    private boolean useDocsumCache(Query query, boolean summaryNeedsQuery) {
+        if (docsumCache == null || summaryNeedsQuery || query.getNoCache()) return false;
+        return ! query.properties().getBoolean(Ranking.RANKFEATURES, false);
+    }
+
+    @Override
+    public void release() {
+        if (docsumCoalescer != null)
+            docsumCoalescer.shutdown();
     }
 
     // for testing
     public FillInvoker createFillInvoker(DocumentDatabase documentDb) {
-        return new RpcFillInvoker(rpcResourcePool, documentDb);
+        return new RpcFillInvoker(rpcResourcePool, documentDb, docsumCoalescer);
     }
 
 }
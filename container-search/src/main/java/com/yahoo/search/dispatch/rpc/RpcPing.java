@@ -21,6 +21,7 @@ public class RpcPing implements Pinger, Client.ResponseReceiver {
 
     private static final Logger log = Logger.getLogger(RpcPing.class.getName());
     private static final String RPC_METHOD = "vespa.searchprotocol.ping";
+    /** Not selected adaptively, as the ping request is empty and there is nothing to gain by compressing it */
     private static final CompressionType PING_COMPRESSION = CompressionType.NONE;
     private static final boolean triggeredClassLoading = ErrorMessage.createBackendCommunicationError("TriggerClassLoading") instanceof ErrorMessage;
 
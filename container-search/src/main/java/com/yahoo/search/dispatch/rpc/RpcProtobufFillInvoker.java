@@ -25,6 +25,7 @@ import com.yahoo.slime.BinaryFormat;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -46,6 +47,7 @@ public class RpcProtobufFillInvoker extends FillInvoker {
     private final RpcResourcePool resourcePool;
     private final boolean summaryNeedsQuery;
     private final String serverId;
+    private final DocsumCache docsumCache;
 
     private BlockingQueue<Pair<Client.ResponseOrError<ProtobufResponse>, List<FastHit>>> responses;
 
@@ -55,23 +57,38 @@ public class RpcProtobufFillInvoker extends FillInvoker {
     /** The number of responses we should receive (and process) before this is complete */
     private int outstandingResponses;
 
+    /** Whether summaries are looked up in and stored to the summary cache for this fill */
+    private boolean useCache = false;
+
     RpcProtobufFillInvoker(RpcResourcePool resourcePool, DocumentDatabase documentDb, String serverId, boolean summaryNeedsQuery) {
+        this(resourcePool, documentDb, serverId, summaryNeedsQuery, null);
+    }
+
+    /**
+     * @param docsumCache the cache to use for summaries, or null to not use any. The cache must only be passed
+     *                    when summaries do not depend on the query
+     */
+    RpcProtobufFillInvoker(RpcResourcePool resourcePool, DocumentDatabase documentDb, String serverId,
+                           boolean summaryNeedsQuery, DocsumCache docsumCache) {
         this.documentDb = documentDb;
         this.resourcePool = resourcePool;
         this.serverId = serverId;
         this.summaryNeedsQuery = summaryNeedsQuery;
+        this.docsumCache = docsumCache;
     }
 
     @Override
     protected void sendFillRequest(Result result, String summaryClass) {
-        ListMap<Integer, FastHit> hitsByNode = hitsByNode(result);
+        useCache = docsumCache != null && ! documentDb.getDocsumDefinitionSet().getDocsum(summaryClass).isDynamic();
+        ListMap<Integer, FastHit> hitsByNode = hitsByNode(result, summaryClass);
 
         result.getQuery().trace(false, 5, "Sending ", hitsByNode.size(), " summary fetch requests with jrt/protobuf");
 
         outstandingResponses = hitsByNode.size();
         responses = new LinkedBlockingQueue<>(outstandingResponses);
 
-        var builder = ProtobufSerialization.createDocsumRequestBuilder(result.getQuery(), serverId, summaryClass, summaryNeedsQuery);
+        var builder = ProtobufSerialization.createDocsumRequestBuilder(result.getQuery(), serverId, summaryClass, summaryNeedsQuery,
+                                                                     resourcePool.requestBuffers().current());
         for (Map.Entry<Integer, List<FastHit>> nodeHits : hitsByNode.entrySet()) {
             var payload = ProtobufSerialization.serializeDocsumRequest(builder, nodeHits.getValue());
             sendDocsumsRequest(nodeHits.getKey(), nodeHits.getValue(), payload, result);
@@ -99,17 +116,32 @@ public class RpcProtobufFillInvoker extends FillInvoker {
         responses.add(new Pair<>(response, hitsContext));
     }
 
-    /** Return a map of hits by their search node (partition) id */
-    private static ListMap<Integer, FastHit> hitsByNode(Result result) {
+    /**
+     * Return a map of hits by their search node (partition) id. If the summary cache is used,
+     * hits found in the cache are filled right away and left out.
+     */
+    private ListMap<Integer, FastHit> hitsByNode(Result result, String summaryClass) {
         ListMap<Integer, FastHit> hitsByNode = new ListMap<>();
+        int cachedHits = 0;
         for (Iterator<Hit> i = result.hits().unorderedDeepIterator(); i.hasNext();) {
             Hit h = i.next();
             if (!(h instanceof FastHit))
                 continue;
             FastHit hit = (FastHit) h;
 
+            if (useCache) {
+                Optional<Inspector> cached = docsumCache.lookup(hit, summaryClass, documentDb);
+                if (cached.isPresent()) {
+                    fill(hit, summaryClass, cached.get());
+                    cachedHits++;
+                    continue;
+                }
+            }
             hitsByNode.put(hit.getDistributionKey(), hit);
         }
+        if (cachedHits > 0) {
+            result.getQuery().trace(false, 5, "Filled ", cachedHits, " hits from the summary cache");
+        }
         return hitsByNode;
     }
 
@@ -126,7 +158,7 @@ public class RpcProtobufFillInvoker extends FillInvoker {
 
         Query query = result.getQuery();
         double timeoutSeconds = ((double) query.getTimeLeft() - 3.0) / 1000.0;
-        Compressor.Compression compressionResult = resourcePool.compress(query, payload);
+        Compressor.Compression compressionResult = resourcePool.compress(query, RpcResourcePool.Payload.DOCSUM_REQUEST, payload);
         node.request(RPC_METHOD, compressionResult.type(), payload.length, compressionResult.data(), roe -> receive(roe, hits),
                 timeoutSeconds);
     }
@@ -202,9 +234,10 @@ public class RpcProtobufFillInvoker extends FillInvoker {
             for (int i = 0; i < hits.size(); i++) {
                 Inspector summary = summaries.entry(i).field("docsum");
                 if (summary.valid()) {
-                    hits.get(i).setField(Hit.SDDOCNAME_FIELD, documentDb.getName());
-                    hits.get(i).addSummary(documentDb.getDocsumDefinitionSet().getDocsum(summaryClass), summary);
-                    hits.get(i).setFilled(summaryClass);
+                    fill(hits.get(i), summaryClass, summary);
+                    if (useCache && ! hasErrors) {
+                        docsumCache.store(hits.get(i), summaryClass, documentDb, root.field("docsums").entry(i).field("docsum"));
+                    }
                 } else {
                     skippedHits++;
                 }
@@ -217,6 +250,12 @@ public class RpcProtobufFillInvoker extends FillInvoker {
         }
     }
 
+    private void fill(FastHit hit, String summaryClass, Inspector summary) {
+        hit.setField(Hit.SDDOCNAME_FIELD, documentDb.getName());
+        hit.addSummary(documentDb.getDocsumDefinitionSet().getDocsum(summaryClass), summary);
+        hit.setFilled(summaryClass);
+    }
+
     private void throwTimeout() throws TimeoutException {
         throw new TimeoutException("Timed out waiting for summary data. " + outstandingResponses + " responses outstanding.");
     }
@@ -4,9 +4,11 @@ package com.yahoo.search.dispatch.rpc;
 import com.google.common.collect.ImmutableMap;
 import com.google.inject.Inject;
 import com.yahoo.component.AbstractComponent;
+import com.yahoo.compress.AdaptiveCompressionPolicy;
 import com.yahoo.compress.CompressionType;
 import com.yahoo.compress.Compressor;
 import com.yahoo.compress.Compressor.Compression;
+import com.yahoo.jdisc.Metric;
 import com.yahoo.processing.request.CompoundName;
 import com.yahoo.search.Query;
 import com.yahoo.search.dispatch.FillInvoker;
@@ -14,10 +16,14 @@ import com.yahoo.search.dispatch.rpc.Client.NodeConnection;
 import com.yahoo.vespa.config.search.DispatchConfig;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * RpcResourcePool constructs {@link FillInvoker} objects that communicate with content nodes over RPC. It also contains
@@ -26,11 +32,35 @@ import java.util.Random;
  * @author ollivir
  */
 public class RpcResourcePool extends AbstractComponent {
-    /** The compression method which will be used with rpc dispatch. "lz4" (default) and "none" is supported. */
+    /**
+     * The compression method which will be used with rpc dispatch. "lz4" and "none" is supported.
+     * If this is not set, the compression of each kind of payload is selected by an {@link AdaptiveCompressionPolicy}.
+     */
     public final static CompoundName dispatchCompression = new CompoundName("dispatch.compression");
 
+    private static final String COMPRESSION_RATIO_METRIC = "dispatch_compression_ratio";
+    private static final String COMPRESSION_NANOS_PER_BYTE_METRIC = "dispatch_compression_nanos_per_byte";
+
+    /**
+     * The kinds of payloads sent to content nodes, for which the compression is selected separately.
+     * Pings are not included: Their request is empty, so they are always sent uncompressed.
+     */
+    public enum Payload {
+
+        SEARCH_REQUEST("search_request"),
+        DOCSUM_REQUEST("docsum_request");
+
+        private final String metricName;
+
+        Payload(String metricName) { this.metricName = metricName; }
+
+    }
+
     private final Compressor compressor = new Compressor(CompressionType.LZ4, 5, 0.95, 32);
+    private final Map<Payload, AdaptiveCompression> adaptiveCompression = new EnumMap<>(Payload.class);
     private final Random random = new Random();
+    private final Metric metric;
+    private final RequestBuffer.Pool requestBuffers;
 
     /** Connections to the search nodes this talks to, indexed by node id ("partid") */
     private final ImmutableMap<Integer, NodeConnectionPool> nodeConnectionPools;
@@ -41,12 +71,22 @@ public class RpcResourcePool extends AbstractComponent {
         nodeConnections.forEach((key, connection) -> builder.put(key, new NodeConnectionPool(Collections.singletonList(connection))));
         this.nodeConnectionPools = builder.build();
         client = null;
+        metric = null;
+        requestBuffers = new RequestBuffer.Pool(null);
+        initAdaptiveCompression();
     }
 
-    @Inject
     public RpcResourcePool(DispatchConfig dispatchConfig) {
+        this(dispatchConfig, null);
+    }
+
+    @Inject
+    public RpcResourcePool(DispatchConfig dispatchConfig, Metric metric) {
         super();
-        client = new RpcClient("dispatch-client", dispatchConfig.numJrtTransportThreads());
+        this.metric = metric;
+        this.requestBuffers = new RequestBuffer.Pool(metric);
+        initAdaptiveCompression();
+        client = new RpcClient("dispatch-client", dispatchConfig.numJrtTransportThreads(), dispatchConfig.jrtDirectBuffers());
 
         // Create rpc node connection pools indexed by the node distribution key
         var builder = new ImmutableMap.Builder<Integer, NodeConnectionPool>();
@@ -61,13 +101,55 @@ public class RpcResourcePool extends AbstractComponent {
         this.nodeConnectionPools = builder.build();
     }
 
+    private void initAdaptiveCompression() {
+        for (Payload payload : Payload.values())
+            adaptiveCompression.put(payload, new AdaptiveCompression(payload));
+    }
+
     public Compressor compressor() {
         return compressor;
     }
 
-    public Compression compress(Query query, byte[] payload) {
-        CompressionType compression = CompressionType.valueOf(query.properties().getString(dispatchCompression, "LZ4").toUpperCase());
-        return compressor.compress(compression, payload);
+    /** Returns the buffers used to serialize requests to content nodes */
+    RequestBuffer.Pool requestBuffers() {
+        return requestBuffers;
+    }
+
+    /** Returns the compression requested by the given query, or empty if it should be selected adaptively */
+    public Optional<CompressionType> requestedCompression(Query query) {
+        String compression = query.properties().getString(dispatchCompression);
+        return compression == null ? Optional.empty() : Optional.of(CompressionType.valueOf(compression.toUpperCase()));
+    }
+
+    public Compression compress(Query query, Payload payload, byte[] data) {
+        return compress(requestedCompression(query), payload, data);
+    }
+
+    /** Compresses a payload with the given compression, or with the one selected for this kind of payload if empty */
+    public Compression compress(Optional<CompressionType> compression, Payload payload, byte[] data) {
+        if (compression.isPresent())
+            return compressor.compress(compression.get(), data);
+        return adaptiveCompression.get(payload).compress(data, Optional.empty());
+    }
+
+    /**
+     * Compresses the first length bytes of a buffer which will be reused.
+     * The returned compression never refers to the given buffer.
+     */
+    public Compression compress(Query query, Payload payload, byte[] buffer, int length) {
+        Optional<CompressionType> compression = requestedCompression(query);
+        Compression compressed = compression.isPresent()
+                ? compressor.compress(compression.get(), buffer, Optional.of(length))
+                : adaptiveCompression.get(payload).compress(buffer, Optional.of(length));
+        if (compressed.data() == buffer) {
+            return new Compression(compressed.type(), compressed.uncompressedSize(), Arrays.copyOf(buffer, length));
+        }
+        return compressed;
+    }
+
+    /** Returns the policy selecting the compression of the given kind of payload */
+    AdaptiveCompressionPolicy compressionPolicy(Payload payload) {
+        return adaptiveCompression.get(payload).policy;
     }
 
     public NodeConnection getConnection(int nodeId) {
@@ -88,6 +170,29 @@ public class RpcResourcePool extends AbstractComponent {
         }
     }
 
+    /** Compresses one kind of payload adaptively, and reports the statistics each time they are updated */
+    private class AdaptiveCompression {
+
+        private final AdaptiveCompressionPolicy policy = new AdaptiveCompressionPolicy();
+        private final AtomicLong reportedWindows = new AtomicLong();
+        private final Metric.Context metricContext;
+
+        AdaptiveCompression(Payload payload) {
+            this.metricContext = metric == null ? null : metric.createContext(Map.of("payload", payload.metricName));
+        }
+
+        Compression compress(byte[] data, Optional<Integer> length) {
+            Compression compressed = compressor.compress(policy, data, length);
+            long windows = policy.windows();
+            if (metric != null && windows != reportedWindows.get() && reportedWindows.getAndSet(windows) != windows) {
+                metric.set(COMPRESSION_RATIO_METRIC, policy.compressionRatio(), metricContext);
+                metric.set(COMPRESSION_NANOS_PER_BYTE_METRIC, policy.nanosPerByte(), metricContext);
+            }
+            return compressed;
+        }
+
+    }
+
     private class NodeConnectionPool {
         private final List<Client.NodeConnection> connections;
 
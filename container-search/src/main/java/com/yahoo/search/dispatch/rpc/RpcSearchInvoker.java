@@ -71,10 +71,11 @@ public class RpcSearchInvoker extends SearchInvoker implements Client.ResponseRe
         if (incomingContext instanceof RpcContext)
             return (RpcContext)incomingContext;
 
-        return new RpcContext(resourcePool, query,
-                              ProtobufSerialization.serializeSearchRequest(query,
-                                                                           Math.min(query.getHits(), maxHits),
-                                                                           searcher.getServerId()));
+        int hits = Math.min(query.getHits(), maxHits);
+        if (incomingContext instanceof PreserializedSearchRequest)
+            return new RpcContext(resourcePool, query, hits, (PreserializedSearchRequest)incomingContext);
+
+        return new RpcContext(resourcePool, query, hits, searcher.getServerId());
     }
 
     @Override
@@ -121,12 +122,28 @@ public class RpcSearchInvoker extends SearchInvoker implements Client.ResponseRe
         return searcher.getName();
     }
 
+    /** The search request of a query, serialized and compressed once and shared by all nodes the query is sent to */
     static class RpcContext {
 
         final Compressor.Compression compressedPayload;
 
-        RpcContext(RpcResourcePool resourcePool, Query query, byte[] payload) {
-            compressedPayload = resourcePool.compress(query, payload);
+        RpcContext(RpcResourcePool resourcePool, Query query, int hits, String serverId) {
+            RequestBuffer buffer = resourcePool.requestBuffers().current();
+            int length = ProtobufSerialization.serializeSearchRequest(query, hits, serverId, buffer);
+            compressedPayload = compress(resourcePool, query, buffer, length);
+        }
+
+        RpcContext(RpcResourcePool resourcePool, Query query, int hits, PreserializedSearchRequest request) {
+            RequestBuffer buffer = resourcePool.requestBuffers().current();
+            int length = ProtobufSerialization.serializeSearchRequest(request, query, hits, buffer);
+            compressedPayload = compress(resourcePool, query, buffer, length);
+        }
+
+        private static Compressor.Compression compress(RpcResourcePool resourcePool, Query query, RequestBuffer buffer, int length) {
+            Compressor.Compression compressedPayload = resourcePool.compress(query, RpcResourcePool.Payload.SEARCH_REQUEST, buffer.request(length), length);
+            buffer.trim();
+            buffer.requestSerialized(compressedPayload.data().length);
+            return compressedPayload;
         }
 
     }
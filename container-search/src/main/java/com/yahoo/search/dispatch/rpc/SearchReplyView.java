@@ -0,0 +1,182 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.dispatch.rpc;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import com.yahoo.search.dispatch.LeanHitBuffer;
+import com.yahoo.slime.BinaryFormat;
+import com.yahoo.slime.Slime;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+/**
+ * A view of a serialized SearchProtocol.SearchReply, which is read straight from the decompressed payload
+ * instead of being parsed into protobuf objects. The global id, relevance and sort data of each hit are
+ * read into a {@link LeanHitBuffer}, such that only the hits which survive merging with the replies from
+ * other nodes are ever materialized as objects, while the grouping blob and the trace are only
+ * views into the payload until they are decoded.
+ *
+ * @author agent
+ */
+final class SearchReplyView {
+
+    // Field numbers of SearchReply and Hit in search_protocol.proto
+    private static final int TOTAL_HIT_COUNT = 1;
+    private static final int COVERAGE_DOCS = 2;
+    private static final int ACTIVE_DOCS = 3;
+    private static final int SOON_ACTIVE_DOCS = 4;
+    private static final int DEGRADED_BY_MATCH_PHASE = 5;
+    private static final int DEGRADED_BY_SOFT_TIMEOUT = 6;
+    private static final int HITS = 7;
+    private static final int GROUPING_BLOB = 8;
+    private static final int SLIME_TRACE = 9;
+    private static final int HIT_GLOBAL_ID = 1;
+    private static final int HIT_RELEVANCE = 2;
+    private static final int HIT_SORT_DATA = 3;
+
+    private final byte[] payload;
+    private final LeanHitBuffer hits;
+
+    private long totalHitCount = 0;
+    private long coverageDocs = 0;
+    private long activeDocs = 0;
+    private long soonActiveDocs = 0;
+    private boolean degradedByMatchPhase = false;
+    private boolean degradedBySoftTimeout = false;
+    private int groupingOffset = 0;
+    private int groupingLength = 0;
+    private int traceOffset = 0;
+    private int traceLength = 0;
+
+    /**
+     * Reads a serialized search reply.
+     *
+     * @param payload the serialized reply, which must not be modified while this is in use
+     * @param partId the part id of the node the reply is from
+     * @param distributionKey the distribution key of the node the reply is from
+     * @param expectedHits the number of hits the reply is expected to hold
+     * @throws InvalidProtocolBufferException if the payload is not a valid search reply
+     */
+    SearchReplyView(byte[] payload, int partId, int distributionKey, int expectedHits) throws InvalidProtocolBufferException {
+        this.payload = payload;
+        this.hits = new LeanHitBuffer(partId, distributionKey, expectedHits);
+        try {
+            read(CodedInputStream.newInstance(payload));
+        }
+        catch (InvalidProtocolBufferException e) {
+            throw e;
+        }
+        catch (IOException e) {
+            throw new InvalidProtocolBufferException(e);
+        }
+    }
+
+    private void read(CodedInputStream in) throws IOException {
+        for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+            int wireType = WireFormat.getTagWireType(tag);
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case TOTAL_HIT_COUNT:
+                    if (wireType != WireFormat.WIRETYPE_VARINT) break;
+                    totalHitCount = in.readInt64();
+                    continue;
+                case COVERAGE_DOCS:
+                    if (wireType != WireFormat.WIRETYPE_VARINT) break;
+                    coverageDocs = in.readInt64();
+                    continue;
+                case ACTIVE_DOCS:
+                    if (wireType != WireFormat.WIRETYPE_VARINT) break;
+                    activeDocs = in.readInt64();
+                    continue;
+                case SOON_ACTIVE_DOCS:
+                    if (wireType != WireFormat.WIRETYPE_VARINT) break;
+                    soonActiveDocs = in.readInt64();
+                    continue;
+                case DEGRADED_BY_MATCH_PHASE:
+                    if (wireType != WireFormat.WIRETYPE_VARINT) break;
+                    degradedByMatchPhase = in.readBool();
+                    continue;
+                case DEGRADED_BY_SOFT_TIMEOUT:
+                    if (wireType != WireFormat.WIRETYPE_VARINT) break;
+                    degradedBySoftTimeout = in.readBool();
+                    continue;
+                case HITS:
+                    if (wireType != WireFormat.WIRETYPE_LENGTH_DELIMITED) break;
+                    int limit = in.pushLimit(in.readRawVarint32());
+                    readHit(in);
+                    in.popLimit(limit);
+                    continue;
+                case GROUPING_BLOB:
+                    if (wireType != WireFormat.WIRETYPE_LENGTH_DELIMITED) break;
+                    groupingLength = in.readRawVarint32();
+                    groupingOffset = skipBytes(in, groupingLength);
+                    continue;
+                case SLIME_TRACE:
+                    if (wireType != WireFormat.WIRETYPE_LENGTH_DELIMITED) break;
+                    traceLength = in.readRawVarint32();
+                    traceOffset = skipBytes(in, traceLength);
+                    continue;
+            }
+            in.skipField(tag);
+        }
+    }
+
+    private void readHit(CodedInputStream in) throws IOException {
+        int gidOffset = 0, gidLength = 0, sortOffset = 0, sortLength = 0;
+        double relevance = 0;
+        for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+            int wireType = WireFormat.getTagWireType(tag);
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case HIT_GLOBAL_ID:
+                    if (wireType != WireFormat.WIRETYPE_LENGTH_DELIMITED) break;
+                    gidLength = in.readRawVarint32();
+                    gidOffset = skipBytes(in, gidLength);
+                    continue;
+                case HIT_RELEVANCE:
+                    if (wireType != WireFormat.WIRETYPE_FIXED64) break;
+                    relevance = in.readDouble();
+                    continue;
+                case HIT_SORT_DATA:
+                    if (wireType != WireFormat.WIRETYPE_LENGTH_DELIMITED) break;
+                    sortLength = in.readRawVarint32();
+                    sortOffset = skipBytes(in, sortLength);
+                    continue;
+            }
+            in.skipField(tag);
+        }
+        hits.add(payload, gidOffset, gidLength, relevance, sortOffset, sortLength);
+    }
+
+    /** Skips the given number of bytes, and returns the offset in the payload where they start */
+    private static int skipBytes(CodedInputStream in, int length) throws IOException {
+        if (length < 0) throw new InvalidProtocolBufferException("Negative length " + length);
+        int offset = in.getTotalBytesRead();
+        in.skipRawBytes(length);
+        return offset;
+    }
+
+    long totalHitCount() { return totalHitCount; }
+    long coverageDocs() { return coverageDocs; }
+    long activeDocs() { return activeDocs; }
+    long soonActiveDocs() { return soonActiveDocs; }
+    boolean degradedByMatchPhase() { return degradedByMatchPhase; }
+    boolean degradedBySoftTimeout() { return degradedBySoftTimeout; }
+
+    /** Returns the hits of this reply, in the order they are in the reply */
+    LeanHitBuffer hits() { return hits; }
+
+    /** Returns a read only view of the grouping blob of this, or empty if it has none */
+    Optional<ByteBuffer> groupingBlob() {
+        if (groupingLength == 0) return Optional.empty();
+        return Optional.of(ByteBuffer.wrap(payload, groupingOffset, groupingLength).slice().asReadOnlyBuffer());
+    }
+
+    /** Returns the trace of this, decoded from the payload, or empty if it has none */
+    Optional<Slime> slimeTrace() {
+        if (traceLength == 0) return Optional.empty();
+        return Optional.of(BinaryFormat.decode(payload, traceOffset, traceLength));
+    }
+
+}
@@ -21,6 +21,7 @@ public class Node {
     private final AtomicBoolean statusIsKnown = new AtomicBoolean(false);
     private final AtomicBoolean working = new AtomicBoolean(true);
     private final AtomicLong activeDocuments = new AtomicLong(0);
+    private final AtomicLong activeDocumentsGeneration = new AtomicLong(0);
     private final AtomicLong pingSequence = new AtomicLong(0);
     private final AtomicLong lastPong = new AtomicLong(0);
     private final AtomicBoolean isBlockingWrites = new AtomicBoolean(false);
@@ -61,7 +62,7 @@ public class Node {
         this.statusIsKnown.lazySet(true);
         this.working.lazySet(working);
         if ( ! working ) {
-            activeDocuments.set(0);
+            setActiveDocuments(0);
         }
     }
 
@@ -71,7 +72,14 @@ public class Node {
     }
 
     /** Updates the active documents on this node */
-    void setActiveDocuments(long activeDocuments) { this.activeDocuments.set(activeDocuments); }
+    public void setActiveDocuments(long activeDocuments) {
+        if (this.activeDocuments.getAndSet(activeDocuments) != activeDocuments) {
+            activeDocumentsGeneration.incrementAndGet();
+        }
+    }
+
+    /** Returns a number which is increased each time the active documents on this node changes */
+    public long activeDocumentsGeneration() { return activeDocumentsGeneration.get(); }
 
     /** Returns the active documents on this node. If unknown, 0 is returned. */
     long getActiveDocuments() { return activeDocuments.get(); }
@@ -8,6 +8,7 @@ import java.util.List;
 import java.util.Map;
 
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.yahoo.collections.ListMap;
 import com.yahoo.container.jdisc.ExtendedResponse;
 import com.yahoo.container.handler.Coverage;
@@ -36,7 +37,7 @@ public class HttpSearchResponse extends ExtendedResponse {
     private final Query query;
     private final Renderer<Result> rendererCopy;
     private final Timing timing;
-    private final HitCounts hitCounts;
+    private volatile HitCounts hitCounts;
     private final TraceNode trace;
 
     public HttpSearchResponse(int status, Result result, Query query, Renderer renderer) {
@@ -50,7 +51,11 @@ public class HttpSearchResponse extends ExtendedResponse {
         this.rendererCopy = renderer;
 
         this.timing = SearchResponse.createTiming(query, result);
-        this.hitCounts = SearchResponse.createHitCounts(query, result);
+        if (result.hits().complete().isDone())
+            this.hitCounts = SearchResponse.createHitCounts(query, result);
+        else // count the hits of an incrementally filled result when all have been added, before rendering closes it
+            result.hits().complete().addListener(() -> hitCounts = SearchResponse.createHitCounts(query, result),
+                                                 MoreExecutors.directExecutor());
         this.trace = trace;
         populateHeaders(headers(), result.getHeaders(false));
     }
@@ -144,7 +149,8 @@ public class HttpSearchResponse extends ExtendedResponse {
 
     @Override
     public HitCounts getHitCounts() {
-        return hitCounts;
+        HitCounts hitCounts = this.hitCounts;
+        return hitCounts != null ? hitCounts : SearchResponse.createHitCounts(query, result);
     }
 
     /**
@@ -0,0 +1,178 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.handler;
+
+import com.yahoo.component.chain.Chain;
+import com.yahoo.processing.rendering.Renderer;
+import com.yahoo.processing.request.CompoundName;
+import com.yahoo.search.Query;
+import com.yahoo.search.Result;
+import com.yahoo.search.Searcher;
+import com.yahoo.search.rendering.JsonRenderer;
+import com.yahoo.search.result.DefaultErrorHit;
+import com.yahoo.search.result.ErrorHit;
+import com.yahoo.search.result.ErrorMessage;
+import com.yahoo.search.result.Hit;
+import com.yahoo.search.result.HitGroup;
+import com.yahoo.search.searchchain.Execution;
+import com.yahoo.yolean.Exceptions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fills the hits of a result in chunks, in rank order, such that the hits of each chunk can be rendered as soon as
+ * it and all the chunks before it are filled, instead of after the summaries of all the hits have arrived.
+ * This reduces the time to the first byte of large results, and the amount of data buffered for each of them.
+ *
+ * The hits of the result are replaced by an asynchronous group holding the first chunk, which is filled by the
+ * calling thread. The following chunks, which double in size, are filled in parallel, and added to the group as
+ * they become ready, in order. Errors from filling them are added when the group is completed, so they are
+ * rendered after the hits, and do not change the status of the response.
+ *
+ * This is done when requested by setting {@link #INCREMENTAL}, for results consisting of a single list of
+ * hits in relevance order, without errors, when rendering to JSON, and tracing is off.
+ *
+ * @author agent
+ */
+class IncrementalFill {
+
+    private static final Logger log = Logger.getLogger(IncrementalFill.class.getName());
+
+    /** Set to true to fill and render results incrementally */
+    static final CompoundName INCREMENTAL = new CompoundName("fill.incremental");
+
+    /** The number of hits in the first chunk, which is filled before rendering starts */
+    static final CompoundName FIRST_CHUNK_SIZE = new CompoundName("fill.firstChunk");
+
+    private static final int defaultFirstChunkSize = 10;
+
+    private final HitGroup hits;
+    private final List<List<Hit>> chunks;
+    private final String summaryClass;
+
+    /** Chunks which are filled, but not yet added to the hits. Guarded by this. */
+    private final Result[] filled;
+    /** The number of chunks added to the hits. Guarded by this. */
+    private int added = 0;
+    private final List<ErrorMessage> errors = new ArrayList<>();
+
+    private IncrementalFill(HitGroup hits, List<List<Hit>> chunks, String summaryClass) {
+        this.hits = hits;
+        this.chunks = chunks;
+        this.summaryClass = summaryClass;
+        this.filled = new Result[chunks.size()];
+    }
+
+    /**
+     * Fills the given result incrementally, if this is requested and possible.
+     *
+     * @return whether the result is being filled incrementally. If false, the caller must fill it.
+     */
+    static boolean fill(Result result, String summaryClass, Chain<? extends Searcher> chain,
+                        Execution execution, Renderer<?> renderer, Executor executor) {
+        Query query = result.getQuery();
+        if ( ! query.properties().getBoolean(INCREMENTAL, false)) return false;
+        if ( ! (renderer instanceof JsonRenderer)) return false; // renders data as it arrives, and errors after it
+        if (query.getTraceLevel() > 0) return false;
+        if (query.getRanking().getSorting() != null) return false;
+        if (result.hits().getOrderer() != null) return false;
+        if (result.hits().getErrorHit() != null) return false;
+
+        List<Hit> ordered = result.hits().asList();
+        for (Hit hit : ordered)
+            if (hit instanceof HitGroup) return false;
+
+        int firstChunkSize = query.properties().getInteger(FIRST_CHUNK_SIZE, defaultFirstChunkSize);
+        if (firstChunkSize < 1 || ordered.size() <= firstChunkSize) return false;
+
+        List<List<Hit>> chunks = new ArrayList<>();
+        for (int start = 0, size = firstChunkSize; start < ordered.size(); start += size, size *= 2)
+            chunks.add(new ArrayList<>(ordered.subList(start, Math.min(start + size, ordered.size()))));
+
+        HitGroup hits = HitGroup.createAsync(result.hits().getId().toString());
+        hits.setQuery(query);
+        hits.setOrdered(true); // already in rank order, and must not be resorted while rendering
+        result.hits().forEachField(hits::setField);
+        result.setHits(hits);
+
+        new IncrementalFill(hits, chunks, summaryClass).start(result, chain, execution, executor);
+        return true;
+    }
+
+    private void start(Result result, Chain<? extends Searcher> chain, Execution execution, Executor executor) {
+        for (int i = 1; i < chunks.size(); i++) {
+            int chunk = i;
+            Query chunkQuery = result.getQuery().clone();
+            Runnable fill = () -> fillChunk(chunk, chunkQuery, new Execution(chain, execution.context()));
+            try {
+                executor.execute(fill);
+            }
+            catch (RejectedExecutionException e) {
+                fill.run();
+            }
+        }
+
+        // Fill the first chunk in this thread and add it directly, as rendering has not started
+        Result first = createChunkResult(0, result.getQuery());
+        execution.fill(first, summaryClass);
+        result.getElapsedTime().merge(first.getElapsedTime());
+        collectErrors(first);
+        for (Hit hit : chunks.get(0))
+            hits.add(hit);
+        chunkReady(0, null);
+    }
+
+    private void fillChunk(int chunk, Query query, Execution execution) {
+        Result result = createChunkResult(chunk, query);
+        try {
+            execution.fill(result, summaryClass);
+        }
+        catch (RuntimeException e) {
+            log.log(Level.WARNING, "Failed filling hits incrementally", e);
+            result.hits().addError(ErrorMessage.createUnspecifiedError("Failed filling hits: " +
+                                                                       Exceptions.toMessageString(e), e));
+        }
+        chunkReady(chunk, result);
+    }
+
+    private Result createChunkResult(int chunk, Query query) {
+        Result result = new Result(query);
+        for (Hit hit : chunks.get(chunk))
+            result.hits().add(hit);
+        return result;
+    }
+
+    /** Adds the hits of all chunks which are ready and preceded by added chunks, and completes when all are added */
+    private void chunkReady(int chunk, Result result) {
+        synchronized (this) {
+            if (chunk > 0) {
+                filled[chunk] = result;
+                if (chunk != added) return;
+            }
+            while (added < chunks.size()) {
+                if (added > 0) {
+                    if (filled[added] == null) return;
+                    collectErrors(filled[added]);
+                    filled[added] = null;
+                    hits.incoming().add(chunks.get(added));
+                }
+                added++;
+            }
+            if ( ! errors.isEmpty())
+                hits.incoming().add(new DefaultErrorHit(hits.getSource(), errors));
+        }
+        hits.incoming().markComplete();
+    }
+
+    private void collectErrors(Result result) {
+        ErrorHit errorHit = result.hits().getErrorHit();
+        if (errorHit == null) return;
+        for (ErrorMessage error : errorHit.errors())
+            errors.add(error);
+    }
+
+}
@@ -403,7 +403,9 @@ public class SearchHandler extends LoggingRequestHandler {
         Result result = execution.search(query);
 
         ensureQuerySet(result, query);
-        execution.fill(result, result.getQuery().getPresentation().getSummary());
+        String summaryClass = result.getQuery().getPresentation().getSummary();
+        if ( ! IncrementalFill.fill(result, summaryClass, searchChain, execution, renderer, executor()))
+            execution.fill(result, summaryClass);
 
         traceExecutionTimes(query, result);
         traceVespaVersion(query);
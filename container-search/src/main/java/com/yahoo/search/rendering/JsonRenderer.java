@@ -11,8 +11,8 @@ import com.yahoo.container.logging.TraceRenderer;
 import com.yahoo.data.JsonProducer;
 import com.yahoo.data.access.Inspectable;
 import com.yahoo.data.access.Inspector;
+import com.yahoo.data.access.ObjectTraverser;
 import com.yahoo.data.access.Type;
-import com.yahoo.data.access.simple.JsonRender;
 import com.yahoo.data.access.simple.Value;
 import com.yahoo.document.datatypes.FieldValue;
 import com.yahoo.document.datatypes.StringFieldValue;
@@ -25,6 +25,7 @@ import com.yahoo.processing.rendering.AsynchronousSectionedRenderer;
 import com.yahoo.processing.request.CompoundName;
 import com.yahoo.processing.response.Data;
 import com.yahoo.processing.response.DataList;
+import com.yahoo.processing.response.IncomingData;
 import com.yahoo.search.Query;
 import com.yahoo.search.Result;
 import com.yahoo.search.grouping.Continuation;
@@ -60,6 +61,8 @@ import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Optional;
@@ -123,6 +126,8 @@ public class JsonRenderer extends AsynchronousSectionedRenderer<Result> {
     private JsonGenerator generator;
     private FieldConsumer fieldConsumer;
     private Deque<Integer> renderedChildren;
+    /** Asynchronous groups which were without errors when their head was rendered */
+    private Set<HitGroup> groupsWithDeferredErrors;
     private boolean debugRendering;
     private LongSupplier timeSource;
     private OutputStream stream;
@@ -158,6 +163,7 @@ public class JsonRenderer extends AsynchronousSectionedRenderer<Result> {
         debugRendering = false;
         setGenerator(null, debugRendering);
         renderedChildren = null;
+        groupsWithDeferredErrors = null;
         timeSource = System::currentTimeMillis;
         stream = null;
     }
@@ -168,6 +174,7 @@ public class JsonRenderer extends AsynchronousSectionedRenderer<Result> {
         debugRendering = getDebugRendering(getResult().getQuery());
         setGenerator(generatorFactory.createGenerator(stream, JsonEncoding.UTF8), debugRendering);
         renderedChildren = new ArrayDeque<>();
+        groupsWithDeferredErrors = Collections.newSetFromMap(new IdentityHashMap<>());
         generator.writeStartObject();
         renderTrace(getExecution().trace());
         renderTiming();
@@ -253,6 +260,8 @@ public class JsonRenderer extends AsynchronousSectionedRenderer<Result> {
         ErrorHit errorHit = hitGroup.getErrorHit();
         if (errorHit != null)
             renderErrors(errorHit.errors());
+        else if ( ! (hitGroup.incoming() instanceof IncomingData.NullIncomingData))
+            groupsWithDeferredErrors.add(hitGroup); // errors arriving with the rest of the hits are rendered at the end
 
         // the framework will invoke begin methods as needed from here
     }
@@ -441,6 +450,11 @@ public class JsonRenderer extends AsynchronousSectionedRenderer<Result> {
     @Override
     public void endList(DataList<?> list) throws IOException {
         lessChildren();
+        if (groupsWithDeferredErrors.remove(list)) {
+            ErrorHit errorHit = ((HitGroup) list).getErrorHit();
+            if (errorHit != null)
+                renderErrors(errorHit.errors());
+        }
         generator.writeEndObject();
     }
 
@@ -604,38 +618,119 @@ public class JsonRenderer extends AsynchronousSectionedRenderer<Result> {
             return true;
         }
 
-        private static Inspector wrapAsMap(Inspector data) {
-            if (data.type() != Type.ARRAY) return null;
-            if (data.entryCount() == 0) return null;
-            Value.ObjectValue map = new Value.ObjectValue();
+        /** Returns whether the given data is a non-empty array of objects containing a string "key" and a "value" */
+        private static boolean isMap(Inspector data) {
+            if (data.type() != Type.ARRAY) return false;
+            if (data.entryCount() == 0) return false;
             for (int i = 0; i < data.entryCount(); i++) {
                 Inspector obj = data.entry(i);
-                if (obj.type() != Type.OBJECT) return null;
-                if (obj.fieldCount() != 2) return null;
-                Inspector key = obj.field("key");
-                Inspector value = obj.field("value");
-                if (key.type() != Type.STRING) return null;
-                if (! value.valid()) return null;
-                map.put(key.asString(), value);
+                if (obj.type() != Type.OBJECT) return false;
+                if (obj.fieldCount() != 2) return false;
+                if (obj.field("key").type() != Type.STRING) return false;
+                if ( ! obj.field("value").valid()) return false;
             }
-            return map;
+            return true;
+        }
+
+        private static boolean hasUniqueKeys(Inspector map) {
+            if (map.entryCount() < 2) return true;
+            Set<String> keys = new HashSet<>();
+            for (int i = 0; i < map.entryCount(); i++) {
+                if ( ! keys.add(map.entry(i).field("key").asString())) return false;
+            }
+            return true;
+        }
+
+        /** Returns the given map as an object where later values replace earlier ones with the same key */
+        private static Inspector wrapAsMap(Inspector map) {
+            Value.ObjectValue object = new Value.ObjectValue();
+            for (int i = 0; i < map.entryCount(); i++) {
+                Inspector entry = map.entry(i);
+                object.put(entry.field("key").asString(), entry.field("value"));
+            }
+            return object;
         }
 
         private void renderInspector(Inspector data) throws IOException {
-            Inspector asMap = wrapAsMap(data);
-            if (asMap != null) {
-                StringBuilder intermediate = new StringBuilder();
-                JsonRender.render(asMap, intermediate, true);
-                generator.writeRawValue(intermediate.toString());
-            } else {
+            if ( ! isMap(data))
                 renderInspectorDirect(data);
+            else if (hasUniqueKeys(data))
+                renderMapDirect(data);
+            else
+                renderInspectorDirect(wrapAsMap(data));
+        }
+
+        private void renderMapDirect(Inspector map) throws IOException {
+            generator.writeStartObject();
+            for (int i = 0; i < map.entryCount(); i++) {
+                Inspector entry = map.entry(i);
+                generator.writeFieldName(entry.field("key").asString());
+                renderInspectorDirect(entry.field("value"));
             }
+            generator.writeEndObject();
         }
 
+        /**
+         * Transcodes the given data directly to the generator, without creating intermediate values.
+         * Strings are written from their UTF-8 representation, which is what summary data holds.
+         */
         private void renderInspectorDirect(Inspector data) throws IOException {
-            StringBuilder intermediate = new StringBuilder();
-            JsonRender.render(data, intermediate, true);
-            generator.writeRawValue(intermediate.toString());
+            switch (data.type()) {
+                case EMPTY: generator.writeNull(); break;
+                case BOOL: generator.writeBoolean(data.asBool()); break;
+                case LONG: generator.writeNumber(data.asLong()); break;
+                case DOUBLE: renderDouble(data.asDouble()); break;
+                case STRING:
+                    byte[] utf8 = data.asUtf8();
+                    generator.writeUTF8String(utf8, 0, utf8.length);
+                    break;
+                case DATA: renderData(data.asData()); break;
+                case ARRAY:
+                    generator.writeStartArray();
+                    for (int i = 0; i < data.entryCount(); i++)
+                        renderInspectorDirect(data.entry(i));
+                    generator.writeEndArray();
+                    break;
+                case OBJECT:
+                    generator.writeStartObject();
+                    try {
+                        data.traverse((ObjectTraverser) (name, value) -> {
+                            try {
+                                generator.writeFieldName(name);
+                                renderInspectorDirect(value);
+                            }
+                            catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        });
+                    }
+                    catch (UncheckedIOException e) {
+                        throw e.getCause();
+                    }
+                    generator.writeEndObject();
+                    break;
+            }
+        }
+
+        private void renderDouble(double value) throws IOException {
+            if (Double.isFinite(value))
+                generator.writeNumber(value);
+            else
+                generator.writeNull();
+        }
+
+        private static final char[] hex = "0123456789ABCDEF".toCharArray();
+
+        /** Renders data as a string of hex digits prefixed by "0x" */
+        private void renderData(byte[] data) throws IOException {
+            char[] chars = new char[2 + data.length * 2];
+            chars[0] = '0';
+            chars[1] = 'x';
+            for (int i = 0; i < data.length; i++) {
+                chars[2 + i * 2] = hex[(data[i] >> 4) & 0xf];
+                chars[3 + i * 2] = hex[data[i] & 0xf];
+            }
+            generator.writeString(chars, 0, chars.length);
         }
 
         protected void renderFieldContents(Object field) throws IOException {
@@ -0,0 +1,223 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.dispatch;
+
+import com.yahoo.search.Query;
+import com.yahoo.search.Result;
+import com.yahoo.search.result.Coverage;
+import com.yahoo.search.searchchain.Execution;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author agent
+ */
+public class HedgedSearchInvokerTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void requireThatQueryIsNotHedgedWhenPrimaryCompletesInTime() throws Exception {
+        GroupInvoker primary = new GroupInvoker(1, true, Long.MAX_VALUE);
+        GroupInvoker hedge = new GroupInvoker(2, true, Long.MAX_VALUE);
+        HedgedSearchInvoker invoker = new HedgedSearchInvoker(primary, 1000, () -> Optional.of(hedge), executor);
+
+        Result result = invoker.search(new Query(), null);
+        invoker.close();
+
+        assertFalse(invoker.hedged());
+        assertEquals(1, result.getTotalHitCount());
+        assertFalse(hedge.sent);
+        assertTrue(primary.success);
+        assertTrue(primary.closed.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void requireThatResultOfHedgedQueryIsUsedWhenItCompletesFirst() throws Exception {
+        GroupInvoker primary = new GroupInvoker(1, false, Long.MAX_VALUE);
+        GroupInvoker hedge = new GroupInvoker(2, true, Long.MAX_VALUE);
+        HedgedSearchInvoker invoker = new HedgedSearchInvoker(primary, 1, () -> Optional.of(hedge), executor);
+
+        Result result = invoker.search(new Query(), null);
+        invoker.close();
+
+        assertTrue(invoker.hedged());
+        assertEquals(2, result.getTotalHitCount());
+        assertTrue(hedge.success);
+        assertTrue(hedge.closed.await(10, TimeUnit.SECONDS));
+        assertEquals("The primary invoker is closed only once it has produced its result",
+                     1, primary.closed.getCount());
+
+        primary.respond();
+        assertTrue(primary.closed.await(10, TimeUnit.SECONDS));
+        assertTrue("The result of the primary invoker is recorded", primary.success);
+    }
+
+    @Test
+    public void requireThatGroupsAreQueriedWithClonesAndTheResultIsMovedToTheCaller() throws Exception {
+        GroupInvoker primary = new GroupInvoker(1, false, Long.MAX_VALUE);
+        GroupInvoker hedge = new GroupInvoker(2, true, Long.MAX_VALUE);
+        HedgedSearchInvoker invoker = new HedgedSearchInvoker(primary, 1, () -> Optional.of(hedge), executor);
+        Query query = new Query();
+        query.setTraceLevel(1);
+
+        Result result = invoker.search(query, null);
+        invoker.close();
+
+        assertNotSame(query, primary.query);
+        assertNotSame(query, hedge.query);
+        assertNotSame(query.getModel().getExecution(), primary.query.getModel().getExecution());
+        assertSame(query, result.getQuery());
+        assertSame(query, result.hits().get(0).getQuery());
+        assertTrue("The trace of the group used is moved to the caller",
+                   query.getContext(false).getTrace().traceNode().toString().contains("Traced by group 2"));
+
+        primary.respond();
+        assertTrue(primary.closed.await(10, TimeUnit.SECONDS));
+        assertFalse("The trace of the group not used is not moved to the caller",
+                    query.getContext(false).getTrace().traceNode().toString().contains("Traced by group 1"));
+    }
+
+    @Test
+    public void requireThatFirstDegradedResultIsUsedWhenNeitherCompletes() throws Exception {
+        GroupInvoker primary = new GroupInvoker(1, false, Long.MAX_VALUE);
+        GroupInvoker hedge = new GroupInvoker(2, false, 10);
+        HedgedSearchInvoker invoker = new HedgedSearchInvoker(primary, 1, () -> Optional.of(hedge), executor);
+        Query query = new Query();
+        query.setTimeout(60000);
+
+        Result result = invoker.search(query, null);
+        invoker.close();
+
+        assertTrue(invoker.hedged());
+        assertEquals(2, result.getTotalHitCount());
+        assertTrue(result.getCoverage(false).isDegradedByTimeout());
+        assertTrue(hedge.closed.await(10, TimeUnit.SECONDS));
+
+        primary.respond();
+        assertTrue(primary.closed.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void requireThatPrimaryResultIsUsedWhenHedgingIsNotPossible() throws Exception {
+        GroupInvoker primary = new GroupInvoker(1, false, 10);
+        HedgedSearchInvoker invoker = new HedgedSearchInvoker(primary, 1, Optional::empty, executor);
+
+        Result result = invoker.search(new Query(), null);
+        invoker.close();
+
+        assertFalse(invoker.hedged());
+        assertEquals(1, result.getTotalHitCount());
+        assertTrue(primary.closed.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void requireThatHedgeDelayIsMeasuredFromSendTime() throws Exception {
+        GroupInvoker primary = new GroupInvoker(1, false, Long.MAX_VALUE);
+        GroupInvoker hedge = new GroupInvoker(2, true, Long.MAX_VALUE);
+        long[] now = { 0 };
+        HedgedSearchInvoker invoker = new HedgedSearchInvoker(primary, 30000, () -> Optional.of(hedge), executor) {
+            @Override
+            protected long currentTime() { return now[0]; }
+        };
+        Query query = new Query();
+        query.setTimeout(60000);
+
+        invoker.sendSearchRequest(query, null);
+        now[0] += 30000;
+        long start = System.currentTimeMillis();
+        InvokerResult result = invoker.getSearchResult(null);
+        invoker.close();
+
+        assertTrue(invoker.hedged());
+        assertEquals(2, result.getResult().getTotalHitCount());
+        assertTrue(System.currentTimeMillis() - start < 30000);
+        primary.respond();
+    }
+
+    /**
+     * An invoker of a group, which either completes as soon as the query is sent, or once told to respond.
+     * Until then, it waits for its own timeout, after which it produces a result degraded by timeout.
+     */
+    private static class GroupInvoker extends SearchInvoker {
+
+        private final long totalHits;
+        private final boolean completes;
+        private final long timeoutMs;
+        private final CountDownLatch response = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+        private volatile Query query;
+        volatile boolean sent = false;
+        volatile boolean success = false;
+
+        GroupInvoker(long totalHits, boolean completes, long timeoutMs) {
+            super(Optional.empty());
+            this.totalHits = totalHits;
+            this.completes = completes;
+            this.timeoutMs = timeoutMs;
+        }
+
+        void respond() {
+            response.countDown();
+        }
+
+        @Override
+        protected Object sendSearchRequest(Query query, Object context) {
+            this.query = query;
+            sent = true;
+            if (completes) {
+                respond();
+                responseAvailable();
+            }
+            return context;
+        }
+
+        @Override
+        protected InvokerResult getSearchResult(Execution execution) {
+            boolean responded;
+            try {
+                responded = response.await(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                responded = false;
+            }
+            query.trace("Traced by group " + totalHits, 1);
+            InvokerResult result = new InvokerResult(query, 10);
+            result.getResult().setTotalHitCount(totalHits);
+            result.getLeanHits().add(new LeanHit(new byte[12], 0, 0, 1.0));
+            Coverage coverage = new Coverage(responded ? 10 : 5, 10, 1, 1);
+            if ( ! responded) {
+                coverage.setDegradedReason(Coverage.DEGRADED_BY_TIMEOUT);
+            }
+            result.getResult().setCoverage(coverage);
+            return result;
+        }
+
+        @Override
+        protected void setFinalStatus(boolean success) {
+            this.success = success;
+        }
+
+        @Override
+        protected void release() {
+            closed.countDown();
+        }
+
+    }
+
+}
@@ -0,0 +1,49 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.dispatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author agent
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void requireThatPercentilesAreBucketUpperBounds() {
+        LatencyHistogram histogram = new LatencyHistogram(1000);
+        assertEquals(0.0, histogram.percentile(99), 0.0);
+        for (int i = 0; i < 95; i++) {
+            histogram.add(4.0);
+        }
+        for (int i = 0; i < 5; i++) {
+            histogram.add(1000.0);
+        }
+        assertEquals(100, histogram.samples());
+        assertEquals(4.0, histogram.percentile(50), 0.0);
+        assertEquals(4.0, histogram.percentile(95), 0.0);
+        assertEquals(1024.0, histogram.percentile(99), 0.0);
+        histogram.add(0.1);
+        assertEquals(1.0, histogram.percentile(0.5), 0.0);
+        histogram.add(1e9);
+        assertEquals(65536.0, histogram.percentile(100), 0.0);
+    }
+
+    @Test
+    public void requireThatOldSamplesAreDecayed() {
+        LatencyHistogram histogram = new LatencyHistogram(100);
+        for (int i = 0; i < 199; i++) {
+            histogram.add(100.0);
+        }
+        assertEquals(199, histogram.samples());
+        histogram.add(100.0);
+        assertEquals(100, histogram.samples());
+        for (int i = 0; i < 100; i++) {
+            histogram.add(10.0);
+        }
+        assertEquals(11.3, histogram.percentile(50), 0.1);
+        assertEquals(107.6, histogram.percentile(51), 0.1);
+    }
+
+}
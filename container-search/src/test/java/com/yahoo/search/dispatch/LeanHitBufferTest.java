@@ -0,0 +1,68 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.dispatch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LeanHitBufferTest {
+
+    private static final byte [] gidA = {'a'};
+    private static final byte [] gidB = {'b', 'b'};
+    private static final byte [] gidC = {'c'};
+
+    @Test
+    public void requireThatHitsArePackedAndMaterialized() {
+        LeanHitBuffer buffer = new LeanHitBuffer(3, 7, 1);
+        buffer.add(gidA, 3.0, null);
+        buffer.add(gidB, Double.NaN, null);
+        buffer.add(gidC, 1.0, new byte[] {1, 2});
+        assertEquals(3, buffer.size());
+        assertArrayEquals(gidB, buffer.getGid(1));
+        assertEquals(Double.NEGATIVE_INFINITY, buffer.getRelevance(1), 0.0);
+        assertFalse(buffer.hasSortData(0));
+        assertNull(buffer.getSortData(0));
+        assertArrayEquals(new byte[] {1, 2}, buffer.getSortData(2));
+
+        LeanHit hit = buffer.get(2);
+        assertArrayEquals(gidC, hit.getGid());
+        assertEquals(1.0, hit.getRelevance(), 0.0);
+        assertEquals(3, hit.getPartId());
+        assertEquals(7, hit.getDistributionKey());
+        assertTrue(hit.hasSortData());
+    }
+
+    @Test
+    public void requireThatOrderingIsTheSameAsForLeanHits() {
+        LeanHitBuffer left = new LeanHitBuffer(0, 0, 4);
+        LeanHitBuffer right = new LeanHitBuffer(0, 1, 4);
+        left.add(gidA, 1.0, null);
+        left.add(gidB, 1.0, null);
+        right.add(gidA, 1.0, null);
+        right.add(gidA, 0.5, null);
+        for (int i = 0; i < left.size(); i++) {
+            for (int j = 0; j < right.size(); j++) {
+                int expected = Integer.signum(left.get(i).compareTo(right.get(j)));
+                assertEquals(expected, Integer.signum(left.compare(i, right, j)));
+                assertEquals(expected, Integer.signum(left.compare(i, right.get(j))));
+            }
+        }
+        assertEquals(0, left.compare(0, right, 0));
+    }
+
+    @Test
+    public void requireThatSortDataTakesPrecedence() {
+        LeanHitBuffer left = new LeanHitBuffer(0, 0, 2);
+        LeanHitBuffer right = new LeanHitBuffer(0, 0, 2);
+        left.add(gidA, 0.0, gidB);
+        right.add(gidC, 5.0, gidA);
+        assertTrue(left.compare(0, right, 0) > 0);
+        assertTrue(right.compare(0, left, 0) < 0);
+        assertTrue(left.compare(0, new LeanHit(gidC, 0, 0, 5.0, gidC)) < 0);
+    }
+
+}
@@ -0,0 +1,108 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.dispatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares merging partial results pairwise, as they arrive, with the k-way merge done by {@link LeanHitMerger}
+ * for varying node and hit counts.
+ *
+ * @author agent
+ */
+public class LeanHitMergeBenchmark {
+
+    private static final int[] nodeCounts = { 4, 16, 64 };
+    private static final int[] hitCounts = { 10, 100, 400 };
+
+    public void benchmark() {
+        for (int nodes : nodeCounts) {
+            for (int hits : hitCounts) {
+                List<List<LeanHit>> partials = createPartials(nodes, hits);
+                long pairwise = run(partials, hits, true);
+                long kway = run(partials, hits, false);
+                System.out.println(String.format("nodes=%3d hits=%3d: pairwise %8d ns/query, k-way %8d ns/query",
+                                                 nodes, hits, pairwise, kway));
+            }
+        }
+    }
+
+    private long run(List<List<LeanHit>> partials, int hits, boolean pairwise) {
+        int warmup = 2000;
+        int runs = 5000;
+        long ignore = 0;
+        for (int i = 0; i < warmup; i++)
+            ignore += merge(partials, hits, pairwise);
+        long startTime = System.nanoTime();
+        for (int i = 0; i < runs; i++)
+            ignore += merge(partials, hits, pairwise);
+        long totalTime = System.nanoTime() - startTime;
+        if (ignore == 42) System.out.println("Ignore this");
+        return totalTime / runs;
+    }
+
+    private static int merge(List<List<LeanHit>> partials, int hits, boolean pairwise) {
+        if (pairwise) {
+            List<LeanHit> merged = new ArrayList<>();
+            for (List<LeanHit> partial : partials)
+                merged = mergePairwise(merged, partial, hits);
+            return merged.size();
+        }
+        LeanHitMerger merger = new LeanHitMerger();
+        for (List<LeanHit> partial : partials)
+            merger.add(partial);
+        return merger.merge(0, hits).size();
+    }
+
+    /** The merge previously done in InterleavedSearchInvoker for each arriving partial result */
+    private static List<LeanHit> mergePairwise(List<LeanHit> current, List<LeanHit> partial, int needed) {
+        if (current.isEmpty()) return partial;
+        if (partial.isEmpty()) return current;
+        List<LeanHit> merged = new ArrayList<>(needed);
+        int indexCurrent = 0;
+        int indexPartial = 0;
+        while (indexCurrent < current.size() && indexPartial < partial.size() && merged.size() < needed) {
+            LeanHit incomingHit = partial.get(indexPartial);
+            LeanHit currentHit = current.get(indexCurrent);
+            int cmpRes = currentHit.compareTo(incomingHit);
+            if (cmpRes < 0) {
+                merged.add(currentHit);
+                indexCurrent++;
+            } else if (cmpRes > 0) {
+                merged.add(incomingHit);
+                indexPartial++;
+            } else {
+                merged.add(currentHit);
+                indexCurrent++;
+                indexPartial++;
+            }
+        }
+        while ((indexCurrent < current.size()) && (merged.size() < needed))
+            merged.add(current.get(indexCurrent++));
+        while ((indexPartial < partial.size()) && (merged.size() < needed))
+            merged.add(partial.get(indexPartial++));
+        return merged;
+    }
+
+    private static List<List<LeanHit>> createPartials(int nodes, int hits) {
+        Random random = new Random(nodes * 1000L + hits);
+        List<List<LeanHit>> partials = new ArrayList<>(nodes);
+        for (int node = 0; node < nodes; node++) {
+            List<LeanHit> partial = new ArrayList<>(hits);
+            for (int i = 0; i < hits; i++) {
+                byte[] gid = new byte[12];
+                random.nextBytes(gid);
+                partial.add(new LeanHit(gid, 0, node, random.nextDouble()));
+            }
+            partial.sort(LeanHit::compareTo);
+            partials.add(partial);
+        }
+        return partials;
+    }
+
+    public static void main(String[] args) {
+        new LeanHitMergeBenchmark().benchmark();
+    }
+
+}
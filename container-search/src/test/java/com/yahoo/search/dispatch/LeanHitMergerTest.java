@@ -0,0 +1,100 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.dispatch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LeanHitMergerTest {
+
+    private static List<LeanHit> hits(int distributionKey, double ... relevances) {
+        List<LeanHit> hits = new ArrayList<>();
+        for (double relevance : relevances) {
+            byte [] gid = {(byte) distributionKey, (byte) relevance};
+            hits.add(new LeanHit(gid, 0, distributionKey, relevance));
+        }
+        return hits;
+    }
+
+    private static void assertRelevances(List<LeanHit> hits, double ... expected) {
+        assertEquals(expected.length, hits.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], hits.get(i).getRelevance(), 0.0);
+        }
+    }
+
+    @Test
+    public void requireThatEmptyMergeGivesEmptyResult() {
+        LeanHitMerger merger = new LeanHitMerger();
+        merger.add(hits(0));
+        assertEquals(0, merger.partialCount());
+        assertTrue(merger.merge(0, 10).isEmpty());
+    }
+
+    @Test
+    public void requireThatSinglePartialIsWindowed() {
+        LeanHitMerger merger = new LeanHitMerger();
+        merger.add(hits(0, 9, 7, 5, 3, 1));
+        assertRelevances(merger.merge(1, 3), 7, 5, 3);
+    }
+
+    @Test
+    public void requireThatManyPartialsAreMergedInOrder() {
+        LeanHitMerger merger = new LeanHitMerger();
+        for (int node = 0; node < 20; node++) {
+            merger.add(hits(node, 100 - node, 50 - node, 10 - node));
+        }
+        assertEquals(20, merger.partialCount());
+        List<LeanHit> merged = merger.merge(0, 60);
+        assertEquals(60, merged.size());
+        for (int i = 1; i < merged.size(); i++) {
+            assertTrue(merged.get(i - 1).compareTo(merged.get(i)) < 0);
+        }
+    }
+
+    @Test
+    public void requireThatOffsetAndHitsAreObeyed() {
+        LeanHitMerger merger = new LeanHitMerger();
+        merger.add(hits(0, 10, 8, 6, 4));
+        merger.add(hits(1, 9, 7, 5, 3));
+        merger.add(hits(2, 11, 2));
+        assertRelevances(merger.merge(2, 4), 9, 8, 7, 6);
+    }
+
+    @Test
+    public void requireThatDuplicatesAreRemovedKeepingEarliestArrival() {
+        byte [] gid = {1, 2, 3};
+        LeanHitMerger merger = new LeanHitMerger();
+        List<LeanHit> first = new ArrayList<>(List.of(new LeanHit(gid, 0, 1, 3.0), new LeanHit(new byte[] {4}, 0, 1, 1.0)));
+        List<LeanHit> second = new ArrayList<>(List.of(new LeanHit(gid, 0, 2, 3.0), new LeanHit(new byte[] {5}, 0, 2, 2.0)));
+        merger.add(first);
+        merger.add(second);
+        List<LeanHit> merged = merger.merge(0, 10);
+        assertRelevances(merged, 3, 2, 1);
+        assertEquals(1, merged.get(0).getDistributionKey());
+    }
+
+    @Test
+    public void requireThatPackedAndObjectPartialsCanBeMerged() {
+        LeanHitMerger merger = new LeanHitMerger();
+        LeanHitBuffer packed = new LeanHitBuffer(0, 1, 3);
+        for (LeanHit hit : hits(1, 9, 6, 3)) {
+            packed.add(hit.getGid(), hit.getRelevance(), null);
+        }
+        merger.add(packed);
+        merger.add(hits(2, 8, 5, 2));
+        LeanHitBuffer other = new LeanHitBuffer(0, 3, 3);
+        for (LeanHit hit : hits(3, 7, 4, 1)) {
+            other.add(hit.getGid(), hit.getRelevance(), null);
+        }
+        merger.add(other);
+        List<LeanHit> merged = merger.merge(1, 6);
+        assertRelevances(merged, 8, 7, 6, 5, 4, 3);
+        assertEquals(3, merged.get(1).getDistributionKey());
+    }
+
+}
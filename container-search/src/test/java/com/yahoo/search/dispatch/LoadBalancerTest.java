@@ -14,6 +14,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.Random;
+import java.util.Set;
 
 import static com.yahoo.search.dispatch.MockSearchCluster.createDispatchConfig;
 import static org.hamcrest.Matchers.closeTo;
@@ -156,6 +157,59 @@ public class LoadBalancerTest {
         assertThat(sched.takeNextGroup(null).get().groupId(), equalTo(4));
     }
 
+    @Test
+    public void requireThatHedgeDelayFollowsGroupLatencyPercentile() {
+        Node n1 = new Node(0, "test-node1", 0);
+        Node n2 = new Node(1, "test-node2", 1);
+        SearchCluster cluster = new SearchCluster("a", createDispatchConfig(n1, n2), null, null);
+        LoadBalancer lb = new LoadBalancer(cluster, true, 90.0, 1.0);
+
+        Group group = lb.takeGroup(null).get();
+        lb.releaseGroup(group, true, 10.0);
+        assertThat(lb.hedgeDelay(group).isPresent(), is(false)); // Too few samples
+
+        for (int i = 1; i < 100; i++) {
+            lb.takeGroup(Set.of(1 - group.id()));
+            lb.releaseGroup(group, true, (i % 10 == 0) ? 100.0 : 10.0);
+        }
+        assertThat(lb.hedgeDelay(group).getAsLong(), equalTo(12L));
+        assertThat(lb.tryHedge(), is(true));
+    }
+
+    @Test
+    public void requireThatHedgingIsLimitedByBudget() {
+        Node n1 = new Node(0, "test-node1", 0);
+        Node n2 = new Node(1, "test-node2", 1);
+        SearchCluster cluster = new SearchCluster("a", createDispatchConfig(n1, n2), null, null);
+        LoadBalancer lb = new LoadBalancer(cluster, true, 50.0, 0.5);
+
+        Group group = lb.takeGroup(null).get();
+        for (int i = 0; i < 100; i++) {
+            lb.releaseGroup(group, true, 10.0);
+            lb.takeGroup(Set.of(1 - group.id()));
+        }
+        assertThat(lb.hedgeDelay(group).isPresent(), is(false));
+        assertThat(lb.tryHedge(), is(false));
+        assertThat(lb.hedgeDelay(group).isPresent(), is(true));
+        assertThat(lb.tryHedge(), is(true));
+        assertThat(lb.tryHedge(), is(false));
+    }
+
+    @Test
+    public void requireThatHedgingIsDisabledByDefault() {
+        Node n1 = new Node(0, "test-node1", 0);
+        Node n2 = new Node(1, "test-node2", 1);
+        SearchCluster cluster = new SearchCluster("a", createDispatchConfig(n1, n2), null, null);
+        LoadBalancer lb = new LoadBalancer(cluster, true);
+
+        Group group = lb.takeGroup(null).get();
+        for (int i = 0; i < 200; i++) {
+            lb.releaseGroup(group, true, 10.0);
+            lb.takeGroup(Set.of(1 - group.id()));
+        }
+        assertThat(lb.hedgeDelay(group).isPresent(), is(false));
+    }
+
     private static void updateSearchTime(GroupStatus gs, double time) {
         gs.allocate();
         gs.release(true, time);
@@ -0,0 +1,127 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.dispatch;
+
+import com.yahoo.prelude.fastsearch.FastHit;
+import com.yahoo.prelude.fastsearch.test.MockMetric;
+import com.yahoo.search.Query;
+import com.yahoo.search.Result;
+import com.yahoo.search.dispatch.searchcluster.Node;
+import com.yahoo.search.result.Coverage;
+import com.yahoo.search.result.Hit;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author agent
+ */
+public class ResultCacheTest {
+
+    private final MockSearchCluster cluster = new MockSearchCluster("test", 1, 2);
+    private long now = 0;
+    private final ResultCache cache = new ResultCache(2, 1.0, cluster, new MockMetric(), () -> now);
+
+    private static ResultCache.Key key(int id) {
+        return new ResultCache.Key(new byte[] { 1, 2, (byte) id });
+    }
+
+    private static List<Hit> hits() {
+        return List.of(new FastHit(new byte[] {'a'}, 2.0, 0, 0), new FastHit(new byte[] {'b'}, 1.0, 0, 1));
+    }
+
+    private void search(ResultCache.Key key, Coverage coverage) throws IOException {
+        SearchInvoker invoker = cache.caching(key, new MockInvoker(0, coverage).setHits(hits()));
+        invoker.search(new Query(), null);
+        invoker.close();
+    }
+
+    /** Searches the group of the cluster, where only the first node returns hits */
+    private void searchGroup(ResultCache.Key key, List<Hit> hits) throws IOException {
+        MockInvoker first = new MockInvoker(0, new Coverage(100, 100, 1)).setHits(hits);
+        MockInvoker second = new MockInvoker(1, new Coverage(100, 100, 1));
+        InterleavedSearchInvoker group = new InterleavedSearchInvoker(List.of(first, second), cluster, null);
+        SearchInvoker invoker = cache.caching(key, group);
+        invoker.sendSearchRequest(new Query(), null);
+        group.responseAvailable(first);
+        group.responseAvailable(second);
+        invoker.getSearchResult(null);
+        invoker.close();
+    }
+
+    @Test
+    public void requireThatResultsAreCachedAndServed() throws IOException {
+        assertTrue(cache.lookup(key(1)).isEmpty());
+        search(key(1), new Coverage(100, 100, 1));
+        assertEquals(1, cache.size());
+
+        Optional<SearchInvoker> cached = cache.lookup(key(1));
+        assertTrue(cached.isPresent());
+        Result result = cached.get().search(new Query(), null);
+        assertEquals(2, result.hits().size());
+        assertEquals(2.0, result.hits().get(0).getRelevance().getScore(), 0.0);
+        assertEquals(100, result.getCoverage(false).getDocs());
+        assertTrue(cache.lookup(key(2)).isEmpty());
+    }
+
+    @Test
+    public void requireThatDegradedResultsAreNotCached() throws IOException {
+        search(key(1), new Coverage(50, 100, 1));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void requireThatEntriesExpire() throws IOException {
+        search(key(1), new Coverage(100, 100, 1));
+        now += 900_000_000L;
+        assertTrue(cache.lookup(key(1)).isPresent());
+        now += 200_000_000L;
+        assertTrue(cache.lookup(key(1)).isEmpty());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void requireThatEntriesAreInvalidatedWhenActiveDocumentsChange() throws IOException {
+        search(key(1), new Coverage(100, 100, 1));
+        Node node = cluster.orderedGroups().get(0).nodes().get(0);
+        node.setActiveDocuments(1000);
+        assertTrue(cache.lookup(key(1)).isEmpty());
+    }
+
+    @Test
+    public void requireThatEntriesAreInvalidatedWhenActiveDocumentsChangeOnNodesWithoutHits() throws IOException {
+        searchGroup(key(1), List.of(new FastHit(new byte[] {'a'}, 2.0, 0, 0)));
+        assertTrue(cache.lookup(key(1)).isPresent());
+        Node node = cluster.orderedGroups().get(0).nodes().get(1);
+        node.setActiveDocuments(1000);
+        assertTrue(cache.lookup(key(1)).isEmpty());
+    }
+
+    @Test
+    public void requireThatEntriesWithoutHitsAreInvalidatedWhenActiveDocumentsChange() throws IOException {
+        searchGroup(key(1), List.of());
+        Optional<SearchInvoker> cached = cache.lookup(key(1));
+        assertTrue(cached.isPresent());
+        assertEquals(0, cached.get().search(new Query(), null).hits().size());
+        Node node = cluster.orderedGroups().get(0).nodes().get(0);
+        node.setActiveDocuments(1000);
+        assertTrue(cache.lookup(key(1)).isEmpty());
+    }
+
+    @Test
+    public void requireThatLeastRecentlyUsedEntriesAreEvicted() throws IOException {
+        search(key(1), new Coverage(100, 100, 1));
+        search(key(2), new Coverage(100, 100, 1));
+        assertTrue(cache.lookup(key(1)).isPresent());
+        search(key(3), new Coverage(100, 100, 1));
+        assertEquals(2, cache.size());
+        assertTrue(cache.lookup(key(1)).isPresent());
+        assertTrue(cache.lookup(key(2)).isEmpty());
+        assertTrue(cache.lookup(key(3)).isPresent());
+    }
+
+}
@@ -0,0 +1,257 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.dispatch.rpc;
+
+import ai.vespa.searchlib.searchprotocol.protobuf.SearchProtocol;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.yahoo.compress.CompressionType;
+import com.yahoo.compress.Compressor;
+import com.yahoo.io.GrowableByteBuffer;
+import com.yahoo.prelude.fastsearch.DocsumDefinition;
+import com.yahoo.prelude.fastsearch.DocsumDefinitionSet;
+import com.yahoo.prelude.fastsearch.DocsumField;
+import com.yahoo.prelude.fastsearch.DocumentDatabase;
+import com.yahoo.prelude.fastsearch.FastHit;
+import com.yahoo.prelude.fastsearch.VespaBackEndSearcher;
+import com.yahoo.prelude.fastsearch.test.MockMetric;
+import com.yahoo.search.Query;
+import com.yahoo.search.Result;
+import com.yahoo.search.cluster.ClusterMonitor;
+import com.yahoo.search.dispatch.Dispatcher;
+import com.yahoo.search.dispatch.MockSearchCluster;
+import com.yahoo.search.dispatch.SearchInvoker;
+import com.yahoo.search.dispatch.searchcluster.Node;
+import com.yahoo.search.dispatch.searchcluster.SearchCluster;
+import com.yahoo.search.grouping.vespa.GroupingExecutor;
+import com.yahoo.search.searchchain.Execution;
+import com.yahoo.searchlib.aggregation.CountAggregationResult;
+import com.yahoo.searchlib.aggregation.Group;
+import com.yahoo.searchlib.aggregation.Grouping;
+import com.yahoo.slime.BinaryFormat;
+import com.yahoo.slime.Cursor;
+import com.yahoo.slime.Slime;
+import com.yahoo.vespa.objects.BufferSerializer;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Benchmarks the java query path end to end: a {@link Dispatcher} dispatching queries through
+ * {@link com.yahoo.search.dispatch.InterleavedSearchInvoker} and {@link RpcSearchInvoker}, protobuf serialization
+ * of requests and replies, and filling of the resulting hits by {@link RpcProtobufFillInvoker}. The content nodes
+ * are in-process node connections returning canned protobuf replies in the calling thread, such that only
+ * container side cost is measured.
+ *
+ * Reports throughput, 99th percentile latency and bytes allocated per query, for varying node and hit counts,
+ * with and without grouping. Node and hit counts may be overridden by the system properties "nodes" and "hits",
+ * given as comma separated lists.
+ *
+ * @author agent
+ */
+public class DispatchBenchmark {
+
+    private static final String SUMMARY_CLASS = "default";
+    private static final int WARMUP_QUERIES = 5000;
+    private static final int QUERIES = 20000;
+
+    private final Compressor compressor = new Compressor();
+    private final DocumentDatabase documentDb = documentDatabase();
+
+    public void benchmark(int[] nodeCounts, int[] hitCounts) throws IOException {
+        for (int nodes : nodeCounts) {
+            for (int hits : hitCounts) {
+                for (boolean grouping : new boolean[] { false, true }) {
+                    run(nodes, hits, grouping);
+                }
+            }
+        }
+    }
+
+    private void run(int nodes, int hits, boolean grouping) throws IOException {
+        SearchCluster cluster = new MockSearchCluster("benchmark", 1, nodes);
+        Map<Integer, Client.NodeConnection> connections = new HashMap<>();
+        for (var group : cluster.orderedGroups()) {
+            for (Node node : group.nodes()) {
+                node.setWorking(true);
+                node.setActiveDocuments(100000);
+                connections.put(node.key(), new CannedNodeConnection(node.key(), hits, grouping ? groupingBlob() : null));
+            }
+        }
+        RpcResourcePool resourcePool = new RpcResourcePool(connections);
+        Dispatcher dispatcher = new Dispatcher(new ClusterMonitor<>(cluster, false), cluster, cluster.dispatchConfig(),
+                                               new RpcInvokerFactory(resourcePool, cluster), new MockMetric()) {};
+        VespaBackEndSearcher searcher = new BenchmarkSearcher(documentDb);
+
+        long ignore = 0;
+        for (int i = 0; i < WARMUP_QUERIES; i++) {
+            ignore += query(dispatcher, searcher, hits, grouping);
+        }
+
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long[] latencies = new long[QUERIES];
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        long startTime = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            long queryStart = System.nanoTime();
+            ignore += query(dispatcher, searcher, hits, grouping);
+            latencies[i] = System.nanoTime() - queryStart;
+        }
+        long totalTime = System.nanoTime() - startTime;
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        dispatcher.deconstruct();
+        if (ignore == 42) System.out.println("Ignore this");
+
+        Arrays.sort(latencies);
+        System.out.println(String.format("nodes=%3d hits=%4d grouping=%-5s: %8.0f queries/s, p99 %7d us, %8d bytes allocated/query",
+                                         nodes, hits, grouping,
+                                         QUERIES * 1e9 / totalTime,
+                                         latencies[(int) (QUERIES * 0.99)] / 1000,
+                                         allocated / QUERIES));
+    }
+
+    private int query(Dispatcher dispatcher, VespaBackEndSearcher searcher, int hits, boolean grouping) throws IOException {
+        Query query = new Query("?query=test&hits=" + hits);
+        if (grouping) {
+            GroupingExecutor.setGroupingList(query, List.of(new Grouping(0).setRoot(new Group().addAggregationResult(new CountAggregationResult()))));
+        }
+        Result result;
+        try (SearchInvoker invoker = dispatcher.getSearchInvoker(query, searcher)) {
+            result = invoker.search(query, null);
+        }
+        dispatcher.getFillInvoker(result, searcher).fill(result, SUMMARY_CLASS);
+        if (result.hits().getError() != null) throw new IllegalStateException(result.hits().getError().toString());
+        return result.getHitCount();
+    }
+
+    private static byte[] groupingBlob() {
+        BufferSerializer buffer = new BufferSerializer(new GrowableByteBuffer());
+        buffer.putInt(null, 1);
+        new Grouping(0).setRoot(new Group().addAggregationResult(new CountAggregationResult(1000))).serialize(buffer);
+        buffer.getBuf().flip();
+        ByteBuffer serialized = buffer.getBuf().getByteBuffer();
+        byte[] blob = new byte[serialized.remaining()];
+        serialized.get(blob);
+        return blob;
+    }
+
+    private static DocumentDatabase documentDatabase() {
+        List<DocsumField> fields = new ArrayList<>();
+        fields.add(DocsumField.create("title", "string"));
+        fields.add(DocsumField.create("id", "int64"));
+        DocsumDefinitionSet docsums = new DocsumDefinitionSet(Collections.singleton(new DocsumDefinition(SUMMARY_CLASS, fields)));
+        return new DocumentDatabase("test", docsums, Collections.emptySet());
+    }
+
+    private static class BenchmarkSearcher extends VespaBackEndSearcher {
+
+        private final DocumentDatabase documentDb;
+
+        BenchmarkSearcher(DocumentDatabase documentDb) {
+            this.documentDb = documentDb;
+        }
+
+        @Override
+        public DocumentDatabase getDocumentDatabase(Query query) { return documentDb; }
+
+        @Override
+        public boolean summaryNeedsQuery(Query query) { return false; }
+
+        @Override
+        protected Result doSearch2(Query query, Execution execution) { throw new UnsupportedOperationException(); }
+
+        @Override
+        protected void doPartialFill(Result result, String summaryClass) { throw new UnsupportedOperationException(); }
+
+    }
+
+    /** A node connection returning a canned search reply, and document summaries for the global ids requested */
+    private class CannedNodeConnection implements Client.NodeConnection {
+
+        private final Client.ProtobufResponse searchResponse;
+        private final Map<List<ByteString>, Client.ProtobufResponse> docsumResponses = new ConcurrentHashMap<>();
+
+        CannedNodeConnection(int key, int hits, byte[] groupingBlob) {
+            var reply = SearchProtocol.SearchReply.newBuilder()
+                    .setTotalHitCount(hits * 100L)
+                    .setCoverageDocs(100000)
+                    .setActiveDocs(100000);
+            for (int i = 0; i < hits; i++) {
+                reply.addHits(SearchProtocol.Hit.newBuilder()
+                                      .setGlobalId(ByteString.copyFrom(globalId(key, i)))
+                                      .setRelevance(1.0 - (double) i / hits - key * 1e-6));
+            }
+            if (groupingBlob != null) {
+                reply.setGroupingBlob(ByteString.copyFrom(groupingBlob));
+            }
+            searchResponse = response(reply.build().toByteArray());
+        }
+
+        @Override
+        public void request(String rpcMethod, CompressionType compression, int uncompressedLength, byte[] compressedPayload,
+                            Client.ResponseReceiver responseReceiver, double timeoutSeconds) {
+            if ( ! rpcMethod.equals("vespa.searchprotocol.getDocsums")) {
+                responseReceiver.receive(Client.ResponseOrError.fromResponse(searchResponse));
+                return;
+            }
+            try {
+                var request = SearchProtocol.DocsumRequest.parseFrom(compressor.decompress(compressedPayload, compression, uncompressedLength));
+                Client.ProtobufResponse response = docsumResponses.computeIfAbsent(request.getGlobalIdsList(), this::docsums);
+                responseReceiver.receive(Client.ResponseOrError.fromResponse(response));
+            } catch (InvalidProtocolBufferException e) {
+                responseReceiver.receive(Client.ResponseOrError.fromError(e.getMessage()));
+            }
+        }
+
+        private Client.ProtobufResponse docsums(List<ByteString> globalIds) {
+            Slime slime = new Slime();
+            Cursor docsums = slime.setObject().setArray("docsums");
+            for (int i = 0; i < globalIds.size(); i++) {
+                Cursor docsum = docsums.addObject().setObject("docsum");
+                docsum.setString("title", "A document title of typical length, number " + i);
+                docsum.setLong("id", i);
+            }
+            return response(SearchProtocol.DocsumReply.newBuilder()
+                                    .setSlimeSummaries(ByteString.copyFrom(BinaryFormat.encode(slime)))
+                                    .build().toByteArray());
+        }
+
+        private Client.ProtobufResponse response(byte[] payload) {
+            Compressor.Compression compressed = compressor.compress(CompressionType.LZ4, payload);
+            return new Client.ProtobufResponse(compressed.type().getCode(), payload.length, compressed.data());
+        }
+
+        @Override
+        public void getDocsums(List<FastHit> hits, CompressionType compression, int uncompressedLength, byte[] compressedSlime,
+                               Client.GetDocsumsReceiver responseReceiver, double timeoutSeconds) {
+            throw new UnsupportedOperationException("Only protobuf requests are supported");
+        }
+
+        @Override
+        public void close() { }
+
+    }
+
+    private static byte[] globalId(int key, int hit) {
+        return ByteBuffer.allocate(12).putInt(key).putLong(hit).array();
+    }
+
+    private static int[] intList(String property, int... defaults) {
+        String value = System.getProperty(property);
+        if (value == null) return defaults;
+        return Arrays.stream(value.split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+    }
+
+    public static void main(String[] args) throws IOException {
+        new DispatchBenchmark().benchmark(intList("nodes", 1, 4, 16, 64), intList("hits", 10, 100, 400));
+    }
+
+}
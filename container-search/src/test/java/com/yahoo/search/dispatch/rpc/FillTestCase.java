@@ -8,6 +8,7 @@ import com.yahoo.prelude.fastsearch.DocumentDatabase;
 import com.yahoo.prelude.fastsearch.FastHit;
 import com.yahoo.search.Query;
 import com.yahoo.search.Result;
+import com.yahoo.search.result.Hit;
 
 import org.junit.Test;
 
@@ -16,9 +17,14 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Tests using a dispatcher to fill a result
@@ -183,6 +189,137 @@ public class FillTestCase {
         assertEquals("Could not fill hits from unknown node 1", result.hits().getError().getDetailedMessage());
     }
 
+    @Test
+    public void testProtobufFillingUsesDocsumCache() {
+        Map<Integer, Client.NodeConnection> nodes = new HashMap<>();
+        nodes.put(0, client.createConnection("host0", 123));
+        nodes.put(1, client.createConnection("host1", 123));
+        RpcResourcePool rpcResourcePool = new RpcResourcePool(nodes);
+        DocsumCache cache = new DocsumCache(1 << 20, 60.0, rpcResourcePool.compressor());
+        DocumentDatabase db = db();
+
+        client.setDocsumReponse("host0", 0, "summaryClass1", map("field1", "s.0.0", "field2", 0));
+        client.setDocsumReponse("host1", 1, "summaryClass1", map("field1", "s.1.1", "field2", 1));
+        client.setDocsumReponse("host0", 2, "summaryClass1", map("field1", "s.0.2", "field2", 2));
+
+        Result first = new Result(new Query());
+        first.hits().add(createHit(0, 0));
+        first.hits().add(createHit(1, 1));
+        new RpcProtobufFillInvoker(rpcResourcePool, db, "server", false, cache).fill(first, "summaryClass1");
+        assertEquals("s.1.1", first.hits().get("hit:1").getField("field1").toString());
+        assertEquals(2, client.requestedDocsums());
+        assertEquals(2, cache.size());
+
+        Result second = new Result(new Query());
+        second.hits().add(createHit(0, 0));
+        second.hits().add(createHit(1, 1));
+        second.hits().add(createHit(0, 2));
+        new RpcProtobufFillInvoker(rpcResourcePool, db, "server", false, cache).fill(second, "summaryClass1");
+        assertEquals(3, client.requestedDocsums());
+        assertEquals("s.0.0", second.hits().get("hit:0").getField("field1").toString());
+        assertEquals(1L, second.hits().get("hit:1").getField("field2"));
+        assertEquals("s.0.2", second.hits().get("hit:2").getField("field1").toString());
+        assertTrue(second.hits().get("hit:1").isFilled("summaryClass1"));
+        assertNull(second.hits().getError());
+    }
+
+    @Test
+    public void testDocsumCacheIsBoundedBySize() {
+        DocsumCache cache = new DocsumCache(400, 60.0, new com.yahoo.compress.Compressor());
+        DocumentDatabase db = db();
+        com.yahoo.slime.Slime summary = new com.yahoo.slime.Slime();
+        summary.setObject().setString("field1", "value");
+        for (int i = 0; i < 10; i++) {
+            cache.store(createHit(0, i), "summaryClass1", db, summary.get());
+        }
+        assertTrue(cache.bytes() <= 400);
+        assertTrue(cache.size() < 10);
+        assertTrue(cache.lookup(createHit(0, 9), "summaryClass1", db).isPresent());
+        assertTrue(cache.lookup(createHit(0, 0), "summaryClass1", db).isEmpty());
+        assertTrue(cache.lookup(createHit(0, 9), "otherClass", db).isEmpty());
+        assertTrue(cache.lookup(createHit(0, 9), "summaryClass1", db()).isEmpty());
+    }
+
+    @Test
+    public void testDocsumCacheWithDictionaryCompression() {
+        DocsumCache cache = new DocsumCache(1 << 20, 60.0, new com.yahoo.compress.Compressor(),
+                                            new com.yahoo.compress.DictionaryCompressor(1024, 4, 100));
+        DocumentDatabase db = db();
+        for (int i = 0; i < 10; i++) {
+            com.yahoo.slime.Slime summary = new com.yahoo.slime.Slime();
+            summary.setObject().setString("title", "A title which is common to all summaries, number " + i);
+            cache.store(createHit(0, i), "summaryClass1", db, summary.get());
+        }
+        assertEquals(10, cache.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("A title which is common to all summaries, number " + i,
+                         cache.lookup(createHit(0, i), "summaryClass1", db).get().field("title").asString());
+        }
+    }
+
+    @Test
+    public void testSlimeFillingCoalescesRequestsOfConcurrentQueries() throws Exception {
+        Map<Integer, Client.NodeConnection> nodes = new HashMap<>();
+        nodes.put(0, client.createConnection("host0", 123));
+        RpcResourcePool rpcResourcePool = new RpcResourcePool(nodes);
+        DocsumRequestCoalescer coalescer = new DocsumRequestCoalescer(rpcResourcePool, 5.0, 4);
+        DocumentDatabase db = db();
+        for (int i = 0; i < 6; i++)
+            client.setDocsumReponse("host0", i, "summaryClass1", map("field1", "s.0." + i, "field2", i));
+
+        Result first = new Result(new Query("?timeout=1000"));
+        first.hits().add(createHit(0, 0));
+        first.hits().add(createHit(0, 1));
+        new RpcFillInvoker(rpcResourcePool, db, coalescer).fill(first, "summaryClass1");
+        assertEquals("The first request is sent directly", 1, client.docsumRequests());
+
+        Result second = new Result(new Query("?timeout=1000"));
+        second.hits().add(createHit(0, 2));
+        second.hits().add(createHit(0, 3));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> secondFill = executor.submit(() -> new RpcFillInvoker(rpcResourcePool, db, coalescer).fill(second, "summaryClass1"));
+        while (coalescer.waitingHits() < 2)
+            Thread.sleep(1);
+
+        Result third = new Result(new Query("?timeout=1000"));
+        third.hits().add(createHit(0, 4));
+        third.hits().add(createHit(0, 5));
+        new RpcFillInvoker(rpcResourcePool, db, coalescer).fill(third, "summaryClass1");
+        secondFill.get(60, TimeUnit.SECONDS);
+        executor.shutdown();
+        coalescer.shutdown();
+
+        assertEquals("The requests of the second and third query are sent together", 2, client.docsumRequests());
+        assertEquals(6, client.requestedDocsums());
+        for (Result result : List.of(first, second, third)) {
+            assertNull(result.hits().getError());
+            for (Hit hit : result.hits()) {
+                int id = Integer.parseInt(hit.getId().toString().substring("hit:".length()));
+                assertEquals("s.0." + id, hit.getField("field1").toString());
+                assertEquals((long) id, hit.getField("field2"));
+            }
+        }
+    }
+
+    @Test
+    public void testRequestsAreNotCoalescedWithoutTimeToSpare() {
+        Map<Integer, Client.NodeConnection> nodes = new HashMap<>();
+        nodes.put(0, client.createConnection("host0", 123));
+        RpcResourcePool rpcResourcePool = new RpcResourcePool(nodes);
+        DocsumRequestCoalescer coalescer = new DocsumRequestCoalescer(rpcResourcePool, 5.0, 4);
+        client.setDocsumReponse("host0", 0, "summaryClass1", map("field1", "s.0.0", "field2", 0));
+
+        for (int i = 0; i < 3; i++) {
+            Result result = new Result(new Query("?timeout=10"));
+            result.hits().add(createHit(0, 0));
+            new RpcFillInvoker(rpcResourcePool, db(), coalescer).fill(result, "summaryClass1");
+            assertEquals("s.0.0", result.hits().get("hit:0").getField("field1").toString());
+        }
+        coalescer.shutdown();
+        assertEquals(3, client.docsumRequests());
+        assertEquals(0, coalescer.waitingHits());
+    }
+
     private DocumentDatabase db() {
         List<DocsumField> fields = new ArrayList<>();
         fields.add(DocsumField.create("field1", "string"));
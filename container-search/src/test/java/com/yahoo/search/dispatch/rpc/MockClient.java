@@ -1,6 +1,9 @@
 // Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
 package com.yahoo.search.dispatch.rpc;
 
+import ai.vespa.searchlib.searchprotocol.protobuf.SearchProtocol;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.yahoo.compress.CompressionType;
 import com.yahoo.compress.Compressor;
 import com.yahoo.document.GlobalId;
@@ -26,6 +29,8 @@ public class MockClient implements Client {
     private final Map<DocsumKey, Map<String, Object>> docsums = new HashMap<>();
     private final Compressor compressor = new Compressor();
     private boolean malfunctioning = false;
+    private int requestedDocsums = 0;
+    private int docsumRequests = 0;
     private Result searchResult;
 
     /** Set to true to cause this to produce an error instead of a regular response */
@@ -42,6 +47,12 @@ public class MockClient implements Client {
         docsums.put(new DocsumKey(nodeId, globalIdFrom(docId), docsumClass), docsumValues);
     }
 
+    /** Returns the total number of document summaries requested from this */
+    public int requestedDocsums() { return requestedDocsums; }
+
+    /** Returns the number of getDocsums requests received by this */
+    public int docsumRequests() { return docsumRequests; }
+
     public GlobalId globalIdFrom(int hitId) {
         return new GlobalId(new IdIdString("", "test", "", String.valueOf(hitId)));
     }
@@ -56,7 +67,8 @@ public class MockClient implements Client {
 
         @Override
         public void getDocsums(List<FastHit> hitsContext, CompressionType compression, int uncompressedSize, byte[] compressedSlime,
-                RpcFillInvoker.GetDocsumsResponseReceiver responseReceiver, double timeoutSeconds) {
+                GetDocsumsReceiver responseReceiver, double timeoutSeconds) {
+            docsumRequests++;
             if (malfunctioning) {
                 responseReceiver.receive(ResponseOrError.fromError("Malfunctioning"));
                 return;
@@ -64,15 +76,23 @@ public class MockClient implements Client {
 
             Inspector request = BinaryFormat.decode(compressor.decompress(compressedSlime, compression, uncompressedSize)).get();
             String docsumClass = request.field("class").asString();
-            List<Map<String, Object>> docsumsToReturn = new ArrayList<>();
-            request.field("gids").traverse((ArrayTraverser) (index, gid) -> {
-                GlobalId docId = new GlobalId(gid.asData());
-                docsumsToReturn.add(docsums.get(new DocsumKey(toString(), docId, docsumClass)));
-            });
+            List<GlobalId> gids = new ArrayList<>();
+            request.field("gids").traverse((ArrayTraverser) (index, gid) -> gids.add(new GlobalId(gid.asData())));
+            byte[] slimeBytes = docsumSlime(docsumClass, gids);
+            CompressionType responseCompressionType = compression == CompressionType.INCOMPRESSIBLE ? CompressionType.NONE : compression;
+            Compressor.Compression compressionResult = compressor.compress(responseCompressionType, slimeBytes);
+            GetDocsumsResponse response = new GetDocsumsResponse(compressionResult.type().getCode(), slimeBytes.length,
+                    compressionResult.data(), hitsContext);
+            responseReceiver.receive(ResponseOrError.fromResponse(response));
+        }
+
+        private byte[] docsumSlime(String docsumClass, List<GlobalId> gids) {
             Slime responseSlime = new Slime();
             Cursor root = responseSlime.setObject();
             Cursor docsums = root.setArray("docsums");
-            for (Map<String, Object> docsumFields : docsumsToReturn) {
+            for (GlobalId gid : gids) {
+                requestedDocsums++;
+                Map<String, Object> docsumFields = MockClient.this.docsums.get(new DocsumKey(toString(), gid, docsumClass));
                 if (docsumFields == null) continue;
 
                 Cursor docsumItem = docsums.addObject();
@@ -86,12 +106,26 @@ public class MockClient implements Client {
                         throw new RuntimeException();
                 }
             }
-            byte[] slimeBytes = BinaryFormat.encode(responseSlime);
-            CompressionType responseCompressionType = compression == CompressionType.INCOMPRESSIBLE ? CompressionType.NONE : compression;
-            Compressor.Compression compressionResult = compressor.compress(responseCompressionType, slimeBytes);
-            GetDocsumsResponse response = new GetDocsumsResponse(compressionResult.type().getCode(), slimeBytes.length,
-                    compressionResult.data(), hitsContext);
-            responseReceiver.receive(ResponseOrError.fromResponse(response));
+            return BinaryFormat.encode(responseSlime);
+        }
+
+        private void getDocsums(byte[] payload, ResponseReceiver responseReceiver) {
+            try {
+                var request = SearchProtocol.DocsumRequest.parseFrom(payload);
+                List<GlobalId> gids = new ArrayList<>();
+                for (var gid : request.getGlobalIdsList()) {
+                    gids.add(new GlobalId(gid.toByteArray()));
+                }
+                var reply = SearchProtocol.DocsumReply.newBuilder()
+                        .setSlimeSummaries(ByteString.copyFrom(docsumSlime(request.getSummaryClass(), gids)))
+                        .build().toByteArray();
+                var compressionResult = compressor.compress(CompressionType.NONE, reply);
+                responseReceiver.receive(ResponseOrError.fromResponse(new ProtobufResponse(compressionResult.type().getCode(),
+                                                                                           reply.length,
+                                                                                           compressionResult.data())));
+            } catch (InvalidProtocolBufferException e) {
+                responseReceiver.receive(ResponseOrError.fromError(e.getMessage()));
+            }
         }
 
         @Override
@@ -101,6 +135,10 @@ public class MockClient implements Client {
                 responseReceiver.receive(ResponseOrError.fromError("Malfunctioning"));
                 return;
             }
+            if (rpcMethod.equals("vespa.searchprotocol.getDocsums")) {
+                getDocsums(compressor.decompress(compressedPayload, compression, uncompressedLength), responseReceiver);
+                return;
+            }
 
             if(searchResult == null) {
                 responseReceiver.receive(ResponseOrError.fromError("No result defined"));
@@ -5,7 +5,7 @@ import com.yahoo.compress.CompressionType;
 import com.yahoo.prelude.fastsearch.FastHit;
 import com.yahoo.search.dispatch.rpc.Client.NodeConnection;
 import com.yahoo.search.dispatch.rpc.Client.ResponseReceiver;
-import com.yahoo.search.dispatch.rpc.RpcFillInvoker.GetDocsumsResponseReceiver;
+import com.yahoo.search.dispatch.rpc.Client.GetDocsumsReceiver;
 
 import java.util.HashMap;
 import java.util.List;
@@ -36,7 +36,7 @@ public class MockRpcResourcePoolBuilder {
 
         @Override
         public void getDocsums(List<FastHit> hits, CompressionType compression, int uncompressedLength, byte[] compressedSlime,
-                GetDocsumsResponseReceiver responseReceiver, double timeoutSeconds) {
+                GetDocsumsReceiver responseReceiver, double timeoutSeconds) {
             responseReceiver.receive(Client.ResponseOrError.fromError("getDocsums(..) attempted for node " + key));
         }
 
@@ -4,6 +4,8 @@ package com.yahoo.search.dispatch.rpc;
 
 import ai.vespa.searchlib.searchprotocol.protobuf.SearchProtocol;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
 import com.yahoo.document.GlobalId;
 import com.yahoo.document.idstring.IdString;
 import com.yahoo.prelude.fastsearch.FastHit;
@@ -12,7 +14,9 @@ import com.yahoo.search.dispatch.InvokerResult;
 import com.yahoo.search.dispatch.LeanHit;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -40,6 +44,24 @@ public class ProtobufSerializationTest {
         assertThat(bytes.length, equalTo(41));
     }
 
+    @Test
+    public void testSearchRequestFromPreserializedRequest() throws IOException {
+        Query q = new Query("search/?query=test&hits=10&offset=3&timeout=10s");
+        var preserialized = ProtobufSerialization.serializeSearchRequestWithoutTimeout(q, "server");
+        q.setHits(13);
+        q.setOffset(0);
+        RequestBuffer buffer = new RequestBuffer.Pool(null).current();
+
+        int length = ProtobufSerialization.serializeSearchRequest(preserialized, q, 13, buffer);
+        var fromPreserialized = SearchProtocol.SearchRequest.parseFrom(Arrays.copyOf(buffer.request(length), length));
+        var serialized = SearchProtocol.SearchRequest.parseFrom(ProtobufSerialization.serializeSearchRequest(q, 13, "server"));
+
+        assertEquals(0, fromPreserialized.getOffset());
+        assertEquals(13, fromPreserialized.getHits());
+        assertTrue(fromPreserialized.getTimeout() > 0);
+        assertEquals(serialized.toBuilder().clearTimeout().build(), fromPreserialized.toBuilder().clearTimeout().build());
+    }
+
     SearchProtocol.SearchReply createSearchReply(int numHits, boolean useSorting) {
         SearchProtocol.SearchReply.Builder reply = SearchProtocol.SearchReply.newBuilder();
         reply.setTotalHitCount(7);
@@ -77,6 +99,43 @@ public class ProtobufSerializationTest {
             hitNum++;
         }
     }
+    @Test
+    public void testSearchReplyIsReadStraightFromPayload() throws IOException {
+        var reply = createSearchReply(3, false).toBuilder()
+                .setCoverageDocs(100).setActiveDocs(200).setSoonActiveDocs(300)
+                .setDegradedBySoftTimeout(true)
+                .setGroupingBlob(ByteString.copyFrom(new byte[] { 1, 2, 3 }))
+                .build();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        reply.writeTo(out);
+        var unknownField = CodedOutputStream.newInstance(out);
+        unknownField.writeString(15, "a field added in a later version");
+        unknownField.flush();
+
+        var view = new SearchReplyView(out.toByteArray(), 1, 2, 1);
+        assertEquals(7, view.totalHitCount());
+        assertEquals(100, view.coverageDocs());
+        assertEquals(200, view.activeDocs());
+        assertEquals(300, view.soonActiveDocs());
+        assertFalse(view.degradedByMatchPhase());
+        assertTrue(view.degradedBySoftTimeout());
+        assertEquals(3, view.groupingBlob().get().remaining());
+        assertEquals(3, view.groupingBlob().get().get(2));
+        assertTrue(view.slimeTrace().isEmpty());
+        assertEquals(3, view.hits().size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, view.hits().getGid(i)[11]);
+            assertEquals(3 - i, view.hits().getRelevance(i), DELTA);
+            assertFalse(view.hits().hasSortData(i));
+        }
+    }
+
+    @Test(expected = InvalidProtocolBufferException.class)
+    public void testTruncatedSearchReplyIsRejected() throws IOException {
+        byte[] payload = createSearchReply(3, true).toByteArray();
+        new SearchReplyView(Arrays.copyOf(payload, payload.length - 5), 1, 2, 3);
+    }
+
     @Test
     public void testSearhReplyDecodingWithSortData() {
         Query q = new Query("search/?query=test");
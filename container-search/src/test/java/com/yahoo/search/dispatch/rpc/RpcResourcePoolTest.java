@@ -0,0 +1,52 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.dispatch.rpc;
+
+import com.yahoo.compress.CompressionType;
+import com.yahoo.compress.Compressor.Compression;
+import com.yahoo.jdisc.test.MockMetric;
+import com.yahoo.search.Query;
+import com.yahoo.vespa.config.search.DispatchConfig;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author agent
+ */
+public class RpcResourcePoolTest {
+
+    @Test
+    public void testAdaptiveCompressionIsUsedUnlessCompressionIsRequested() {
+        MockMetric metric = new MockMetric();
+        RpcResourcePool pool = new RpcResourcePool(new DispatchConfig.Builder().build(), metric);
+        try {
+            byte[] random = new byte[1000];
+            new Random(1).nextBytes(random);
+            Query query = new Query("?query=test");
+            for (int i = 0; i < 128; i++)
+                pool.compress(query, RpcResourcePool.Payload.DOCSUM_REQUEST, random);
+            assertEquals(CompressionType.NONE, pool.compressionPolicy(RpcResourcePool.Payload.DOCSUM_REQUEST).selected());
+            assertEquals("Each kind of payload is adapted separately",
+                         CompressionType.LZ4, pool.compressionPolicy(RpcResourcePool.Payload.SEARCH_REQUEST).selected());
+
+            byte[] compressible = new byte[1000];
+            Compression adaptive = pool.compress(query, RpcResourcePool.Payload.DOCSUM_REQUEST, compressible);
+            assertEquals(CompressionType.INCOMPRESSIBLE, adaptive.type());
+            Compression requested = pool.compress(new Query("?query=test&dispatch.compression=lz4"),
+                                                  RpcResourcePool.Payload.DOCSUM_REQUEST, compressible);
+            assertEquals(CompressionType.LZ4, requested.type());
+
+            double ratio = metric.metrics().get("dispatch_compression_ratio").get(Map.of("payload", "docsum_request"));
+            assertTrue(ratio > 0.95);
+            assertTrue(metric.metrics().get("dispatch_compression_nanos_per_byte").containsKey(Map.of("payload", "docsum_request")));
+        }
+        finally {
+            pool.deconstruct();
+        }
+    }
+
+}
@@ -9,7 +9,7 @@ import com.yahoo.prelude.fastsearch.FastHit;
 import com.yahoo.prelude.fastsearch.VespaBackEndSearcher;
 import com.yahoo.search.Query;
 import com.yahoo.search.Result;
-import com.yahoo.search.dispatch.rpc.RpcFillInvoker.GetDocsumsResponseReceiver;
+import com.yahoo.search.dispatch.rpc.Client.GetDocsumsReceiver;
 import com.yahoo.search.dispatch.searchcluster.Node;
 import com.yahoo.search.searchchain.Execution;
 import org.junit.Test;
@@ -20,6 +20,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -76,6 +77,37 @@ public class RpcSearchInvokerTest {
         assertEquals(maxHits, request.getHits());
     }
 
+    @Test
+    public void testThatRequestIsSerializedOnceIntoReusedBuffers() throws IOException {
+        var compressionTypeHolder = new AtomicReference<CompressionType>();
+        var payloadHolder = new AtomicReference<byte[]>();
+        var lengthHolder = new AtomicInteger();
+        var mockClient = parameterCollectorClient(compressionTypeHolder, payloadHolder, lengthHolder);
+        var mockPool = new RpcResourcePool(ImmutableMap.of(7, mockClient.createConnection("foo", 123),
+                                                           8, mockClient.createConnection("bar", 123)));
+
+        Query warmup = new Query("search/?query=test&hits=10");
+        new RpcSearchInvoker(mockSearcher(), new Node(7, "seven", 1), mockPool, 1000).sendSearchRequest(warmup, null);
+
+        assertEquals(1, mockPool.requestBuffers().serializedRequests());
+        long bufferBytesBefore = mockPool.requestBuffers().bufferBytesAllocated();
+        Query q = new Query("search/?query=test&hits=10&offset=3&dispatch.compression=none");
+        Object context = new RpcSearchInvoker(mockSearcher(), new Node(7, "seven", 1), mockPool, 1000).sendSearchRequest(q, null);
+        byte[] firstPayload = payloadHolder.get();
+        new RpcSearchInvoker(mockSearcher(), new Node(8, "eight", 1), mockPool, 1000).sendSearchRequest(q, context);
+
+        assertSame(firstPayload, payloadHolder.get());
+        assertEquals(2, mockPool.requestBuffers().serializedRequests());
+        assertEquals(0, mockPool.requestBuffers().bufferBytesAllocated() - bufferBytesBefore);
+        assertNotSame(mockPool.requestBuffers().current().request(0), payloadHolder.get());
+        assertEquals(CompressionType.NONE, compressionTypeHolder.get());
+        assertEquals(lengthHolder.get(), payloadHolder.get().length);
+
+        var request = SearchProtocol.SearchRequest.newBuilder().mergeFrom(payloadHolder.get()).build();
+        assertEquals(3, request.getOffset());
+        assertEquals(ProtobufSerialization.serializeSearchRequest(q, 10, null).length, lengthHolder.get());
+    }
+
     private Client parameterCollectorClient(AtomicReference<CompressionType> compressionTypeHolder, AtomicReference<byte[]> payloadHolder,
             AtomicInteger lengthHolder) {
         return new Client() {
@@ -86,7 +118,7 @@ public class RpcSearchInvokerTest {
                 return new NodeConnection() {
                     @Override
                     public void getDocsums(List<FastHit> hits, CompressionType compression, int uncompressedLength, byte[] compressedSlime,
-                            GetDocsumsResponseReceiver responseReceiver, double timeoutSeconds) {
+                            GetDocsumsReceiver responseReceiver, double timeoutSeconds) {
                         fail("Unexpected call");
                     }
 
@@ -0,0 +1,145 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.search.handler;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yahoo.component.chain.Chain;
+import com.yahoo.search.Query;
+import com.yahoo.search.Result;
+import com.yahoo.search.Searcher;
+import com.yahoo.search.rendering.JsonRenderer;
+import com.yahoo.search.rendering.XmlRenderer;
+import com.yahoo.search.result.ErrorMessage;
+import com.yahoo.search.result.Hit;
+import com.yahoo.search.searchchain.Execution;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author agent
+ */
+public class IncrementalFillTestCase {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final JsonRenderer renderer = new JsonRenderer(executor);
+
+    @After
+    public void shutdown() {
+        renderer.deconstruct();
+        executor.shutdown();
+    }
+
+    @Test
+    public void requireThatHitsAreRenderedInRankOrderAsChunksAreFilled() throws Exception {
+        FillingSearcher searcher = new FillingSearcher();
+        Chain<Searcher> chain = new Chain<>(searcher);
+        Execution execution = new Execution(chain, Execution.Context.createContextStub());
+        Result result = createResult("?fill.incremental&fill.firstChunk=5", 50);
+
+        assertTrue(IncrementalFill.fill(result, "default", chain, execution, renderer, executor));
+        assertEquals("The first chunk is filled by the caller", 5, result.hits().size());
+        HttpSearchResponse response = new HttpSearchResponse(200, result, result.getQuery(), renderer);
+
+        JsonNode root = render(result, execution).get("root");
+        JsonNode children = root.get("children");
+        assertEquals(50, children.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals("hit:" + i, children.get(i).get("id").asText());
+            assertEquals("summary of hit:" + i, children.get(i).get("fields").get("summary").asText());
+        }
+        assertEquals("Chunks are filled in parallel", 4, searcher.fills.get());
+        assertEquals("Errors from filling are rendered after the hits",
+                     "Missing summaries", root.get("errors").get(0).get("message").asText());
+        assertEquals("Hits are counted when all are added", 50, response.getHitCounts().getSummaryCount());
+    }
+
+    @Test
+    public void requireThatIncrementalFillIsOnlyUsedWhenRequestedAndPossible() {
+        Chain<Searcher> chain = new Chain<>(new FillingSearcher());
+        Execution execution = new Execution(chain, Execution.Context.createContextStub());
+        assertFalse(IncrementalFill.fill(createResult("", 50), "default", chain, execution, renderer, executor));
+        assertFalse(IncrementalFill.fill(createResult("?fill.incremental&fill.firstChunk=50", 50),
+                                         "default", chain, execution, renderer, executor));
+        assertFalse(IncrementalFill.fill(createResult("?fill.incremental&sorting=-foo", 50),
+                                         "default", chain, execution, renderer, executor));
+        assertFalse(IncrementalFill.fill(createResult("?fill.incremental&tracelevel=1", 50),
+                                         "default", chain, execution, renderer, executor));
+        assertFalse(IncrementalFill.fill(createResult("?fill.incremental", 50),
+                                         "default", chain, execution, new XmlRenderer(), executor));
+        Result withError = createResult("?fill.incremental", 50);
+        withError.hits().addError(ErrorMessage.createTimeout("Too slow"));
+        assertFalse(IncrementalFill.fill(withError, "default", chain, execution, renderer, executor));
+    }
+
+    private static Result createResult(String request, int hitCount) {
+        Result result = new Result(new Query(request));
+        for (int i = 0; i < hitCount; i++) {
+            Hit hit = new Hit("hit:" + i, hitCount - i);
+            hit.setFillable();
+            result.hits().add(hit);
+        }
+        result.setTotalHitCount(hitCount);
+        return result;
+    }
+
+    private JsonNode render(Result result, Execution execution) throws Exception {
+        JsonRenderer rendererCopy = (JsonRenderer) renderer.clone();
+        rendererCopy.init();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(rendererCopy.render(out, result, execution, null).get(60, TimeUnit.SECONDS));
+        return new ObjectMapper().readTree(out.toByteArray());
+    }
+
+    /**
+     * Fills hits with a summary field. The second chunk (from hit 5) is held until the third (from hit 15)
+     * is filled, and the last (from hit 35) reports an error.
+     */
+    private static class FillingSearcher extends Searcher {
+
+        private final CountDownLatch thirdChunkFilled = new CountDownLatch(1);
+        private final AtomicInteger fills = new AtomicInteger();
+
+        @Override
+        public Result search(Query query, Execution execution) {
+            return execution.search(query);
+        }
+
+        @Override
+        public void fill(Result result, String summaryClass, Execution execution) {
+            fills.incrementAndGet();
+            String first = result.hits().get(0).getId().toString();
+            if (first.equals("hit:5"))
+                await(thirdChunkFilled);
+            for (Hit hit : result.hits().asList()) {
+                hit.setField("summary", "summary of " + hit.getId());
+                hit.setFilled(summaryClass);
+            }
+            if (first.equals("hit:15"))
+                thirdChunkFilled.countDown();
+            if (first.equals("hit:35"))
+                result.hits().addError(ErrorMessage.createEmptyDocsums("Missing summaries"));
+        }
+
+        private static void await(CountDownLatch latch) {
+            try {
+                assertTrue(latch.await(60, TimeUnit.SECONDS));
+            }
+            catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+    }
+
+}
@@ -1021,6 +1021,87 @@ public class JsonRendererTestCase {
         assertEqualJson(expected, summary);
     }
 
+    @Test
+    public void testStructuredDataIsTranscodedDirectly() throws InterruptedException, ExecutionException, IOException {
+        String expected = "{"
+                + "    \"root\": {"
+                + "        \"children\": ["
+                + "            {"
+                + "                \"fields\": {"
+                + "                    \"struct\": {"
+                + "                        \"empty\": null,"
+                + "                        \"bool\": true,"
+                + "                        \"long\": -7,"
+                + "                        \"double\": 2.5,"
+                + "                        \"nan\": null,"
+                + "                        \"string\": \"bl\u00e5b\u00e6r \\\"syltet\u00f8y\\\"\\n\","
+                + "                        \"data\": \"0x00FF7F\","
+                + "                        \"array\": [ 1, \"two\", { \"three\": [] } ]"
+                + "                    },"
+                + "                    \"map\": {"
+                + "                        \"k\u00e6y1\": { \"x\": 1 },"
+                + "                        \"key2\": [ { \"key\": \"nested\", \"value\": \"not a map\" } ]"
+                + "                    },"
+                + "                    \"duplicates\": {"
+                + "                        \"a\": 3,"
+                + "                        \"b\": 2"
+                + "                    }"
+                + "                },"
+                + "                \"id\": \"structured\","
+                + "                \"relevance\": 1.0"
+                + "            }"
+                + "        ],"
+                + "        \"fields\": {"
+                + "            \"totalCount\": 0"
+                + "        },"
+                + "        \"id\": \"toplevel\","
+                + "        \"relevance\": 1.0"
+                + "    }"
+                + "}";
+
+        Slime struct = new Slime();
+        Cursor c = struct.setObject();
+        c.setNix("empty");
+        c.setBool("bool", true);
+        c.setLong("long", -7);
+        c.setDouble("double", 2.5);
+        c.setDouble("nan", Double.NaN);
+        c.setString("string", "bl\u00e5b\u00e6r \"syltet\u00f8y\"\n");
+        c.setData("data", new byte[] { 0, -1, 127 });
+        Cursor array = c.setArray("array");
+        array.addLong(1);
+        array.addString("two");
+        array.addObject().setArray("three");
+
+        Slime map = new Slime();
+        Cursor entries = map.setArray();
+        Cursor entry = entries.addObject();
+        entry.setString("key", "k\u00e6y1");
+        entry.setObject("value").setLong("x", 1);
+        entry = entries.addObject();
+        entry.setString("key", "key2");
+        Cursor nested = entry.setArray("value").addObject();
+        nested.setString("key", "nested");
+        nested.setString("value", "not a map");
+
+        Slime duplicates = new Slime();
+        entries = duplicates.setArray();
+        for (String[] keyAndValue : new String[][] { { "a", "1" }, { "b", "2" }, { "a", "3" } }) {
+            entry = entries.addObject();
+            entry.setString("key", keyAndValue[0]);
+            entry.setLong("value", Long.parseLong(keyAndValue[1]));
+        }
+
+        Result r = newEmptyResult();
+        Hit h = new Hit("structured");
+        h.setField("struct", new StructuredData(new SlimeAdapter(struct.get())));
+        h.setField("map", new StructuredData(new SlimeAdapter(map.get())));
+        h.setField("duplicates", new StructuredData(new SlimeAdapter(duplicates.get())));
+        r.hits().add(h);
+        String summary = render(r);
+        assertEqualJson(expected, summary);
+    }
+
     @Test
     public void testFieldValueInHit() throws IOException, InterruptedException, ExecutionException {
         String expected = "{"
@@ -2,6 +2,8 @@
 package com.yahoo.document.json;
 
 import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.yahoo.document.DocumentOperation;
@@ -23,22 +25,36 @@ import com.yahoo.vespaxmlparser.RemoveFeedOperation;
  * The feed reader will take ownership of the input stream and close it when the
  * last parseable document has been read.
  *
+ * <p>
+ * Operations may be parsed in parallel by a {@link ParallelJsonReader}, by giving an executor to parse in.
+ *
  * @author Steinar Knutsen
  */
 public class JsonFeedReader implements FeedReader {
 
-    private final JsonReader reader;
+    private final Supplier<DocumentOperation> reader;
     private InputStream stream;
     private static final JsonFactory jsonFactory = new JsonFactory().disable(JsonFactory.Feature.CANONICALIZE_FIELD_NAMES);
 
     public JsonFeedReader(InputStream stream, DocumentTypeManager docMan) {
-        reader = new JsonReader(docMan, stream, jsonFactory);
+        reader = new JsonReader(docMan, stream, jsonFactory)::next;
+        this.stream = stream;
+    }
+
+    /**
+     * Creates a feed reader which parses operations in parallel in the given executor.
+     * The stream must contain UTF-8 encoded JSON.
+     *
+     * @param maxPending the max number of operations parsed ahead of the one returned by {@link #read}
+     */
+    public JsonFeedReader(InputStream stream, DocumentTypeManager docMan, Executor executor, int maxPending) {
+        reader = new ParallelJsonReader(docMan, stream, jsonFactory, executor, maxPending)::next;
         this.stream = stream;
     }
 
     @Override
     public FeedOperation read() throws Exception {
-        DocumentOperation documentOperation = reader.next();
+        DocumentOperation documentOperation = reader.get();
 
         if (documentOperation == null) {
             stream.close();
@@ -103,11 +103,31 @@ public class JsonReader {
             state = END_OF_FEED;
             return null;
         }
+        return createDocumentOperation(documentParseInfo.get());
+    }
+
+    /**
+     * Reads a single operation object which is not part of an array, as split out of a feed by {@link ParallelJsonReader}.
+     *
+     * @return the operation, or null if the object contains no operation, which ends a feed
+     */
+    DocumentOperation readOperation() {
+        Optional<DocumentParseInfo> documentParseInfo;
+        try {
+            documentParseInfo = parseDocument();
+        } catch (IOException e) {
+            state = END_OF_FEED;
+            throw new IllegalArgumentException(e);
+        }
+        return documentParseInfo.map(this::createDocumentOperation).orElse(null);
+    }
+
+    private DocumentOperation createDocumentOperation(DocumentParseInfo documentParseInfo) {
         VespaJsonDocumentReader vespaJsonDocumentReader = new VespaJsonDocumentReader();
         DocumentOperation operation = vespaJsonDocumentReader.createDocumentOperation(
-                getDocumentTypeFromString(documentParseInfo.get().documentId.getDocType(), typeManager),
-                documentParseInfo.get());
-        operation.setCondition(TestAndSetCondition.fromConditionString(documentParseInfo.get().condition));
+                getDocumentTypeFromString(documentParseInfo.documentId.getDocType(), typeManager),
+                documentParseInfo);
+        operation.setCondition(TestAndSetCondition.fromConditionString(documentParseInfo.condition));
         return operation;
     }
 
@@ -0,0 +1,265 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.document.json;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.yahoo.document.DocumentOperation;
+import com.yahoo.document.DocumentTypeManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Reads document operations from an InputStream containing a JSON feed array, like {@link JsonReader},
+ * but parses the operations in parallel.
+ *
+ * The calling thread only splits the input at the boundaries of the operation objects in the array,
+ * by scanning the raw bytes without tokenizing them. Each operation is then parsed by a {@link JsonReader}
+ * of its own in the given executor, in batches, while the following operations are split out. Operations are
+ * returned in feed order, so the order of operations on the same document is preserved.
+ *
+ * The input must be UTF-8 encoded. Errors in an operation are thrown when that operation is read, after
+ * all preceding operations have been returned. Unlike {@link JsonReader}, reading may continue after a
+ * syntax error inside an operation object, since the following operations are split out independently.
+ *
+ * @author agent
+ */
+public class ParallelJsonReader {
+
+    private static final int MAX_BATCH_OPERATIONS = 32;
+    private static final int MAX_BATCH_BYTES = 1 << 16;
+
+    private final DocumentTypeManager typeManager;
+    private final JsonFactory parserFactory;
+    private final Executor executor;
+    private final int maxPending;
+    private final FeedSplitter splitter;
+    /** Batches of parsed operations, or the exceptions thrown when parsing them, in feed order */
+    private final Deque<CompletableFuture<List<Object>>> pending = new ArrayDeque<>();
+    private int pendingOperations = 0;
+    private Iterator<Object> current = Collections.emptyIterator();
+    private boolean endOfFeed = false;
+
+    /**
+     * Creates a reader parsing the operations of the given input in the given executor.
+     *
+     * @param maxPending the max number of operations which are split out of the feed ahead of the one
+     *                   returned by {@link #next}, which bounds the parallelism and the memory used
+     */
+    public ParallelJsonReader(DocumentTypeManager typeManager, InputStream input, JsonFactory parserFactory,
+                              Executor executor, int maxPending) {
+        if (maxPending < 1) throw new IllegalArgumentException("maxPending must be positive, was " + maxPending);
+        this.typeManager = typeManager;
+        this.parserFactory = parserFactory;
+        this.executor = executor;
+        this.maxPending = maxPending;
+        this.splitter = new FeedSplitter(input);
+    }
+
+    /** Returns the next document operation, or null if we have reached the end */
+    public DocumentOperation next() {
+        split();
+        while ( ! current.hasNext()) {
+            if (pending.isEmpty()) return null;
+            List<Object> results = join(pending.poll());
+            pendingOperations -= results.size();
+            current = results.iterator();
+        }
+        Object result = current.next();
+        if (result instanceof RuntimeException) throw (RuntimeException) result;
+        if (result == null) { // An empty operation object ends the feed, as in JsonReader
+            endOfFeed = true;
+            pending.clear();
+            current = Collections.emptyIterator();
+        }
+        return (DocumentOperation) result;
+    }
+
+    /**
+     * Splits operations out of the feed and submits them for parsing in batches. This only waits for more input
+     * when there are no operations left to return, such that operations are returned as soon as they are parsed.
+     */
+    private void split() {
+        while ( ! endOfFeed && pendingOperations < maxPending
+                && ((pending.isEmpty() && ! current.hasNext()) || splitter.hasBufferedInput())) {
+            List<byte[]> batch = new ArrayList<>();
+            int batchBytes = 0;
+            RuntimeException failure = null;
+            do {
+                byte[] operation = null;
+                try {
+                    operation = splitter.next();
+                } catch (IOException e) {
+                    failure = new IllegalArgumentException(e);
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+                if (operation == null) {
+                    endOfFeed = true;
+                    break;
+                }
+                batch.add(operation);
+                batchBytes += operation.length;
+            } while (batch.size() < MAX_BATCH_OPERATIONS && batchBytes < MAX_BATCH_BYTES
+                     && pendingOperations + batch.size() < maxPending && splitter.hasBufferedInput());
+
+            if ( ! batch.isEmpty()) {
+                pending.add(CompletableFuture.supplyAsync(() -> parse(batch), executor));
+                pendingOperations += batch.size();
+            }
+            if (failure != null) {
+                pending.add(CompletableFuture.completedFuture(List.of(failure)));
+                pendingOperations++;
+            }
+        }
+    }
+
+    private List<Object> parse(List<byte[]> batch) {
+        List<Object> results = new ArrayList<>(batch.size());
+        for (byte[] operation : batch) {
+            try {
+                results.add(new JsonReader(typeManager, new ByteArrayInputStream(operation), parserFactory).readOperation());
+            } catch (RuntimeException e) {
+                results.add(e);
+            }
+        }
+        return results;
+    }
+
+    private static List<Object> join(CompletableFuture<List<Object>> results) {
+        try {
+            return results.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw e;
+        }
+    }
+
+    /** Splits a JSON array of objects into the bytes of each object, without tokenizing the content of the objects */
+    static final class FeedSplitter {
+
+        private final InputStream input;
+        private final byte[] buffer = new byte[1 << 16];
+        private int position = 0;
+        private int limit = 0;
+        private byte[] object = new byte[1 << 12];
+        private int objectLength = 0;
+        private boolean started = false;
+        private boolean ended = false;
+
+        FeedSplitter(InputStream input) {
+            this.input = input;
+        }
+
+        /** Returns whether there is input which can be read without blocking */
+        boolean hasBufferedInput() {
+            try {
+                return position < limit || input.available() > 0;
+            } catch (IOException e) {
+                return true; // Let the next read fail
+            }
+        }
+
+        /** Returns the bytes of the next object in the array, or null at the end of the array */
+        byte[] next() throws IOException {
+            if (ended) return null;
+            int c = nextNonWhitespace();
+            if ( ! started) {
+                started = true;
+                if (c == 0xef && read() == 0xbb && read() == 0xbf) { // UTF-8 byte order mark
+                    c = nextNonWhitespace();
+                }
+                if (c != '[') throw new IllegalArgumentException("Expected start of array, got " + describe(c));
+                c = nextNonWhitespace();
+            }
+            else if (c == ',') {
+                c = nextNonWhitespace();
+                if (c != '{') throw new IllegalArgumentException("Expected start of object, got " + describe(c));
+            }
+            else if (c != ']') {
+                throw new IllegalArgumentException("Expected ',' or end of array, got " + describe(c));
+            }
+
+            if (c == ']') {
+                ended = true;
+                return null;
+            }
+            if (c != '{') throw new IllegalArgumentException("Expected start of object or end of array, got " + describe(c));
+            return readObject();
+        }
+
+        /** Reads the object whose start was just read, and returns its bytes */
+        private byte[] readObject() throws IOException {
+            objectLength = 0;
+            int start = position - 1;
+            int depth = 1;
+            boolean inString = false;
+            boolean escaped = false;
+            while (true) {
+                if (position == limit) {
+                    append(start, position);
+                    if ( ! fill()) throw new IllegalArgumentException("Unexpected end of feed inside an object");
+                    start = 0;
+                }
+                byte b = buffer[position++];
+                if (inString) {
+                    if (escaped) escaped = false;
+                    else if (b == '\\') escaped = true;
+                    else if (b == '"') inString = false;
+                }
+                else if (b == '"') inString = true;
+                else if (b == '{' || b == '[') depth++;
+                else if ((b == '}' || b == ']') && --depth == 0) {
+                    append(start, position);
+                    return Arrays.copyOf(object, objectLength);
+                }
+            }
+        }
+
+        private void append(int from, int to) {
+            int length = to - from;
+            if (objectLength + length > object.length) {
+                object = Arrays.copyOf(object, Math.max(object.length * 2, objectLength + length));
+            }
+            System.arraycopy(buffer, from, object, objectLength, length);
+            objectLength += length;
+        }
+
+        private int nextNonWhitespace() throws IOException {
+            int c;
+            do {
+                c = read();
+            } while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+            return c;
+        }
+
+        /** Returns the next byte, or -1 at the end of input */
+        private int read() throws IOException {
+            if (position == limit && ! fill()) return -1;
+            return buffer[position++] & 0xff;
+        }
+
+        private boolean fill() throws IOException {
+            position = 0;
+            limit = Math.max(0, input.read(buffer, 0, buffer.length));
+            return limit > 0;
+        }
+
+        private static String describe(int c) {
+            return c < 0 ? "end of feed" : "'" + (char) c + "'";
+        }
+
+    }
+
+}
@@ -0,0 +1,417 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.document.select;
+
+import com.yahoo.document.DataType;
+import com.yahoo.document.Document;
+import com.yahoo.document.DocumentType;
+import com.yahoo.document.Field;
+import com.yahoo.document.NumericDataType;
+import com.yahoo.document.datatypes.ByteFieldValue;
+import com.yahoo.document.datatypes.DoubleFieldValue;
+import com.yahoo.document.datatypes.FieldValue;
+import com.yahoo.document.datatypes.FloatFieldValue;
+import com.yahoo.document.datatypes.IntegerFieldValue;
+import com.yahoo.document.datatypes.LongFieldValue;
+import com.yahoo.document.datatypes.NumericFieldValue;
+import com.yahoo.document.select.rule.AttributeNode;
+import com.yahoo.document.select.rule.ComparisonNode;
+import com.yahoo.document.select.rule.DocumentNode;
+import com.yahoo.document.select.rule.EmbracedNode;
+import com.yahoo.document.select.rule.ExpressionNode;
+import com.yahoo.document.select.rule.LiteralNode;
+import com.yahoo.document.select.rule.LogicNode;
+import com.yahoo.document.select.rule.NegationNode;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A document selection expression compiled for a single document type, which evaluates documents of that type
+ * without walking the expression tree: Fields are resolved once, comparisons against literals are done on
+ * primitive values with precompiled patterns, and logical operators short circuit.
+ *
+ * Only expressions consisting of logical operators, literals, document types and comparisons of simple
+ * numeric or string fields with literals are compiled. The result of a compiled selection is always equal
+ * to that of evaluating the expression it was compiled from.
+ *
+ * @author agent
+ */
+abstract class CompiledSelection {
+
+    /** Returns the result of this selection for the given document, which must be of the type it was compiled for */
+    abstract Result evaluate(Document document);
+
+    /**
+     * Compiles the given expression for documents of the given type.
+     *
+     * @return the compiled selection, or empty if the expression contains nodes which can not be compiled,
+     *         in which case the expression itself must be evaluated
+     */
+    static Optional<CompiledSelection> compile(ExpressionNode expression, DocumentType type) {
+        return Optional.ofNullable(compileNode(expression, type));
+    }
+
+    private static CompiledSelection compileNode(ExpressionNode node, DocumentType type) {
+        if (node instanceof EmbracedNode) {
+            return compileNode(((EmbracedNode) node).getNode(), type);
+        } else if (node instanceof NegationNode) {
+            CompiledSelection negated = compileNode(((NegationNode) node).getNode(), type);
+            return negated == null ? null : new Not(negated);
+        } else if (node instanceof LogicNode) {
+            return compileLogic((LogicNode) node, type);
+        } else if (node instanceof LiteralNode) {
+            return new Constant(Result.toResult(((LiteralNode) node).getValue()));
+        } else if (node instanceof DocumentNode) {
+            return new Constant(Result.toResult(type.isA(((DocumentNode) node).getType())));
+        } else if (node instanceof AttributeNode) {
+            FieldReader field = FieldReader.resolve((AttributeNode) node, type);
+            return field == null ? null : new Exists(field);
+        } else if (node instanceof ComparisonNode) {
+            return compileComparison((ComparisonNode) node, type);
+        }
+        return null;
+    }
+
+    /** Builds a tree of binary operators with the same precedence and evaluation order as {@link LogicNode} */
+    private static CompiledSelection compileLogic(LogicNode node, DocumentType type) {
+        List<LogicNode.NodeItem> items = node.getItems();
+        if (items.isEmpty()) return null;
+        for (int i = 1; i < items.size(); i++) {
+            int operator = items.get(i).getOperator();
+            if (operator != LogicNode.AND && operator != LogicNode.OR) return null;
+        }
+
+        Deque<Operand> stack = new ArrayDeque<>();
+        for (LogicNode.NodeItem item : items) {
+            CompiledSelection operand = compileNode(item.getNode(), type);
+            if (operand == null) return null;
+            while (stack.size() > 1 && stack.peek().operator >= item.getOperator()) {
+                combine(stack);
+            }
+            stack.push(new Operand(item.getOperator(), operand));
+        }
+        while (stack.size() > 1) {
+            combine(stack);
+        }
+        return stack.pop().selection;
+    }
+
+    private static void combine(Deque<Operand> stack) {
+        Operand rhs = stack.pop();
+        Operand lhs = stack.pop();
+        stack.push(new Operand(lhs.operator, rhs.operator == LogicNode.AND ? new And(lhs.selection, rhs.selection)
+                                                                            : new Or(lhs.selection, rhs.selection)));
+    }
+
+    private static CompiledSelection compileComparison(ComparisonNode node, DocumentType type) {
+        String operator = node.getOperator();
+        if (node.getLHS() instanceof LiteralNode && node.getRHS() instanceof LiteralNode) {
+            try {
+                return new Constant(Result.toResult(node.evaluate(new Context(null))));
+            } catch (RuntimeException e) {
+                return null; // Leave it to the expression to fail on evaluation
+            }
+        } else if (node.getLHS() instanceof AttributeNode && node.getRHS() instanceof LiteralNode) {
+            FieldReader field = FieldReader.resolve((AttributeNode) node.getLHS(), type);
+            return field == null ? null : compileComparison(field, operator, ((LiteralNode) node.getRHS()).getValue());
+        } else if (node.getLHS() instanceof LiteralNode && node.getRHS() instanceof AttributeNode) {
+            FieldReader field = FieldReader.resolve((AttributeNode) node.getRHS(), type);
+            String mirrored = mirror(operator);
+            return field == null || mirrored == null ? null
+                                                     : compileComparison(field, mirrored, ((LiteralNode) node.getLHS()).getValue());
+        }
+        return null;
+    }
+
+    private static CompiledSelection compileComparison(FieldReader field, String operator, Object literal) {
+        boolean equality = operator.equals("==") || operator.equals("=");
+        boolean relational = operator.equals("<") || operator.equals("<=") || operator.equals(">") || operator.equals(">=");
+        if ( ! equality && ! relational && ! operator.equals("!=") && ! operator.equals("=~")) return null;
+
+        Result ifMissing = equality ? Result.toResult(literal == null)
+                                    : operator.equals("!=") ? Result.toResult(literal != null) : Result.INVALID;
+        if (literal == null)
+            return new NullComparison(field, ifMissing, Result.invert(ifMissing));
+        if (operator.equals("==") || operator.equals("!="))
+            return new Equals(field, ifMissing, literal, operator.equals("!="));
+        if (relational)
+            return new Relation(field, ifMissing, operator, literal);
+        try {
+            String pattern = operator.equals("=~") ? "" + literal : globToRegex("" + literal);
+            return new Match(field, ifMissing, Pattern.compile(pattern));
+        } catch (PatternSyntaxException e) {
+            return null; // Leave it to the expression to fail on evaluation
+        }
+    }
+
+    /** Returns the operator giving the same result with the operands swapped, or null if there is none */
+    private static String mirror(String operator) {
+        switch (operator) {
+            case "==": case "!=": return operator;
+            case "<": return ">";
+            case "<=": return ">=";
+            case ">": return "<";
+            case ">=": return "<=";
+            default: return null;
+        }
+    }
+
+    /** Converts a glob pattern to a regular expression in the same way as {@link ComparisonNode} */
+    private static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder("^");
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*': regex.append(".*"); break;
+                case '?': regex.append('.'); break;
+                case '^': case '$': case '|': case '{': case '}': case '(': case ')':
+                case '[': case ']': case '\\': case '+': case '.':
+                    regex.append('\\').append(c); break;
+                default: regex.append(c);
+            }
+        }
+        return regex.append('$').toString();
+    }
+
+    private static Result and(Result lhs, Result rhs) {
+        if (lhs == Result.TRUE && rhs == Result.TRUE) return Result.TRUE;
+        if (lhs == Result.FALSE || rhs == Result.FALSE) return Result.FALSE;
+        return Result.INVALID;
+    }
+
+    private static Result or(Result lhs, Result rhs) {
+        if (lhs == Result.TRUE || rhs == Result.TRUE) return Result.TRUE;
+        if (lhs == Result.FALSE && rhs == Result.FALSE) return Result.FALSE;
+        return Result.INVALID;
+    }
+
+    /** Reads the value of a simple numeric or string field, resolved when compiling */
+    private static final class FieldReader {
+
+        /** The field to read, or null if this is an imported field, which is always treated as missing */
+        private final Field field;
+        private final boolean numeric;
+
+        private FieldReader(Field field, boolean numeric) {
+            this.field = field;
+            this.numeric = numeric;
+        }
+
+        FieldValue value(Document document) {
+            return field == null ? null : document.getFieldValue(field);
+        }
+
+        /** Returns the given value of this field as a double, or NaN if it is not numeric */
+        double numericValue(FieldValue value) {
+            if ( ! numeric) return Double.NaN;
+            if (value instanceof IntegerFieldValue) return ((IntegerFieldValue) value).getInteger();
+            if (value instanceof LongFieldValue) return ((LongFieldValue) value).getLong();
+            if (value instanceof DoubleFieldValue) return ((DoubleFieldValue) value).getDouble();
+            if (value instanceof FloatFieldValue) return ((FloatFieldValue) value).getFloat();
+            if (value instanceof ByteFieldValue) return ((ByteFieldValue) value).getByte();
+            if (value instanceof NumericFieldValue) return ((NumericFieldValue) value).getNumber().doubleValue();
+            return Double.NaN;
+        }
+
+        /** Returns a reader of the field referenced by the given node, or null if it is not a simple field of the given type */
+        static FieldReader resolve(AttributeNode node, DocumentType type) {
+            if ( ! (node.getValue() instanceof DocumentNode)) return null;
+            if ( ! type.isA(((DocumentNode) node.getValue()).getType())) return null;
+            if (node.getItems().size() != 1) return null;
+            AttributeNode.Item item = node.getItems().get(0);
+            if (item.getType() != AttributeNode.Item.ATTRIBUTE) return null;
+            String name = item.getName();
+            if (name.indexOf('.') >= 0 || name.indexOf('{') >= 0 || name.indexOf('[') >= 0) return null;
+
+            if (type.hasImportedField(name)) return new FieldReader(null, false);
+            Field field = type.getField(name);
+            if (field == null) return null;
+            if (field.getDataType() instanceof NumericDataType) return new FieldReader(field, true);
+            if (field.getDataType() == DataType.STRING) return new FieldReader(field, false);
+            return null;
+        }
+
+    }
+
+    private static final class Operand {
+
+        final int operator;
+        final CompiledSelection selection;
+
+        Operand(int operator, CompiledSelection selection) {
+            this.operator = operator;
+            this.selection = selection;
+        }
+
+    }
+
+    private static final class Constant extends CompiledSelection {
+
+        private final Result result;
+
+        Constant(Result result) { this.result = result; }
+
+        @Override
+        Result evaluate(Document document) { return result; }
+
+    }
+
+    private static final class Not extends CompiledSelection {
+
+        private final CompiledSelection selection;
+
+        Not(CompiledSelection selection) { this.selection = selection; }
+
+        @Override
+        Result evaluate(Document document) { return Result.invert(selection.evaluate(document)); }
+
+    }
+
+    private static final class And extends CompiledSelection {
+
+        private final CompiledSelection lhs, rhs;
+
+        And(CompiledSelection lhs, CompiledSelection rhs) {
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        @Override
+        Result evaluate(Document document) {
+            Result left = lhs.evaluate(document);
+            if (left == Result.FALSE) return Result.FALSE;
+            return and(left, rhs.evaluate(document));
+        }
+
+    }
+
+    private static final class Or extends CompiledSelection {
+
+        private final CompiledSelection lhs, rhs;
+
+        Or(CompiledSelection lhs, CompiledSelection rhs) {
+            this.lhs = lhs;
+            this.rhs = rhs;
+        }
+
+        @Override
+        Result evaluate(Document document) {
+            Result left = lhs.evaluate(document);
+            if (left == Result.TRUE) return Result.TRUE;
+            return or(left, rhs.evaluate(document));
+        }
+
+    }
+
+    /** A field on its own, which is true if the field has a value */
+    private static final class Exists extends CompiledSelection {
+
+        private final FieldReader field;
+
+        Exists(FieldReader field) { this.field = field; }
+
+        @Override
+        Result evaluate(Document document) { return Result.toResult(field.value(document) != null); }
+
+    }
+
+    /** A comparison of a field with a literal */
+    private static abstract class FieldComparison extends CompiledSelection {
+
+        final FieldReader field;
+        private final Result ifMissing;
+
+        FieldComparison(FieldReader field, Result ifMissing) {
+            this.field = field;
+            this.ifMissing = ifMissing;
+        }
+
+        @Override
+        Result evaluate(Document document) {
+            FieldValue value = field.value(document);
+            return value == null ? ifMissing : compare(value);
+        }
+
+        /** Returns the result of comparing the given, present value of the field with the literal */
+        abstract Result compare(FieldValue value);
+
+    }
+
+    private static final class NullComparison extends FieldComparison {
+
+        private final Result ifPresent;
+
+        NullComparison(FieldReader field, Result ifMissing, Result ifPresent) {
+            super(field, ifMissing);
+            this.ifPresent = ifPresent;
+        }
+
+        @Override
+        Result compare(FieldValue value) { return ifPresent; }
+
+    }
+
+    private static final class Equals extends FieldComparison {
+
+        private final double number;
+        private final String string;
+        private final boolean negate;
+
+        Equals(FieldReader field, Result ifMissing, Object literal, boolean negate) {
+            super(field, ifMissing);
+            this.number = literal instanceof Number ? ((Number) literal).doubleValue() : Double.NaN;
+            this.string = literal.toString();
+            this.negate = negate;
+        }
+
+        @Override
+        Result compare(FieldValue value) {
+            double a = field.numericValue(value);
+            boolean equal = Double.isNaN(a) || Double.isNaN(number) ? value.toString().equals(string) : a == number;
+            return Result.toResult(equal != negate);
+        }
+
+    }
+
+    private static final class Relation extends FieldComparison {
+
+        private final boolean less;
+        private final boolean orEqual;
+        private final double number;
+
+        Relation(FieldReader field, Result ifMissing, String operator, Object literal) {
+            super(field, ifMissing);
+            this.less = operator.startsWith("<");
+            this.orEqual = operator.endsWith("=");
+            this.number = literal instanceof Number ? ((Number) literal).doubleValue() : Double.NaN;
+        }
+
+        @Override
+        Result compare(FieldValue value) {
+            double a = field.numericValue(value);
+            if (Double.isNaN(a) || Double.isNaN(number)) return Result.INVALID;
+            if (a == number) return Result.toResult(orEqual);
+            return Result.toResult(less == (a < number));
+        }
+
+    }
+
+    private static final class Match extends FieldComparison {
+
+        private final Pattern pattern;
+
+        Match(FieldReader field, Result ifMissing, Pattern pattern) {
+            super(field, ifMissing);
+            this.pattern = pattern;
+        }
+
+        @Override
+        Result compare(FieldValue value) { return Result.toResult(pattern.matcher(value.toString()).find()); }
+
+    }
+
+}
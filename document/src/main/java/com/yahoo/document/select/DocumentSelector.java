@@ -1,13 +1,20 @@
 // Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
 package com.yahoo.document.select;
 
+import com.yahoo.document.Document;
 import com.yahoo.document.DocumentOperation;
+import com.yahoo.document.DocumentPut;
+import com.yahoo.document.DocumentType;
 import com.yahoo.document.select.parser.ParseException;
 import com.yahoo.document.select.parser.SelectInput;
 import com.yahoo.document.select.parser.SelectParser;
 import com.yahoo.document.select.parser.TokenMgrException;
 import com.yahoo.document.select.rule.ExpressionNode;
 
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * <p>A document selector is a filter which accepts or rejects documents
  * based on their type and content. A document selector has a textual
@@ -15,11 +22,15 @@ import com.yahoo.document.select.rule.ExpressionNode;
  *
  * <p>Document selectors are multithread safe.</p>
  *
+ * <p>Selections are compiled for each type of document put they are evaluated on, when possible,
+ * see {@link CompiledSelection}.</p>
+ *
  * @author bratseth
  */
 public class DocumentSelector {
 
     private ExpressionNode expression;
+    private final Map<DocumentType, Optional<CompiledSelection>> compiled = new ConcurrentHashMap<>();
 
     /**
      * Creates a document selector from a Document Selection Language string
@@ -61,6 +72,12 @@ public class DocumentSelector {
      * @throws RuntimeException if the evaluation enters an illegal state
      */
     public Result accepts(Context context) {
+        if (context.getDocumentOperation() instanceof DocumentPut) {
+            Document document = ((DocumentPut) context.getDocumentOperation()).getDocument();
+            Optional<CompiledSelection> selection = compiled.computeIfAbsent(document.getDataType(),
+                                                                             type -> CompiledSelection.compile(expression, type));
+            if (selection.isPresent()) return selection.get().evaluate(document);
+        }
         return Result.toResult(expression.evaluate(context));
     }
 
@@ -0,0 +1,98 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.document.json;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.yahoo.document.ArrayDataType;
+import com.yahoo.document.DataType;
+import com.yahoo.document.DocumentOperation;
+import com.yahoo.document.DocumentType;
+import com.yahoo.document.DocumentTypeManager;
+import com.yahoo.document.Field;
+import com.yahoo.document.WeightedSetDataType;
+import com.yahoo.text.Utf8;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Compares the throughput of parsing a JSON feed with {@link JsonReader} and with {@link ParallelJsonReader},
+ * for varying numbers of parsing threads. The number of operations in the feed may be set by the system
+ * property "operations".
+ *
+ * @author agent
+ */
+public class JsonFeedReaderBenchmark {
+
+    private static final int RUNS = 5;
+
+    private final DocumentTypeManager types = createTypes();
+    private final JsonFactory parserFactory = new JsonFactory().disable(JsonFactory.Feature.CANONICALIZE_FIELD_NAMES);
+
+    private void benchmark(int operations) throws InterruptedException {
+        byte[] feed = createFeed(operations);
+        System.out.println(String.format("Feed of %d operations, %d bytes", operations, feed.length));
+        run("JsonReader", feed, () -> new JsonReader(types, new ByteArrayInputStream(feed), parserFactory)::next);
+        for (int threads : new int[] { 1, 2, 4, 8 }) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            run("ParallelJsonReader, " + threads + " threads", feed,
+                () -> new ParallelJsonReader(types, new ByteArrayInputStream(feed), parserFactory, executor, threads * 64)::next);
+            executor.shutdown();
+        }
+    }
+
+    private void run(String name, byte[] feed, Supplier<Supplier<DocumentOperation>> readerFactory) {
+        long best = Long.MAX_VALUE;
+        long count = 0;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            Supplier<DocumentOperation> reader = readerFactory.get();
+            count = 0;
+            while (reader.get() != null) {
+                count++;
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.println(String.format("%-32s: %9.0f operations/s, %7.1f MB/s",
+                                         name, count * 1e9 / best, feed.length * 1e3 / best));
+    }
+
+    private static byte[] createFeed(int operations) {
+        StringBuilder feed = new StringBuilder("[\n");
+        for (int i = 0; i < operations; i++) {
+            if (i > 0) feed.append(",\n");
+            if (i % 10 == 9) {
+                feed.append("{\"update\":\"id:bench:music::").append(i / 2).append("\",\"fields\":{")
+                    .append("\"year\":{\"increment\":1},\"title\":{\"assign\":\"Updated title ").append(i).append("\"}}}");
+                continue;
+            }
+            feed.append("{\"put\":\"id:bench:music::").append(i).append("\",\"fields\":{")
+                .append("\"title\":\"A title of typical length, number ").append(i).append("\",")
+                .append("\"body\":\"").append("Some body text with \\\"quotes\\\", {braces} and [brackets]. ".repeat(8)).append("\",")
+                .append("\"year\":").append(1900 + i % 120).append(",")
+                .append("\"score\":").append(i * 0.5).append(",")
+                .append("\"tags\":[\"rock\",\"pop\",\"tag").append(i % 100).append("\"],")
+                .append("\"popularity\":{\"a\":1,\"b\":2,\"c").append(i % 10).append("\":3}}}");
+        }
+        return Utf8.toBytes(feed.append("\n]").toString());
+    }
+
+    private static DocumentTypeManager createTypes() {
+        DocumentTypeManager types = new DocumentTypeManager();
+        DocumentType type = new DocumentType("music");
+        type.addField(new Field("title", DataType.STRING));
+        type.addField(new Field("body", DataType.STRING));
+        type.addField(new Field("year", DataType.INT));
+        type.addField(new Field("score", DataType.DOUBLE));
+        type.addField(new Field("tags", new ArrayDataType(DataType.STRING)));
+        type.addField(new Field("popularity", new WeightedSetDataType(DataType.STRING, false, false)));
+        types.registerDocumentType(type);
+        return types;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        new JsonFeedReaderBenchmark().benchmark(Integer.getInteger("operations", 200000));
+    }
+
+}
@@ -0,0 +1,130 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.document.json;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.yahoo.document.DataType;
+import com.yahoo.document.DocumentOperation;
+import com.yahoo.document.DocumentType;
+import com.yahoo.document.DocumentTypeManager;
+import com.yahoo.document.Field;
+import com.yahoo.text.Utf8;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import static com.yahoo.test.json.JsonTestHelper.inputJson;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author agent
+ */
+public class ParallelJsonReaderTestCase {
+
+    private final DocumentTypeManager types = createTypes();
+    private final JsonFactory parserFactory = new JsonFactory();
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void requireThatOperationsAreReadInFeedOrder() {
+        StringBuilder feed = new StringBuilder("\uFEFF [\n");
+        for (int i = 0; i < 1000; i++) {
+            if (i > 0) feed.append(",\n");
+            switch (i % 3) {
+                case 0: feed.append(inputJson("{ 'put': 'id:unittest:smoke::doc" + i % 17 + "', 'fields': {",
+                                              "  'something': 'a } tricky \\\\ \\\" [ string {{ " + i + "',",
+                                              "  'int1': " + i + " } }")); break;
+                case 1: feed.append(inputJson("{ 'update': 'id:unittest:smoke::doc" + i % 17 + "', 'fields': {",
+                                              "  'int1': { 'increment': " + i + " } } }")); break;
+                default: feed.append(inputJson("{ 'remove': 'id:unittest:smoke::doc" + i % 17 + "' }"));
+            }
+        }
+        feed.append("\n]");
+
+        List<DocumentOperation> expected = readAll(new JsonReader(types, input(feed.toString().substring(1)), parserFactory)::next);
+        assertEquals(1000, expected.size());
+        for (int maxPending : new int[] { 1, 3, 100 }) {
+            ParallelJsonReader reader = new ParallelJsonReader(types, input(feed.toString()), parserFactory, executor, maxPending);
+            assertEquals(expected, readAll(reader::next));
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void requireThatErrorsAreThrownInFeedOrder() {
+        ParallelJsonReader reader = reader(inputJson("[ { 'remove': 'id:unittest:smoke::1' },",
+                                                     "  { 'remove': 'id:unittest:nonexisting::2' },",
+                                                     "  { 'remove': 'id:unittest:smoke::3' } ]"));
+        assertEquals("id:unittest:smoke::1", reader.next().getId().toString());
+        assertError("Document type nonexisting does not exist", reader);
+        assertEquals("id:unittest:smoke::3", reader.next().getId().toString());
+        assertNull(reader.next());
+    }
+
+    @Test
+    public void requireThatMalformedFeedsAreRejected() {
+        assertError("Expected start of array, got '{'", reader("{ }"));
+        assertError("Expected start of object or end of array, got '1'", reader("[ 1 ]"));
+        assertError("Expected start of object, got ']'", reader(inputJson("[ { 'remove': 'id:unittest:smoke::1' }, ]")), 1);
+        assertError("Unexpected end of feed inside an object", reader(inputJson("[ { 'remove': 'id:unittest:smoke::1' ")));
+        assertError("Expected ',' or end of array, got '{'",
+                    reader(inputJson("[ { 'remove': 'id:unittest:smoke::1' } { 'remove': 'id:unittest:smoke::2' } ]")), 1);
+        assertNull(reader("[ ]").next());
+        assertNull(reader("[ {}, { \"remove\": \"id:unittest:smoke::1\" } ]").next());
+    }
+
+    private void assertError(String message, ParallelJsonReader reader) {
+        assertError(message, reader, 0);
+    }
+
+    private void assertError(String message, ParallelJsonReader reader, int operationsBefore) {
+        for (int i = 0; i < operationsBefore; i++) {
+            reader.next();
+        }
+        try {
+            reader.next();
+            fail("Expected exception");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(message));
+        }
+    }
+
+    private ParallelJsonReader reader(String feed) {
+        return new ParallelJsonReader(types, input(feed), parserFactory, executor, 10);
+    }
+
+    private static ByteArrayInputStream input(String feed) {
+        return new ByteArrayInputStream(Utf8.toBytes(feed));
+    }
+
+    private static List<DocumentOperation> readAll(Supplier<DocumentOperation> reader) {
+        List<DocumentOperation> operations = new ArrayList<>();
+        for (DocumentOperation operation; (operation = reader.get()) != null; ) {
+            operations.add(operation);
+        }
+        return operations;
+    }
+
+    private static DocumentTypeManager createTypes() {
+        DocumentTypeManager types = new DocumentTypeManager();
+        DocumentType type = new DocumentType("smoke");
+        type.addField(new Field("something", DataType.STRING));
+        type.addField(new Field("int1", DataType.INT));
+        types.registerDocumentType(type);
+        return types;
+    }
+
+}
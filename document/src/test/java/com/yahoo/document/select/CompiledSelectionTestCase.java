@@ -0,0 +1,116 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.document.select;
+
+import com.yahoo.document.ArrayDataType;
+import com.yahoo.document.DataType;
+import com.yahoo.document.Document;
+import com.yahoo.document.DocumentId;
+import com.yahoo.document.DocumentPut;
+import com.yahoo.document.DocumentRemove;
+import com.yahoo.document.DocumentType;
+import com.yahoo.document.datatypes.DoubleFieldValue;
+import com.yahoo.document.datatypes.IntegerFieldValue;
+import com.yahoo.document.datatypes.LongFieldValue;
+import com.yahoo.document.datatypes.StringFieldValue;
+import com.yahoo.document.select.parser.ParseException;
+import com.yahoo.document.select.parser.SelectInput;
+import com.yahoo.document.select.parser.SelectParser;
+import com.yahoo.document.select.rule.ExpressionNode;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author agent
+ */
+public class CompiledSelectionTestCase {
+
+    private final DocumentType type = createType();
+
+    @Test
+    public void requireThatCompiledSelectionsEvaluateAsTheExpression() throws ParseException {
+        List<String> compiled = List.of(
+                "true", "false", "null", "0", "1", "test", "other", "not test",
+                "test.number", "test.missing", "test.imported", "test.text",
+                "test.number == 3", "test.number != 3", "test.number == 3.0", "test.number == \"3\"",
+                "test.number == null", "test.number != null", "test.imported == null", "test.imported != null",
+                "test.number < 3", "test.number <= 3", "test.number > 3", "test.number >= 3", "test.number > \"3\"",
+                "3 < test.number", "3 <= test.number", "3 > test.number", "3 >= test.number", "3 == test.number",
+                "test.big > 4294967296", "test.ratio < 0.5", "test.ratio == 0.25", "test.imported > 0",
+                "test.text == \"foo\"", "test.text != \"foo\"", "test.text == 3", "test.text < 3", "test.text == null",
+                "test.text =~ \"^fo+\"", "test.text =~ \"bar\"", "test.text = \"f*\"", "test.text = \"f?o\"", "test.text = null",
+                "test.number =~ \"3\"", "test.missing = \"*\"", "test.missing =~ \"x\"", "test.missing < 3",
+                "1 == 1", "1 < 2", "\"a\" =~ \"b\"",
+                "test.number == 3 and test.text == \"foo\"", "test.number == 3 or test.text == \"foo\"",
+                "test.missing > 3 and test.number == 3", "test.missing > 3 or test.number == 3",
+                "test.missing > 3 and test.number != 3", "test.missing > 3 or test.number != 3",
+                "test.number > 3 and test.missing > 3", "test.number > 3 or test.missing > 3",
+                "not test.missing > 3", "not (test.number == 3 or test.missing < 0)",
+                "test.number == 3 or test.number == 4 and test.text == \"bar\"",
+                "(test.number == 3 or test.number == 4) and test.text == \"bar\"",
+                "test and test.number >= 1 or other and test.missing == 2 and not test.text = \"*a*\"");
+        List<String> interpreted = List.of(
+                "test.nested.key == 3", "test.numbers == 3", "test.numbers[0] == 3", "other.number == 3",
+                "test.number == test.ratio", "\"foo\" =~ test.text", "id.namespace == \"ns\"",
+                "test.number + 1 == 4", "test.number.abs() == 3", "test.number == 3 and test.numbers == 3");
+
+        List<Document> documents = createDocuments();
+        for (String selection : compiled) {
+            ExpressionNode expression = parse(selection);
+            CompiledSelection compiledSelection = CompiledSelection.compile(expression, type).orElse(null);
+            assertTrue("'" + selection + "' is compiled", compiledSelection != null);
+            for (Document document : documents) {
+                Result expected = Result.toResult(expression.evaluate(new Context(new DocumentPut(document))));
+                assertEquals("'" + selection + "' on " + document, expected, compiledSelection.evaluate(document));
+            }
+        }
+        for (String selection : interpreted) {
+            assertFalse("'" + selection + "' is not compiled", CompiledSelection.compile(parse(selection), type).isPresent());
+        }
+    }
+
+    @Test
+    public void requireThatSelectorUsesCompiledSelectionForPutsOnly() throws ParseException {
+        DocumentSelector selector = new DocumentSelector("test.number > 2 and test.text =~ \"^f\"");
+        Document document = createDocuments().get(1);
+        assertEquals(Result.TRUE, selector.accepts(new DocumentPut(document)));
+        assertEquals(Result.INVALID, selector.accepts(new DocumentRemove(document.getId())));
+    }
+
+    private ExpressionNode parse(String selection) throws ParseException {
+        return new SelectParser(new SelectInput(selection)).expression();
+    }
+
+    private static DocumentType createType() {
+        DocumentType type = new DocumentType("test", Set.of("imported"));
+        type.addField("number", DataType.INT);
+        type.addField("big", DataType.LONG);
+        type.addField("ratio", DataType.DOUBLE);
+        type.addField("missing", DataType.INT);
+        type.addField("text", DataType.STRING);
+        type.addField("numbers", new ArrayDataType(DataType.INT));
+        return type;
+    }
+
+    private List<Document> createDocuments() {
+        List<Document> documents = new ArrayList<>();
+        documents.add(new Document(type, new DocumentId("id:ns:test::empty")));
+        int i = 0;
+        for (Object[] values : new Object[][] { { 3, "foo", 0.25 }, { 4, "bar", 0.75 }, { -1, "fooo", Double.NaN } }) {
+            Document document = new Document(type, new DocumentId("id:ns:test::" + i++));
+            document.setFieldValue("number", new IntegerFieldValue((Integer) values[0]));
+            document.setFieldValue("text", new StringFieldValue((String) values[1]));
+            document.setFieldValue("ratio", new DoubleFieldValue((Double) values[2]));
+            document.setFieldValue("big", new LongFieldValue(1L << (32 + i)));
+            documents.add(document);
+        }
+        return documents;
+    }
+
+}
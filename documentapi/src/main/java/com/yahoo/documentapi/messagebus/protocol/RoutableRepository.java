@@ -31,6 +31,9 @@ import java.util.logging.Logger;
 final class RoutableRepository {
 
     private static final Logger log = Logger.getLogger(RoutableRepository.class.getName());
+    private static final int INITIAL_ENCODE_BUFFER_SIZE = 8192;
+    private static final int MAX_RETAINED_ENCODE_BUFFER_SIZE = 1 << 20;
+    private static final ThreadLocal<GrowableByteBuffer> encodeBuffer = new ThreadLocal<>();
     private final CopyOnWriteHashMap<Integer, VersionMap> factoryTypes = new CopyOnWriteHashMap<>();
     private final CopyOnWriteHashMap<CacheKey, RoutableFactory> cache = new CopyOnWriteHashMap<>();
     private LoadTypeSet loadTypes;
@@ -97,18 +100,41 @@ final class RoutableRepository {
             log.log(Level.SEVERE,"Can not encode routable type " + type + " (version " + version + "). Only major version 5 and up supported.");
             return new byte[0];
         }
-        DocumentSerializer out= DocumentSerializerFactory.createHead(new GrowableByteBuffer(8192));
+        GrowableByteBuffer buffer = takeEncodeBuffer();
+        try {
+            DocumentSerializer out = DocumentSerializerFactory.createHead(buffer);
 
-        out.putInt(null, type);
-        if (!factory.encode(obj, out)) {
-            log.log(Level.SEVERE, "Routable factory " + factory.getClass().getName() + " failed to serialize " +
-                                    "routable of type " + type + " (version " + version + ").");
-            return new byte[0];
+            out.putInt(null, type);
+            if (!factory.encode(obj, out)) {
+                log.log(Level.SEVERE, "Routable factory " + factory.getClass().getName() + " failed to serialize " +
+                                        "routable of type " + type + " (version " + version + ").");
+                return new byte[0];
+            }
+            byte[] ret = new byte[out.getBuf().position()];
+            out.getBuf().rewind();
+            out.getBuf().get(ret);
+            return ret;
+        } finally {
+            returnEncodeBuffer(buffer);
+        }
+    }
+
+    /**
+     * Returns the encoding buffer of the calling thread, cleared, or a new one if it is in use by an encoding
+     * further up the stack. Reusing the buffer avoids allocating and growing a new one for each routable.
+     */
+    private static GrowableByteBuffer takeEncodeBuffer() {
+        GrowableByteBuffer buffer = encodeBuffer.get();
+        if (buffer == null) return new GrowableByteBuffer(INITIAL_ENCODE_BUFFER_SIZE);
+        encodeBuffer.set(null);
+        buffer.clear();
+        return buffer;
+    }
+
+    private static void returnEncodeBuffer(GrowableByteBuffer buffer) {
+        if (buffer.capacity() <= MAX_RETAINED_ENCODE_BUFFER_SIZE) {
+            encodeBuffer.set(buffer);
         }
-        byte[] ret = new byte[out.getBuf().position()];
-        out.getBuf().rewind();
-        out.getBuf().get(ret);
-        return ret;
     }
 
     /**
@@ -0,0 +1,80 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.jrt;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pool of direct byte buffers used by the connections of a single
+ * {@link TransportThread}. Direct buffers are passed to the socket
+ * channel without being copied, but are expensive to allocate, so
+ * buffers released when connections grow, shrink or close are kept
+ * for reuse. Capacities are rounded up to a power of two, and a
+ * bounded number of free buffers of each capacity is kept.
+ *
+ * @author agent
+ */
+class BufferPool {
+
+    static final int MIN_SIZE_BITS = 12;
+    static final int MAX_SIZE_BITS = 20;
+    static final int MAX_FREE_PER_SIZE = 16;
+
+    private final List<ArrayDeque<ByteBuffer>> free = new ArrayList<>();
+    private long hits = 0;
+    private long misses = 0;
+
+    BufferPool() {
+        for (int bits = MIN_SIZE_BITS; bits <= MAX_SIZE_BITS; bits++) {
+            free.add(new ArrayDeque<>());
+        }
+    }
+
+    /** Returns the capacity of the buffers allocated for the given minimum size */
+    static int capacityFor(int size) {
+        if (size <= (1 << MIN_SIZE_BITS)) return 1 << MIN_SIZE_BITS;
+        if (size > (1 << MAX_SIZE_BITS)) return size;
+        return Integer.highestOneBit(size - 1) << 1;
+    }
+
+    /** Returns a cleared, big endian direct buffer with at least the given capacity */
+    synchronized ByteBuffer allocate(int size) {
+        int capacity = capacityFor(size);
+        ArrayDeque<ByteBuffer> buffers = freeList(capacity);
+        ByteBuffer buffer = (buffers != null) ? buffers.poll() : null;
+        if (buffer == null) {
+            misses++;
+            return ByteBuffer.allocateDirect(capacity);
+        }
+        hits++;
+        buffer.clear();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        return buffer;
+    }
+
+    /** Returns the given buffer to this pool. The buffer must not be used by the caller afterwards. */
+    synchronized void release(ByteBuffer buffer) {
+        if ( ! buffer.isDirect()) return;
+        ArrayDeque<ByteBuffer> buffers = freeList(buffer.capacity());
+        if (buffers != null && buffers.size() < MAX_FREE_PER_SIZE) {
+            buffers.add(buffer);
+        }
+    }
+
+    /** Returns the number of allocations served by a free buffer */
+    synchronized long hits() { return hits; }
+
+    /** Returns the number of allocations which needed a new buffer */
+    synchronized long misses() { return misses; }
+
+    private ArrayDeque<ByteBuffer> freeList(int capacity) {
+        if (Integer.bitCount(capacity) != 1) return null;
+        int bits = Integer.numberOfTrailingZeros(capacity);
+        if (bits < MIN_SIZE_BITS || bits > MAX_SIZE_BITS) return null;
+        return free.get(bits - MIN_SIZE_BITS);
+    }
+
+}
@@ -32,8 +32,8 @@ class Connection extends Target {
     private int state = INITIAL;
     private final Queue  queue   = new Queue();
     private final Queue  myQueue = new Queue();
-    private final Buffer input   = new Buffer(READ_SIZE * 2);
-    private final Buffer output  = new Buffer(WRITE_SIZE * 2);
+    private final Buffer input;
+    private final Buffer output;
     private int maxInputSize  = 64*1024;
     private int maxOutputSize = 64*1024;
     private final boolean tcpNoDelay;
@@ -94,6 +94,8 @@ class Connection extends Target {
 
         this.parent = parent;
         this.owner = owner;
+        this.input = new Buffer(READ_SIZE * 2, parent.bufferPool());
+        this.output = new Buffer(WRITE_SIZE * 2, parent.bufferPool());
         this.socket = parent.transport().createServerCryptoSocket(channel);
         this.spec = null;
         this.tcpNoDelay = tcpNoDelay;
@@ -105,6 +107,8 @@ class Connection extends Target {
         super(context);
         this.parent = parent;
         this.owner = owner;
+        this.input = new Buffer(READ_SIZE * 2, parent.bufferPool());
+        this.output = new Buffer(WRITE_SIZE * 2, parent.bufferPool());
         this.spec = spec;
         this.tcpNoDelay = tcpNoDelay;
         server = false;
@@ -296,17 +300,25 @@ class Connection extends Target {
 
     private void read() throws IOException {
         boolean doneRead = false;
+        int reads = 0;
+        long bytes = 0;
         for (int i = 0; !doneRead && i < READ_REDO; i++) {
             ByteBuffer wb = input.getChannelWritable(readSize);
-            if (socket.read(wb) == -1) {
+            int n = socket.read(wb);
+            if (n == -1) {
+                parent.countReads(reads + 1, bytes);
                 throw new IOException("jrt: Connection closed by peer");
             }
+            reads++;
+            bytes += n;
             doneRead = (wb.remaining() > 0);
             handlePackets();
         }
-        while (socket.drain(input.getChannelWritable(readSize)) > 0) {
+        for (int n; (n = socket.drain(input.getChannelWritable(readSize))) > 0; ) {
+            bytes += n;
             handlePackets();
         }
+        parent.countReads(reads, bytes);
         if (maxInputSize > 0) {
             input.shrink(maxInputSize);
         }
@@ -326,6 +338,8 @@ class Connection extends Target {
         synchronized (this) {
             queue.flush(myQueue);
         }
+        int writes = 0;
+        long bytes = 0;
         for (int i = 0; i < WRITE_REDO; i++) {
             while (output.bytes() < WRITE_SIZE) {
                 Packet packet = (Packet) myQueue.dequeue();
@@ -341,11 +355,13 @@ class Connection extends Target {
             if (rb.remaining() == 0) {
                 break;
             }
-            socket.write(rb);
+            writes++;
+            bytes += socket.write(rb);
             if (rb.remaining() > 0) {
                 break;
             }
         }
+        parent.countWrites(writes, bytes);
         int myWriteWork = 0;
         if (output.bytes() > 0) {
             myWriteWork++;
@@ -383,6 +399,8 @@ class Connection extends Target {
         if (selectionKey != null) {
             selectionKey.cancel();
         }
+        input.release();
+        output.release();
     }
 
     public boolean isClosed() {
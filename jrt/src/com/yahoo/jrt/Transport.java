@@ -4,6 +4,8 @@ package com.yahoo.jrt;
 
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
@@ -28,6 +30,7 @@ public class Transport {
     private final AtomicInteger     runCnt;
     private final boolean tcpNoDelay;
     private final int eventsBeforeWakeup;
+    private final boolean directBuffers;
 
     private final TransportMetrics metrics = TransportMetrics.getInstance();
     private final ArrayList<TransportThread> threads = new ArrayList<>();
@@ -44,13 +47,17 @@ public class Transport {
      * @param cryptoEngine crypto engine to use
      * @param numThreads number of {@link TransportThread}s.
      * @param eventsBeforeWakeup number write events in Q before waking thread up
+     * @param directBuffers whether connections should use pooled direct buffers,
+     *                      which avoids copying between the heap and the socket
      **/
-    public Transport(String name, FatalErrorHandler fatalHandler, CryptoEngine cryptoEngine, int numThreads, boolean tcpNoDelay, int eventsBeforeWakeup) {
+    public Transport(String name, FatalErrorHandler fatalHandler, CryptoEngine cryptoEngine, int numThreads, boolean tcpNoDelay,
+                     int eventsBeforeWakeup, boolean directBuffers) {
         this.name = name;
         this.fatalHandler = fatalHandler; // NB: this must be set first
         this.cryptoEngine = cryptoEngine;
         this.tcpNoDelay = tcpNoDelay;
         this.eventsBeforeWakeup = Math.max(1, eventsBeforeWakeup);
+        this.directBuffers = directBuffers;
         connector = new Connector();
         worker = new Worker(this);
         runCnt = new AtomicInteger(numThreads);
@@ -58,6 +65,9 @@ public class Transport {
             threads.add(new TransportThread(this, i));
         }
     }
+    public Transport(String name, FatalErrorHandler fatalHandler, CryptoEngine cryptoEngine, int numThreads, boolean tcpNoDelay, int eventsBeforeWakeup) {
+        this(name, fatalHandler, cryptoEngine, numThreads, tcpNoDelay, eventsBeforeWakeup, false);
+    }
     public Transport(String name, CryptoEngine cryptoEngine, int numThreads, int eventsBeforeWakeup) {
         this(name, null, cryptoEngine, numThreads, true, eventsBeforeWakeup);
     }
@@ -87,7 +97,18 @@ public class Transport {
         return threads.get(rnd.nextInt(threads.size()));
     }
 
+    /**
+     * Obtain the transport threads of this Transport, e.g. to inspect
+     * their IO counters.
+     *
+     * @return the transport threads
+     **/
+    public List<TransportThread> threads() {
+        return Collections.unmodifiableList(threads);
+    }
+
     boolean getTcpNoDelay() { return tcpNoDelay; }
+    boolean getDirectBuffers() { return directBuffers; }
     int getEventsBeforeWakeup() { return eventsBeforeWakeup; }
 
     String getName() { return name; }
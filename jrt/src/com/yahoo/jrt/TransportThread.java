@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -76,6 +77,12 @@ public class TransportThread {
     private final Scheduler scheduler;
     private int             state;
     private final Selector  selector;
+    private final BufferPool bufferPool;
+
+    private final LongAdder readCalls = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder writeCalls = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
 
     private void handleAddConnection(Connection conn) {
         if (conn.isClosed()) {
@@ -173,6 +180,7 @@ public class TransportThread {
         myQueue   = new Queue();
         scheduler = new Scheduler(System.currentTimeMillis());
         state     = OPEN;
+        bufferPool = transport.getDirectBuffers() ? new BufferPool() : null;
         try {
             selector = Selector.open();
         } catch (Exception e) {
@@ -186,6 +194,76 @@ public class TransportThread {
         return parent;
     }
 
+    /**
+     * Obtain the pool of direct buffers used by the connections of
+     * this thread, or null if connections use heap buffers.
+     *
+     * @return the buffer pool, or null
+     **/
+    BufferPool bufferPool() {
+        return bufferPool;
+    }
+
+    void countReads(int calls, long bytes) {
+        readCalls.add(calls);
+        bytesRead.add(bytes);
+    }
+
+    void countWrites(int calls, long bytes) {
+        writeCalls.add(calls);
+        bytesWritten.add(bytes);
+    }
+
+    /**
+     * Obtain the number of reads from connection sockets done by this
+     * thread. For unencrypted connections each read is a single
+     * system call.
+     *
+     * @return the number of socket reads
+     **/
+    public long readCalls() { return readCalls.sum(); }
+
+    /**
+     * Obtain the number of (decrypted) bytes read by this thread.
+     *
+     * @return the number of bytes read
+     **/
+    public long bytesRead() { return bytesRead.sum(); }
+
+    /**
+     * Obtain the number of writes to connection sockets done by this
+     * thread. For unencrypted connections each write is a single
+     * system call.
+     *
+     * @return the number of socket writes
+     **/
+    public long writeCalls() { return writeCalls.sum(); }
+
+    /**
+     * Obtain the number of (unencrypted) bytes written by this thread.
+     *
+     * @return the number of bytes written
+     **/
+    public long bytesWritten() { return bytesWritten.sum(); }
+
+    /**
+     * Obtain the number of connection buffers served by a pooled
+     * direct buffer. This is always 0 unless the transport uses
+     * direct buffers.
+     *
+     * @return the number of buffer pool hits
+     **/
+    public long bufferPoolHits() { return (bufferPool != null) ? bufferPool.hits() : 0; }
+
+    /**
+     * Obtain the number of connection buffers for which a new direct
+     * buffer was allocated. This is always 0 unless the transport
+     * uses direct buffers.
+     *
+     * @return the number of buffer pool misses
+     **/
+    public long bufferPoolMisses() { return (bufferPool != null) ? bufferPool.misses() : 0; }
+
     /**
      * Proxy method used to dispatch fatal errors to the enclosing
      * Transport.
@@ -278,4 +278,34 @@ public class BufferTest {
         }
     }
 
+    @org.junit.Test
+    public void testPooledBuffer() {
+        BufferPool pool = new BufferPool();
+        Buffer buf = new Buffer(5000, pool);
+        ByteBuffer b = buf.getWritable(10);
+        assertTrue(b.isDirect());
+        assertEquals(8192, b.capacity());
+        b.put((byte)42);
+        b = buf.getWritable(20000);
+        assertTrue(b.isDirect());
+        assertEquals(32768, b.capacity());
+        assertEquals(0, pool.hits());
+        assertEquals(2, pool.misses());
+
+        assertFalse(buf.shrink(20000));
+        assertTrue(buf.shrink(8000));
+        assertEquals(1, pool.hits());
+        b = buf.getReadable();
+        assertEquals(8192, b.capacity());
+        assertEquals(1, b.remaining());
+        assertEquals(42, b.get());
+
+        buf.release();
+        assertEquals(0, buf.bytes());
+        Buffer other = new Buffer(30000, pool);
+        assertEquals(32768, other.getWritable(1).capacity());
+        assertEquals(2, pool.hits());
+        assertEquals(2, pool.misses());
+    }
+
 }
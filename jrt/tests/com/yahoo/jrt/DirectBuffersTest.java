@@ -0,0 +1,74 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.jrt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author agent
+ */
+public class DirectBuffersTest {
+
+    Supervisor server;
+    Acceptor   acceptor;
+    Supervisor client;
+    Target     target;
+
+    @Before
+    public void setUp() throws ListenFailedException {
+        server   = new Supervisor(new Transport("server", null, new NullCryptoEngine(), 1, true, 1, true));
+        client   = new Supervisor(new Transport("client", null, new NullCryptoEngine(), 1, true, 1, true));
+        acceptor = server.listen(new Spec(0));
+        target   = client.connect(new Spec("localhost", acceptor.port()));
+        server.addMethod(new Method("echo", "x", "x", req -> req.returnValues().add(req.parameters().get(0))));
+    }
+
+    @After
+    public void tearDown() {
+        target.close();
+        acceptor.shutdown().join();
+        client.transport().shutdown().join();
+        server.transport().shutdown().join();
+    }
+
+    @Test
+    public void requireThatRequestsAreEchoedThroughPooledDirectBuffers() {
+        for (int size : new int[] { 10, 100000, 3000000, 10 }) {
+            byte[] data = new byte[size];
+            Arrays.fill(data, (byte) size);
+            Request req = new Request("echo");
+            req.parameters().add(new DataValue(data));
+            target.invokeSync(req, 30.0);
+            assertFalse(req.errorMessage(), req.isError());
+            assertArrayEquals(data, req.returnValues().get(0).asData());
+        }
+
+        TransportThread thread = client.transport().threads().get(0);
+        assertEquals(1, client.transport().threads().size());
+        assertTrue(thread.writeCalls() > 0);
+        assertTrue(thread.readCalls() > 0);
+        assertTrue(thread.bytesWritten() > 3100000);
+        assertTrue(thread.bytesRead() > 3100000);
+        assertTrue(thread.bufferPoolMisses() >= 2);
+        assertTrue(server.transport().threads().get(0).bufferPoolMisses() >= 2);
+    }
+
+    @Test
+    public void requireThatHeapBuffersAreUsedByDefault() {
+        Transport transport = new Transport("heap");
+        TransportThread thread = transport.threads().get(0);
+        assertEquals(null, thread.bufferPool());
+        assertEquals(0, thread.bufferPoolHits());
+        assertEquals(0, thread.bufferPoolMisses());
+        transport.shutdown().join();
+    }
+
+}
@@ -16,6 +16,12 @@ import java.util.logging.Logger;
  * tasks. Tasks are enqueued using the synchronized {@link #enqueue(Task)}
  * method, and are run in the order they were enqueued.</p>
  *
+ * <p>Messages and replies are not passed through this thread; they are
+ * delivered directly in the calling thread by {@link #deliverMessage} and
+ * {@link #deliverReply}, so sending and replying scales with the network
+ * threads. This thread runs the recurrent tasks, i.e. the resender, and
+ * the handshakes of {@link #sync()}.</p>
+ *
  * @author Simon Thoresen Hult
  */
 public class Messenger implements Runnable {
@@ -54,9 +60,8 @@ public class Messenger implements Runnable {
     }
 
     /**
-     * <p>Convenience method to post a {@link Task} that delivers a {@link
-     * Message} to a {@link MessageHandler} to the queue of tasks to be
-     * executed.</p>
+     * <p>Delivers a {@link Message} to a {@link MessageHandler} in the
+     * calling thread, or discards it if this has been destroyed.</p>
      *
      * @param msg     The message to send.
      * @param handler The handler to send to.
@@ -70,9 +75,8 @@ public class Messenger implements Runnable {
     }
 
     /**
-     * <p>Convenience method to post a {@link Task} that delivers a {@link
-     * Reply} to a {@link ReplyHandler} to the queue of tasks to be
-     * executed.</p>
+     * <p>Delivers a {@link Reply} to a {@link ReplyHandler} in the calling
+     * thread, or discards it if this has been destroyed.</p>
      *
      * @param reply   The reply to return.
      * @param handler The handler to return to.
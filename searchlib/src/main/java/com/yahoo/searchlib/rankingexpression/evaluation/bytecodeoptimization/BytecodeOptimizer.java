@@ -0,0 +1,78 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.searchlib.rankingexpression.evaluation.bytecodeoptimization;
+
+import com.yahoo.searchlib.rankingexpression.RankingExpression;
+import com.yahoo.searchlib.rankingexpression.evaluation.ContextIndex;
+import com.yahoo.searchlib.rankingexpression.evaluation.DoubleOnlyArrayContext;
+import com.yahoo.searchlib.rankingexpression.evaluation.OptimizationReport;
+import com.yahoo.searchlib.rankingexpression.evaluation.Optimizer;
+import com.yahoo.searchlib.rankingexpression.rule.CompositeNode;
+import com.yahoo.searchlib.rankingexpression.rule.ExpressionNode;
+import com.yahoo.searchlib.rankingexpression.rule.ReferenceNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Replaces the largest subexpressions over scalars by nodes compiled to bytecode, which read their inputs
+ * directly from the context and evaluate without creating a value for each node. Subexpressions which
+ * cannot be compiled, such as those producing tensors, are left to be evaluated as before.
+ *
+ * This is only done for expressions whose context is a {@link DoubleOnlyArrayContext}, as only
+ * that guarantees that all inputs are scalars. Other contexts, such as the lazy contexts of model evaluation,
+ * are not supported since functions may be optimized with the context of one function but evaluated in the
+ * context of another, where the same names are bound to different indexes.
+ *
+ * Subexpressions too large to be compiled to a single method are split into the largest ones which
+ * are not. The code size of each subexpression is measured once before the expression is split.
+ *
+ * @author agent
+ */
+public class BytecodeOptimizer extends Optimizer {
+
+    /**
+     * Compiles the largest scalar subexpressions of the given expression
+     *
+     * @param expression the expression to destructively optimize
+     * @param context    a fast lookup context created from the given expression
+     * @param report     the optimization report to which actions of this is logged
+     */
+    @Override
+    public void optimize(RankingExpression expression, ContextIndex context, OptimizationReport report) {
+        if ( ! isEnabled()) return;
+        if ( ! (context instanceof DoubleOnlyArrayContext)) return;
+
+        DoubleOnlyArrayContext doubleContext = (DoubleOnlyArrayContext)context;
+        Map<ExpressionNode, Integer> codeSizes = ExpressionCompiler.codeSizes(expression.getRoot(), doubleContext);
+        expression.setRoot(compile(expression.getRoot(), doubleContext, codeSizes, report));
+        report.note("Bytecode compilation done");
+    }
+
+    /**
+     * Descends from the top and compiles the largest compilable subexpressions which are small enough
+     *
+     * @return the resulting node, which may be the input node if nothing could be compiled
+     */
+    private ExpressionNode compile(ExpressionNode node, DoubleOnlyArrayContext context,
+                                   Map<ExpressionNode, Integer> codeSizes, OptimizationReport report) {
+        if ( ! (node instanceof CompositeNode) || node instanceof ReferenceNode) return node; // nothing to gain
+
+        Integer codeSize = codeSizes.get(node);
+        if (codeSize != null && codeSize <= ExpressionCompiler.MAX_CODE_SIZE) {
+            Optional<CompiledNode> compiled = ExpressionCompiler.compile(node, context);
+            if (compiled.isPresent()) {
+                report.incMetric("Compiled expressions", 1);
+                return compiled.get();
+            }
+        }
+
+        CompositeNode composite = (CompositeNode)node;
+        List<ExpressionNode> newChildren = new ArrayList<>();
+        for (ExpressionNode child : composite.children())
+            newChildren.add(compile(child, context, codeSizes, report));
+        return composite.setChildren(newChildren);
+    }
+
+}
@@ -0,0 +1,312 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.searchlib.rankingexpression.evaluation.bytecodeoptimization;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal writer of class files, supporting just what is needed to generate classes
+ * consisting of straight line code and forward branches.
+ *
+ * Classes are written in the Java 5 class file format, which does not require stack map frames,
+ * as the verifier infers them from the code.
+ *
+ * @author agent
+ */
+final class ClassFileWriter {
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int JAVA_5 = 49;
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    // Opcodes
+    static final int ICONST_0 = 0x03;
+    static final int DCONST_0 = 0x0e;
+    static final int DCONST_1 = 0x0f;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int DLOAD = 0x18;
+    static final int ALOAD_0 = 0x2a;
+    static final int ALOAD_1 = 0x2b;
+    static final int DSTORE = 0x39;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6b;
+    static final int DDIV = 0x6f;
+    static final int DREM = 0x73;
+    static final int DNEG = 0x77;
+    static final int I2D = 0x87;
+    static final int DCMPL = 0x97;
+    static final int DCMPG = 0x98;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IFLT = 0x9b;
+    static final int IFGE = 0x9c;
+    static final int IFGT = 0x9d;
+    static final int IFLE = 0x9e;
+    static final int GOTO = 0xa7;
+    static final int DRETURN = 0xaf;
+    static final int RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+
+    // Constant pool tags
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<Object, Integer> poolIndexes = new HashMap<>();
+    private int poolSize = 1;
+
+    private final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+    private final DataOutputStream methods = new DataOutputStream(methodBytes);
+    private int methodCount = 0;
+
+    private final int thisClass;
+    private final int superClass;
+
+    /**
+     * Creates a writer of a public final class
+     *
+     * @param className the internal (slash separated) name of the class to write
+     * @param superClassName the internal name of the superclass of the class
+     */
+    ClassFileWriter(String className, String superClassName) {
+        this.thisClass = classRef(className);
+        this.superClass = classRef(superClassName);
+    }
+
+    int classRef(String internalName) {
+        int name = utf8(internalName);
+        return constant(List.of("class", internalName), CONSTANT_CLASS, out -> out.writeShort(name));
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+    }
+
+    int integerConstant(int value) {
+        return constant(List.of("int", value), CONSTANT_INTEGER, out -> out.writeInt(value));
+    }
+
+    int doubleConstant(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        int index = constant(List.of("double", bits), CONSTANT_DOUBLE, out -> out.writeLong(bits));
+        if (index == poolSize - 1) poolSize++; // doubles take two pool entries
+        return index;
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int ownerClass = classRef(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int nameAndType = constant(List.of("nameAndType", name, descriptor), CONSTANT_NAME_AND_TYPE, out -> {
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+        return constant(List.of(tag, owner, name, descriptor), tag, out -> {
+            out.writeShort(ownerClass);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    private int utf8(String value) {
+        return constant(List.of("utf8", value), CONSTANT_UTF8, out -> out.writeUTF(value));
+    }
+
+    private int constant(Object key, int tag, PoolEntryWriter writer) {
+        Integer index = poolIndexes.get(key);
+        if (index != null) return index;
+        try {
+            pool.writeByte(tag);
+            writer.write(pool);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        poolIndexes.put(key, poolSize);
+        return poolSize++;
+    }
+
+    /** Adds a method with the given code to the class */
+    void addMethod(int access, String name, String descriptor, Code code) {
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int codeAttribute = utf8("Code");
+        byte[] bytes = code.bytes();
+        try {
+            methods.writeShort(access);
+            methods.writeShort(nameIndex);
+            methods.writeShort(descriptorIndex);
+            methods.writeShort(1); // attributes
+            methods.writeShort(codeAttribute);
+            methods.writeInt(12 + bytes.length);
+            methods.writeShort(code.maxStack());
+            methods.writeShort(code.maxLocals());
+            methods.writeInt(bytes.length);
+            methods.write(bytes);
+            methods.writeShort(0); // exception table
+            methods.writeShort(0); // attributes
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        methodCount++;
+    }
+
+    /** Returns the bytes of the class file written by this */
+    byte[] toByteArray() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeShort(0); // minor version
+            out.writeShort(JAVA_5);
+            out.writeShort(poolSize);
+            poolBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(methodCount);
+            methodBytes.writeTo(out);
+            out.writeShort(0); // attributes
+            return bytes.toByteArray();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private interface PoolEntryWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * The code of a method. This tracks the depth of the operand stack, which callers must
+     * keep consistent at each label, and resolves the offsets of branches when done.
+     */
+    static final class Code {
+
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private final List<Label> labels = new ArrayList<>();
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+
+        /** Creates a method body which has the given number of local variable slots for its arguments */
+        Code(int argumentSlots) {
+            this.maxLocals = argumentSlots;
+        }
+
+        /** Adds an instruction which changes the stack depth by the given number of slots */
+        void op(int opcode, int stackChange) {
+            code.write(opcode);
+            adjustStack(stackChange);
+        }
+
+        /** Adds an instruction with an unsigned byte operand */
+        void opU1(int opcode, int operand, int stackChange) {
+            code.write(opcode);
+            code.write(operand);
+            adjustStack(stackChange);
+        }
+
+        /** Adds an instruction with a two byte operand */
+        void opU2(int opcode, int operand, int stackChange) {
+            code.write(opcode);
+            writeShort(operand);
+            adjustStack(stackChange);
+        }
+
+        /** Adds an instruction reading or writing the local variable at the given slot, which has the given size */
+        void local(int opcode, int slot, int size, int stackChange) {
+            maxLocals = Math.max(maxLocals, slot + size);
+            opU1(opcode, slot, stackChange);
+        }
+
+        /** Adds a branch to the given label, which must be placed after this */
+        void jump(int opcode, Label target) {
+            adjustStack(opcode == GOTO ? 0 : -1);
+            if (target.stack < 0)
+                target.stack = stack;
+            else if (target.stack != stack)
+                throw new IllegalStateException("Inconsistent stack depth at branch target");
+            target.branches.add(code.size());
+            code.write(opcode);
+            writeShort(0); // resolved in bytes()
+        }
+
+        /** Places the given label at the current position, where the stack depth becomes that of the branches to it */
+        void place(Label label) {
+            label.position = code.size();
+            if (label.stack >= 0)
+                stack = label.stack;
+            labels.add(label);
+        }
+
+        Label newLabel() { return new Label(); }
+
+        int size() { return code.size(); }
+        int maxStack() { return maxStack; }
+        int maxLocals() { return maxLocals; }
+
+        byte[] bytes() {
+            byte[] bytes = code.toByteArray();
+            for (Label label : labels) {
+                for (int branch : label.branches) {
+                    int offset = label.position - branch;
+                    if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+                        throw new IllegalStateException("Branch offset " + offset + " is out of range");
+                    bytes[branch + 1] = (byte) (offset >> 8);
+                    bytes[branch + 2] = (byte) offset;
+                }
+            }
+            return bytes;
+        }
+
+        private void writeShort(int value) {
+            code.write(value >> 8);
+            code.write(value);
+        }
+
+        private void adjustStack(int change) {
+            stack += change;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+    }
+
+    /** A position in the code which may be branched to */
+    static final class Label {
+
+        private final List<Integer> branches = new ArrayList<>();
+        private int position = -1;
+        private int stack = -1;
+
+    }
+
+}
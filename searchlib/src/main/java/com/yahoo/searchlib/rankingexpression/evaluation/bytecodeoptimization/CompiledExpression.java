@@ -0,0 +1,20 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.searchlib.rankingexpression.evaluation.bytecodeoptimization;
+
+import com.yahoo.searchlib.rankingexpression.evaluation.Context;
+
+/**
+ * Superclass of the classes generated from ranking expressions by {@link ExpressionCompiler}.
+ * This must be public to be extended by generated classes, which are defined by their own class loader.
+ *
+ * @author agent
+ */
+public abstract class CompiledExpression {
+
+    /**
+     * Evaluates this by reading its inputs from the indexes of the given context
+     * which they were bound to when this was compiled.
+     */
+    public abstract double evaluate(Context context);
+
+}
@@ -0,0 +1,52 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.searchlib.rankingexpression.evaluation.bytecodeoptimization;
+
+import com.yahoo.searchlib.rankingexpression.Reference;
+import com.yahoo.searchlib.rankingexpression.evaluation.BooleanValue;
+import com.yahoo.searchlib.rankingexpression.evaluation.Context;
+import com.yahoo.searchlib.rankingexpression.evaluation.DoubleValue;
+import com.yahoo.searchlib.rankingexpression.evaluation.Value;
+import com.yahoo.searchlib.rankingexpression.rule.CompositeNode;
+import com.yahoo.searchlib.rankingexpression.rule.ExpressionNode;
+import com.yahoo.searchlib.rankingexpression.rule.SerializationContext;
+import com.yahoo.tensor.TensorType;
+import com.yahoo.tensor.evaluation.TypeContext;
+
+import java.util.Deque;
+
+/**
+ * A scalar subexpression compiled to bytecode. This evaluates to the same value as the expression it is compiled from,
+ * without creating any intermediate values, and is serialized as that expression.
+ *
+ * @author agent
+ */
+public class CompiledNode extends ExpressionNode {
+
+    private final ExpressionNode source;
+    private final CompiledExpression compiled;
+    private final boolean booleanValued;
+
+    CompiledNode(ExpressionNode source, CompiledExpression compiled, boolean booleanValued) {
+        this.source = source;
+        this.compiled = compiled;
+        this.booleanValued = booleanValued;
+    }
+
+    /** Returns the expression this is compiled from */
+    public ExpressionNode source() { return source; }
+
+    @Override
+    public final TensorType type(TypeContext<Reference> context) { return TensorType.empty; }
+
+    @Override
+    public final Value evaluate(Context context) {
+        double value = compiled.evaluate(context);
+        return booleanValued ? new BooleanValue(value != 0) : new DoubleValue(value);
+    }
+
+    @Override
+    public StringBuilder toString(StringBuilder string, SerializationContext context, Deque<String> path, CompositeNode parent) {
+        return source.toString(string, context, path, parent);
+    }
+
+}
@@ -0,0 +1,485 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.searchlib.rankingexpression.evaluation.bytecodeoptimization;
+
+import com.yahoo.searchlib.rankingexpression.evaluation.BooleanValue;
+import com.yahoo.searchlib.rankingexpression.evaluation.Context;
+import com.yahoo.searchlib.rankingexpression.evaluation.DoubleOnlyArrayContext;
+import com.yahoo.searchlib.rankingexpression.evaluation.DoubleValue;
+import com.yahoo.searchlib.rankingexpression.evaluation.Value;
+import com.yahoo.searchlib.rankingexpression.rule.ArithmeticNode;
+import com.yahoo.searchlib.rankingexpression.rule.ArithmeticOperator;
+import com.yahoo.searchlib.rankingexpression.rule.ComparisonNode;
+import com.yahoo.searchlib.rankingexpression.rule.CompositeNode;
+import com.yahoo.searchlib.rankingexpression.rule.ConstantNode;
+import com.yahoo.searchlib.rankingexpression.rule.EmbracedNode;
+import com.yahoo.searchlib.rankingexpression.rule.ExpressionNode;
+import com.yahoo.searchlib.rankingexpression.rule.Function;
+import com.yahoo.searchlib.rankingexpression.rule.FunctionNode;
+import com.yahoo.searchlib.rankingexpression.rule.IfNode;
+import com.yahoo.searchlib.rankingexpression.rule.NegativeNode;
+import com.yahoo.searchlib.rankingexpression.rule.NotNode;
+import com.yahoo.searchlib.rankingexpression.rule.ReferenceNode;
+import com.yahoo.searchlib.rankingexpression.rule.SetMembershipNode;
+import com.yahoo.searchlib.rankingexpression.rule.TruthOperator;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.yahoo.searchlib.rankingexpression.evaluation.bytecodeoptimization.ClassFileWriter.*;
+
+/**
+ * Compiles expressions over scalars to a class whose single method evaluates the expression on the operand stack,
+ * reading each input directly from the context index it is bound to. The generated code performs the same
+ * double operations in the same order as the expression nodes do when evaluated, so it produces identical results.
+ *
+ * @author agent
+ */
+final class ExpressionCompiler {
+
+    /** HotSpot does not JIT compile larger methods, so larger expressions would be slower when compiled */
+    static final int MAX_CODE_SIZE = 8000;
+
+    private static final String CONTEXT = internalName(Context.class);
+    private static final String FUNCTION = internalName(Function.class);
+    private static final String TRUTH_OPERATOR = internalName(TruthOperator.class);
+    private static final String COMPILED_EXPRESSION = internalName(CompiledExpression.class);
+    private static final String GENERATED_CLASS = COMPILED_EXPRESSION.replace("CompiledExpression", "GeneratedExpression");
+
+    private static final AtomicLong generatedClasses = new AtomicLong();
+
+    private final DoubleOnlyArrayContext context;
+    private final ClassFileWriter writer;
+    private final ClassFileWriter.Code code = new ClassFileWriter.Code(2); // this and the context
+    private int nextLocal = 2;
+
+    /** The size of the code of each node compiled by this, or null if not measuring */
+    private final Map<ExpressionNode, Integer> codeSizes;
+
+    private ExpressionCompiler(String className, DoubleOnlyArrayContext context, Map<ExpressionNode, Integer> codeSizes) {
+        this.context = context;
+        this.writer = new ClassFileWriter(className, COMPILED_EXPRESSION);
+        this.codeSizes = codeSizes;
+    }
+
+    /**
+     * Returns the size of the code compiled from each node of the given expression which can be compiled.
+     * This compiles each of the largest compilable subexpressions once, without generating any classes.
+     */
+    static Map<ExpressionNode, Integer> codeSizes(ExpressionNode root, DoubleOnlyArrayContext context) {
+        Map<ExpressionNode, Integer> codeSizes = new IdentityHashMap<>();
+        if (measure(root, context, codeSizes))
+            measureCompiled(root, context, codeSizes);
+        return codeSizes;
+    }
+
+    /** Returns whether the given node can be compiled, and measures its largest compilable subexpressions if it cannot */
+    private static boolean measure(ExpressionNode node, DoubleOnlyArrayContext context, Map<ExpressionNode, Integer> codeSizes) {
+        if ( ! (node instanceof CompositeNode) || node instanceof ReferenceNode) return isCompilableNode(node, context);
+
+        List<ExpressionNode> children = ((CompositeNode) node).children();
+        boolean[] compilableChildren = new boolean[children.size()];
+        boolean compilable = isCompilableNode(node, context);
+        for (int i = 0; i < children.size(); i++) {
+            compilableChildren[i] = measure(children.get(i), context, codeSizes);
+            compilable &= compilableChildren[i];
+        }
+        if ( ! compilable) {
+            for (int i = 0; i < children.size(); i++)
+                if (compilableChildren[i])
+                    measureCompiled(children.get(i), context, codeSizes);
+        }
+        return compilable;
+    }
+
+    private static void measureCompiled(ExpressionNode node, DoubleOnlyArrayContext context, Map<ExpressionNode, Integer> codeSizes) {
+        ExpressionCompiler compiler = new ExpressionCompiler(GENERATED_CLASS, context, codeSizes);
+        try {
+            compiler.compile(node);
+        }
+        catch (IllegalArgumentException e) {
+            // The nodes measured before this failed are still correct, while this node and its parents are not measured
+        }
+    }
+
+    /**
+     * Compiles the given expression to a node which evaluates it for inputs bound in the given context,
+     * or returns empty if the expression cannot be compiled, or is too large.
+     */
+    static Optional<CompiledNode> compile(ExpressionNode node, DoubleOnlyArrayContext context) {
+        if ( ! isCompilable(node, context)) return Optional.empty();
+
+        String className = GENERATED_CLASS + generatedClasses.incrementAndGet();
+        ExpressionCompiler compiler = new ExpressionCompiler(className, context, null);
+        try {
+            compiler.compile(node);
+        }
+        catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+        if (compiler.code.size() > MAX_CODE_SIZE) return Optional.empty();
+
+        byte[] classFile = compiler.toClassFile();
+        return Optional.of(new CompiledNode(node, instantiate(className.replace('/', '.'), classFile), isBooleanValued(node, false)));
+    }
+
+    /** Returns whether the given expression can be compiled, which is when it only operates on scalars bound in the context */
+    static boolean isCompilable(ExpressionNode node, DoubleOnlyArrayContext context) {
+        if ( ! isCompilableNode(node, context)) return false;
+        if (node instanceof CompositeNode && ! (node instanceof ReferenceNode)) {
+            for (ExpressionNode child : ((CompositeNode) node).children())
+                if ( ! isCompilable(child, context)) return false;
+        }
+        return true;
+    }
+
+    /** Returns whether the given node can be compiled, given that its children can */
+    private static boolean isCompilableNode(ExpressionNode node, DoubleOnlyArrayContext context) {
+        if (node instanceof ConstantNode) {
+            Value value = ((ConstantNode) node).getValue();
+            return value instanceof DoubleValue || value instanceof BooleanValue;
+        }
+        if (node instanceof ReferenceNode)
+            return ((ReferenceNode) node).getArguments().isEmpty() && context.names().contains(node.toString());
+        if (node instanceof SetMembershipNode)
+            // A boolean test value is compared to the set values by truth, not by value
+            return ! isBooleanValued(((SetMembershipNode) node).getTestValue(), true);
+        return node instanceof ArithmeticNode || node instanceof IfNode || node instanceof ComparisonNode ||
+               node instanceof NotNode || node instanceof NegativeNode || node instanceof EmbracedNode ||
+               node instanceof FunctionNode;
+    }
+
+    /**
+     * Returns whether the given expression evaluates to a boolean value.
+     *
+     * @param possibly whether to return true also if the expression evaluates to a boolean value only for some inputs
+     */
+    private static boolean isBooleanValued(ExpressionNode node, boolean possibly) {
+        if (node instanceof ComparisonNode || node instanceof NotNode || node instanceof SetMembershipNode)
+            return true;
+        if (node instanceof ConstantNode)
+            return ((ConstantNode) node).getValue() instanceof BooleanValue;
+        if (node instanceof EmbracedNode)
+            return isBooleanValued(((EmbracedNode) node).getValue(), possibly);
+        if (node instanceof IfNode) {
+            boolean trueBoolean = isBooleanValued(((IfNode) node).getTrueExpression(), possibly);
+            boolean falseBoolean = isBooleanValued(((IfNode) node).getFalseExpression(), possibly);
+            return possibly ? trueBoolean || falseBoolean : trueBoolean && falseBoolean;
+        }
+        if (node instanceof ArithmeticNode) {
+            Term term = Term.resolve((ArithmeticNode) node);
+            if (term.node != null) return isBooleanValued(term.node, possibly);
+            return term.operator == ArithmeticOperator.AND || term.operator == ArithmeticOperator.OR;
+        }
+        return false;
+    }
+
+    private byte[] toClassFile() {
+        ClassFileWriter.Code constructor = new ClassFileWriter.Code(1);
+        constructor.op(ALOAD_0, 1);
+        constructor.opU2(INVOKESPECIAL, writer.methodRef(COMPILED_EXPRESSION, "<init>", "()V"), -1);
+        constructor.op(RETURN, 0);
+        writer.addMethod(ACC_PUBLIC, "<init>", "()V", constructor);
+
+        code.op(DRETURN, -2);
+        writer.addMethod(ACC_PUBLIC | ACC_FINAL, "evaluate", "(L" + CONTEXT + ";)D", code);
+        return writer.toByteArray();
+    }
+
+    /** Adds code which pushes the value of the given node on the stack */
+    private void compile(ExpressionNode node) {
+        int start = code.size();
+        compileNode(node);
+        if (codeSizes != null)
+            codeSizes.put(node, code.size() - start);
+    }
+
+    private void compileNode(ExpressionNode node) {
+        if (node instanceof ConstantNode)
+            compileConstant(((ConstantNode) node).getValue().asDouble());
+        else if (node instanceof ReferenceNode)
+            compileReference(context.getIndex(node.toString()));
+        else if (node instanceof EmbracedNode)
+            compile(((EmbracedNode) node).getValue());
+        else if (node instanceof NegativeNode)
+            compileNegative((NegativeNode) node);
+        else if (node instanceof NotNode)
+            compileNot((NotNode) node);
+        else if (node instanceof ArithmeticNode)
+            compile(Term.resolve((ArithmeticNode) node));
+        else if (node instanceof ComparisonNode)
+            compileComparison((ComparisonNode) node);
+        else if (node instanceof IfNode)
+            compileIf((IfNode) node);
+        else if (node instanceof FunctionNode)
+            compileFunction((FunctionNode) node);
+        else if (node instanceof SetMembershipNode)
+            compileSetMembership((SetMembershipNode) node);
+        else
+            throw new IllegalArgumentException("Cannot compile " + node);
+    }
+
+    private void compileConstant(double value) {
+        if (Double.doubleToRawLongBits(value) == 0)
+            code.op(DCONST_0, 2);
+        else if (value == 1.0)
+            code.op(DCONST_1, 2);
+        else
+            code.opU2(LDC2_W, writer.doubleConstant(value), 2);
+    }
+
+    private void compileReference(int index) {
+        code.op(ALOAD_1, 1);
+        if (index <= 5)
+            code.op(ICONST_0 + index, 1);
+        else if (index <= Byte.MAX_VALUE)
+            code.opU1(BIPUSH, index, 1);
+        else if (index <= Short.MAX_VALUE)
+            code.opU2(SIPUSH, index, 1);
+        else
+            code.opU2(LDC_W, writer.integerConstant(index), 1);
+        code.opU2(INVOKEVIRTUAL, writer.methodRef(CONTEXT, "getDouble", "(I)D"), 0);
+    }
+
+    private void compileNegative(NegativeNode node) {
+        compile(node.getValue());
+        code.op(DNEG, 0);
+    }
+
+    private void compileNot(NotNode node) {
+        ClassFileWriter.Label whenFalse = code.newLabel();
+        compile(node.getValue());
+        jumpIfTrue(whenFalse);
+        pushTruth(whenFalse, false);
+    }
+
+    private void compile(Term term) {
+        if (term.node != null) {
+            compile(term.node);
+            return;
+        }
+        switch (term.operator) {
+            case AND:
+                ClassFileWriter.Label whenFalse = code.newLabel();
+                compile(term.left);
+                jumpIfFalse(whenFalse);
+                compile(term.right);
+                jumpIfFalse(whenFalse);
+                pushTruth(whenFalse, false);
+                return;
+            case OR:
+                ClassFileWriter.Label whenTrue = code.newLabel();
+                compile(term.left);
+                jumpIfTrue(whenTrue);
+                compile(term.right);
+                jumpIfTrue(whenTrue);
+                pushTruth(whenTrue, true);
+                return;
+            case POWER:
+                compileFunction(Function.pow, List.of(term.left, term.right));
+                return;
+        }
+        compile(term.left);
+        compile(term.right);
+        switch (term.operator) {
+            case PLUS: code.op(DADD, -2); break;
+            case MINUS: code.op(DSUB, -2); break;
+            case MULTIPLY: code.op(DMUL, -2); break;
+            case DIVIDE: code.op(DDIV, -2); break;
+            case MODULO: code.op(DREM, -2); break;
+            default: throw new IllegalArgumentException("Cannot compile " + term.operator);
+        }
+    }
+
+    private void compileComparison(ComparisonNode node) {
+        TruthOperator operator = node.getOperator();
+        if (operator == TruthOperator.APPROX_EQUAL) {
+            code.opU2(GETSTATIC, writer.fieldRef(TRUTH_OPERATOR, operator.name(), "L" + TRUTH_OPERATOR + ";"), 1);
+            compile(node.getLeftCondition());
+            compile(node.getRightCondition());
+            code.opU2(INVOKEVIRTUAL, writer.methodRef(TRUTH_OPERATOR, "evaluate", "(DD)Z"), -4);
+            code.op(I2D, 1);
+            return;
+        }
+
+        // Compare such that NaN compares as false, then branch when the comparison is false
+        ClassFileWriter.Label whenFalse = code.newLabel();
+        compile(node.getLeftCondition());
+        compile(node.getRightCondition());
+        switch (operator) {
+            case SMALLER: code.op(DCMPG, -3); code.jump(IFGE, whenFalse); break;
+            case SMALLEREQUAL: code.op(DCMPG, -3); code.jump(IFGT, whenFalse); break;
+            case EQUAL: code.op(DCMPL, -3); code.jump(IFNE, whenFalse); break;
+            case LARGER: code.op(DCMPL, -3); code.jump(IFLE, whenFalse); break;
+            case LARGEREQUAL: code.op(DCMPL, -3); code.jump(IFLT, whenFalse); break;
+            case NOTEQUAL: code.op(DCMPL, -3); code.jump(IFEQ, whenFalse); break;
+            default: throw new IllegalArgumentException("Cannot compile " + operator);
+        }
+        pushTruth(whenFalse, false);
+    }
+
+    private void compileIf(IfNode node) {
+        ClassFileWriter.Label whenFalse = code.newLabel();
+        ClassFileWriter.Label end = code.newLabel();
+        compile(node.getCondition());
+        jumpIfFalse(whenFalse);
+        compile(node.getTrueExpression());
+        code.jump(GOTO, end);
+        code.place(whenFalse);
+        compile(node.getFalseExpression());
+        code.place(end);
+    }
+
+    private void compileFunction(FunctionNode node) {
+        List<ExpressionNode> arguments = node.children();
+        compileFunction(node.getFunction(), Arrays.asList(arguments.size() > 0 ? new Term(arguments.get(0)) : null,
+                                                    arguments.size() > 1 ? new Term(arguments.get(1)) : null));
+    }
+
+    /** Calls the given function, with zero for missing arguments, as the function nodes do */
+    private void compileFunction(Function function, List<Term> arguments) {
+        code.opU2(GETSTATIC, writer.fieldRef(FUNCTION, function.name(), "L" + FUNCTION + ";"), 1);
+        for (Term argument : arguments) {
+            if (argument != null)
+                compile(argument);
+            else
+                code.op(DCONST_0, 2);
+        }
+        code.opU2(INVOKEVIRTUAL, writer.methodRef(FUNCTION, "evaluate", "(DD)D"), -3);
+    }
+
+    private void compileSetMembership(SetMembershipNode node) {
+        if (nextLocal > 254) throw new IllegalArgumentException("Too deeply nested set membership tests in " + node);
+        int testValue = nextLocal;
+        nextLocal += 2;
+        compile(node.getTestValue());
+        code.local(DSTORE, testValue, 2, -2);
+        ClassFileWriter.Label whenTrue = code.newLabel();
+        for (ExpressionNode setValue : node.getSetValues()) {
+            code.local(DLOAD, testValue, 2, 2);
+            compile(setValue);
+            code.op(DCMPL, -3);
+            code.jump(IFEQ, whenTrue);
+        }
+        pushTruth(whenTrue, true);
+        nextLocal -= 2;
+    }
+
+    /** Pops a value and jumps to the given label if it is true, i.e non-zero or NaN */
+    private void jumpIfTrue(ClassFileWriter.Label target) {
+        code.op(DCONST_0, 2);
+        code.op(DCMPL, -3);
+        code.jump(IFNE, target);
+    }
+
+    /** Pops a value and jumps to the given label if it is false, i.e zero */
+    private void jumpIfFalse(ClassFileWriter.Label target) {
+        code.op(DCONST_0, 2);
+        code.op(DCMPL, -3);
+        code.jump(IFEQ, target);
+    }
+
+    /** Pushes the negation of the given truth value if falling through to this, and the value if jumped to the label */
+    private void pushTruth(ClassFileWriter.Label label, boolean truthAtLabel) {
+        ClassFileWriter.Label end = code.newLabel();
+        code.op(truthAtLabel ? DCONST_0 : DCONST_1, 2);
+        code.jump(GOTO, end);
+        code.place(label);
+        code.op(truthAtLabel ? DCONST_1 : DCONST_0, 2);
+        code.place(end);
+    }
+
+    private static String internalName(Class<?> type) {
+        return type.getName().replace('.', '/');
+    }
+
+    private static CompiledExpression instantiate(String className, byte[] classFile) {
+        try {
+            Class<?> generated = new GeneratedClassLoader().define(className, classFile);
+            return (CompiledExpression) generated.getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError e) {
+            throw new IllegalStateException("Could not load the class compiled to " + className, e);
+        }
+    }
+
+    /**
+     * A term of an arithmetic expression: Either a child of the arithmetic node, or the operator
+     * applied to two terms. Terms are resolved in the order ArithmeticNode applies its operators.
+     */
+    private static final class Term {
+
+        /** The operator combining this with the term before it */
+        final ArithmeticOperator precedingOperator;
+
+        /** The child of the arithmetic node this is, or null if this combines two terms */
+        final ExpressionNode node;
+
+        final Term left;
+        final ArithmeticOperator operator;
+        final Term right;
+
+        Term(ExpressionNode node) {
+            this(ArithmeticOperator.OR, node);
+        }
+
+        Term(ArithmeticOperator precedingOperator, ExpressionNode node) {
+            this.precedingOperator = precedingOperator;
+            this.node = node;
+            this.left = null;
+            this.operator = null;
+            this.right = null;
+        }
+
+        Term(Term left, Term right) {
+            this.precedingOperator = left.precedingOperator;
+            this.node = null;
+            this.left = left;
+            this.operator = right.precedingOperator;
+            this.right = right;
+        }
+
+        /** Returns the single term the given node evaluates, using the same precedence stack as ArithmeticNode */
+        static Term resolve(ArithmeticNode node) {
+            Iterator<ExpressionNode> child = node.children().iterator();
+            Deque<Term> stack = new ArrayDeque<>();
+            stack.push(new Term(ArithmeticOperator.OR, child.next()));
+            for (Iterator<ArithmeticOperator> it = node.operators().iterator(); it.hasNext() && child.hasNext();) {
+                ArithmeticOperator op = it.next();
+                while (stack.peek().precedingOperator.hasPrecedenceOver(op))
+                    combineTop(stack);
+                stack.push(new Term(op, child.next()));
+            }
+            while (stack.size() > 1)
+                combineTop(stack);
+            return stack.getFirst();
+        }
+
+        private static void combineTop(Deque<Term> stack) {
+            Term right = stack.pop();
+            Term left = stack.pop();
+            stack.push(new Term(left, right));
+        }
+
+    }
+
+    /** Defines a single generated class, such that it can be unloaded with the expression it is compiled from */
+    private static final class GeneratedClassLoader extends ClassLoader {
+
+        GeneratedClassLoader() {
+            super(CompiledExpression.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] classFile) {
+            return defineClass(name, classFile, 0, classFile.length);
+        }
+
+    }
+
+}
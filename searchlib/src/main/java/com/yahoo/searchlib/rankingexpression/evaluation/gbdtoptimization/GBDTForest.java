@@ -0,0 +1,239 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.searchlib.rankingexpression.evaluation.gbdtoptimization;
+
+import com.yahoo.searchlib.rankingexpression.evaluation.Context;
+
+import java.util.Arrays;
+
+/**
+ * A sum of decision trees packed into primitive arrays, with one entry per condition node in each array.
+ * The condition nodes of each tree are stored in preorder, such that the true branch of a condition
+ * is usually the next node. A reference to a child is either the index of a condition node, or if negative,
+ * the bitwise complement of the index of a leaf value.
+ *
+ * Features are identified by the index they are bound to in the context this is optimized for, and
+ * the sum is produced by adding the value of each tree in order, as in {@link GBDTForestNode}.
+ *
+ * Instances are immutable.
+ *
+ * @author agent
+ */
+public final class GBDTForest {
+
+    // Conditions. The first two are the ones produced by XGBoost and LightGBM for numeric features,
+    // which are tested without branching on the condition type
+    static final byte SMALLER = 0;
+    static final byte NOT_LARGER_OR_EQUAL = 1;
+    static final byte EQUAL = 2;
+    static final byte IN = 3;
+
+    /** The reference to the root of each tree */
+    private final int[] trees;
+
+    /** The type of each condition */
+    private final byte[] conditions;
+
+    /** The index of the feature tested by each condition */
+    private final int[] features;
+
+    /** The value compared to in each condition, or for set tests, the index of the set in setValues */
+    private final double[] thresholds;
+
+    /** The references to the true and false child of each condition, in that order */
+    private final int[] children;
+
+    private final double[] leaves;
+
+    /** The sets tested by set conditions, each as its size followed by its values */
+    private final double[] setValues;
+
+    private GBDTForest(int[] trees, byte[] conditions, int[] features, double[] thresholds, int[] children,
+                       double[] leaves, double[] setValues) {
+        this.trees = trees;
+        this.conditions = conditions;
+        this.features = features;
+        this.thresholds = thresholds;
+        this.children = children;
+        this.leaves = leaves;
+        this.setValues = setValues;
+    }
+
+    /** Returns the number of trees in this */
+    public int treeCount() { return trees.length; }
+
+    /** Returns the number of bytes used to hold this forest */
+    public long byteSize() {
+        return 4L * trees.length + conditions.length + 4L * features.length + 8L * thresholds.length +
+               4L * children.length + 8L * leaves.length + 8L * setValues.length;
+    }
+
+    /** Evaluates this with features read from the indexes of the given context */
+    public double evaluate(Context context) {
+        double sum = 0;
+        for (int tree = 0; tree < trees.length; tree++) {
+            int node = trees[tree];
+            while (node >= 0)
+                node = children[2 * node + (isTrue(node, context.getDouble(features[node])) ? 0 : 1)];
+            sum += leaves[~node];
+        }
+        return sum;
+    }
+
+    /** Evaluates this with features read from the given array, indexed as in the context this is optimized for */
+    public double evaluate(double[] row) {
+        double sum = 0;
+        for (int tree = 0; tree < trees.length; tree++)
+            sum += evaluateTree(tree, row);
+        return sum;
+    }
+
+    /**
+     * Evaluates this for many rows of features at once, each indexed as in the context this is optimized for.
+     * This evaluates each tree for all rows before moving on to the next, which keeps each tree in cache while
+     * it is used. The result for each row is identical to that of {@link #evaluate(double[])}.
+     *
+     * @param rows the rows of features to evaluate
+     * @return the value of this for each row
+     */
+    public double[] evaluate(double[][] rows) {
+        double[] sums = new double[rows.length];
+        for (int tree = 0; tree < trees.length; tree++) {
+            for (int row = 0; row < rows.length; row++)
+                sums[row] += evaluateTree(tree, rows[row]);
+        }
+        return sums;
+    }
+
+    private double evaluateTree(int tree, double[] row) {
+        int node = trees[tree];
+        while (node >= 0)
+            node = children[2 * node + (isTrue(node, row[features[node]]) ? 0 : 1)];
+        return leaves[~node];
+    }
+
+    private boolean isTrue(int node, double value) {
+        byte condition = conditions[node];
+        if (condition <= NOT_LARGER_OR_EQUAL) // ! (value >= threshold) is true also when value is NaN
+            return value < thresholds[node] | (condition == NOT_LARGER_OR_EQUAL & value != value);
+        if (condition == EQUAL) return value == thresholds[node];
+        return isInSet(value, (int) thresholds[node]);
+    }
+
+    private boolean isInSet(double value, int set) {
+        int end = set + 1 + (int) setValues[set];
+        for (int i = set + 1; i < end; i++) {
+            if (value == setValues[i]) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Creates a forest from the encoding used by {@link GBDTForestNode}, which is a sequence of
+     * trees encoded as by {@link GBDTNode}, each preceded by its length.
+     */
+    public static GBDTForest fromEncoded(double[] values) {
+        return new Builder(values).build();
+    }
+
+    private static final class Builder {
+
+        private final double[] values;
+        private int pc = 0;
+
+        private int[] trees = new int[16];
+        private int treeCount = 0;
+        private byte[] conditions = new byte[64];
+        private int[] features = new int[64];
+        private double[] thresholds = new double[64];
+        private int[] children = new int[128];
+        private int nodeCount = 0;
+        private double[] leaves = new double[64];
+        private int leafCount = 0;
+        private double[] setValues = new double[0];
+        private int setValueCount = 0;
+
+        Builder(double[] values) {
+            this.values = values;
+        }
+
+        GBDTForest build() {
+            while (pc < values.length) {
+                int treeEnd = pc + 1 + (int) values[pc];
+                pc++;
+                if (treeCount == trees.length)
+                    trees = Arrays.copyOf(trees, treeCount * 2);
+                trees[treeCount++] = readNode();
+                if (pc != treeEnd)
+                    throw new IllegalArgumentException("Tree " + (treeCount - 1) + " should end at " + treeEnd +
+                                                       " but ends at " + pc);
+            }
+            return new GBDTForest(Arrays.copyOf(trees, treeCount),
+                                  Arrays.copyOf(conditions, nodeCount),
+                                  Arrays.copyOf(features, nodeCount),
+                                  Arrays.copyOf(thresholds, nodeCount),
+                                  Arrays.copyOf(children, nodeCount * 2),
+                                  Arrays.copyOf(leaves, leafCount),
+                                  Arrays.copyOf(setValues, setValueCount));
+        }
+
+        /** Reads the node at the current position and returns the reference to it */
+        private int readNode() {
+            double value = values[pc++];
+            if (value < GBDTNode.MAX_LEAF_VALUE) {
+                if (leafCount == leaves.length)
+                    leaves = Arrays.copyOf(leaves, leafCount * 2);
+                leaves[leafCount] = value;
+                return ~leafCount++;
+            }
+
+            int node = addNode();
+            int offset = (int) value - GBDTNode.MAX_LEAF_VALUE;
+            if (offset < GBDTNode.MAX_VARIABLES) {
+                setCondition(node, SMALLER, offset, values[pc++]);
+            }
+            else if (offset < GBDTNode.MAX_VARIABLES * 2) {
+                setCondition(node, EQUAL, offset - GBDTNode.MAX_VARIABLES, values[pc++]);
+            }
+            else if (offset < GBDTNode.MAX_VARIABLES * 3) {
+                int size = (int) values[pc];
+                setCondition(node, IN, offset - GBDTNode.MAX_VARIABLES * 2, setValueCount);
+                addSetValues(pc, size + 1);
+                pc += size + 1;
+            }
+            else {
+                setCondition(node, NOT_LARGER_OR_EQUAL, offset - GBDTNode.MAX_VARIABLES * 3, values[pc++]);
+            }
+            pc++; // skip the length of the true branch
+            int trueChild = readNode();
+            int falseChild = readNode();
+            children[2 * node] = trueChild;
+            children[2 * node + 1] = falseChild;
+            return node;
+        }
+
+        private int addNode() {
+            if (nodeCount == conditions.length) {
+                conditions = Arrays.copyOf(conditions, nodeCount * 2);
+                features = Arrays.copyOf(features, nodeCount * 2);
+                thresholds = Arrays.copyOf(thresholds, nodeCount * 2);
+                children = Arrays.copyOf(children, nodeCount * 4);
+            }
+            return nodeCount++;
+        }
+
+        private void setCondition(int node, byte condition, int feature, double threshold) {
+            conditions[node] = condition;
+            features[node] = feature;
+            thresholds[node] = threshold;
+        }
+
+        private void addSetValues(int start, int length) {
+            if (setValueCount + length > setValues.length)
+                setValues = Arrays.copyOf(setValues, Math.max(setValues.length * 2, setValueCount + length));
+            System.arraycopy(values, start, setValues, setValueCount, length);
+            setValueCount += length;
+        }
+
+    }
+
+}
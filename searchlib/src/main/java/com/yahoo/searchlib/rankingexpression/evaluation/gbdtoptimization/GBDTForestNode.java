@@ -21,24 +21,22 @@ import java.util.Deque;
 public class GBDTForestNode extends ExpressionNode {
 
     private final double[] values;
+    private final GBDTForest forest;
 
     public GBDTForestNode(double[] values) {
         this.values=values;
+        this.forest = GBDTForest.fromEncoded(values);
     }
 
+    /** Returns the forest evaluated by this, which may also be used to evaluate many rows of features at once */
+    public GBDTForest forest() { return forest; }
+
     @Override
     public final TensorType type(TypeContext<Reference> context) { return TensorType.empty; }
 
     @Override
     public final Value evaluate(Context context) {
-        int pc = 0;
-        double treeSum = 0;
-        while (pc < values.length) {
-            int nextTree = (int)values[pc++];
-            treeSum += GBDTNode.evaluate(values, pc, context);
-            pc += nextTree;
-        }
-        return new DoubleValue(treeSum);
+        return new DoubleValue(forest.evaluate(context));
     }
 
     /** Returns (optimized sum of condition trees) */
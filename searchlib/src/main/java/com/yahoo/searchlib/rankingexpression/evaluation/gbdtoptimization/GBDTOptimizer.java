@@ -49,8 +49,8 @@ public class GBDTOptimizer extends Optimizer {
     }
 
     /**
-     * <p>Recursively optimize nodes of the form ArithmeticNode(IfNode,ArithmeticNode(IfNode)) etc., ignore
-     * anything else.</p>
+     * <p>Recursively optimize nodes of the form ArithmeticNode(IfNode,ArithmeticNode(IfNode)) etc., also when
+     * they are arguments to functions, ignore anything else.</p>
      *
      * <p>Each condition node is converted to the double sequence [(OperatorIsEquals ? GBDTNode.MAX_VARIABLES : 0) +
      * IndexOfLeftComparisonFeature+GBDTNode.MAX_LEAF_VALUE, ValueOfRightComparisonValue,#OfValuesInTrueBranch,true
@@ -74,6 +74,12 @@ public class GBDTOptimizer extends Optimizer {
         if (node instanceof IfNode) {
             return createGBDTNode((IfNode)node, context);
         }
+        if (node instanceof FunctionNode || node instanceof EmbracedNode) { // e.g sigmoid(forest) from LightGBM
+            List<ExpressionNode> newChildren = new ArrayList<>();
+            for (ExpressionNode child : ((CompositeNode)node).children())
+                newChildren.add(optimize(child, context));
+            return ((CompositeNode)node).setChildren(newChildren);
+        }
         return node;
     }
 
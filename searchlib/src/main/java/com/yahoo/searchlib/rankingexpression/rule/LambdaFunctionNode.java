@@ -8,6 +8,7 @@ import com.yahoo.searchlib.rankingexpression.evaluation.MapContext;
 import com.yahoo.searchlib.rankingexpression.evaluation.Value;
 import com.yahoo.tensor.TensorType;
 import com.yahoo.tensor.evaluation.TypeContext;
+import com.yahoo.tensor.functions.ScalarFunctions;
 
 import java.util.Collections;
 import java.util.Deque;
@@ -119,9 +120,9 @@ public class LambdaFunctionNode extends CompositeNode {
         switch (operator) {
             case OR: return asFunctionExpression((left, right) -> ((left != 0.0) || (right != 0.0)) ? 1.0 : 0.0);
             case AND: return asFunctionExpression((left, right) -> ((left != 0.0) && (right != 0.0)) ? 1.0 : 0.0);
-            case PLUS: return asFunctionExpression((left, right) -> left + right);
+            case PLUS: return Optional.of(new Add());
             case MINUS: return asFunctionExpression((left, right) -> left - right);
-            case MULTIPLY: return asFunctionExpression((left, right) -> left * right);
+            case MULTIPLY: return Optional.of(new Multiply());
             case DIVIDE: return asFunctionExpression((left, right) -> left / right);
             case MODULO: return asFunctionExpression((left, right) -> left % right);
             case POWER: return asFunctionExpression(Math::pow);
@@ -142,6 +143,18 @@ public class LambdaFunctionNode extends CompositeNode {
         });
     }
 
+    /** Addition as a scalar function, such that tensor functions can recognize it */
+    private class Add extends ScalarFunctions.Add {
+        @Override
+        public String toString() { return LambdaFunctionNode.this.toString(); }
+    }
+
+    /** Multiplication as a scalar function, such that tensor functions can recognize it */
+    private class Multiply extends ScalarFunctions.Multiply {
+        @Override
+        public String toString() { return LambdaFunctionNode.this.toString(); }
+    }
+
     private static Set<String> featuresAccessedIn(ExpressionNode node) {
         if (node instanceof ReferenceNode) {
             return Set.of(((ReferenceNode) node).reference().toString());
@@ -0,0 +1,132 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.searchlib.rankingexpression.evaluation.bytecodeoptimization;
+
+import com.yahoo.searchlib.rankingexpression.RankingExpression;
+import com.yahoo.searchlib.rankingexpression.evaluation.ArrayContext;
+import com.yahoo.searchlib.rankingexpression.evaluation.DoubleOnlyArrayContext;
+import com.yahoo.searchlib.rankingexpression.evaluation.ExpressionOptimizer;
+import com.yahoo.searchlib.rankingexpression.evaluation.MapContext;
+import com.yahoo.searchlib.rankingexpression.evaluation.OptimizationReport;
+import com.yahoo.searchlib.rankingexpression.evaluation.Value;
+import com.yahoo.searchlib.rankingexpression.evaluation.gbdtoptimization.GBDTForestNode;
+import com.yahoo.searchlib.rankingexpression.parser.ParseException;
+import com.yahoo.searchlib.rankingexpression.rule.ArithmeticNode;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author agent
+ */
+public class BytecodeOptimizerTestCase {
+
+    private static final double[][] inputs = {
+            { 0, 0, 0 }, { 1, 2, 3 }, { -1.5, 2.5, 0.5 }, { 3, 3, -7 }, { 1e300, 1e-300, 1 },
+            { Double.NaN, 1, 2 }, { 2, Double.NaN, 0 }, { 0.1, 0.2, 0.3 }, { 1.0000000000000002, 1, 17 }
+    };
+
+    @Test
+    public void testCompiledExpressionsProduceTheSameResults() throws ParseException {
+        assertCompiled("a + b * c");
+        assertCompiled("10 - a - b - c");
+        assertCompiled("a - b + c - a");
+        assertCompiled("a / b * c / 3");
+        assertCompiled("a * b / c % 2");
+        assertCompiled("a ^ b ^ 2 + c ^ 0.5");
+        assertCompiled("(a + b) * (b - c) / (c + 1)");
+        assertCompiled("-a + -(b * c)");
+        assertCompiled("a && b || c");
+        assertCompiled("a || b && c + 1");
+        assertCompiled("!(a) + !(b && c)");
+        assertCompiled("a < b");
+        assertCompiled("a <= b");
+        assertCompiled("a == b");
+        assertCompiled("a ~= b");
+        assertCompiled("a >= b");
+        assertCompiled("a > b");
+        assertCompiled("a != b");
+        assertCompiled("(a < b) + (b > c) * 2");
+        assertCompiled("if (a < b, c, a * 2)");
+        assertCompiled("if (a, b, c)");
+        assertCompiled("if (a > 0 && b > 0, if (c >= 1, 1, 2), if (a == b, 3, 4)) * 10");
+        assertCompiled("a in [1, 2, 3]");
+        assertCompiled("if (a in [1, -1.5, b], c, 0) + (c in [a + b])");
+        assertCompiled("exp(a) + log(b) + sqrt(c) + sigmoid(a) + tanh(b) + relu(c) + isNan(a)");
+        assertCompiled("max(a, b) - min(b, c) + atan2(a, c) + fmod(a, b) + ldexp(c, 2) + pow(a, 3)");
+        assertCompiled("sin(a) * cos(b) / (1 + abs(c)) + floor(a) + ceil(b) + round(c) + sign(a) + square(b)");
+        assertCompiled("3.5 * a + 1 + 0 + 1e-5 + true");
+    }
+
+    @Test
+    public void testOnlyScalarSubexpressionsAreCompiled() throws ParseException {
+        String expression = "if (a < 1, 2, 3) + if (b < 2, 4, 5) + (a * b + 1)";
+        RankingExpression compiled = new RankingExpression(expression);
+        DoubleOnlyArrayContext context = new DoubleOnlyArrayContext(compiled, true);
+        OptimizationReport report = new ExpressionOptimizer().optimize(compiled, context);
+        assertEquals(2, report.getMetric("Optimized GDBT trees"));
+        assertEquals(1, report.getMetric("Compiled expressions"));
+
+        ArithmeticNode root = (ArithmeticNode)compiled.getRoot();
+        assertTrue(root.children().get(0) instanceof GBDTForestNode);
+        assertTrue(root.children().get(1) instanceof GBDTForestNode);
+        assertTrue(root.children().get(2) instanceof CompiledNode);
+        assertEquals("Compiled nodes serialize as their source", "(a * b + 1)", root.children().get(2).toString());
+
+        assertSameResults(new RankingExpression(expression), compiled, context);
+    }
+
+    @Test
+    public void testExpressionsTooLargeToCompileAreSplit() throws ParseException {
+        String half = String.join(" + ", Collections.nCopies(300, "(a * b + c)"));
+        String expression = "(" + half + ") + (" + half + ")";
+        RankingExpression compiled = new RankingExpression(expression);
+        DoubleOnlyArrayContext context = new DoubleOnlyArrayContext(compiled, true);
+        OptimizationReport report = new ExpressionOptimizer().optimize(compiled, context);
+        assertEquals(2, report.getMetric("Compiled expressions"));
+
+        ArithmeticNode root = (ArithmeticNode)compiled.getRoot();
+        assertTrue(root.children().get(0) instanceof CompiledNode);
+        assertTrue(root.children().get(1) instanceof CompiledNode);
+
+        assertSameResults(new RankingExpression(expression), compiled, context);
+    }
+
+    @Test
+    public void testNotCompiledWithoutDoubleOnlyContext() throws ParseException {
+        RankingExpression expression = new RankingExpression("a + b * c");
+        new ExpressionOptimizer().optimize(expression, new ArrayContext(expression));
+        assertFalse(expression.getRoot() instanceof CompiledNode);
+    }
+
+    private void assertCompiled(String expressionString) throws ParseException {
+        RankingExpression compiled = new RankingExpression(expressionString);
+        DoubleOnlyArrayContext context = new DoubleOnlyArrayContext(compiled, true);
+        OptimizationReport report = new ExpressionOptimizer().optimize(compiled, context);
+        assertTrue("Compiled " + expressionString, compiled.getRoot() instanceof CompiledNode);
+        assertEquals(1, report.getMetric("Compiled expressions"));
+        assertEquals(expressionString, new RankingExpression(expressionString).toString(), compiled.toString());
+
+        assertSameResults(new RankingExpression(expressionString), compiled, context);
+    }
+
+    private void assertSameResults(RankingExpression interpreted, RankingExpression compiled, DoubleOnlyArrayContext context) {
+        for (double[] input : inputs) {
+            MapContext mapContext = new MapContext();
+            String[] names = { "a", "b", "c" };
+            for (int i = 0; i < names.length; i++) {
+                mapContext.put(names[i], input[i]);
+                context.put(names[i], input[i]);
+            }
+            Value expected = interpreted.evaluate(mapContext);
+            Value result = compiled.evaluate(context);
+            String message = interpreted + " with a=" + input[0] + ", b=" + input[1] + ", c=" + input[2];
+            assertEquals(message, expected.asDouble(), result.asDouble(), 0);
+            assertEquals(message, expected.getClass(), result.getClass());
+        }
+    }
+
+}
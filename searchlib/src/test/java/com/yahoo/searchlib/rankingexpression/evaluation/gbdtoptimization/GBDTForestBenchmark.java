@@ -0,0 +1,96 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.searchlib.rankingexpression.evaluation.gbdtoptimization;
+
+import com.yahoo.searchlib.rankingexpression.RankingExpression;
+import com.yahoo.searchlib.rankingexpression.evaluation.DoubleOnlyArrayContext;
+import com.yahoo.searchlib.rankingexpression.evaluation.DoubleValue;
+import com.yahoo.searchlib.rankingexpression.evaluation.ExpressionOptimizer;
+import com.yahoo.searchlib.rankingexpression.parser.ParseException;
+import com.yahoo.searchlib.rankingexpression.rule.ArithmeticNode;
+import com.yahoo.searchlib.rankingexpression.rule.ExpressionNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares evaluating a large forest of numeric conditions, as produced by XGBoost and LightGBM, by walking
+ * its encoding in GBDTNode, which is how forests were evaluated before, with evaluating the flattened
+ * GBDTForest, one row at a time and in batches.
+ *
+ * @author agent
+ */
+public class GBDTForestBenchmark {
+
+    public static void main(String[] args) throws ParseException {
+        int trees = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int rowCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int features = 100;
+        Random random = new Random(42);
+
+        RankingExpression expression = new RankingExpression(RandomForest.expression(trees, 8, features, false, random));
+        DoubleOnlyArrayContext context = new DoubleOnlyArrayContext(expression, true, DoubleValue.NaN);
+        ExpressionOptimizer optimizer = new ExpressionOptimizer();
+        optimizer.getOptimizer(GBDTForestOptimizer.class).setEnabled(false);
+        optimizer.optimize(expression, context);
+        double[] encoded = encode(((ArithmeticNode)expression.getRoot()).children());
+        GBDTForest forest = GBDTForest.fromEncoded(encoded);
+        System.out.println(trees + " trees: Encoded in " + encoded.length * 8 + " bytes, flattened in " +
+                           forest.byteSize() + " bytes");
+
+        double[][] rows = new double[rowCount][context.size()];
+        for (double[] row : rows)
+            for (int i = 0; i < row.length; i++)
+                row[i] = RandomForest.featureValue(random);
+
+        for (int round = 0; round < 5; round++) {
+            System.out.println("Round " + round);
+            long start = System.nanoTime();
+            double encodedSum = 0;
+            for (double[] row : rows) {
+                for (int i = 0; i < row.length; i++)
+                    context.put(i, row[i]);
+                for (int pc = 0; pc < encoded.length; pc += (int)encoded[pc] + 1)
+                    encodedSum += GBDTNode.evaluate(encoded, pc + 1, context);
+            }
+            report("Encoded", start, rowCount, encodedSum);
+
+            start = System.nanoTime();
+            double contextSum = 0;
+            for (double[] row : rows) {
+                for (int i = 0; i < row.length; i++)
+                    context.put(i, row[i]);
+                contextSum += forest.evaluate(context);
+            }
+            report("Flattened from context", start, rowCount, contextSum);
+
+            start = System.nanoTime();
+            double rowSum = 0;
+            for (double[] row : rows)
+                rowSum += forest.evaluate(row);
+            report("Flattened by row", start, rowCount, rowSum);
+
+            start = System.nanoTime();
+            double batchSum = 0;
+            for (double result : forest.evaluate(rows))
+                batchSum += result;
+            report("Flattened batch", start, rowCount, batchSum);
+        }
+    }
+
+    private static double[] encode(List<ExpressionNode> trees) {
+        List<Double> values = new ArrayList<>();
+        for (ExpressionNode tree : trees) {
+            double[] treeValues = ((GBDTNode)tree).values();
+            values.add((double)treeValues.length);
+            for (double value : treeValues)
+                values.add(value);
+        }
+        return values.stream().mapToDouble(Double::doubleValue).toArray();
+    }
+
+    private static void report(String name, long startNanos, int rows, double sum) {
+        System.out.printf("  %-24s %8.1f us/row (sum %.6f)%n", name, (System.nanoTime() - startNanos) / 1000.0 / rows, sum);
+    }
+
+}
@@ -6,6 +6,8 @@ import com.yahoo.searchlib.rankingexpression.evaluation.*;
 import com.yahoo.searchlib.rankingexpression.parser.ParseException;
 import org.junit.Test;
 
+import java.util.Random;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -108,6 +110,39 @@ public class GBDTForestOptimizerTestCase {
         assertEqualish(result3, oResult3);
     }
 
+    @Test
+    public void testFlattenedForestEvaluatesLikeTheExpression() throws ParseException {
+        String forestString = RandomForest.expression(50, 6, 10, new Random(1));
+        RankingExpression interpreted = new RankingExpression(forestString);
+        RankingExpression optimized = new RankingExpression(forestString);
+        DoubleOnlyArrayContext context = new DoubleOnlyArrayContext(optimized, true, DoubleValue.NaN);
+        OptimizationReport report = new ExpressionOptimizer().optimize(optimized, context);
+        assertEquals(50, report.getMetric("GBDT trees optimized to forests"));
+        GBDTForest forest = ((GBDTForestNode)optimized.getRoot()).forest();
+        assertEquals(50, forest.treeCount());
+
+        Random random = new Random(2);
+        double[][] rows = new double[100][context.size()];
+        for (double[] row : rows)
+            for (int i = 0; i < row.length; i++)
+                row[i] = RandomForest.featureValue(random);
+        double[] batchResults = forest.evaluate(rows);
+
+        for (int row = 0; row < rows.length; row++) {
+            MapContext arguments = new MapContext(DoubleValue.NaN);
+            for (int feature = 0; feature < 10; feature++) {
+                String name = "f" + feature;
+                arguments.put(name, rows[row][context.getIndex(name)]);
+                context.put(name, rows[row][context.getIndex(name)]);
+            }
+            double expected = interpreted.evaluate(arguments).asDouble();
+            double result = optimized.evaluate(context).asDouble();
+            assertEquals(expected, result, 1e-9);
+            assertEquals(result, forest.evaluate(rows[row]), 0);
+            assertEquals("Batch evaluation produces the same result", result, batchResults[row], 0);
+        }
+    }
+
     private void assertEqualish(double a, double b) {
         assertTrue("Almost equal to " + a + ": " + b, Math.abs(a - b) < ((a + b) / 100000000));
     }
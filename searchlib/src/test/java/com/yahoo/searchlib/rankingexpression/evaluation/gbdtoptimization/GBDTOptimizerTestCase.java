@@ -34,6 +34,19 @@ public class GBDTOptimizerTestCase {
         assertEquals(13.0, gbdt.evaluate(arguments).asDouble(), delta);
     }
 
+    @Test
+    public void testOptimizationOfFunctionArguments() throws ParseException {
+        RankingExpression gbdt = new RankingExpression("sigmoid(if (a < 2, if (b < 2, 5, 6), 4) + if (a < 3, 7, 8))");
+
+        ArrayContext arguments = new ArrayContext(gbdt);
+        OptimizationReport report = new ExpressionOptimizer().optimize(gbdt, arguments);
+        assertEquals(2, report.getMetric("Optimized GDBT trees"));
+        assertEquals(1, report.getMetric("Number of forests"));
+        arguments.put("a", 1d);
+        arguments.put("b", 2d);
+        assertEquals(1 / (1 + Math.exp(-13.0)), gbdt.evaluate(arguments).asDouble(), delta);
+    }
+
     @Test
     public void testNodeOptimization() throws ParseException {
         String gbdtString =
@@ -0,0 +1,64 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.searchlib.rankingexpression.evaluation.gbdtoptimization;
+
+import java.util.Random;
+
+/**
+ * Generates random decision forest expressions using all the conditions supported by GBDT optimization,
+ * on features named f0, f1, ...
+ *
+ * @author agent
+ */
+class RandomForest {
+
+    static String expression(int trees, int depth, int features, Random random) {
+        return expression(trees, depth, features, true, random);
+    }
+
+    /**
+     * Returns a random forest expression
+     *
+     * @param categorical whether to include equality and set conditions, as used for categorical features
+     */
+    static String expression(int trees, int depth, int features, boolean categorical, Random random) {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < trees; i++) {
+            if (i > 0)
+                b.append(" + \n");
+            appendTree(depth, features, categorical, true, random, b);
+        }
+        return b.toString();
+    }
+
+    private static void appendTree(int depth, int features, boolean categorical, boolean root, Random random, StringBuilder b) {
+        if (depth == 0 || ( ! root && random.nextInt(8) == 0)) {
+            b.append(Math.round(random.nextGaussian() * 1000) / 10000.0);
+            return;
+        }
+        String feature = "f" + random.nextInt(features);
+        b.append("if (");
+        int condition = random.nextInt(categorical ? 10 : 8);
+        if (condition < 5)
+            b.append(feature).append(" < ").append(random.nextInt(100) / 10.0);
+        else if (condition < 8)
+            b.append("!(").append(feature).append(" >= ").append(random.nextInt(100) / 10.0).append(")");
+        else if (condition < 9)
+            b.append(feature).append(" == ").append(random.nextInt(10));
+        else
+            b.append(feature).append(" in [").append(random.nextInt(10)).append(", ").append(random.nextInt(10)).append("]");
+        b.append(", ");
+        appendTree(depth - 1, features, categorical, false, random, b);
+        b.append(", ");
+        appendTree(depth - 1, features, categorical, false, random, b);
+        b.append(")");
+    }
+
+    /** Returns a random feature value, which is sometimes missing (NaN) and often a small integer */
+    static double featureValue(Random random) {
+        int kind = random.nextInt(10);
+        if (kind == 0) return Double.NaN;
+        if (kind < 4) return random.nextInt(10);
+        return random.nextDouble() * 10;
+    }
+
+}
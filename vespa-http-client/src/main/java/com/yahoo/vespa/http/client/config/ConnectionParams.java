@@ -47,6 +47,7 @@ public final class ConnectionParams {
         private int traceEveryXOperation = 0;
         private boolean printTraceToStdErr = true;
         private boolean useTlsConfigFromEnvironment = false;
+        private boolean useHttp2 = false;
         private Duration connectionTimeToLive = Duration.ofSeconds(30);
         private Path privateKey;
         private Path certificate;
@@ -258,6 +259,16 @@ public final class ConnectionParams {
             return this;
         }
 
+        /**
+         * Set to true to send the feed over HTTP/2, where the persistent connections to each endpoint are
+         * multiplexed over a single TCP connection, each with multiple requests in flight as streams.
+         * The endpoint must support HTTP/2, and proxies are not supported. Default false.
+         */
+        public Builder setUseHttp2(boolean useHttp2) {
+            this.useHttp2 = useHttp2;
+            return this;
+        }
+
         /**
          * Set the maximum time to live for persistent connections
          */
@@ -287,6 +298,7 @@ public final class ConnectionParams {
                     traceEveryXOperation,
                     printTraceToStdErr,
                     useTlsConfigFromEnvironment,
+                    useHttp2,
                     connectionTimeToLive);
         }
 
@@ -334,6 +346,10 @@ public final class ConnectionParams {
             return useTlsConfigFromEnvironment;
         }
 
+        public boolean useHttp2() {
+            return useHttp2;
+        }
+
         public Duration getConnectionTimeToLive() {
             return connectionTimeToLive;
         }
@@ -361,6 +377,7 @@ public final class ConnectionParams {
     private final int traceEveryXOperation;
     private final boolean printTraceToStdErr;
     private final boolean useTlsConfigFromEnvironment;
+    private final boolean useHttp2;
     private final Duration connectionTimeToLive;
 
     private ConnectionParams(
@@ -381,6 +398,7 @@ public final class ConnectionParams {
             int traceEveryXOperation,
             boolean printTraceToStdErr,
             boolean useTlsConfigFromEnvironment,
+            boolean useHttp2,
             Duration connectionTimeToLive) {
         this.sslContext = sslContext;
         this.privateKey = privateKey;
@@ -388,6 +406,7 @@ public final class ConnectionParams {
         this.caCertificates = caCertificates;
         this.hostnameVerifier = hostnameVerifier;
         this.useTlsConfigFromEnvironment = useTlsConfigFromEnvironment;
+        this.useHttp2 = useHttp2;
         this.connectionTimeToLive = connectionTimeToLive;
         this.headers.putAll(headers);
         this.headerProviders.putAll(headerProviders);
@@ -468,6 +487,10 @@ public final class ConnectionParams {
         return useTlsConfigFromEnvironment;
     }
 
+    public boolean useHttp2() {
+        return useHttp2;
+    }
+
     public Duration getConnectionTimeToLive() {
         return connectionTimeToLive;
     }
@@ -2,15 +2,12 @@
 package com.yahoo.vespa.http.client.core.communication;
 
 import ai.vespa.util.http.VespaHttpClientBuilder;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.yahoo.security.SslContextBuilder;
 import com.yahoo.vespa.http.client.config.ConnectionParams;
 import com.yahoo.vespa.http.client.config.Endpoint;
 import com.yahoo.vespa.http.client.config.FeedParams;
 import com.yahoo.vespa.http.client.core.Vtag;
 import com.yahoo.vespa.http.client.core.Document;
-import com.yahoo.vespa.http.client.core.Encoder;
 import com.yahoo.vespa.http.client.core.Headers;
 import com.yahoo.vespa.http.client.core.ServerResponseException;
 import org.apache.http.Header;
@@ -31,17 +28,11 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
 import java.time.Clock;
 import java.time.Instant;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
-import java.util.UUID;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.GZIPOutputStream;
@@ -52,28 +43,14 @@ import java.util.zip.GZIPOutputStream;
 class ApacheGatewayConnection implements GatewayConnection {
 
     private static final Logger log = Logger.getLogger(ApacheGatewayConnection.class.getName());
-    private static final ObjectMapper mapper = new ObjectMapper();
-    private static final String PATH = "/reserved-for-internal-use/feedapi?";
-    private static final byte[] START_OF_FEED_XML = "<vespafeed>\n".getBytes(StandardCharsets.UTF_8);
-    private static final byte[] END_OF_FEED_XML = "\n</vespafeed>\n".getBytes(StandardCharsets.UTF_8);
-    private static final byte[] START_OF_FEED_JSON = "[".getBytes(StandardCharsets.UTF_8);
-    private static final byte[] END_OF_FEED_JSON = "]".getBytes(StandardCharsets.UTF_8);
 
-    private final List<Integer> supportedVersions = new ArrayList<>();
-    private final byte[] startOfFeed;
-    private final byte[] endOfFeed;
     private final Endpoint endpoint;
-    private final FeedParams feedParams;
-    private final String clusterSpecificRoute;
+    private final FeedProtocol protocol;
     private final ConnectionParams connectionParams;
     private CloseableHttpClient httpClient;
     private Instant connectionTime = null;
     private Instant lastPollTime = null;
-    private String sessionId;
-    private final String clientId;
-    private int negotiatedVersion = -1;
     private final HttpClientFactory httpClientFactory;
-    private final String shardingKey = UUID.randomUUID().toString().substring(0, 5);
     private final Clock clock;
 
     ApacheGatewayConnection(Endpoint endpoint,
@@ -83,23 +60,12 @@ class ApacheGatewayConnection implements GatewayConnection {
                             HttpClientFactory httpClientFactory,
                             String clientId,
                             Clock clock) {
-        supportedVersions.add(3);
         this.endpoint = endpoint;
-        this.feedParams = feedParams;
-        this.clusterSpecificRoute = clusterSpecificRoute;
+        this.protocol = new FeedProtocol(endpoint, feedParams, clusterSpecificRoute, connectionParams, clientId);
         this.httpClientFactory = httpClientFactory;
         this.connectionParams = connectionParams;
         this.httpClient = null;
-        this.clientId = clientId;
         this.clock = clock;
-
-        if (feedParams.getDataFormat() == FeedParams.DataFormat.JSON_UTF8) {
-            startOfFeed = START_OF_FEED_JSON;
-            endOfFeed = END_OF_FEED_JSON;
-        } else {
-            startOfFeed = START_OF_FEED_XML;
-            endOfFeed = END_OF_FEED_XML;
-        }
     }
 
     @Override
@@ -158,7 +124,7 @@ class ApacheGatewayConnection implements GatewayConnection {
             throws ServerResponseException, IOException {
         HttpPost httpPost = createPost(drain, useCompression, false);
 
-        ByteBuffer[] buffers = getDataWithStartAndEndOfFeed(docs, negotiatedVersion);
+        ByteBuffer[] buffers = protocol.encode(docs);
         InputStream inputStream = new ByteBufferInputStream(buffers);
         InputStreamEntity reqEntity = useCompression ? zipAndCreateEntity(inputStream)
                                                      : new InputStreamEntity(inputStream, -1);
@@ -167,82 +133,10 @@ class ApacheGatewayConnection implements GatewayConnection {
         return executePost(httpPost);
     }
 
-    private ByteBuffer[] getDataWithStartAndEndOfFeed(List<Document> docs, int version) {
-        List<ByteBuffer> data = new ArrayList<>();
-        if (version == 3) {
-            for (Document doc : docs) {
-                int operationSize = doc.size() + startOfFeed.length + endOfFeed.length;
-                StringBuilder envelope = new StringBuilder();
-                Encoder.encode(doc.getOperationId(), envelope);
-                envelope.append(' ');
-                envelope.append(Integer.toHexString(operationSize));
-                envelope.append('\n');
-                data.add(StandardCharsets.US_ASCII.encode(envelope.toString()));
-                data.add(ByteBuffer.wrap(startOfFeed));
-                data.add(doc.getData());
-                data.add(ByteBuffer.wrap(endOfFeed));
-            }
-        } else {
-            throw new IllegalArgumentException("Protocol version " + version + " unsupported by client.");
-        }
-        return data.toArray(new ByteBuffer[data.size()]);
-    }
-
     private HttpPost createPost(boolean drain, boolean useCompression, boolean isHandshake) {
-        HttpPost httpPost = new HttpPost(createUri());
-
-        for (int v : supportedVersions) {
-            httpPost.addHeader(Headers.VERSION, "" + v);
-        }
-        if (sessionId != null) {
-            httpPost.setHeader(Headers.SESSION_ID, sessionId);
-        }
-        if (clientId != null) {
-            httpPost.setHeader(Headers.CLIENT_ID, clientId);
-        }
-        httpPost.setHeader(Headers.SHARDING_KEY, shardingKey);
-        httpPost.setHeader(Headers.DRAIN, drain ? "true" : "false");
-        if (clusterSpecificRoute != null) {
-            httpPost.setHeader(Headers.ROUTE, feedParams.getRoute());
-        } else {
-            if (feedParams.getRoute() != null) {
-                httpPost.setHeader(Headers.ROUTE, feedParams.getRoute());
-            }
-        }
-        if (!isHandshake) {
-            if (feedParams.getDataFormat() == FeedParams.DataFormat.JSON_UTF8) {
-                httpPost.setHeader(Headers.DATA_FORMAT, FeedParams.DataFormat.JSON_UTF8.name());
-            } else {
-                httpPost.setHeader(Headers.DATA_FORMAT, FeedParams.DataFormat.XML_UTF8.name());
-            }
-            if (feedParams.getPriority() != null) {
-                httpPost.setHeader(Headers.PRIORITY, feedParams.getPriority());
-            }
-            if (connectionParams.getTraceLevel() != 0) {
-                httpPost.setHeader(Headers.TRACE_LEVEL, String.valueOf(connectionParams.getTraceLevel()));
-            }
-            if (negotiatedVersion == 3 && feedParams.getDenyIfBusyV3()) {
-                httpPost.setHeader(Headers.DENY_IF_BUSY, "true");
-            }
-        }
-        if (feedParams.getSilentUpgrade()) {
-            httpPost.setHeader(Headers.SILENTUPGRADE, "true");
-        }
-        httpPost.setHeader(Headers.TIMEOUT, "" + feedParams.getServerTimeout(TimeUnit.SECONDS));
-
-        for (Map.Entry<String, String> extraHeader : connectionParams.getHeaders()) {
-            httpPost.addHeader(extraHeader.getKey(), extraHeader.getValue());
-        }
-        connectionParams.getDynamicHeaders().forEach((headerName, provider) -> {
-            String headerValue = Objects.requireNonNull(
-                    provider.getHeaderValue(),
-                    provider.getClass().getName() + ".getHeader() returned null as header value!");
-            httpPost.addHeader(headerName, headerValue);
-        });
-
-        if (useCompression) { // This causes the apache client to gzip the request content. Weird, huh?
-            httpPost.setHeader("Content-Encoding", "gzip");
-        }
+        HttpPost httpPost = new HttpPost(protocol.createUri());
+        // Setting Content-Encoding causes the apache client to gzip the request content. Weird, huh?
+        protocol.setHeaders(httpPost::addHeader, httpPost::setHeader, drain, useCompression, isHandshake);
         return httpPost;
     }
 
@@ -251,9 +145,12 @@ class ApacheGatewayConnection implements GatewayConnection {
             throw new IOException("Trying to executePost while not having a connection/http client");
         HttpResponse response = httpClient.execute(httpPost);
         try {
-            verifyServerResponseCode(response);
-            verifyServerVersion(response.getFirstHeader(Headers.VERSION));
-            verifySessionHeader(response.getFirstHeader(Headers.SESSION_ID));
+            StatusLine statusLine = response.getStatusLine();
+            protocol.verifyResponse(statusLine.getStatusCode(),
+                                    statusLine.getReasonPhrase(),
+                                    () -> tryGetDetailedErrorMessage(response),
+                                    valueOf(response.getFirstHeader(Headers.VERSION)),
+                                    valueOf(response.getFirstHeader(Headers.SESSION_ID)));
         } catch (ServerResponseException e) {
             // Ensure response is consumed to allow connection reuse later on
             EntityUtils.consumeQuietly(response.getEntity());
@@ -264,88 +161,18 @@ class ApacheGatewayConnection implements GatewayConnection {
         return responseData == null ? null : new ByteArrayInputStream(responseData);
     }
 
-    private void verifyServerResponseCode(HttpResponse response) throws ServerResponseException {
-        StatusLine statusLine = response.getStatusLine();
-        int statusCode = statusLine.getStatusCode();
-
-        // We use code 261-299 to report errors related to internal transitive errors that the tenants should not care
-        // about to avoid masking more serious errors.
-        if (statusCode > 199 && statusCode < 260) return;
-        if (statusCode == 299) throw new ServerResponseException(429, "Too  many requests.");
-        throw new ServerResponseException(statusCode,
-                                          tryGetDetailedErrorMessage(response).orElseGet(statusLine::getReasonPhrase));
-    }
-
     private static Optional<String> tryGetDetailedErrorMessage(HttpResponse response) {
-        Header contentType = response.getEntity().getContentType();
-        if (contentType == null || !contentType.getValue().equalsIgnoreCase("application/json")) return Optional.empty();
-        try (InputStream in = response.getEntity().getContent()) {
-            JsonNode jsonNode = mapper.readTree(in);
-            JsonNode message = jsonNode.get("message");
-            if (message == null || message.textValue() == null) return Optional.empty();
-            return Optional.of(response.getStatusLine().getReasonPhrase() + " - " + message.textValue());
+        try {
+            return FeedProtocol.detailedErrorMessage(response.getStatusLine().getReasonPhrase(),
+                                                     valueOf(response.getEntity().getContentType()),
+                                                     response.getEntity().getContent());
         } catch (IOException e) {
             return Optional.empty();
         }
     }
 
-    private void verifySessionHeader(Header serverHeader) throws ServerResponseException {
-        if (serverHeader == null) {
-            throw new ServerResponseException("Got no session ID from server.");
-        }
-        final String serverHeaderVal = serverHeader.getValue().trim();
-        if (negotiatedVersion == 3) {
-            if (clientId == null || !clientId.equals(serverHeaderVal)) {
-                String message = "Running using v3. However, server responds with different session " +
-                                 "than client has set; " + serverHeaderVal + " vs client code " + clientId;
-                log.severe(message);
-                throw new ServerResponseException(message);
-            }
-            return;
-        }
-        if (sessionId == null) { //this must be the first request
-            log.finer("Got session ID from server: " + serverHeaderVal);
-            this.sessionId = serverHeaderVal;
-        } else {
-            if (!sessionId.equals(serverHeaderVal)) {
-                log.info("Request has been routed to a server which does not recognize the client session." +
-                         " Most likely cause is upgrading of cluster, transitive error.");
-                throw new ServerResponseException("Session ID received from server ('" + serverHeaderVal +
-                                                  "') does not match cached session ID ('" + sessionId + "')");
-            }
-        }
-    }
-
-    private void verifyServerVersion(Header serverHeader) throws ServerResponseException {
-        if (serverHeader == null) {
-            throw new ServerResponseException("Got bad protocol version from server.");
-        }
-        int serverVersion;
-        try {
-            serverVersion = Integer.parseInt(serverHeader.getValue());
-        } catch (NumberFormatException nfe) {
-            throw new ServerResponseException("Got bad protocol version from server: " + nfe.getMessage());
-        }
-        if (!supportedVersions.contains(serverVersion)) {
-            throw new ServerResponseException("Unsupported version: " + serverVersion
-                                              + ". Supported versions: " + supportedVersions);
-        }
-        if (negotiatedVersion == -1) {
-            if (log.isLoggable(Level.FINE)) {
-                log.log(Level.FINE, "Server decided upon protocol version " + serverVersion + ".");
-            }
-        }
-        this.negotiatedVersion = serverVersion;
-    }
-
-    private String createUri() {
-        StringBuilder u = new StringBuilder();
-        u.append(endpoint.isUseSsl() ? "https://" : "http://");
-        u.append(endpoint.getHostname());
-        u.append(":").append(endpoint.getPort());
-        u.append(PATH);
-        u.append(feedParams.toUriParameters());
-        return u.toString();
+    private static String valueOf(Header header) {
+        return header == null ? null : header.getValue();
     }
 
     @Override
@@ -360,9 +187,10 @@ class ApacheGatewayConnection implements GatewayConnection {
         boolean handshake = true;
         HttpPost httpPost = createPost(drain, useCompression, handshake);
 
-        String oldSessionID = sessionId;
-        sessionId = null;
+        String oldSessionID = protocol.sessionId();
+        protocol.clearSessionId();
         try (InputStream stream = executePost(httpPost)) {
+            String sessionId = protocol.sessionId();
             if (oldSessionID != null && !oldSessionID.equals(sessionId)) {
                 throw new ServerResponseException(
                         "Session ID changed after new handshake, some documents might not be acked to correct thread. "
@@ -31,6 +31,8 @@ public class ClusterConnection implements AutoCloseable {
     private static final ObjectMapper objectMapper = new ObjectMapper();
 
     private final List<IOThread> ioThreads = new ArrayList<>();
+    /** Factories owning clients shared by the connections of several io threads, closed after these */
+    private final List<Http2GatewayConnectionFactory> sharedConnectionFactories = new ArrayList<>();
     private final int clusterId;
     private final ThreadGroup ioThreadGroup;
 
@@ -69,10 +71,21 @@ public class ClusterConnection implements AutoCloseable {
                                                                               clusterId,
                                                                               timeoutExecutor,
                                                                               feedParams.getServerTimeout(TimeUnit.MILLISECONDS) + feedParams.getClientTimeout(TimeUnit.MILLISECONDS));
+            Http2GatewayConnectionFactory http2ConnectionFactory = null;
+            if (connectionParams.useHttp2() && ! connectionParams.isDryRun()) {
+                http2ConnectionFactory = new Http2GatewayConnectionFactory(endpoint,
+                                                                           feedParams,
+                                                                           connectionParams,
+                                                                           operationProcessor.getClientId(),
+                                                                           clock);
+                sharedConnectionFactories.add(http2ConnectionFactory);
+            }
             for (int i = 0; i < connectionParams.getNumPersistentConnectionsPerEndpoint(); i++) {
                 GatewayConnectionFactory connectionFactory;
                 if (connectionParams.isDryRun()) {
                     connectionFactory = new DryRunGatewayConnectionFactory(endpoint, clock);
+                } else if (http2ConnectionFactory != null) {
+                    connectionFactory = http2ConnectionFactory;
                 } else {
                     connectionFactory = new ApacheGatewayConnectionFactory(endpoint,
                                                                            feedParams,
@@ -125,6 +138,13 @@ public class ClusterConnection implements AutoCloseable {
                 exceptions.add(e);
             }
         }
+        for (Http2GatewayConnectionFactory connectionFactory : sharedConnectionFactories) {
+            try {
+                connectionFactory.close();
+            } catch (Exception e) {
+                exceptions.add(e);
+            }
+        }
         if (exceptions.isEmpty()) {
             return;
         }
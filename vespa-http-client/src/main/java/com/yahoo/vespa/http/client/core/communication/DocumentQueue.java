@@ -5,120 +5,167 @@ import com.yahoo.vespa.http.client.core.Document;
 
 import java.time.Clock;
 import java.time.Duration;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Deque;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Shared document queue that gives clients operations on documents which do not have operations already in flight.
  * This is multithread safe.
  *
+ * The queue is shared by all feeding threads and all the IO threads of a cluster, so adding and removing
+ * documents is lock free: The size bound is enforced by reserving a slot with compare-and-set before adding to
+ * the underlying queue. A monitor is only taken by threads which must block because the queue is full or empty,
+ * and by the threads which wake them up, which is only done when some thread is waiting.
+ *
  * @author dybis
  */
 class DocumentQueue {
 
-    private final Deque<Document> queue;
+    private final ConcurrentLinkedQueue<Document> queue = new ConcurrentLinkedQueue<>();
+    /** The number of documents in the queue, plus the number of slots reserved by put operations in progress */
+    private final AtomicInteger size = new AtomicInteger();
     private final int maxSize;
-    private boolean closed = false;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
     private final Clock clock;
 
+    private final Object waitMonitor = new Object();
+    /** The number of threads waiting, or about to wait, on the monitor for the queue to change */
+    private final AtomicInteger waiters = new AtomicInteger();
+
     DocumentQueue(int maxSize, Clock clock) {
         this.maxSize = maxSize;
-        this.queue = new ArrayDeque<>(maxSize);
         this.clock = clock;
     }
 
     List<Document> removeAllDocuments() {
-        synchronized (queue) {
-            List<Document> allDocs = new ArrayList<>();
-            while (!queue.isEmpty()) {
-                allDocs.add(queue.poll());
-            }
-            queue.notifyAll();
-            return allDocs;
+        List<Document> allDocs = new ArrayList<>();
+        for (Document document; (document = take()) != null; ) {
+            allDocs.add(document);
         }
+        signal();
+        return allDocs;
     }
 
     void put(Document document, boolean calledFromIoThreadGroup) throws InterruptedException {
         document.setQueueInsertTime(clock.instant());
-        synchronized (queue) {
-            while (!closed && (queue.size() >= maxSize) && !calledFromIoThreadGroup) {
-                queue.wait();
-            }
-            if (closed) {
-                throw new IllegalStateException("Cannot add elements to closed queue.");
-            }
-            queue.add(document);
-            queue.notifyAll();
+        if (calledFromIoThreadGroup)
+            size.incrementAndGet();
+        else
+            reserveSlot();
+        if (closed.get()) {
+            size.decrementAndGet();
+            signal();
+            throw new IllegalStateException("Cannot add elements to closed queue.");
         }
+        queue.add(document);
+        signal();
     }
 
     Document poll(long timeout, TimeUnit unit) throws InterruptedException {
-        synchronized (queue) {
-            long remainingToWait = unit.toMillis(timeout);
-            while (queue.isEmpty()) {
-                long startTime = clock.millis();
-                queue.wait(remainingToWait);
-                remainingToWait -= (clock.millis() - startTime);
-                if (remainingToWait <= 0) {
-                    break;
+        Document document = poll();
+        if (document != null) return document;
+
+        long remainingToWait = unit.toMillis(timeout);
+        while (remainingToWait > 0) {
+            long startTime = clock.millis();
+            waiters.incrementAndGet();
+            try {
+                synchronized (waitMonitor) {
+                    if (queue.isEmpty())
+                        waitMonitor.wait(remainingToWait);
                 }
             }
-            Document document = queue.poll();
-            queue.notifyAll();
-            return document;
+            finally {
+                waiters.decrementAndGet();
+            }
+            document = poll();
+            if (document != null) return document;
+            remainingToWait -= (clock.millis() - startTime);
         }
+        return null;
     }
 
     Document poll() {
-        synchronized (queue) {
-            Document document = queue.poll();
-            queue.notifyAll();
-            return document;
-        }
+        Document document = take();
+        if (document != null)
+            signal();
+        return document;
     }
 
     boolean isEmpty() {
-        synchronized (queue) {
-            return queue.isEmpty();
-        }
+        return size.get() == 0;
     }
 
     int size() {
-        synchronized (queue) {
-            return queue.size();
-        }
+        return size.get();
     }
 
     void clear() {
-        synchronized (queue) {
-            queue.clear();
-            queue.notifyAll();
-        }
+        while (take() != null) { }
+        signal();
     }
 
     boolean close() {
-        boolean previousState;
-        synchronized (queue) {
-            previousState = closed;
-            closed = true;
-            queue.notifyAll();
-        }
+        boolean previousState = closed.getAndSet(true);
+        signal();
         return previousState;
     }
 
     Optional<Document> pollDocumentIfTimedoutInQueue(Duration localQueueTimeOut) {
-        synchronized (queue) {
-            if (queue.isEmpty()) return Optional.empty();
-
-            Document document = queue.peek();
-            if (document.getQueueInsertTime().plus(localQueueTimeOut).isBefore(clock.instant()))
-                return Optional.ofNullable(queue.poll());
-            else
-                return Optional.empty();
+        Document document = queue.peek();
+        if (document == null) return Optional.empty();
+        if ( ! document.getQueueInsertTime().plus(localQueueTimeOut).isBefore(clock.instant())) return Optional.empty();
+
+        // Another thread may have taken this document since we peeked, so remove exactly this one, if still present
+        if ( ! queue.remove(document)) return Optional.empty();
+        size.decrementAndGet();
+        signal();
+        return Optional.of(document);
+    }
+
+    /** Blocks until a slot is reserved for a new document, or this is closed */
+    private void reserveSlot() throws InterruptedException {
+        while (true) {
+            int current = size.get();
+            if (current < maxSize) {
+                if (size.compareAndSet(current, current + 1)) return;
+                continue;
+            }
+            if (closed.get()) {
+                size.incrementAndGet(); // Released by the caller, which fails since the queue is closed
+                return;
+            }
+            waiters.incrementAndGet();
+            try {
+                synchronized (waitMonitor) {
+                    if ( ! closed.get() && size.get() >= maxSize)
+                        waitMonitor.wait();
+                }
+            }
+            finally {
+                waiters.decrementAndGet();
+            }
+        }
+    }
+
+    /** Removes and returns the head of the queue, without signalling, or null if the queue is empty */
+    private Document take() {
+        Document document = queue.poll();
+        if (document != null)
+            size.decrementAndGet();
+        return document;
+    }
+
+    /** Wakes up all threads waiting for the queue to change, if any */
+    private void signal() {
+        if (waiters.get() == 0) return;
+        synchronized (waitMonitor) {
+            waitMonitor.notifyAll();
         }
     }
 
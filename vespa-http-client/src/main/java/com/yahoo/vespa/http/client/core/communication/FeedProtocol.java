@@ -0,0 +1,270 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.vespa.http.client.core.communication;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yahoo.vespa.http.client.config.ConnectionParams;
+import com.yahoo.vespa.http.client.config.Endpoint;
+import com.yahoo.vespa.http.client.config.FeedParams;
+import com.yahoo.vespa.http.client.core.Document;
+import com.yahoo.vespa.http.client.core.Encoder;
+import com.yahoo.vespa.http.client.core.Headers;
+import com.yahoo.vespa.http.client.core.ServerResponseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The client side of the feed protocol of a single gateway connection, independent of the HTTP client used:
+ * The URI and headers of requests, the encoding of operations into request bodies, and the verification
+ * of the responses, which negotiates the protocol version.
+ *
+ * @author Einar M R Rosenvinge
+ * @author agent
+ */
+class FeedProtocol {
+
+    private static final Logger log = Logger.getLogger(FeedProtocol.class.getName());
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final String PATH = "/reserved-for-internal-use/feedapi?";
+    private static final byte[] START_OF_FEED_XML = "<vespafeed>\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] END_OF_FEED_XML = "\n</vespafeed>\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] START_OF_FEED_JSON = "[".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] END_OF_FEED_JSON = "]".getBytes(StandardCharsets.UTF_8);
+
+    private final List<Integer> supportedVersions = Collections.singletonList(3);
+    private final byte[] startOfFeed;
+    private final byte[] endOfFeed;
+    private final Endpoint endpoint;
+    private final FeedParams feedParams;
+    private final String clusterSpecificRoute;
+    private final ConnectionParams connectionParams;
+    private final String clientId;
+    private final String shardingKey = UUID.randomUUID().toString().substring(0, 5);
+    private volatile String sessionId;
+    private volatile int negotiatedVersion = -1;
+
+    FeedProtocol(Endpoint endpoint,
+                 FeedParams feedParams,
+                 String clusterSpecificRoute,
+                 ConnectionParams connectionParams,
+                 String clientId) {
+        this.endpoint = endpoint;
+        this.feedParams = feedParams;
+        this.clusterSpecificRoute = clusterSpecificRoute;
+        this.connectionParams = connectionParams;
+        this.clientId = clientId;
+
+        if (feedParams.getDataFormat() == FeedParams.DataFormat.JSON_UTF8) {
+            startOfFeed = START_OF_FEED_JSON;
+            endOfFeed = END_OF_FEED_JSON;
+        } else {
+            startOfFeed = START_OF_FEED_XML;
+            endOfFeed = END_OF_FEED_XML;
+        }
+    }
+
+    /** Returns the session id received from the server, or null if none */
+    String sessionId() { return sessionId; }
+
+    /** Forgets the session id received from the server, such that the next response sets it */
+    void clearSessionId() { sessionId = null; }
+
+    String createUri() {
+        StringBuilder u = new StringBuilder();
+        u.append(endpoint.isUseSsl() ? "https://" : "http://");
+        u.append(endpoint.getHostname());
+        u.append(":").append(endpoint.getPort());
+        u.append(PATH);
+        u.append(feedParams.toUriParameters());
+        return u.toString();
+    }
+
+    /** Returns the given operations encoded in the negotiated protocol version, to be sent as a request body */
+    ByteBuffer[] encode(List<Document> docs) {
+        List<ByteBuffer> data = new ArrayList<>();
+        if (negotiatedVersion == 3) {
+            for (Document doc : docs) {
+                int operationSize = doc.size() + startOfFeed.length + endOfFeed.length;
+                StringBuilder envelope = new StringBuilder();
+                Encoder.encode(doc.getOperationId(), envelope);
+                envelope.append(' ');
+                envelope.append(Integer.toHexString(operationSize));
+                envelope.append('\n');
+                data.add(StandardCharsets.US_ASCII.encode(envelope.toString()));
+                data.add(ByteBuffer.wrap(startOfFeed));
+                data.add(doc.getData());
+                data.add(ByteBuffer.wrap(endOfFeed));
+            }
+        } else {
+            throw new IllegalArgumentException("Protocol version " + negotiatedVersion + " unsupported by client.");
+        }
+        return data.toArray(new ByteBuffer[data.size()]);
+    }
+
+    /**
+     * Sets the headers of a request through the given functions, which add a header value,
+     * and replace any values of a header by a single value, respectively.
+     */
+    void setHeaders(BiConsumer<String, String> addHeader, BiConsumer<String, String> setHeader,
+                    boolean drain, boolean useCompression, boolean isHandshake) {
+        for (int v : supportedVersions) {
+            addHeader.accept(Headers.VERSION, "" + v);
+        }
+        if (sessionId != null) {
+            setHeader.accept(Headers.SESSION_ID, sessionId);
+        }
+        if (clientId != null) {
+            setHeader.accept(Headers.CLIENT_ID, clientId);
+        }
+        setHeader.accept(Headers.SHARDING_KEY, shardingKey);
+        setHeader.accept(Headers.DRAIN, drain ? "true" : "false");
+        if (clusterSpecificRoute != null) {
+            setHeader.accept(Headers.ROUTE, feedParams.getRoute());
+        } else {
+            if (feedParams.getRoute() != null) {
+                setHeader.accept(Headers.ROUTE, feedParams.getRoute());
+            }
+        }
+        if (!isHandshake) {
+            if (feedParams.getDataFormat() == FeedParams.DataFormat.JSON_UTF8) {
+                setHeader.accept(Headers.DATA_FORMAT, FeedParams.DataFormat.JSON_UTF8.name());
+            } else {
+                setHeader.accept(Headers.DATA_FORMAT, FeedParams.DataFormat.XML_UTF8.name());
+            }
+            if (feedParams.getPriority() != null) {
+                setHeader.accept(Headers.PRIORITY, feedParams.getPriority());
+            }
+            if (connectionParams.getTraceLevel() != 0) {
+                setHeader.accept(Headers.TRACE_LEVEL, String.valueOf(connectionParams.getTraceLevel()));
+            }
+            if (negotiatedVersion == 3 && feedParams.getDenyIfBusyV3()) {
+                setHeader.accept(Headers.DENY_IF_BUSY, "true");
+            }
+        }
+        if (feedParams.getSilentUpgrade()) {
+            setHeader.accept(Headers.SILENTUPGRADE, "true");
+        }
+        setHeader.accept(Headers.TIMEOUT, "" + feedParams.getServerTimeout(TimeUnit.SECONDS));
+
+        for (Map.Entry<String, String> extraHeader : connectionParams.getHeaders()) {
+            addHeader.accept(extraHeader.getKey(), extraHeader.getValue());
+        }
+        connectionParams.getDynamicHeaders().forEach((headerName, provider) -> {
+            String headerValue = Objects.requireNonNull(
+                    provider.getHeaderValue(),
+                    provider.getClass().getName() + ".getHeader() returned null as header value!");
+            addHeader.accept(headerName, headerValue);
+        });
+
+        if (useCompression) {
+            setHeader.accept("Content-Encoding", "gzip");
+        }
+    }
+
+    /**
+     * Verifies the status code, protocol version and session of a response.
+     *
+     * @param statusCode the status code of the response
+     * @param reasonPhrase the reason phrase of the response
+     * @param detailedErrorMessage supplies any detailed error message in the body of the response
+     * @param version the value of the version header of the response, or null if none
+     * @param session the value of the session id header of the response, or null if none
+     * @throws ServerResponseException if the response is not a successful response to this
+     */
+    void verifyResponse(int statusCode, String reasonPhrase, Supplier<Optional<String>> detailedErrorMessage,
+                        String version, String session) throws ServerResponseException {
+        verifyServerResponseCode(statusCode, reasonPhrase, detailedErrorMessage);
+        verifyServerVersion(version);
+        verifySessionHeader(session);
+    }
+
+    private static void verifyServerResponseCode(int statusCode, String reasonPhrase,
+                                                 Supplier<Optional<String>> detailedErrorMessage) throws ServerResponseException {
+        // We use code 261-299 to report errors related to internal transitive errors that the tenants should not care
+        // about to avoid masking more serious errors.
+        if (statusCode > 199 && statusCode < 260) return;
+        if (statusCode == 299) throw new ServerResponseException(429, "Too  many requests.");
+        throw new ServerResponseException(statusCode, detailedErrorMessage.get().orElse(reasonPhrase));
+    }
+
+    /**
+     * Returns the message of an error response with a JSON body, prefixed by its reason phrase,
+     * or empty if the response has no such message.
+     */
+    static Optional<String> detailedErrorMessage(String reasonPhrase, String contentType, InputStream body) {
+        if (contentType == null || !contentType.equalsIgnoreCase("application/json")) return Optional.empty();
+        try (InputStream in = body) {
+            JsonNode jsonNode = mapper.readTree(in);
+            JsonNode message = jsonNode.get("message");
+            if (message == null || message.textValue() == null) return Optional.empty();
+            return Optional.of(reasonPhrase + " - " + message.textValue());
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    private void verifySessionHeader(String serverHeaderVal) throws ServerResponseException {
+        if (serverHeaderVal == null) {
+            throw new ServerResponseException("Got no session ID from server.");
+        }
+        serverHeaderVal = serverHeaderVal.trim();
+        if (negotiatedVersion == 3) {
+            if (clientId == null || !clientId.equals(serverHeaderVal)) {
+                String message = "Running using v3. However, server responds with different session " +
+                                 "than client has set; " + serverHeaderVal + " vs client code " + clientId;
+                log.severe(message);
+                throw new ServerResponseException(message);
+            }
+            return;
+        }
+        if (sessionId == null) { //this must be the first request
+            log.finer("Got session ID from server: " + serverHeaderVal);
+            this.sessionId = serverHeaderVal;
+        } else {
+            if (!sessionId.equals(serverHeaderVal)) {
+                log.info("Request has been routed to a server which does not recognize the client session." +
+                         " Most likely cause is upgrading of cluster, transitive error.");
+                throw new ServerResponseException("Session ID received from server ('" + serverHeaderVal +
+                                                  "') does not match cached session ID ('" + sessionId + "')");
+            }
+        }
+    }
+
+    private void verifyServerVersion(String serverHeaderVal) throws ServerResponseException {
+        if (serverHeaderVal == null) {
+            throw new ServerResponseException("Got bad protocol version from server.");
+        }
+        int serverVersion;
+        try {
+            serverVersion = Integer.parseInt(serverHeaderVal);
+        } catch (NumberFormatException nfe) {
+            throw new ServerResponseException("Got bad protocol version from server: " + nfe.getMessage());
+        }
+        if (!supportedVersions.contains(serverVersion)) {
+            throw new ServerResponseException("Unsupported version: " + serverVersion
+                                              + ". Supported versions: " + supportedVersions);
+        }
+        if (negotiatedVersion == -1) {
+            if (log.isLoggable(Level.FINE)) {
+                log.log(Level.FINE, "Server decided upon protocol version " + serverVersion + ".");
+            }
+        }
+        this.negotiatedVersion = serverVersion;
+    }
+
+}
@@ -0,0 +1,385 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.vespa.http.client.core.communication;
+
+import com.yahoo.vespa.http.client.config.ConnectionParams;
+import com.yahoo.vespa.http.client.config.Endpoint;
+import com.yahoo.vespa.http.client.config.FeedParams;
+import com.yahoo.vespa.http.client.core.Document;
+import com.yahoo.vespa.http.client.core.ErrorCode;
+import com.yahoo.vespa.http.client.core.Exceptions;
+import com.yahoo.vespa.http.client.core.Headers;
+import com.yahoo.vespa.http.client.core.OperationStatus;
+import com.yahoo.vespa.http.client.core.ServerResponseException;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequests;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A gateway connection which sends each request as a stream on an asynchronous HTTP/2 client shared with the
+ * other connections to the same endpoint, such that these are multiplexed over a single TCP connection.
+ *
+ * Writes do not wait for the response to the request they send: Up to {@link #MAX_STREAMS} requests are
+ * in flight at a time, and a write only waits when that many are awaiting a response from the server. As the feed
+ * protocol returns operation results in the response to any request of the session, each write and poll instead
+ * returns the results of the responses received since the last one. A request which fails yields transient errors
+ * for its operations, and the failure is thrown by the next write or poll, such that the session is re-established.
+ * The handshake and drain wait for their response.
+ *
+ * The feed protocol, see {@link FeedProtocol}, is the same as for {@link ApacheGatewayConnection}: connecting and
+ * closing this only starts and ends a logical session, while the shared client manages the network connection.
+ *
+ * @author agent
+ */
+class Http2GatewayConnection implements GatewayConnection {
+
+    /** The max number of requests each connection has in flight, each as a stream on the shared TCP connection */
+    static final int MAX_STREAMS = 8;
+
+    private final Endpoint endpoint;
+    private final FeedProtocol protocol;
+    private final ConnectionParams connectionParams;
+    private final CloseableHttpAsyncClient httpClient;
+    private final Clock clock;
+    private final Duration responseTimeout;
+    private final String uri;
+
+    private final Object monitor = new Object();
+    /** The requests awaiting a response, guarded by the monitor */
+    private final Set<ResponseHandler> inFlight = new HashSet<>();
+    /** The results of responses not yet returned, guarded by the monitor */
+    private final ByteArrayOutputStream results = new ByteArrayOutputStream();
+    /** The first failure of a request since this was last thrown, guarded by the monitor */
+    private Exception failure = null;
+
+    private volatile boolean connected = false;
+    private Instant connectionTime = null;
+    private Instant lastPollTime = null;
+
+    Http2GatewayConnection(Endpoint endpoint,
+                           FeedParams feedParams,
+                           ConnectionParams connectionParams,
+                           CloseableHttpAsyncClient httpClient,
+                           String clientId,
+                           Clock clock) {
+        this.endpoint = endpoint;
+        this.protocol = new FeedProtocol(endpoint, feedParams, null, connectionParams, clientId);
+        this.connectionParams = connectionParams;
+        this.httpClient = httpClient;
+        this.clock = clock;
+        this.responseTimeout = responseTimeout(feedParams);
+        this.uri = protocol.createUri();
+    }
+
+    /** Returns the time to wait for a response, which is the time after which the operations it carries have timed out */
+    static Duration responseTimeout(FeedParams feedParams) {
+        return Duration.ofMillis(feedParams.getServerTimeout(TimeUnit.MILLISECONDS) +
+                                 feedParams.getClientTimeout(TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public InputStream write(List<Document> docs) throws ServerResponseException, IOException {
+        return post(docs, connectionParams.getUseCompression());
+    }
+
+    @Override
+    public InputStream poll() throws ServerResponseException, IOException {
+        lastPollTime = clock.instant();
+        return post(Collections.emptyList(), false);
+    }
+
+    @Override
+    public Instant lastPollTime() { return lastPollTime; }
+
+    /** Waits for the responses to all requests in flight, and then for the response to a drain request */
+    @Override
+    public InputStream drain() throws ServerResponseException, IOException {
+        requireConnected();
+        synchronized (monitor) {
+            if ( ! awaitInFlight(0)) {
+                cancelInFlight();
+                throw new IOException("Timed out after " + responseTimeout + " waiting for responses from " + endpoint);
+            }
+            failure = null; // Any failure is reported by the results of the operations it failed
+        }
+        SimpleHttpRequest request = createRequest(true, false, false);
+        request.setBody(new byte[0], ContentType.APPLICATION_OCTET_STREAM);
+        byte[] drained = execute(request);
+        synchronized (monitor) {
+            results.write(drained, 0, drained.length);
+        }
+        return takeResults();
+    }
+
+    @Override
+    public boolean connect() {
+        connected = true;
+        connectionTime = clock.instant();
+        return true;
+    }
+
+    @Override
+    public Instant connectionTime() { return connectionTime; }
+
+    @Override
+    public Endpoint getEndpoint() { return endpoint; }
+
+    @Override
+    public void handshake() throws ServerResponseException, IOException {
+        requireConnected();
+        execute(createRequest(false, false, true));
+    }
+
+    /**
+     * Ends this session. Requests in flight are not cancelled, so their results are returned if this connects again.
+     * The shared client, and its network connection, is closed by the factory.
+     */
+    @Override
+    public void close() {
+        connected = false;
+    }
+
+    /**
+     * Sends the given operations without waiting for the response, and returns the results received so far.
+     * An empty request, which only asks for results, is sent only if there are no requests in flight to return them.
+     */
+    private InputStream post(List<Document> docs, boolean useCompression) throws ServerResponseException, IOException {
+        requireConnected();
+        synchronized (monitor) {
+            throwFailure();
+            if (docs.isEmpty() && ! inFlight.isEmpty()) return takeResults();
+        }
+
+        SimpleHttpRequest request = createRequest(false, useCompression, false);
+        byte[] body = encode(docs);
+        if (useCompression) {
+            body = gzip(body);
+        }
+        request.setBody(body, ContentType.APPLICATION_OCTET_STREAM);
+
+        ResponseHandler handler = new ResponseHandler(docs);
+        synchronized (monitor) {
+            if ( ! awaitInFlight(MAX_STREAMS - 1)) {
+                cancelInFlight();
+                throw new IOException("Timed out after " + responseTimeout + " waiting for responses from " + endpoint);
+            }
+            throwFailure();
+            inFlight.add(handler);
+        }
+        try {
+            handler.future = httpClient.execute(request, handler);
+        }
+        catch (RuntimeException e) { // Thrown if the client is shut down
+            synchronized (monitor) {
+                inFlight.remove(handler);
+            }
+            throw new IOException("Failed posting to " + endpoint, e);
+        }
+        return takeResults();
+    }
+
+    private byte[] encode(List<Document> docs) {
+        ByteBuffer[] buffers = protocol.encode(docs);
+        int size = 0;
+        for (ByteBuffer buffer : buffers) {
+            size += buffer.remaining();
+        }
+        byte[] body = new byte[size];
+        ByteBuffer target = ByteBuffer.wrap(body);
+        for (ByteBuffer buffer : buffers) {
+            target.put(buffer);
+        }
+        return body;
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+        try (OutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private SimpleHttpRequest createRequest(boolean drain, boolean useCompression, boolean isHandshake) {
+        SimpleHttpRequest request = SimpleHttpRequests.post(uri);
+        protocol.setHeaders(request::addHeader, request::setHeader, drain, useCompression, isHandshake);
+        return request;
+    }
+
+    private void requireConnected() throws IOException {
+        if ( ! connected)
+            throw new IOException("Trying to post while not connected to " + endpoint);
+    }
+
+    /** Sends the given request and waits for the response, returning its body */
+    private byte[] execute(SimpleHttpRequest request) throws ServerResponseException, IOException {
+        Future<SimpleHttpResponse> future = httpClient.execute(request, null);
+        SimpleHttpResponse response;
+        try {
+            response = future.get(responseTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for response from " + endpoint);
+        }
+        catch (TimeoutException e) {
+            future.cancel(true);
+            throw new IOException("Timed out after " + responseTimeout + " waiting for response from " + endpoint);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException("Failed posting to " + endpoint, e.getCause());
+        }
+        verifyResponse(response);
+        byte[] body = response.getBodyBytes();
+        return body != null ? body : new byte[0];
+    }
+
+    /** Waits until at most the given number of requests are in flight. Returns false if this times out. Requires the monitor. */
+    private boolean awaitInFlight(int maxInFlight) throws InterruptedIOException {
+        long deadline = System.nanoTime() + responseTimeout.toNanos();
+        while (inFlight.size() > maxInFlight) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis <= 0) return false;
+            try {
+                monitor.wait(remainingMillis);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for responses from " + endpoint);
+            }
+        }
+        return true;
+    }
+
+    /** Cancels all requests in flight, which fails their operations with transient errors. Requires the monitor. */
+    private void cancelInFlight() {
+        for (ResponseHandler handler : new ArrayList<>(inFlight)) {
+            if (handler.future != null) {
+                handler.future.cancel(true);
+            }
+        }
+    }
+
+    /** Throws the first failure of a request since this was last called, if any. Requires the monitor. */
+    private void throwFailure() throws ServerResponseException, IOException {
+        Exception failure = this.failure;
+        this.failure = null;
+        if (failure instanceof ServerResponseException) throw (ServerResponseException) failure;
+        if (failure instanceof IOException) throw (IOException) failure;
+        if (failure != null) throw new IOException("Failed posting to " + endpoint, failure);
+    }
+
+    private InputStream takeResults() {
+        synchronized (monitor) {
+            byte[] taken = results.toByteArray();
+            results.reset();
+            return new ByteArrayInputStream(taken);
+        }
+    }
+
+    private void verifyResponse(SimpleHttpResponse response) throws ServerResponseException {
+        protocol.verifyResponse(response.getCode(),
+                                response.getReasonPhrase(),
+                                () -> tryGetDetailedErrorMessage(response),
+                                valueOf(response.getFirstHeader(Headers.VERSION)),
+                                valueOf(response.getFirstHeader(Headers.SESSION_ID)));
+    }
+
+    private static Optional<String> tryGetDetailedErrorMessage(SimpleHttpResponse response) {
+        ContentType contentType = response.getContentType();
+        byte[] body = response.getBodyBytes();
+        if (contentType == null || body == null) return Optional.empty();
+        return FeedProtocol.detailedErrorMessage(response.getReasonPhrase(),
+                                                 contentType.getMimeType(),
+                                                 new ByteArrayInputStream(body));
+    }
+
+    private static String valueOf(Header header) {
+        return header == null ? null : header.getValue();
+    }
+
+    /** Receives the response to a request, on a thread of the client */
+    private class ResponseHandler implements FutureCallback<SimpleHttpResponse> {
+
+        private final List<Document> docs;
+        private volatile Future<SimpleHttpResponse> future = null;
+
+        ResponseHandler(List<Document> docs) {
+            this.docs = docs;
+        }
+
+        @Override
+        public void completed(SimpleHttpResponse response) {
+            try {
+                verifyResponse(response);
+                byte[] body = response.getBodyBytes();
+                received(body != null ? body : new byte[0], null);
+            }
+            catch (ServerResponseException e) {
+                received(transientErrors(e), e);
+            }
+        }
+
+        @Override
+        public void failed(Exception e) {
+            received(transientErrors(e), e);
+        }
+
+        /** Cancelled by this after a timeout, which is reported when it happens */
+        @Override
+        public void cancelled() {
+            received(transientErrors(new IOException("Timed out waiting for response from " + endpoint)), null);
+        }
+
+        private void received(byte[] body, Exception failure) {
+            synchronized (monitor) {
+                results.write(body, 0, body.length);
+                if (body.length > 0 && body[body.length - 1] != '\n')
+                    results.write('\n');
+                if (failure != null && Http2GatewayConnection.this.failure == null)
+                    Http2GatewayConnection.this.failure = failure;
+                inFlight.remove(this);
+                monitor.notifyAll();
+            }
+        }
+
+        /** Returns the results failing all the operations of this request with transient errors */
+        private byte[] transientErrors(Exception e) {
+            String message = Exceptions.toMessageString(e);
+            StringBuilder errors = new StringBuilder();
+            for (Document doc : docs)
+                errors.append(new OperationStatus(message, doc.getOperationId(), ErrorCode.TRANSIENT_ERROR, false, "").render());
+            return errors.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+    }
+
+}
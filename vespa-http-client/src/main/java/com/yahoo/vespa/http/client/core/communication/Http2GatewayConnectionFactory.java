@@ -0,0 +1,128 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.vespa.http.client.core.communication;
+
+import com.yahoo.security.SslContextBuilder;
+import com.yahoo.security.tls.TlsContext;
+import com.yahoo.security.tls.TransportSecurityUtils;
+import com.yahoo.vespa.http.client.config.ConnectionParams;
+import com.yahoo.vespa.http.client.config.Endpoint;
+import com.yahoo.vespa.http.client.config.FeedParams;
+import com.yahoo.vespa.http.client.core.Headers;
+import com.yahoo.vespa.http.client.core.Vtag;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
+import org.apache.hc.client5.http.ssl.NoopHostnameVerifier;
+import org.apache.hc.core5.http.message.BasicHeader;
+import org.apache.hc.core5.http.nio.ssl.TlsStrategy;
+import org.apache.hc.core5.http2.config.H2Config;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.Timeout;
+
+import javax.net.ssl.SSLContext;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Objects;
+
+/**
+ * Creates gateway connections which send their requests over a single, asynchronous HTTP/2 client per endpoint.
+ * All connections created by this share the client, so they are multiplexed as streams over one TCP connection
+ * rather than using one TCP connection each. Each connection has multiple requests in flight, as its IO thread
+ * does not wait for the response to a request before sending the next, see {@link Http2GatewayConnection}.
+ * The endpoint must support HTTP/2, either over TLS or as cleartext with prior knowledge.
+ *
+ * @author agent
+ */
+public class Http2GatewayConnectionFactory implements GatewayConnectionFactory, AutoCloseable {
+
+    private final Endpoint endpoint;
+    private final FeedParams feedParams;
+    private final ConnectionParams connectionParams;
+    private final String clientId;
+    private final Clock clock;
+    private final CloseableHttpAsyncClient httpClient;
+
+    public Http2GatewayConnectionFactory(Endpoint endpoint,
+                                         FeedParams feedParams,
+                                         ConnectionParams connectionParams,
+                                         String clientId,
+                                         Clock clock) {
+        if (connectionParams.getProxyHost() != null)
+            throw new IllegalArgumentException("Proxies are not supported when feeding over HTTP/2");
+
+        this.endpoint = endpoint;
+        this.feedParams = feedParams;
+        this.connectionParams = connectionParams;
+        this.clientId = Objects.requireNonNull(clientId, "clientId cannot be null");
+        this.clock = clock;
+        this.httpClient = createClient(connectionParams, Http2GatewayConnection.responseTimeout(feedParams));
+        this.httpClient.start();
+    }
+
+    @Override
+    public GatewayConnection newConnection() {
+        return new Http2GatewayConnection(endpoint, feedParams, connectionParams, httpClient, clientId, clock);
+    }
+
+    /** Closes the client shared by all connections created by this */
+    @Override
+    public void close() {
+        httpClient.close(CloseMode.GRACEFUL);
+    }
+
+    private static CloseableHttpAsyncClient createClient(ConnectionParams connectionParams, Duration responseTimeout) {
+        return HttpAsyncClients.customHttp2()
+                               .setTlsStrategy(createTlsStrategy(connectionParams))
+                               .setH2Config(H2Config.custom()
+                                                    .setPushEnabled(false)
+                                                    .build())
+                               .setIOReactorConfig(IOReactorConfig.custom()
+                                                                  .setIoThreadCount(1)
+                                                                  .setTcpNoDelay(true)
+                                                                  .build())
+                               .setDefaultRequestConfig(RequestConfig.custom()
+                                                                     .setResponseTimeout(Timeout.ofMilliseconds(responseTimeout.toMillis()))
+                                                                     .build())
+                               .setUserAgent(String.format("vespa-http-client (%s)", Vtag.V_TAG_COMPONENT))
+                               .setDefaultHeaders(Collections.singletonList(new BasicHeader(Headers.CLIENT_VERSION, Vtag.V_TAG_COMPONENT)))
+                               .disableCookieManagement()
+                               .disableAuthCaching()
+                               .disableRedirectHandling()
+                               .disableAutomaticRetries()
+                               .build();
+    }
+
+    private static TlsStrategy createTlsStrategy(ConnectionParams connectionParams) {
+        ClientTlsStrategyBuilder builder = ClientTlsStrategyBuilder.create();
+        if (connectionParams.useTlsConfigFromEnvironment()) {
+            TlsContext tlsContext = TransportSecurityUtils.createTlsContext().orElse(null);
+            if (tlsContext != null) {
+                builder.setSslContext(tlsContext.context())
+                       .setTlsVersions(tlsContext.parameters().getProtocols())
+                       .setCiphers(tlsContext.parameters().getCipherSuites())
+                       .setHostnameVerifier(new NoopHostnameVerifier()); // Verification is done by the trust manager
+            }
+            return builder.build();
+        }
+        SSLContext sslContext = connectionParams.getSslContext();
+        if (sslContext == null) {
+            SslContextBuilder sslContextBuilder = new SslContextBuilder();
+            if (connectionParams.getPrivateKey() != null && connectionParams.getCertificate() != null) {
+                sslContextBuilder.withKeyStore(connectionParams.getPrivateKey(), connectionParams.getCertificate());
+            }
+            if (connectionParams.getCaCertificates() != null) {
+                sslContextBuilder.withTrustStore(connectionParams.getCaCertificates());
+            }
+            sslContext = sslContextBuilder.build();
+        }
+        builder.setSslContext(sslContext);
+        if (connectionParams.getHostnameVerifier() != null) {
+            builder.setHostnameVerifier(connectionParams.getHostnameVerifier());
+        }
+        return builder.build();
+    }
+
+}
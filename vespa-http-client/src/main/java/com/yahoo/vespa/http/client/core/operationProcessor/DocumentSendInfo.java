@@ -10,19 +10,21 @@ import java.util.Map;
 
 /**
  * Keeps an overview of what is sent and what is received for an operation.
- * This class is not thread-safe.
+ * This class is not thread-safe: Users must synchronize on the instance.
  */
 class DocumentSendInfo {
 
     private final Document document;
+    private final long sequenceNumber;
     private final Map<Integer, Result.Detail> detailByClusterId = new HashMap<>();
     // This is lazily populated as normal cases does not require retries.
     private Map<Integer, Integer> attemptedRetriesByClusterId = null;
     private final StringBuilder localTrace;
     private final Clock clock;
 
-    DocumentSendInfo(Document document, boolean traceThisDoc, Clock clock) {
+    DocumentSendInfo(Document document, long sequenceNumber, boolean traceThisDoc, Clock clock) {
         this.document = document;
+        this.sequenceNumber = sequenceNumber;
         localTrace = traceThisDoc ? new StringBuilder("\n" + document.createTime() + " Trace starting " + "\n")
                                   : null;
         this.clock = clock;
@@ -72,4 +74,9 @@ class DocumentSendInfo {
         return document;
     }
 
+    /** Returns the number of operations sent before this by the same processor */
+    long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
 }
@@ -19,31 +19,40 @@ import java.time.Clock;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Merges several endpointResult into one Result and does the callback.
  *
+ * Results are received concurrently by the IO threads of all clusters, so no lock is shared by all operations:
+ * The state of each operation is guarded by its {@link DocumentSendInfo}, and the in-flight and blocked
+ * operations are kept in stripes which are locked separately, selected by document id.
+ *
  * @author dybis
  */
 public class OperationProcessor {
 
     private static final Logger log = Logger.getLogger(OperationProcessor.class.getName());
-    private final Map<String, DocumentSendInfo> docSendInfoByOperationId = new LinkedHashMap<>();
-    private final ArrayListMultimap<String, Document> blockedDocumentsByDocumentId = ArrayListMultimap.create();
-    private final Set<String> inflightDocumentIds = new HashSet<>();
+    private static final int DOCUMENT_ID_STRIPES = 64;
+
+    private final Map<String, DocumentSendInfo> docSendInfoByOperationId = new ConcurrentHashMap<>();
+    /** The incomplete operations, in the order they were sent */
+    private final ConcurrentSkipListMap<Long, DocumentSendInfo> docSendInfoBySequenceNumber = new ConcurrentSkipListMap<>();
+    private final AtomicLong sequenceNumber = new AtomicLong();
+    private final DocumentIdStripe[] documentIdStripes = new DocumentIdStripe[DOCUMENT_ID_STRIPES];
     private final int numDestinations;
     private final FeedClient.ResultCallback resultCallback;
-    private final Object monitor = new Object();
     private final IncompleteResultsThrottler incompleteResultsThrottler;
     // Position in the array is cluster ID.
     private final List<ClusterConnection> clusters = new ArrayList<>();
@@ -53,7 +62,6 @@ public class OperationProcessor {
     private final long minTimeBetweenRetriesMs;
     private final Random random = new SecureRandom();
     private final int traceEveryXOperation;
-    private int traceCounter = 0;
     private final boolean traceToStderr;
     private final ThreadGroup ioThreadGroup;
     private final String clientId = new BigInteger(130, random).toString(32);
@@ -70,6 +78,8 @@ public class OperationProcessor {
         this.timeoutExecutor = timeoutExecutor;
         this.ioThreadGroup = new ThreadGroup("operationprocessor");
         this.clock = clock;
+        for (int i = 0; i < documentIdStripes.length; i++)
+            documentIdStripes[i] = new DocumentIdStripe();
 
         if (sessionParams.getClusters().isEmpty())
             throw new IllegalArgumentException("Cannot feed to 0 clusters.");
@@ -102,18 +112,13 @@ public class OperationProcessor {
     }
 
     public int getIncompleteResultQueueSize() {
-        synchronized (monitor) {
-            return docSendInfoByOperationId.size();
-        }
+        return docSendInfoByOperationId.size();
     }
 
     /** Returns the id of the oldest operation to be sent. */
     public Optional<String> oldestIncompleteResultId() {
-        synchronized (monitor) {
-            return docSendInfoByOperationId.isEmpty()
-                    ? Optional.empty()
-                    : Optional.of(docSendInfoByOperationId.keySet().iterator().next());
-        }
+        Map.Entry<Long, DocumentSendInfo> oldest = docSendInfoBySequenceNumber.firstEntry();
+        return oldest == null ? Optional.empty() : Optional.of(oldest.getValue().getDocument().getOperationId());
     }
 
     public String getClientId() {
@@ -156,14 +161,17 @@ public class OperationProcessor {
     }
 
     private Result process(EndpointResult endpointResult, int clusterId) {
+        DocumentSendInfo documentSendInfo = docSendInfoByOperationId.get(endpointResult.getOperationId());
+        if (documentSendInfo == null) {
+            log.finer("Received out-of-order or too late result, discarding: " + endpointResult);
+            return null;
+        }
         Result result;
-        Document blockedDocumentToSend = null;
-        synchronized (monitor) {
-            if (!docSendInfoByOperationId.containsKey(endpointResult.getOperationId())) {
+        synchronized (documentSendInfo) {
+            if (docSendInfoByOperationId.get(endpointResult.getOperationId()) != documentSendInfo) {
                 log.finer("Received out-of-order or too late result, discarding: " + endpointResult);
                 return null;
             }
-            DocumentSendInfo documentSendInfo = docSendInfoByOperationId.get(endpointResult.getOperationId());
 
             if (retriedThis(endpointResult, documentSendInfo, clusterId)) return null;
 
@@ -175,13 +183,18 @@ public class OperationProcessor {
 
             result = documentSendInfo.createResult();
             docSendInfoByOperationId.remove(endpointResult.getOperationId());
+            docSendInfoBySequenceNumber.remove(documentSendInfo.getSequenceNumber());
+        }
 
-            String documentId = documentSendInfo.getDocument().getDocumentId();
+        Document blockedDocumentToSend = null;
+        String documentId = documentSendInfo.getDocument().getDocumentId();
+        DocumentIdStripe stripe = stripeOf(documentId);
+        synchronized (stripe) {
             // If we got a pending operation against this document
             // dont't remove it from inflightDocuments and send blocked document operation
-            List<Document> blockedDocuments = blockedDocumentsByDocumentId.get(documentId);
+            List<Document> blockedDocuments = stripe.blockedDocumentsByDocumentId.get(documentId);
             if (blockedDocuments.isEmpty()) {
-                inflightDocumentIds.remove(documentId);
+                stripe.inflightDocumentIds.remove(documentId);
             } else {
                 blockedDocumentToSend = blockedDocuments.remove(0);
             }
@@ -223,28 +236,34 @@ public class OperationProcessor {
     public void sendDocument(Document document) {
         incompleteResultsThrottler.operationStart();
 
-        synchronized (monitor) {
-            if (inflightDocumentIds.contains(document.getDocumentId())) {
-                blockedDocumentsByDocumentId.put(document.getDocumentId(), document);
+        DocumentIdStripe stripe = stripeOf(document.getDocumentId());
+        synchronized (stripe) {
+            if (stripe.inflightDocumentIds.contains(document.getDocumentId())) {
+                stripe.blockedDocumentsByDocumentId.put(document.getDocumentId(), document);
                 return;
             }
-            inflightDocumentIds.add(document.getDocumentId());
+            stripe.inflightDocumentIds.add(document.getDocumentId());
         }
 
         sendToClusters(document, clock);
     }
 
     private void sendToClusters(Document document, Clock clock) {
-        synchronized (monitor) {
-            boolean traceThisDoc = traceEveryXOperation > 0 && traceCounter++ % traceEveryXOperation == 0;
-            docSendInfoByOperationId.put(document.getOperationId(), new DocumentSendInfo(document, traceThisDoc, clock));
-        }
+        long sequenceNumber = this.sequenceNumber.getAndIncrement();
+        boolean traceThisDoc = traceEveryXOperation > 0 && sequenceNumber % traceEveryXOperation == 0;
+        DocumentSendInfo documentSendInfo = new DocumentSendInfo(document, sequenceNumber, traceThisDoc, clock);
+        docSendInfoBySequenceNumber.put(sequenceNumber, documentSendInfo);
+        docSendInfoByOperationId.put(document.getOperationId(), documentSendInfo);
 
         for (ClusterConnection clusterConnection : clusters) {
             postToCluster(clusterConnection, document);
         }
     }
 
+    private DocumentIdStripe stripeOf(String documentId) {
+        return documentIdStripes[(documentId.hashCode() & 0x7fffffff) % documentIdStripes.length];
+    }
+
     private void postToCluster(ClusterConnection clusterConnection, Document document) {
         try {
             clusterConnection.post(document);
@@ -304,4 +323,12 @@ public class OperationProcessor {
         }
     }
 
+    /** The operations in flight and blocked for a subset of the document ids. Guarded by its own monitor. */
+    private static class DocumentIdStripe {
+
+        final ArrayListMultimap<String, Document> blockedDocumentsByDocumentId = ArrayListMultimap.create();
+        final Set<String> inflightDocumentIds = new HashSet<>();
+
+    }
+
 }
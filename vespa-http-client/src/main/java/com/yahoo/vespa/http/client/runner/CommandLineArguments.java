@@ -225,6 +225,12 @@ public class CommandLineArguments {
             description = "BETA! Use Vespa TLS configuration from environment if available. Other HTTPS/TLS configuration will be ignored if this is set.")
     private boolean useTlsConfigFromEnvironment = false;
 
+    @Option(name = {"--useHttp2"},
+            description = "Feed over HTTP/2, multiplexing all persistent connections to an endpoint over a single " +
+                          "TCP connection, each with multiple requests in flight. " +
+                          "The endpoint must support HTTP/2.")
+    private boolean useHttp2 = false;
+
     @Option(name = {"--connectionTimeToLive"},
             description = "Maximum time to live for persistent connections. Specified as integer, in seconds.")
     private long connectionTimeToLive = 15;
@@ -290,6 +296,7 @@ public class CommandLineArguments {
                                 .setCertificateAndPrivateKey(privateKeyPath, certificatePath)
                                 .setCaCertificates(caCertificatesPath)
                                 .setUseTlsConfigFromEnvironment(useTlsConfigFromEnvironment)
+                                .setUseHttp2(useHttp2)
                                 .setConnectionTimeToLive(Duration.ofSeconds(connectionTimeToLive))
                                 .build()
                 )
@@ -0,0 +1,92 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.vespa.http.client;
+
+import com.yahoo.vespa.http.client.config.Cluster;
+import com.yahoo.vespa.http.client.config.ConnectionParams;
+import com.yahoo.vespa.http.client.config.Endpoint;
+import com.yahoo.vespa.http.client.config.SessionParams;
+import com.yahoo.vespa.http.client.core.api.FeedClientImpl;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the throughput of the feed client itself, by feeding through dry run connections, which respond
+ * to all operations immediately without any network traffic, from a varying number of feeding threads.
+ * The number of operations fed per run may be set by the system property "operations".
+ *
+ * @author agent
+ */
+public class FeedClientBenchmark {
+
+    private static final int RUNS = 5;
+    private static final String DOCUMENT = "{\"fields\":{\"title\":\"A title\",\"body\":\"Some text\"}}";
+
+    private void benchmark(int operations) throws InterruptedException {
+        for (int clusters : new int[] { 1, 2 }) {
+            for (int threads : new int[] { 1, 2, 4, 8 }) {
+                long best = Long.MAX_VALUE;
+                for (int i = 0; i < RUNS; i++) {
+                    best = Math.min(best, run(operations, clusters, threads));
+                }
+                System.out.println(String.format("%d clusters, %d feeding threads: %9.0f operations/s",
+                                                 clusters, threads, operations * 1e9 / best));
+            }
+        }
+    }
+
+    /** Feeds the given number of operations and returns the time taken until all results are received, in nanoseconds */
+    private long run(int operations, int clusters, int threads) throws InterruptedException {
+        AtomicInteger failures = new AtomicInteger();
+        CountDownLatch results = new CountDownLatch(operations);
+        FeedClient feedClient = new FeedClientImpl(sessionParams(clusters),
+                                                   (documentId, result) -> {
+                                                       if ( ! result.isSuccess()) failures.incrementAndGet();
+                                                       results.countDown();
+                                                   },
+                                                   FeedClientFactory.createTimeoutExecutor(),
+                                                   Clock.systemUTC());
+        long start = System.nanoTime();
+        List<Thread> feeders = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            Thread feeder = new Thread(() -> {
+                for (int i = first; i < operations; i += threads) {
+                    feedClient.stream("id:ns:type::" + i, DOCUMENT);
+                }
+            });
+            feeder.start();
+            feeders.add(feeder);
+        }
+        for (Thread feeder : feeders) {
+            feeder.join();
+        }
+        results.await();
+        long elapsed = System.nanoTime() - start;
+        feedClient.close();
+        if (failures.get() > 0)
+            throw new IllegalStateException(failures.get() + " operations failed");
+        return elapsed;
+    }
+
+    private static SessionParams sessionParams(int clusters) {
+        SessionParams.Builder builder = new SessionParams.Builder()
+                .setConnectionParams(new ConnectionParams.Builder().setDryRun(true)
+                                                                   .setNumPersistentConnectionsPerEndpoint(4)
+                                                                   .build());
+        for (int i = 0; i < clusters; i++) {
+            builder.addCluster(new Cluster.Builder().addEndpoint(Endpoint.create("host" + i + "a"))
+                                                    .addEndpoint(Endpoint.create("host" + i + "b"))
+                                                    .build());
+        }
+        return builder.build();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        new FeedClientBenchmark().benchmark(Integer.getInteger("operations", 200000));
+    }
+
+}
@@ -5,8 +5,16 @@ import com.yahoo.vespa.http.client.core.Document;
 import org.junit.Test;
 
 import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class CloseableQTestCase {
@@ -49,4 +57,52 @@ public class CloseableQTestCase {
         assertEquals(3, q.size());
     }
 
+    @Test
+    public void requireThatAllDocumentsArePassedFromManyProducersToManyConsumers() throws InterruptedException {
+        int producers = 4, consumers = 4, documentsPerProducer = 10000, maxSize = 16;
+        DocumentQueue q = new DocumentQueue(maxSize, Clock.systemUTC());
+        AtomicInteger maxObservedSize = new AtomicInteger();
+        Set<String> received = new HashSet<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < documentsPerProducer; i++) {
+                        q.put(new Document(producer + ":" + i, null, "data", null, Clock.systemUTC().instant()), false);
+                        maxObservedSize.accumulateAndGet(q.size(), Math::max);
+                    }
+                }
+                catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        AtomicInteger remaining = new AtomicInteger(producers * documentsPerProducer);
+        for (int c = 0; c < consumers; c++) {
+            threads.add(new Thread(() -> {
+                try {
+                    while (remaining.get() > 0) {
+                        Document document = q.poll(10, TimeUnit.MILLISECONDS);
+                        if (document == null) continue;
+                        remaining.decrementAndGet();
+                        synchronized (received) {
+                            received.add(document.getDocumentId());
+                        }
+                    }
+                }
+                catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        assertEquals(producers * documentsPerProducer, received.size());
+        assertTrue(q.isEmpty());
+        assertNull(q.poll());
+        assertTrue(maxObservedSize.get() <= maxSize);
+    }
+
 }
@@ -0,0 +1,335 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.vespa.http.client.core.communication;
+
+import com.yahoo.vespa.http.client.config.ConnectionParams;
+import com.yahoo.vespa.http.client.config.Endpoint;
+import com.yahoo.vespa.http.client.config.FeedParams;
+import com.yahoo.vespa.http.client.core.Document;
+import com.yahoo.vespa.http.client.core.Headers;
+import com.yahoo.vespa.http.client.core.ServerResponseException;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.message.BasicHttpResponse;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.BasicAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http.nio.support.BasicResponseProducer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.IOSession;
+import org.apache.hc.core5.reactor.IOSessionListener;
+import org.apache.hc.core5.reactor.ListenerEndpoint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author agent
+ */
+public class Http2GatewayConnectionTest {
+
+    private final List<Message<HttpRequest, byte[]>> requests = new CopyOnWriteArrayList<>();
+    private final AtomicInteger tcpConnections = new AtomicInteger();
+    private final List<Runnable> heldResponses = new CopyOnWriteArrayList<>();
+    private volatile int responseCode = 200;
+    private volatile boolean holdResponses = false;
+    private HttpAsyncServer server;
+    private Endpoint endpoint;
+
+    @Before
+    public void startServer() throws Exception {
+        server = H2ServerBootstrap.bootstrap()
+                                  .setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_2)
+                                  .setIOSessionListener(new ConnectionCounter())
+                                  .register("*", new FeedHandler())
+                                  .create();
+        server.start();
+        ListenerEndpoint listener = server.listen(new InetSocketAddress("localhost", 0)).get();
+        endpoint = Endpoint.create("localhost", ((InetSocketAddress) listener.getAddress()).getPort(), false);
+    }
+
+    @After
+    public void stopServer() {
+        server.close(CloseMode.IMMEDIATE);
+    }
+
+    @Test
+    public void requireThatOperationsArePostedInTheV3Format() throws Exception {
+        try (Http2GatewayConnectionFactory factory = factory(new ConnectionParams.Builder().build())) {
+            GatewayConnection connection = factory.newConnection();
+            assertTrue(connection.connect());
+            connection.handshake();
+            String results = read(connection.write(Collections.singletonList(document("op1", "{\"put\":1}"))));
+            results += read(connection.drain());
+
+            assertEquals("op1 OK\n", results);
+            assertEquals(3, requests.size());
+            HttpRequest handshake = requests.get(0).getHead();
+            assertEquals("3", handshake.getFirstHeader(Headers.VERSION).getValue());
+            assertEquals("my-client", handshake.getFirstHeader(Headers.CLIENT_ID).getValue());
+            assertEquals(null, handshake.getFirstHeader(Headers.DATA_FORMAT));
+            HttpRequest write = requests.get(1).getHead();
+            assertEquals("JSON_UTF8", write.getFirstHeader(Headers.DATA_FORMAT).getValue());
+            assertEquals("false", write.getFirstHeader(Headers.DRAIN).getValue());
+            assertEquals("op1 b\n[{\"put\":1}]", new String(requests.get(1).getBody(), StandardCharsets.UTF_8));
+            HttpRequest drain = requests.get(2).getHead();
+            assertEquals("true", drain.getFirstHeader(Headers.DRAIN).getValue());
+        }
+    }
+
+    @Test
+    public void requireThatCompressedOperationsAreGzipped() throws Exception {
+        try (Http2GatewayConnectionFactory factory = factory(new ConnectionParams.Builder().setUseCompression(true).build())) {
+            GatewayConnection connection = factory.newConnection();
+            connection.connect();
+            connection.handshake();
+            connection.write(Collections.singletonList(document("op1", "{\"put\":1}")));
+            connection.drain();
+
+            HttpRequest write = requests.get(1).getHead();
+            assertEquals("gzip", write.getFirstHeader("Content-Encoding").getValue());
+            assertEquals("op1 b\n[{\"put\":1}]",
+                         read(new GZIPInputStream(new ByteArrayInputStream(requests.get(1).getBody()))));
+        }
+    }
+
+    @Test
+    public void requireThatConnectionsShareOneTcpConnection() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (Http2GatewayConnectionFactory factory = factory(new ConnectionParams.Builder().build())) {
+            List<Future<String>> responses = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                String id = "op" + i;
+                responses.add(executor.submit(() -> {
+                    GatewayConnection connection = factory.newConnection();
+                    connection.connect();
+                    connection.handshake();
+                    StringBuilder result = new StringBuilder();
+                    for (int j = 0; j < 10; j++) {
+                        result.append(read(connection.write(Collections.singletonList(document(id, "{}")))));
+                    }
+                    result.append(read(connection.drain()));
+                    connection.close();
+                    return result.toString();
+                }));
+            }
+            for (int i = 0; i < 8; i++) {
+                assertEquals(String.join("", Collections.nCopies(10, "op" + i + " OK\n")), responses.get(i).get());
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        assertEquals(96, requests.size());
+        assertEquals(1, tcpConnections.get());
+    }
+
+    @Test
+    public void requireThatWritesDoNotWaitForResponses() throws Exception {
+        try (Http2GatewayConnectionFactory factory = factory(new ConnectionParams.Builder().build())) {
+            GatewayConnection connection = factory.newConnection();
+            connection.connect();
+            connection.handshake();
+            holdResponses = true;
+            assertEquals("", read(connection.write(Collections.singletonList(document("op1", "{}")))));
+            assertEquals("", read(connection.write(Collections.singletonList(document("op2", "{}")))));
+            awaitRequests(3);
+            assertEquals("", read(connection.poll()));
+            assertEquals("No request is sent to poll while responses are pending", 3, requests.size());
+
+            releaseResponses(2);
+            List<String> results = Arrays.asList(read(connection.drain()).split("\n"));
+            Collections.sort(results);
+            assertEquals(Arrays.asList("op1 OK", "op2 OK"), results);
+        }
+    }
+
+    @Test
+    public void requireThatStreamsInFlightAreBoundedByResponses() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (Http2GatewayConnectionFactory factory = factory(new ConnectionParams.Builder().build())) {
+            GatewayConnection connection = factory.newConnection();
+            connection.connect();
+            connection.handshake();
+            holdResponses = true;
+            for (int i = 0; i < Http2GatewayConnection.MAX_STREAMS; i++) {
+                connection.write(Collections.singletonList(document("op" + i, "{}")));
+            }
+            awaitRequests(1 + Http2GatewayConnection.MAX_STREAMS);
+
+            Future<String> blocked = executor.submit(() -> read(connection.write(Collections.singletonList(document("last", "{}")))));
+            Thread.sleep(100);
+            assertFalse(blocked.isDone());
+            assertEquals(1 + Http2GatewayConnection.MAX_STREAMS, requests.size());
+
+            releaseResponses(1);
+            assertTrue("The result of the released request is returned", blocked.get().matches("op\\d OK\n"));
+            releaseResponses(Http2GatewayConnection.MAX_STREAMS);
+            connection.drain();
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void requireThatFailedRequestsAreThrownAndFailTheirOperations() throws Exception {
+        try (Http2GatewayConnectionFactory factory = factory(new ConnectionParams.Builder().build())) {
+            GatewayConnection connection = factory.newConnection();
+            connection.connect();
+            connection.handshake();
+            responseCode = 503;
+            connection.write(Collections.singletonList(document("op1", "{}")));
+            ServerResponseException thrown = null;
+            for (int i = 0; i < 1000 && thrown == null; i++) {
+                try {
+                    connection.poll();
+                    Thread.sleep(10);
+                }
+                catch (ServerResponseException e) {
+                    thrown = e;
+                }
+            }
+            assertNotNull("Expected exception", thrown);
+            assertEquals(503, thrown.getResponseCode());
+
+            responseCode = 200;
+            assertTrue(read(connection.poll()).startsWith("op1 TRANSIENT_ERROR "));
+        }
+    }
+
+    @Test
+    public void requireThatClosedConnectionsCannotPost() throws Exception {
+        try (Http2GatewayConnectionFactory factory = factory(new ConnectionParams.Builder().build())) {
+            GatewayConnection connection = factory.newConnection();
+            connection.connect();
+            connection.handshake();
+            connection.close();
+            try {
+                connection.poll();
+                fail("Expected exception");
+            }
+            catch (IOException e) {
+                assertTrue(e.getMessage().startsWith("Trying to post while not connected"));
+            }
+        }
+    }
+
+    private Http2GatewayConnectionFactory factory(ConnectionParams connectionParams) {
+        FeedParams feedParams = new FeedParams.Builder().setDataFormat(FeedParams.DataFormat.JSON_UTF8).build();
+        return new Http2GatewayConnectionFactory(endpoint, feedParams, connectionParams, "my-client", Clock.systemUTC());
+    }
+
+    private void awaitRequests(int count) throws InterruptedException {
+        for (int i = 0; i < 1000 && requests.size() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, requests.size());
+    }
+
+    /** Sends the given number of held responses, in the order their requests were received */
+    private void releaseResponses(int count) {
+        if (count >= heldResponses.size())
+            holdResponses = false;
+        for (int i = 0; i < count && ! heldResponses.isEmpty(); i++) {
+            heldResponses.remove(0).run();
+        }
+    }
+
+    private static Document document(String operationId, String content) {
+        return new Document("id:ns:type::" + operationId, operationId, content, null, Clock.systemUTC().instant());
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        for (int n; (n = in.read(buffer)) > 0; ) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Acknowledges all operations posted in a request, replying with the client id as session id.
+     * Responses are held back while holdResponses is set, until released.
+     */
+    private class FeedHandler implements AsyncServerRequestHandler<Message<HttpRequest, byte[]>> {
+
+        @Override
+        public AsyncRequestConsumer<Message<HttpRequest, byte[]>> prepare(HttpRequest request, EntityDetails entityDetails,
+                                                                          HttpContext context) {
+            return new BasicRequestConsumer<>(entityDetails == null ? null : new BasicAsyncEntityConsumer());
+        }
+
+        @Override
+        public void handle(Message<HttpRequest, byte[]> request, ResponseTrigger responseTrigger, HttpContext context)
+                throws org.apache.hc.core5.http.HttpException, IOException {
+            requests.add(request);
+            BasicHttpResponse response = new BasicHttpResponse(responseCode);
+            response.addHeader(Headers.VERSION, "3");
+            response.addHeader(Headers.SESSION_ID, request.getHead().getFirstHeader(Headers.CLIENT_ID).getValue());
+            StringBuilder body = new StringBuilder();
+            if (request.getBody() != null && request.getHead().getFirstHeader("Content-Encoding") == null) {
+                String content = new String(request.getBody(), StandardCharsets.UTF_8);
+                if ( ! content.isEmpty()) {
+                    body.append(content, 0, content.indexOf(' ')).append(" OK");
+                }
+            }
+            BasicResponseProducer producer = new BasicResponseProducer(response, body.toString(), ContentType.TEXT_PLAIN);
+            if ( ! holdResponses) {
+                responseTrigger.submitResponse(producer, context);
+                return;
+            }
+            heldResponses.add(() -> {
+                try {
+                    responseTrigger.submitResponse(producer, context);
+                }
+                catch (org.apache.hc.core5.http.HttpException | IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+
+    }
+
+    private class ConnectionCounter implements IOSessionListener {
+        @Override public void connected(IOSession session) { tcpConnections.incrementAndGet(); }
+        @Override public void startTls(IOSession session) { }
+        @Override public void inputReady(IOSession session) { }
+        @Override public void outputReady(IOSession session) { }
+        @Override public void timeout(IOSession session) { }
+        @Override public void exception(IOSession session, Exception ex) { }
+        @Override public void disconnected(IOSession session) { }
+    }
+
+}
@@ -0,0 +1,133 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.compress;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Selects whether payloads of some class should be compressed with LZ4 or sent uncompressed, from how well and
+ * how fast recent payloads of that class compressed, and how loaded the CPU is. Use one instance per class of
+ * payloads with similar content, and compress with {@link Compressor#compress(AdaptiveCompressionPolicy, byte[], java.util.Optional)}.
+ *
+ * Payloads are compressed as long as the CPU time spent per byte saved is within a budget, which shrinks towards
+ * zero as the load average of the system approaches the number of processors. While payloads are sent
+ * uncompressed, one in {@link #PROBE_INTERVAL} is still compressed, to discover when compressing pays off again.
+ * The selection is revisited each time {@link #WINDOW} payloads have been compressed.
+ *
+ * This class is multithread safe.
+ *
+ * @author agent
+ */
+public class AdaptiveCompressionPolicy {
+
+    /** The number of compressed payloads to sample before revisiting the selection */
+    static final int WINDOW = 128;
+
+    /** One in this many payloads are compressed when the selection is to not compress */
+    static final int PROBE_INTERVAL = 64;
+
+    /** The default number of nanoseconds of CPU time worth spending to save one byte */
+    public static final double DEFAULT_NANOS_PER_SAVED_BYTE = 20.0;
+
+    /** The load, relative to the number of processors, above which the budget starts shrinking */
+    private static final double HIGH_LOAD = 0.75;
+
+    /** The minimal fraction of the bytes which must be saved to compress */
+    private static final double MIN_SAVED_FRACTION = 0.05;
+
+    private final double nanosPerSavedByte;
+    private final DoubleSupplier cpuLoad;
+    private final AtomicLong uncompressedPayloads = new AtomicLong();
+
+    private volatile CompressionType selected = CompressionType.LZ4;
+    // Statistics of the last full window, written while holding this
+    private volatile double compressionRatio = 1.0;
+    private volatile double nanosPerByte = 0.0;
+    private volatile long windows = 0;
+
+    // Samples of the current window, guarded by this
+    private int samples = 0;
+    private long uncompressedBytes = 0;
+    private long compressedBytes = 0;
+    private long nanos = 0;
+
+    /** Creates a policy with the default budget, using the load average of this system */
+    public AdaptiveCompressionPolicy() {
+        this(DEFAULT_NANOS_PER_SAVED_BYTE);
+    }
+
+    /**
+     * Creates a policy using the load average of this system.
+     *
+     * @param nanosPerSavedByte the number of nanoseconds of CPU time worth spending to save one byte when the
+     *                          system is not loaded
+     */
+    public AdaptiveCompressionPolicy(double nanosPerSavedByte) {
+        this(nanosPerSavedByte, AdaptiveCompressionPolicy::systemLoad);
+    }
+
+    /**
+     * Creates a policy.
+     *
+     * @param nanosPerSavedByte the number of nanoseconds of CPU time worth spending to save one byte when the
+     *                          system is not loaded
+     * @param cpuLoad supplies the current CPU load, where 1 means all processors are busy
+     */
+    public AdaptiveCompressionPolicy(double nanosPerSavedByte, DoubleSupplier cpuLoad) {
+        this.nanosPerSavedByte = nanosPerSavedByte;
+        this.cpuLoad = cpuLoad;
+    }
+
+    /** Returns the compression type to use for the next payload: Either LZ4 or NONE */
+    public CompressionType select() {
+        if (selected == CompressionType.LZ4) return CompressionType.LZ4;
+        return uncompressedPayloads.incrementAndGet() % PROBE_INTERVAL == 0 ? CompressionType.LZ4 : CompressionType.NONE;
+    }
+
+    /** Records the outcome of compressing a payload with LZ4 */
+    public void record(int uncompressedSize, int compressedSize, long compressionNanos) {
+        double windowRatio, windowNanosPerByte;
+        synchronized (this) {
+            uncompressedBytes += uncompressedSize;
+            compressedBytes += compressedSize;
+            nanos += compressionNanos;
+            if (++samples < WINDOW) return;
+
+            windowRatio = compressionRatio = (double) compressedBytes / uncompressedBytes;
+            windowNanosPerByte = nanosPerByte = (double) nanos / uncompressedBytes;
+            windows++;
+            samples = 0;
+            uncompressedBytes = compressedBytes = nanos = 0;
+        }
+        selected = shouldCompress(windowRatio, windowNanosPerByte) ? CompressionType.LZ4 : CompressionType.NONE;
+    }
+
+    private boolean shouldCompress(double compressionRatio, double nanosPerByte) {
+        double savedFraction = 1 - compressionRatio;
+        if (savedFraction < MIN_SAVED_FRACTION) return false;
+        double headroom = Math.max(0, Math.min(1, (1 - cpuLoad.getAsDouble()) / (1 - HIGH_LOAD)));
+        return nanosPerByte <= savedFraction * nanosPerSavedByte * headroom;
+    }
+
+    /** Returns the compression type currently selected for payloads of this class */
+    public CompressionType selected() { return selected; }
+
+    /** Returns the compressed size relative to the uncompressed size of the payloads in the last full window */
+    public double compressionRatio() { return compressionRatio; }
+
+    /** Returns the CPU time spent compressing per uncompressed byte in the last full window, in nanoseconds */
+    public double nanosPerByte() { return nanosPerByte; }
+
+    /** Returns the number of windows completed, which changes each time the selection and statistics are updated */
+    public long windows() { return windows; }
+
+    private static double systemLoad() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        double loadAverage = os.getSystemLoadAverage();
+        if (loadAverage < 0) return 0; // not available on this platform
+        return loadAverage / os.getAvailableProcessors();
+    }
+
+}
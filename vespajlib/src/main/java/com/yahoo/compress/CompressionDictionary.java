@@ -0,0 +1,170 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.compress;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Adler32;
+
+/**
+ * A preset dictionary for compressing small payloads which have much content in common with each other,
+ * but little repetition within each payload. The dictionary is identified by the Adler-32 checksum of its
+ * content, which is the dictionary id written in the header of data compressed with it.
+ *
+ * Instances are immutable.
+ *
+ * @author agent
+ */
+public final class CompressionDictionary {
+
+    /** The max size of a dictionary, which is the size of the deflate window */
+    public static final int MAX_SIZE = 32 * 1024;
+
+    /** The length of the byte sequences counted when training */
+    private static final int GRAM = 8;
+
+    /** The max length of a single segment of the dictionary */
+    private static final int MAX_SEGMENT = 1024;
+
+    /** The min fraction of the samples a byte sequence must occur in to be included */
+    private static final double MIN_SAMPLE_FRACTION = 0.1;
+
+    private final byte[] content;
+    private final int id;
+
+    public CompressionDictionary(byte[] content) {
+        if (content.length == 0 || content.length > MAX_SIZE)
+            throw new IllegalArgumentException("A dictionary must have size 1 to " + MAX_SIZE + ", not " + content.length);
+        this.content = Arrays.copyOf(content, content.length);
+        Adler32 adler = new Adler32();
+        adler.update(content);
+        this.id = (int) adler.getValue();
+    }
+
+    /** Returns the id of this dictionary, which is the Adler-32 checksum of its content */
+    public int id() { return id; }
+
+    /** Returns a copy of the content of this dictionary */
+    public byte[] content() { return Arrays.copyOf(content, content.length); }
+
+    /** Returns the size of this dictionary in bytes */
+    public int size() { return content.length; }
+
+    byte[] contentUnsafe() { return content; }
+
+    /**
+     * Trains a dictionary from some sample payloads. The dictionary consists of the segments of the samples where
+     * each byte sequence occurs in a good fraction of the samples, where the segments shared by most samples are
+     * placed last, as these are the cheapest to refer to.
+     *
+     * @param samples payloads representative of those which will be compressed with the dictionary
+     * @param maxSize the max size of the dictionary, at most {@link #MAX_SIZE}
+     * @return the trained dictionary
+     * @throws IllegalArgumentException if the samples have nothing in common
+     */
+    public static CompressionDictionary train(Collection<byte[]> samples, int maxSize) {
+        maxSize = Math.min(maxSize, MAX_SIZE);
+
+        // Count the number of samples each byte sequence occurs in
+        Map<Long, Integer> frequencies = new HashMap<>();
+        for (byte[] sample : samples) {
+            Set<Long> seen = new HashSet<>();
+            for (int i = 0; i + GRAM <= sample.length; i++) {
+                long gram = gramAt(sample, i);
+                if (seen.add(gram))
+                    frequencies.merge(gram, 1, Integer::sum);
+            }
+        }
+
+        // Collect the runs of shared sequences in each sample, scored by how often their sequences occur
+        int minFrequency = Math.max(2, (int) (samples.size() * MIN_SAMPLE_FRACTION));
+        Map<ByteBuffer, Long> segments = new HashMap<>();
+        for (byte[] sample : samples) {
+            int start = -1;
+            long score = 0;
+            for (int i = 0; i + GRAM <= sample.length; i++) {
+                int frequency = frequencies.get(gramAt(sample, i));
+                if (start >= 0 && (frequency < minFrequency || i + GRAM - start > MAX_SEGMENT)) {
+                    addSegment(sample, start, i - 1 + GRAM, score, segments);
+                    start = -1;
+                }
+                if (frequency < minFrequency) continue;
+                if (start < 0) {
+                    start = i;
+                    score = 0;
+                }
+                score += frequency;
+            }
+            if (start >= 0)
+                addSegment(sample, start, sample.length, score, segments);
+        }
+        if (segments.isEmpty()) throw new IllegalArgumentException("The samples have nothing in common");
+
+        List<Map.Entry<ByteBuffer, Long>> ranked = new ArrayList<>(segments.entrySet());
+        ranked.sort(Map.Entry.<ByteBuffer, Long>comparingByValue().reversed());
+        List<ByteBuffer> selected = new ArrayList<>();
+        Set<Long> covered = new HashSet<>();
+        int size = 0;
+        for (Map.Entry<ByteBuffer, Long> entry : ranked) {
+            ByteBuffer segment = entry.getKey();
+            if (size + segment.remaining() > maxSize) continue;
+            if ( ! addGrams(segment, covered)) continue; // everything in this is already in the dictionary
+            selected.add(segment);
+            size += segment.remaining();
+        }
+
+        byte[] content = new byte[size];
+        int position = size;
+        for (ByteBuffer segment : selected) {
+            position -= segment.remaining();
+            segment.duplicate().get(content, position, segment.remaining());
+        }
+        return new CompressionDictionary(content);
+    }
+
+    private static void addSegment(byte[] sample, int start, int end, long score, Map<ByteBuffer, Long> segments) {
+        segments.merge(ByteBuffer.wrap(sample, start, end - start).slice(), score, Math::max);
+    }
+
+    /** Adds the sequences of the given segment to the given set, and returns whether any were not already there */
+    private static boolean addGrams(ByteBuffer segment, Set<Long> grams) {
+        boolean added = false;
+        for (int i = segment.position(); i + GRAM <= segment.limit(); i++)
+            added |= grams.add(gramAt(segment, i));
+        return added;
+    }
+
+    private static long gramAt(ByteBuffer data, int offset) {
+        long gram = 0;
+        for (int i = 0; i < GRAM; i++)
+            gram = (gram << 8) | (data.get(offset + i) & 0xff);
+        return gram;
+    }
+
+    private static long gramAt(byte[] data, int offset) {
+        long gram = 0;
+        for (int i = 0; i < GRAM; i++)
+            gram = (gram << 8) | (data[offset + i] & 0xff);
+        return gram;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        if ( ! (o instanceof CompressionDictionary)) return false;
+        return Arrays.equals(content, ((CompressionDictionary) o).content);
+    }
+
+    @Override
+    public int hashCode() { return id; }
+
+    @Override
+    public String toString() { return "dictionary " + Integer.toHexString(id) + " of " + content.length + " bytes"; }
+
+}
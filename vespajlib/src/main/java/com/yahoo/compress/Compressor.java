@@ -85,16 +85,38 @@ public class Compressor {
                 data = uncompressedSize.isPresent() ? Arrays.copyOf(data, uncompressedSize.get()) : data;
                 return new Compression(CompressionType.NONE, data.length, data);
             case LZ4:
-                int dataSize = uncompressedSize.isPresent() ? uncompressedSize.get() : data.length;
-                if (dataSize < compressMinSizeBytes) return new Compression(CompressionType.INCOMPRESSIBLE, dataSize, data);
-                byte[] compressedData = getCompressor().compress(data, 0, dataSize);
-                if (compressedData.length + 8 >= dataSize * compressionThresholdFactor)
-                    return new Compression(CompressionType.INCOMPRESSIBLE, dataSize, data);
-                return new Compression(CompressionType.LZ4, dataSize, compressedData);
+                return compressLZ4(data, uncompressedSize.isPresent() ? uncompressedSize.get() : data.length, null);
             default:
                 throw new IllegalArgumentException(requestedCompression + " is not supported");
         }
     }
+
+    /**
+     * Compresses some data with the compression type selected by the given policy, and lets the policy
+     * learn from the outcome.
+     *
+     * @param policy the policy selecting the compression of this class of data
+     * @param data the data to compress. This array is only read by this method.
+     * @param uncompressedSize uncompressedSize the size in bytes of the data array. If this is not present, it is
+     *                         assumed that the size is the same as the data array size.
+     * @return the compression result, which is INCOMPRESSIBLE and refers to the given data if it is not compressed
+     */
+    public Compression compress(AdaptiveCompressionPolicy policy, byte[] data, Optional<Integer> uncompressedSize) {
+        int dataSize = uncompressedSize.isPresent() ? uncompressedSize.get() : data.length;
+        if (policy.select() == CompressionType.NONE) return new Compression(CompressionType.INCOMPRESSIBLE, dataSize, data);
+        return compressLZ4(data, dataSize, policy);
+    }
+
+    private Compression compressLZ4(byte[] data, int dataSize, AdaptiveCompressionPolicy policy) {
+        if (dataSize < compressMinSizeBytes) return new Compression(CompressionType.INCOMPRESSIBLE, dataSize, data);
+        long startNanos = policy != null ? System.nanoTime() : 0;
+        byte[] compressedData = getCompressor().compress(data, 0, dataSize);
+        if (policy != null)
+            policy.record(dataSize, compressedData.length, System.nanoTime() - startNanos);
+        if (compressedData.length + 8 >= dataSize * compressionThresholdFactor)
+            return new Compression(CompressionType.INCOMPRESSIBLE, dataSize, data);
+        return new Compression(CompressionType.LZ4, dataSize, compressedData);
+    }
     private LZ4Compressor getCompressor() {
         return level < 7 ? factory.fastCompressor() : factory.highCompressor();
     }
@@ -0,0 +1,216 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.compress;
+
+import com.yahoo.concurrent.ThreadFactoryFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses small payloads with a preset dictionary trained from samples of the payloads themselves.
+ * This compresses payloads which are similar to each other, but too small to contain much repetition
+ * themselves, much better than LZ4, at the cost of more CPU.
+ *
+ * Data is compressed to the zlib format, whose header holds the id of the dictionary used, such that data
+ * compressed with the last few dictionaries of this can still be decompressed after it is retrained.
+ * Until a dictionary is trained, data is compressed without one.
+ *
+ * Payloads are sampled for training when passed to {@link #sample}, and a new dictionary is trained each time
+ * enough samples are collected, at most once per {@link #trainingInterval} payloads sampled. Training is done
+ * by a separate executor, and the new dictionary is used once it is trained. No payloads are sampled meanwhile.
+ *
+ * This class is multithread safe.
+ *
+ * @author agent
+ */
+public class DictionaryCompressor {
+
+    /** The number of dictionaries which are kept to decompress data compressed with them */
+    static final int MAX_VERSIONS = 4;
+
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION));
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    /** Trains dictionaries for compressors which are not given their own executor, in a thread which exists only while training */
+    private static final Executor sharedTrainer = new ThreadPoolExecutor(0, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                                                                         ThreadFactoryFactory.getDaemonThreadFactory("dictionary-training"));
+
+    private final int dictionarySize;
+    private final int sampleCount;
+    private final long trainingInterval;
+    private final Executor trainer;
+
+    private volatile CompressionDictionary dictionary = null;
+
+    /** The last dictionaries, by id. Guarded by this. */
+    private final Map<Integer, CompressionDictionary> versions = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, CompressionDictionary> eldest) {
+            return size() > MAX_VERSIONS;
+        }
+    };
+
+    /** Samples for the next training, and the number of payloads sampled from. Guarded by this. */
+    private final List<byte[]> samples = new ArrayList<>();
+    private long sampled = 0;
+
+    /** Whether a dictionary is being trained. Guarded by this. */
+    private boolean training = false;
+
+    /** Creates a compressor which trains dictionaries of 16 kb from 256 samples out of every 100000 payloads */
+    public DictionaryCompressor() {
+        this(16 * 1024, 256, 100_000);
+    }
+
+    /** Creates a compressor which trains dictionaries in a thread shared with other compressors */
+    public DictionaryCompressor(int dictionarySize, int sampleCount, long trainingInterval) {
+        this(dictionarySize, sampleCount, trainingInterval, sharedTrainer);
+    }
+
+    /**
+     * Creates a compressor.
+     *
+     * @param dictionarySize the max size of the dictionaries to train, at most {@link CompressionDictionary#MAX_SIZE}
+     * @param sampleCount the number of samples to train each dictionary from
+     * @param trainingInterval the number of payloads sampled from for each dictionary after the first,
+     *                         which is trained as soon as sampleCount payloads are seen
+     * @param trainer the executor training the dictionaries
+     */
+    public DictionaryCompressor(int dictionarySize, int sampleCount, long trainingInterval, Executor trainer) {
+        this.dictionarySize = dictionarySize;
+        this.sampleCount = sampleCount;
+        this.trainingInterval = Math.max(trainingInterval, sampleCount);
+        this.trainer = trainer;
+    }
+
+    /** Returns the current dictionary, or empty if none is trained yet */
+    public Optional<CompressionDictionary> dictionary() { return Optional.ofNullable(dictionary); }
+
+    /** Sets the dictionary to compress with, and keeps it to decompress data compressed with it */
+    public void setDictionary(CompressionDictionary dictionary) {
+        synchronized (this) {
+            versions.remove(dictionary.id());
+            versions.put(dictionary.id(), dictionary);
+        }
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Offers a payload as a sample for training the next dictionary. The payload is copied if it is sampled,
+     * and the dictionary is trained by the executor of this when the last sample is collected.
+     */
+    public void sample(byte[] payload) {
+        List<byte[]> trainingSamples;
+        synchronized (this) {
+            if (training) return;
+            long position = sampled++ % trainingInterval;
+            boolean first = dictionary == null;
+            if (samples.size() < sampleCount) {
+                if (first || ThreadLocalRandom.current().nextLong(trainingInterval - position) < sampleCount - samples.size())
+                    samples.add(Arrays.copyOf(payload, payload.length));
+            }
+            if (samples.size() < sampleCount) return;
+            if ( ! first && position != trainingInterval - 1) return;
+
+            trainingSamples = new ArrayList<>(samples);
+            samples.clear();
+            sampled = 0;
+            training = true;
+        }
+        try {
+            trainer.execute(() -> train(trainingSamples));
+        }
+        catch (RejectedExecutionException e) { // shutting down: Keep the current dictionary
+            synchronized (this) {
+                training = false;
+            }
+        }
+    }
+
+    private void train(List<byte[]> samples) {
+        try {
+            setDictionary(CompressionDictionary.train(samples, dictionarySize));
+        }
+        catch (IllegalArgumentException e) {
+            // Nothing in common: Keep the current dictionary
+        }
+        finally {
+            synchronized (this) {
+                training = false;
+            }
+        }
+    }
+
+    /** Compresses the given data with the current dictionary */
+    public byte[] compress(byte[] data) {
+        return compress(data, dictionary);
+    }
+
+    /** Compresses the given data with the given dictionary, or without one if it is null */
+    public static byte[] compress(byte[] data, CompressionDictionary dictionary) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        if (dictionary != null)
+            deflater.setDictionary(dictionary.contentUnsafe());
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+        byte[] buffer = new byte[Math.max(64, data.length / 2 + 16)];
+        while ( ! deflater.finished()) {
+            int length = deflater.deflate(buffer);
+            out.write(buffer, 0, length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decompresses data compressed by this, with the dictionary identified in its header.
+     *
+     * @param compressed the compressed data
+     * @param uncompressedSize the size of the data when uncompressed
+     * @return the uncompressed data
+     * @throws IllegalArgumentException if the data is corrupt, or was compressed with a dictionary unknown to this
+     */
+    public byte[] decompress(byte[] compressed, int uncompressedSize) {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(compressed);
+        byte[] data = new byte[uncompressedSize];
+        try {
+            int length = inflater.inflate(data);
+            if (inflater.needsDictionary()) {
+                CompressionDictionary dictionary = version(inflater.getAdler());
+                if (dictionary == null)
+                    throw new IllegalArgumentException("Data is compressed with unknown dictionary " +
+                                                       Integer.toHexString(inflater.getAdler()));
+                inflater.setDictionary(dictionary.contentUnsafe());
+                length = inflater.inflate(data);
+            }
+            if (length != uncompressedSize || ! inflater.finished())
+                throw new IllegalArgumentException("Expected " + uncompressedSize + " bytes, but decompressed " + length);
+            return data;
+        }
+        catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt compressed data", e);
+        }
+    }
+
+    private synchronized CompressionDictionary version(int id) {
+        return versions.get(id);
+    }
+
+}
@@ -6,6 +6,11 @@ package com.yahoo.slime;
  * the binary format into a Slime object.
  **/
 public class BinaryFormat {
+
+    /** Encoders are reused by each thread, unless their buffer has grown larger than this */
+    private static final int MAX_RETAINED_ENCODER_CAPACITY = 1 << 20;
+    private static final ThreadLocal<BinaryEncoder> encoders = ThreadLocal.withInitial(BinaryEncoder::new);
+
     static long encode_zigzag(long x) {
         return ((x << 1) ^ (x >> 63)); // note ASR
     }
@@ -36,12 +41,17 @@ public class BinaryFormat {
 
     /**
      * Take a Slime object and serialize it into binary format.
+     * The encoding buffer is reused by the calling thread, so the only allocation is the returned array.
      * @param slime the object which is to be serialized.
      * @return a new byte array with just the encoded slime.
      **/
     public static byte[] encode(Slime slime) {
-        BinaryEncoder encoder = new BinaryEncoder();
-        return encoder.encode(slime);
+        BinaryEncoder encoder = encoders.get();
+        byte[] encoded = encoder.encode(slime);
+        if (encoder.out.capacity() > MAX_RETAINED_ENCODER_CAPACITY) {
+            encoders.remove();
+        }
+        return encoded;
     }
 
     /**
@@ -33,6 +33,8 @@ final class BufferedOutput {
 
     public int position() { return pos; }
 
+    int capacity() { return capacity; }
+
     final void put(byte b) {
         reserve(1);
         buf[pos++] = b;
@@ -44,9 +46,8 @@ final class BufferedOutput {
 
     final void put(byte[] bytes) {
         reserve(bytes.length);
-        for (byte b : bytes) {
-            buf[pos++] = b;
-        }
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        pos += bytes.length;
     }
 
     public byte[] toArray() {
@@ -12,6 +12,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.PrimitiveIterator;
 import java.util.Set;
 import java.util.function.DoubleBinaryOperator;
 
@@ -67,6 +68,12 @@ public abstract class IndexedTensor implements Tensor {
         return new ValueIterator();
     }
 
+    /** Returns an iterator over the values of this returned in the <i>standard value order</i>, without boxing */
+    @Override
+    public PrimitiveIterator.OfDouble doubleValueIterator() {
+        return new ValueIterator();
+    }
+
     /**
      * Returns an iterator over value iterators where the outer iterator is over each unique value of the dimensions
      * given and the inner iterator is over each unique value of the rest of the dimensions, in the
@@ -585,7 +592,7 @@ public abstract class IndexedTensor implements Tensor {
 
     }
 
-    private final class ValueIterator implements Iterator<Double> {
+    private final class ValueIterator implements PrimitiveIterator.OfDouble {
 
         private long count = 0;
 
@@ -595,7 +602,7 @@ public abstract class IndexedTensor implements Tensor {
         }
 
         @Override
-        public Double next() {
+        public double nextDouble() {
             try {
                 return get(count++);
             }
@@ -746,6 +753,12 @@ public abstract class IndexedTensor implements Tensor {
         @Override
         public Double getValue() { return value; }
 
+        @Override
+        public double getDoubleValue() { return value; }
+
+        @Override
+        public float getFloatValue() { return (float)value; }
+
         @Override
         public Cell detach() {
             return new Cell(getKey(), value);
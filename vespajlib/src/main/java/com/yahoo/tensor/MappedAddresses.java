@@ -0,0 +1,414 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.tensor;
+
+import java.util.Arrays;
+
+/**
+ * An immutable set of addresses in mapped dimensions, where each address is identified by
+ * the index at which it was first added.
+ * <p>
+ * Addresses are stored without creating an object per address: The labels of each dimension are interned
+ * to int ids, the ids of an address are packed into a long key, and keys are located by an open addressing
+ * hash table. Sets built from each other may share label dictionaries, which lets operations on tensors
+ * map addresses between them by id instead of by label.
+ *
+ * @author agent
+ */
+public final class MappedAddresses {
+
+    private static final long hashMultiplier = 0x9E3779B97F4A7C15L;
+
+    private final Labels[] labels;
+    private final int size;
+
+    /** The number of longs making up each key, 1 unless labels do not fit in 64 bits */
+    private final int words;
+
+    /** The word, shift and mask of the id of each dimension in a key */
+    private final int[] wordOf;
+    private final int[] shifts;
+    private final long[] masks;
+
+    /** The keys of all addresses, in index order, or null if the ids of the single dimension are the indexes */
+    private final long[] keys;
+
+    /** Address index + 1 at the slot of each key, or 0 if the slot is empty */
+    private final int[] table;
+
+    private MappedAddresses(Labels[] labels, int size, int[] ids) {
+        this.labels = labels;
+        this.size = size;
+        int rank = labels.length;
+
+        wordOf = new int[rank];
+        shifts = new int[rank];
+        masks = new long[rank];
+        int word = 0;
+        int shift = 0;
+        for (int d = 0; d < rank; d++) {
+            int bits = 32 - Integer.numberOfLeadingZeros(Math.max(1, labels[d].size() - 1));
+            if (shift + bits > 64) {
+                word++;
+                shift = 0;
+            }
+            wordOf[d] = word;
+            shifts[d] = shift;
+            masks[d] = (1L << bits) - 1;
+            shift += bits;
+        }
+        words = rank == 0 ? 0 : word + 1;
+
+        if (isIdentity(rank, size, ids)) {
+            keys = null;
+            table = null;
+            return;
+        }
+
+        keys = new long[size * words];
+        for (int i = 0; i < size; i++)
+            for (int d = 0; d < rank; d++)
+                keys[i * words + wordOf[d]] |= (long)ids[i * rank + d] << shifts[d];
+
+        table = new int[tableCapacity(size)];
+        for (int i = 0; i < size; i++) {
+            int slot = hash(keys, i * words, words) & (table.length - 1);
+            while (table[slot] != 0)
+                slot = (slot + 1) & (table.length - 1);
+            table[slot] = i + 1;
+        }
+    }
+
+    /** Returns whether these are addresses in a single dimension which are added in label id order */
+    private static boolean isIdentity(int rank, int size, int[] ids) {
+        if (rank != 1) return false;
+        for (int i = 0; i < size; i++)
+            if (ids[i] != i) return false;
+        return true;
+    }
+
+    /** Returns the number of addresses in this */
+    public int size() { return size; }
+
+    /** Returns the number of dimensions of the addresses in this */
+    public int rank() { return labels.length; }
+
+    /** Returns the label dictionary of the given dimension */
+    public Labels labels(int dimension) { return labels[dimension]; }
+
+    /** Returns the id of the label in the given dimension of the address at the given index */
+    public int labelId(int index, int dimension) {
+        if (keys == null) return index;
+        return (int)((keys[index * words + wordOf[dimension]] >>> shifts[dimension]) & masks[dimension]);
+    }
+
+    /** Returns the label in the given dimension of the address at the given index */
+    public String label(int index, int dimension) {
+        return labels[dimension].label(labelId(index, dimension));
+    }
+
+    /** Returns the address at the given index */
+    public TensorAddress address(int index) {
+        String[] addressLabels = new String[labels.length];
+        for (int d = 0; d < addressLabels.length; d++)
+            addressLabels[d] = label(index, d);
+        return TensorAddress.of(addressLabels);
+    }
+
+    /**
+     * Returns these addresses with new label dictionaries holding only the labels in use, for the dimensions
+     * where the dictionary is shared with other addresses and holds more than twice as many labels as
+     * there are addresses in this, or this if there are none such. The addresses keep their indexes.
+     * This lets a small set of addresses drop its reference to a large dictionary it was built from.
+     */
+    public MappedAddresses compact() {
+        Labels[] compactLabels = Arrays.copyOf(labels, labels.length);
+        boolean[] compacted = new boolean[labels.length];
+        boolean anyCompacted = false;
+        for (int d = 0; d < labels.length; d++) {
+            if (labels[d].size() <= 2 * size) continue;
+            compactLabels[d] = new Labels();
+            compacted[d] = true;
+            anyCompacted = true;
+        }
+        if ( ! anyCompacted) return this;
+
+        Builder builder = new Builder(compactLabels);
+        int[] ids = new int[labels.length];
+        for (int i = 0; i < size; i++) {
+            for (int d = 0; d < ids.length; d++)
+                ids[d] = compacted[d] ? builder.intern(d, label(i, d)) : labelId(i, d);
+            builder.add(ids);
+        }
+        return builder.build();
+    }
+
+    /** Returns the index of the given address, or -1 if it is not present in this */
+    public int indexOf(TensorAddress address) {
+        if (address.size() != labels.length) return -1;
+        int[] ids = new int[labels.length];
+        for (int d = 0; d < ids.length; d++) {
+            ids[d] = labels[d].idOf(address.label(d));
+            if (ids[d] < 0) return -1;
+        }
+        return indexOf(ids);
+    }
+
+    /** Returns the index of the address having the given label ids, or -1 if it is not present in this */
+    public int indexOf(int[] ids) {
+        for (int d = 0; d < ids.length; d++)
+            if (ids[d] < 0 || ids[d] >= labels[d].size()) return -1;
+        if (keys == null) return ids[0] < size ? ids[0] : -1;
+
+        long hash = 0;
+        for (int w = 0; w < words; w++)
+            hash = (hash + word(ids, w)) * hashMultiplier;
+        int slot = fold(hash) & (table.length - 1);
+        for (int entry; (entry = table[slot]) != 0; slot = (slot + 1) & (table.length - 1)) {
+            if (keyEquals(entry - 1, ids))
+                return entry - 1;
+        }
+        return -1;
+    }
+
+    private boolean keyEquals(int index, int[] ids) {
+        for (int w = 0; w < words; w++)
+            if (keys[index * words + w] != word(ids, w)) return false;
+        return true;
+    }
+
+    /** Returns the given word of the key of the given ids */
+    private long word(int[] ids, int word) {
+        long value = 0;
+        for (int d = 0; d < ids.length; d++) {
+            if (wordOf[d] != word) continue;
+            value |= (long)ids[d] << shifts[d];
+        }
+        return value;
+    }
+
+    private static int hash(long[] keys, int offset, int words) {
+        long hash = 0;
+        for (int w = 0; w < words; w++)
+            hash = (hash + keys[offset + w]) * hashMultiplier;
+        return fold(hash);
+    }
+
+    private static int hash(int[] ids, int offset, int length) {
+        long hash = 0;
+        for (int i = 0; i < length; i++)
+            hash = (hash + ids[offset + i]) * hashMultiplier;
+        return fold(hash);
+    }
+
+    private static int fold(long hash) {
+        return (int)(hash ^ (hash >>> 32));
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /** Returns a power of two table size keeping the load factor at most 0.5 */
+    private static int tableCapacity(int size) {
+        int capacity = 2;
+        while (capacity < size * 2)
+            capacity <<= 1;
+        return capacity;
+    }
+
+    @Override
+    public String toString() {
+        return size + " addresses in " + labels.length + " dimensions";
+    }
+
+    /**
+     * The labels of a dimension, each identified by the index at which it was first added.
+     * Labels are immutable once the addresses using them are built, and may then be shared by other addresses.
+     */
+    public static final class Labels {
+
+        private String[] labels;
+        private int size = 0;
+
+        /** Label id + 1 at the slot of each label, or 0 if the slot is empty */
+        private int[] table;
+
+        /** Whether this is used by built addresses, such that it must be copied before adding more labels */
+        private boolean frozen = false;
+
+        private Labels() {
+            this(new String[8], 0, new int[16]);
+        }
+
+        private Labels(String[] labels, int size, int[] table) {
+            this.labels = labels;
+            this.size = size;
+            this.table = table;
+        }
+
+        /** Returns the number of labels in this */
+        public int size() { return size; }
+
+        /** Returns the label having the given id */
+        public String label(int id) { return labels[id]; }
+
+        /** Returns the id of the given label, or -1 if it is not present */
+        public int idOf(String label) {
+            for (int slot = spread(label.hashCode()) & (table.length - 1), entry;
+                 (entry = table[slot]) != 0;
+                 slot = (slot + 1) & (table.length - 1)) {
+                if (labels[entry - 1].equals(label))
+                    return entry - 1;
+            }
+            return -1;
+        }
+
+        /** Returns the id of the given label, adding it if it is not already present */
+        private int intern(String label) {
+            int slot = spread(label.hashCode()) & (table.length - 1);
+            for (int entry; (entry = table[slot]) != 0; slot = (slot + 1) & (table.length - 1)) {
+                if (labels[entry - 1].equals(label))
+                    return entry - 1;
+            }
+            if (size == labels.length)
+                labels = Arrays.copyOf(labels, size * 2);
+            labels[size] = label;
+            table[slot] = ++size;
+            if (size * 2 > table.length)
+                rehash(table.length * 2);
+            return size - 1;
+        }
+
+        private void rehash(int capacity) {
+            table = new int[capacity];
+            for (int id = 0; id < size; id++) {
+                int slot = spread(labels[id].hashCode()) & (capacity - 1);
+                while (table[slot] != 0)
+                    slot = (slot + 1) & (capacity - 1);
+                table[slot] = id + 1;
+            }
+        }
+
+        private void freeze() {
+            labels = Arrays.copyOf(labels, size);
+            frozen = true;
+        }
+
+        private Labels copy() {
+            return new Labels(Arrays.copyOf(labels, Math.max(size, 8)), size, table.clone());
+        }
+
+    }
+
+    /**
+     * Builds a set of addresses. Adding an address which is already added returns its existing index.
+     * The builder should not be used after build has been called.
+     */
+    public static final class Builder {
+
+        private final Labels[] labels;
+        private final int rank;
+        private int size = 0;
+
+        /** The label ids of the addresses added, rank ids per address */
+        private int[] ids;
+
+        /** Address index + 1 at the slot of each address, or 0 if the slot is empty */
+        private int[] table = new int[16];
+
+        /** Creates a builder of addresses in the given number of dimensions */
+        public Builder(int rank) {
+            this.rank = rank;
+            this.labels = new Labels[rank];
+            for (int d = 0; d < rank; d++)
+                labels[d] = new Labels();
+            this.ids = new int[Math.max(rank, 1) * 8];
+        }
+
+        /**
+         * Creates a builder of addresses using the given label dictionaries, one per dimension,
+         * such that addresses can be added by the ids of these dictionaries.
+         */
+        public Builder(Labels[] labels) {
+            this.rank = labels.length;
+            this.labels = Arrays.copyOf(labels, labels.length);
+            this.ids = new int[Math.max(rank, 1) * 8];
+        }
+
+        /** Returns the number of distinct addresses added to this */
+        public int size() { return size; }
+
+        /** Adds an address and returns its index */
+        public int add(TensorAddress address) {
+            if (address.size() != rank)
+                throw new IllegalArgumentException(address + " does not have " + rank + " labels");
+            int[] addressIds = new int[rank];
+            for (int d = 0; d < rank; d++)
+                addressIds[d] = intern(d, address.label(d));
+            return add(addressIds);
+        }
+
+        /** Adds the address having the given labels and returns its index */
+        public int add(String[] addressLabels) {
+            if (addressLabels.length != rank)
+                throw new IllegalArgumentException("Expected " + rank + " labels but got " + addressLabels.length);
+            int[] addressIds = new int[rank];
+            for (int d = 0; d < rank; d++)
+                addressIds[d] = intern(d, addressLabels[d]);
+            return add(addressIds);
+        }
+
+        /**
+         * Adds the address having the given label ids and returns its index.
+         * The ids must be ids of the label dictionaries of this builder.
+         */
+        public int add(int[] addressIds) {
+            int slot = hash(addressIds, 0, rank) & (table.length - 1);
+            for (int entry; (entry = table[slot]) != 0; slot = (slot + 1) & (table.length - 1)) {
+                if (idsEqual(entry - 1, addressIds))
+                    return entry - 1;
+            }
+            if ((size + 1) * rank > ids.length)
+                ids = Arrays.copyOf(ids, ids.length * 2);
+            System.arraycopy(addressIds, 0, ids, size * rank, rank);
+            table[slot] = ++size;
+            if (size * 2 > table.length)
+                rehash(table.length * 2);
+            return size - 1;
+        }
+
+        private int intern(int dimension, String label) {
+            if (labels[dimension].frozen) {
+                int id = labels[dimension].idOf(label);
+                if (id >= 0) return id;
+                labels[dimension] = labels[dimension].copy();
+            }
+            return labels[dimension].intern(label);
+        }
+
+        private boolean idsEqual(int index, int[] addressIds) {
+            for (int d = 0; d < rank; d++)
+                if (ids[index * rank + d] != addressIds[d]) return false;
+            return true;
+        }
+
+        private void rehash(int capacity) {
+            table = new int[capacity];
+            for (int i = 0; i < size; i++) {
+                int slot = hash(ids, i * rank, rank) & (capacity - 1);
+                while (table[slot] != 0)
+                    slot = (slot + 1) & (capacity - 1);
+                table[slot] = i + 1;
+            }
+        }
+
+        public MappedAddresses build() {
+            for (Labels dimensionLabels : labels)
+                if ( ! dimensionLabels.frozen)
+                    dimensionLabels.freeze();
+            return new MappedAddresses(labels, size, ids);
+        }
+
+    }
+
+}
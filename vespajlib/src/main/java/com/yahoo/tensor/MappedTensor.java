@@ -3,13 +3,15 @@ package com.yahoo.tensor;
 
 import com.google.common.collect.ImmutableMap;
 
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
 import java.util.Set;
-import java.util.function.DoubleBinaryOperator;
 
 /**
- * A sparse implementation of a tensor backed by a Map of cells to values.
+ * A sparse implementation of a tensor backed by a compact set of cell addresses and an array of their values.
  *
  * @author bratseth
  */
@@ -17,31 +19,54 @@ public class MappedTensor implements Tensor {
 
     private final TensorType type;
 
-    private final ImmutableMap<TensorAddress, Double> cells;
+    private final MappedAddresses addresses;
+
+    /** The value of each address, by address index */
+    private final double[] values;
 
     /** Creates a sparse tensor. The cell addresses must match the type. */
-    private MappedTensor(TensorType type, Map<TensorAddress, Double> cells) {
+    private MappedTensor(TensorType type, MappedAddresses addresses, double[] values) {
         this.type = type;
-        this.cells = ImmutableMap.copyOf(cells);
+        this.addresses = addresses;
+        this.values = values;
     }
 
     @Override
     public TensorType type() { return type; }
 
     @Override
-    public long size() { return cells.size(); }
+    public long size() { return addresses.size(); }
 
     @Override
-    public double get(TensorAddress address) { return cells.getOrDefault(address, Double.NaN); }
+    public double get(TensorAddress address) {
+        int index = addresses.indexOf(address);
+        return index < 0 ? Double.NaN : values[index];
+    }
+
+    /** Returns the value of the cell at the given index in the addresses of this */
+    public double get(int index) { return values[index]; }
+
+    /** Returns the addresses of the cells of this */
+    public MappedAddresses addresses() { return addresses; }
 
     @Override
-    public Iterator<Cell> cellIterator() { return new CellIteratorAdaptor(cells.entrySet().iterator()); }
+    public Iterator<Cell> cellIterator() { return new CellIterator(); }
 
     @Override
-    public Iterator<Double> valueIterator() { return cells.values().iterator(); }
+    public Iterator<Double> valueIterator() { return doubleValueIterator(); }
 
     @Override
-    public Map<TensorAddress, Double> cells() { return cells; }
+    public PrimitiveIterator.OfDouble doubleValueIterator() {
+        return Arrays.stream(values).iterator();
+    }
+
+    @Override
+    public Map<TensorAddress, Double> cells() {
+        ImmutableMap.Builder<TensorAddress, Double> builder = new ImmutableMap.Builder<>();
+        for (int i = 0; i < addresses.size(); i++)
+            builder.put(addresses.address(i), values[i]);
+        return builder.build();
+    }
 
     @Override
     public Tensor withType(TensorType other) {
@@ -49,7 +74,7 @@ public class MappedTensor implements Tensor {
             throw new IllegalArgumentException("MappedTensor.withType: types are not compatible. Current type: '" +
                     this.type.toString() + "', requested type: '" + type.toString() + "'");
         }
-        return new MappedTensor(other, cells);
+        return new MappedTensor(other, addresses, values);
     }
 
     @Override
@@ -65,8 +90,14 @@ public class MappedTensor implements Tensor {
         return builder.build();
     }
 
+    /** Returns the same hash code as the map returned by cells() */
     @Override
-    public int hashCode() { return cells.hashCode(); }
+    public int hashCode() {
+        int hashCode = 0;
+        for (int i = 0; i < addresses.size(); i++)
+            hashCode += addresses.address(i).hashCode() ^ Double.hashCode(values[i]);
+        return hashCode;
+    }
 
     @Override
     public String toString() { return Tensor.toStandardString(this); }
@@ -80,12 +111,24 @@ public class MappedTensor implements Tensor {
     public static class Builder implements Tensor.Builder {
 
         private final TensorType type;
-        private final ImmutableMap.Builder<TensorAddress, Double> cells = new ImmutableMap.Builder<>();
-
-        public static Builder of(TensorType type) { return new Builder(type); }
+        private final MappedAddresses.Builder addresses;
+        private double[] values = new double[8];
+
+        public static Builder of(TensorType type) { return new Builder(type, new MappedAddresses.Builder(type.rank())); }
+
+        /**
+         * Returns a builder using the given label dictionaries, one per dimension of the type,
+         * such that cells can be added by the label ids of those dictionaries.
+         */
+        public static Builder of(TensorType type, MappedAddresses.Labels[] labels) {
+            if (labels.length != type.rank())
+                throw new IllegalArgumentException("Expected labels of " + type.rank() + " dimensions, got " + labels.length);
+            return new Builder(type, new MappedAddresses.Builder(labels));
+        }
 
-        private Builder(TensorType type) {
+        private Builder(TensorType type, MappedAddresses.Builder addresses) {
             this.type = type;
+            this.addresses = addresses;
         }
 
         public CellBuilder cell() {
@@ -102,8 +145,8 @@ public class MappedTensor implements Tensor {
 
         @Override
         public Builder cell(TensorAddress address, double value) {
-            cells.put(address, value);
-            return this;
+            int size = addresses.size();
+            return set(addresses.add(address), size, value);
         }
 
         @Override
@@ -113,32 +156,51 @@ public class MappedTensor implements Tensor {
 
         @Override
         public Builder cell(double value, long... labels) {
-            cells.put(TensorAddress.of(labels), value);
+            return cell(TensorAddress.of(labels), value);
+        }
+
+        /** Sets the value of the cell having the given labels */
+        public Builder cell(String[] labels, double value) {
+            int size = addresses.size();
+            return set(addresses.add(labels), size, value);
+        }
+
+        /** Sets the value of the cell having the given ids in the label dictionaries given to this builder */
+        public Builder cell(int[] labelIds, double value) {
+            int size = addresses.size();
+            return set(addresses.add(labelIds), size, value);
+        }
+
+        private Builder set(int index, int previousSize, double value) {
+            if (index < previousSize)
+                throw new IllegalArgumentException("Multiple values for the same cell address in " + type);
+            if (index == values.length)
+                values = Arrays.copyOf(values, values.length * 2);
+            values[index] = value;
             return this;
         }
 
         @Override
         public MappedTensor build() {
-            return new MappedTensor(type, cells.build());
+            MappedAddresses built = addresses.build().compact();
+            return new MappedTensor(type, built, Arrays.copyOf(values, built.size()));
         }
 
     }
 
-    private static class CellIteratorAdaptor implements Iterator<Cell> {
+    private class CellIterator implements Iterator<Cell> {
 
-        private final Iterator<Map.Entry<TensorAddress, Double>> adaptedIterator;
-
-        private CellIteratorAdaptor(Iterator<Map.Entry<TensorAddress, Double>> adaptedIterator) {
-            this.adaptedIterator = adaptedIterator;
-        }
+        private int index = 0;
 
         @Override
-        public boolean hasNext() { return adaptedIterator.hasNext(); }
+        public boolean hasNext() { return index < addresses.size(); }
 
         @Override
         public Cell next() {
-            Map.Entry<TensorAddress, Double> entry = adaptedIterator.next();
-            return new Cell(entry.getKey(), entry.getValue());
+            if ( ! hasNext()) throw new NoSuchElementException();
+            Cell cell = new Cell(addresses.address(index), values[index]);
+            index++;
+            return cell;
         }
 
     }
@@ -2,16 +2,20 @@
 
 package com.yahoo.tensor;
 
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
 import java.util.Set;
-import java.util.function.DoubleBinaryOperator;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * A mixed tensor type. This is class is currently suitable for serialization
@@ -29,15 +33,15 @@ public class MixedTensor implements Tensor {
     /** The dimension specification for this tensor */
     private final TensorType type;
 
-    /** The list of cells in the tensor */
-    private final ImmutableList<Cell> cells;
+    /** The values of the tensor, one dense subspace after another in the order of the sparse addresses */
+    private final double[] values;
 
-    /** An index structure over the cell list */
+    /** An index structure over the values */
     private final Index index;
 
-    private MixedTensor(TensorType type, ImmutableList<Cell> cells, Index index) {
+    private MixedTensor(TensorType type, double[] values, Index index) {
         this.type = type;
-        this.cells = ImmutableList.copyOf(cells);
+        this.values = values;
         this.index = index;
     }
 
@@ -47,7 +51,7 @@ public class MixedTensor implements Tensor {
 
     /** Returns the size of the tensor measured in number of cells */
     @Override
-    public long size() { return cells.size(); }
+    public long size() { return values.length; }
 
     /** Returns the value at the given address */
     @Override
@@ -55,10 +59,7 @@ public class MixedTensor implements Tensor {
         long cellIndex = index.indexOf(address);
         if (cellIndex < 0)
             return Double.NaN;
-        Cell cell = cells.get((int)cellIndex);
-        if ( ! address.equals(cell.getKey()))
-            return Double.NaN;
-        return cell.getValue();
+        return values[(int)cellIndex];
     }
 
     /**
@@ -70,7 +71,22 @@ public class MixedTensor implements Tensor {
      */
     @Override
     public Iterator<Cell> cellIterator() {
-        return cells.iterator();
+        return new Iterator<>() {
+            int cellIndex = 0;
+            @Override
+            public boolean hasNext() {
+                return cellIndex < values.length;
+            }
+            @Override
+            public Cell next() {
+                if ( ! hasNext()) throw new NoSuchElementException();
+                int subspace = (int)(cellIndex / index.denseSubspaceSize());
+                long denseOffset = cellIndex % index.denseSubspaceSize();
+                Cell cell = new Cell(index.addressOf(subspace, denseOffset), values[cellIndex]);
+                cellIndex++;
+                return cell;
+            }
+        };
     }
 
     /**
@@ -79,23 +95,19 @@ public class MixedTensor implements Tensor {
      */
     @Override
     public Iterator<Double> valueIterator() {
-        return new Iterator<>() {
-            Iterator<Cell> cellIterator = cellIterator();
-            @Override
-            public boolean hasNext() {
-                return cellIterator.hasNext();
-            }
-            @Override
-            public Double next() {
-                return cellIterator.next().getValue();
-            }
-        };
+        return doubleValueIterator();
+    }
+
+    @Override
+    public PrimitiveIterator.OfDouble doubleValueIterator() {
+        return Arrays.stream(values).iterator();
     }
 
     @Override
     public Map<TensorAddress, Double> cells() {
         ImmutableMap.Builder<TensorAddress, Double> builder = new ImmutableMap.Builder<>();
-        for (Cell cell : cells) {
+        for (Iterator<Cell> i = cellIterator(); i.hasNext(); ) {
+            Cell cell = i.next();
             builder.put(cell.getKey(), cell.getValue());
         }
         return builder.build();
@@ -107,7 +119,7 @@ public class MixedTensor implements Tensor {
             throw new IllegalArgumentException("MixedTensor.withType: types are not compatible. Current type: '" +
                     this.type.toString() + "', requested type: '" + type.toString() + "'");
         }
-        return new MixedTensor(other, cells, index);
+        return new MixedTensor(other, values, index);
     }
 
     @Override
@@ -115,21 +127,26 @@ public class MixedTensor implements Tensor {
         Tensor.Builder builder = Tensor.Builder.of(type());
 
         // iterate through all sparse addresses referencing a dense subspace
-        for (Map.Entry<TensorAddress, Long> entry : index.sparseMap.entrySet()) {
-            TensorAddress sparsePartialAddress = entry.getKey();
+        for (int subspace = 0; subspace < index.sparse.size(); subspace++) {
+            TensorAddress sparsePartialAddress = index.sparse.address(subspace);
             if ( ! addresses.contains(sparsePartialAddress)) {  // assumption: addresses only contain the sparse part
-                long offset = entry.getValue();
-                for (int i = 0; i < index.denseSubspaceSize; ++i) {
-                    Cell cell = cells.get((int)offset + i);
-                    builder.cell(cell.getKey(), cell.getValue());
+                for (long offset = 0; offset < index.denseSubspaceSize(); ++offset) {
+                    builder.cell(index.addressOf(subspace, offset),
+                                 values[(int)(subspace * index.denseSubspaceSize() + offset)]);
                 }
             }
         }
         return builder.build();
     }
 
+    /** Returns the sum of the hash codes of the cells, as for Map.Entry */
     @Override
-    public int hashCode() { return cells.hashCode(); }
+    public int hashCode() {
+        int hashCode = 0;
+        for (Iterator<Cell> i = cellIterator(); i.hasNext(); )
+            hashCode += i.next().hashCode();
+        return hashCode;
+    }
 
     @Override
     public String toString() {
@@ -206,16 +223,19 @@ public class MixedTensor implements Tensor {
      */
     public static class BoundBuilder extends Builder {
 
-        /** For each sparse partial address, hold a dense subspace */
-        private final Map<TensorAddress, double[]> denseSubspaceMap = new HashMap<>();
-        private final Index.Builder indexBuilder;
+        /** The sparse partial addresses, each identifying a dense subspace */
+        private final MappedAddresses.Builder sparseBuilder;
+
+        /** The dense subspace of each sparse partial address, by address index */
+        private final List<double[]> denseSubspaces = new ArrayList<>();
+
         private final Index index;
         private final TensorType denseSubtype;
 
         private BoundBuilder(TensorType type) {
             super(type);
-            indexBuilder = new Index.Builder(type);
-            index = indexBuilder.index();
+            index = new Index(type, null);
+            sparseBuilder = new MappedAddresses.Builder(index.mappedIndexes.length);
             denseSubtype = new TensorType(type.valueType(),
                                           type.dimensions().stream().filter(d -> d.isIndexed()).collect(Collectors.toList()));
         }
@@ -224,16 +244,19 @@ public class MixedTensor implements Tensor {
             return index.denseSubspaceSize();
         }
 
-        private double[] denseSubspace(TensorAddress sparseAddress) {
-            if (!denseSubspaceMap.containsKey(sparseAddress)) {
-                denseSubspaceMap.put(sparseAddress, new double[(int)denseSubspaceSize()]);
-            }
-            return denseSubspaceMap.get(sparseAddress);
+        private double[] denseSubspace(int sparseIndex) {
+            if (sparseIndex == denseSubspaces.size())
+                denseSubspaces.add(new double[(int)denseSubspaceSize()]);
+            return denseSubspaces.get(sparseIndex);
         }
 
         public IndexedTensor.DirectIndexBuilder denseSubspaceBuilder(TensorAddress sparseAddress) {
+            int sparseIndex = sparseBuilder.add(sparseAddress);
             double[] values = new double[(int)denseSubspaceSize()];
-            denseSubspaceMap.put(sparseAddress, values);
+            if (sparseIndex == denseSubspaces.size())
+                denseSubspaces.add(values);
+            else
+                denseSubspaces.set(sparseIndex, values);
             return new DenseSubspaceBuilder(denseSubtype, values);
         }
 
@@ -244,10 +267,8 @@ public class MixedTensor implements Tensor {
 
         @Override
         public Tensor.Builder cell(TensorAddress address, double value) {
-            TensorAddress sparsePart = index.sparsePartialAddress(address);
-            long denseOffset = index.denseOffset(address);
-            double[] denseSubspace = denseSubspace(sparsePart);
-            denseSubspace[(int)denseOffset] = value;
+            double[] denseSubspace = denseSubspace(sparseBuilder.add(index.sparseLabels(address)));
+            denseSubspace[(int)index.denseOffset(address)] = value;
             return this;
         }
 
@@ -256,29 +277,18 @@ public class MixedTensor implements Tensor {
             if (values.length < denseSubspaceSize)
                 throw new IllegalArgumentException("Block should have " + denseSubspaceSize +
                                                    " values, but has only " + values.length);
-            double[] denseSubspace = denseSubspace(sparsePart);
+            double[] denseSubspace = denseSubspace(sparseBuilder.add(sparsePart));
             System.arraycopy(values, 0, denseSubspace, 0, denseSubspaceSize);
             return this;
         }
 
         @Override
         public MixedTensor build() {
-            long count = 0;
-            ImmutableList.Builder<Cell> builder = new ImmutableList.Builder<>();
-
-            for (Map.Entry<TensorAddress, double[]> entry : denseSubspaceMap.entrySet()) {
-                TensorAddress sparsePart = entry.getKey();
-                indexBuilder.put(sparsePart, count);
-
-                double[] denseSubspace = entry.getValue();
-                for (long offset = 0; offset < denseSubspace.length; ++offset) {
-                    TensorAddress cellAddress = index.addressOf(sparsePart, offset);
-                    double value = denseSubspace[(int)offset];
-                    builder.add(new Cell(cellAddress, value));
-                    count++;
-                }
-            }
-            return new MixedTensor(type, builder.build(), indexBuilder.build());
+            int denseSubspaceSize = (int)denseSubspaceSize();
+            double[] values = new double[denseSubspaces.size() * denseSubspaceSize];
+            for (int i = 0; i < denseSubspaces.size(); i++)
+                System.arraycopy(denseSubspaces.get(i), 0, values, i * denseSubspaceSize, denseSubspaceSize);
+            return new MixedTensor(type, values, new Index(type, sparseBuilder.build()));
         }
 
     }
@@ -350,7 +360,7 @@ public class MixedTensor implements Tensor {
     }
 
     /**
-     * An immutable index into a list of cells.
+     * An immutable index into the values of a mixed tensor.
      * Contains additional information required
      * for handling mixed tensor addresses.
      * Assumes indexed dimensions are bound.
@@ -358,154 +368,125 @@ public class MixedTensor implements Tensor {
     private static class Index {
 
         private final TensorType type;
-        private final TensorType sparseType;
         private final TensorType denseType;
-        private final List<TensorType.Dimension> mappedDimensions;
-        private final List<TensorType.Dimension> indexedDimensions;
 
-        private ImmutableMap<TensorAddress, Long> sparseMap;
-        private long denseSubspaceSize = -1;
+        /** The positions in the type of the mapped and indexed dimensions */
+        private final int[] mappedIndexes;
+        private final int[] indexedIndexes;
+
+        /** The sizes of the indexed dimensions */
+        private final long[] indexedSizes;
+        private final long denseSubspaceSize;
 
-        private Index(TensorType type) {
+        /** The sparse partial addresses, where the address at index i references the i'th dense subspace */
+        private final MappedAddresses sparse;
+
+        private Index(TensorType type, MappedAddresses sparse) {
             this.type = type;
-            this.mappedDimensions = type.dimensions().stream().filter(d -> !d.isIndexed()).collect(Collectors.toList());
-            this.indexedDimensions = type.dimensions().stream().filter(d -> d.isIndexed()).collect(Collectors.toList());
-            this.sparseType = createPartialType(type.valueType(), mappedDimensions);
+            this.sparse = sparse;
+            List<TensorType.Dimension> indexedDimensions = type.dimensions().stream().filter(d -> d.isIndexed()).collect(Collectors.toList());
             this.denseType = createPartialType(type.valueType(), indexedDimensions);
+            this.mappedIndexes = new int[type.dimensions().size() - indexedDimensions.size()];
+            this.indexedIndexes = new int[indexedDimensions.size()];
+            this.indexedSizes = new long[indexedDimensions.size()];
+            long denseSubspaceSize = 1;
+            for (int i = 0, mapped = 0, indexed = 0; i < type.dimensions().size(); ++i) {
+                TensorType.Dimension dimension = type.dimensions().get(i);
+                if (dimension.isIndexed()) {
+                    indexedSizes[indexed] = dimension.size().orElseThrow(() ->
+                            new IllegalArgumentException("Unknown size of indexed dimension"));
+                    denseSubspaceSize *= indexedSizes[indexed];
+                    indexedIndexes[indexed++] = i;
+                }
+                else {
+                    mappedIndexes[mapped++] = i;
+                }
+            }
+            this.denseSubspaceSize = denseSubspaceSize;
         }
 
         /** Returns the index of the given address, or -1 if it is not present */
         public long indexOf(TensorAddress address) {
-            TensorAddress sparsePart = sparsePartialAddress(address);
-            if ( ! sparseMap.containsKey(sparsePart))
-                return -1;
-            long base = sparseMap.get(sparsePart);
-            long offset = denseOffset(address);
-            return base + offset;
-        }
-
-        public static class Builder {
-
-            private final Index index;
-            private final ImmutableMap.Builder<TensorAddress, Long> builder;
-
-            public Builder(TensorType type) {
-                index = new Index(type);
-                builder = new ImmutableMap.Builder<>();
-            }
-
-            public void put(TensorAddress address, long index) {
-                builder.put(address, index);
-            }
-
-            public Index build() {
-                index.sparseMap = builder.build();
-                return index;
+            if (address.size() != type.dimensions().size())
+                throw new IllegalArgumentException("Tensor type of " + this + " is not the same size as " + address);
+            int[] sparseIds = new int[mappedIndexes.length];
+            for (int i = 0; i < sparseIds.length; i++) {
+                sparseIds[i] = sparse.labels(i).idOf(address.label(mappedIndexes[i]));
+                if (sparseIds[i] < 0) return -1;
             }
-
-            public Index index() {
-                return index;
+            int subspace = sparse.indexOf(sparseIds);
+            if (subspace < 0) return -1;
+            for (int i = 0; i < indexedIndexes.length; i++) {
+                long label = address.numericLabel(indexedIndexes[i]);
+                if (label < 0 || label >= indexedSizes[i]) return -1;
             }
+            return subspace * denseSubspaceSize + denseOffset(address);
         }
 
         public long denseSubspaceSize() {
-            if (denseSubspaceSize == -1) {
-                denseSubspaceSize = 1;
-                for (int i = 0; i < type.dimensions().size(); ++i) {
-                    TensorType.Dimension dimension = type.dimensions().get(i);
-                    if (dimension.isIndexed()) {
-                        denseSubspaceSize *= dimension.size().orElseThrow(() ->
-                                new IllegalArgumentException("Unknown size of indexed dimension"));
-                    }
-                }
-            }
             return denseSubspaceSize;
         }
 
-        private TensorAddress sparsePartialAddress(TensorAddress address) {
+        private String[] sparseLabels(TensorAddress address) {
             if (type.dimensions().size() != address.size())
                 throw new IllegalArgumentException("Tensor type of " + this + " is not the same size as " + address);
-            TensorAddress.Builder builder = new TensorAddress.Builder(sparseType);
-            for (int i = 0; i < type.dimensions().size(); ++i) {
-                TensorType.Dimension dimension = type.dimensions().get(i);
-                if ( ! dimension.isIndexed())
-                    builder.add(dimension.name(), address.label(i));
-            }
-            return builder.build();
+            String[] labels = new String[mappedIndexes.length];
+            for (int i = 0; i < labels.length; ++i)
+                labels[i] = address.label(mappedIndexes[i]);
+            return labels;
         }
 
         private long denseOffset(TensorAddress address) {
             long innerSize = 1;
             long offset = 0;
-            for (int i = type.dimensions().size(); --i >= 0; ) {
-                TensorType.Dimension dimension = type.dimensions().get(i);
-                if (dimension.isIndexed()) {
-                    long label = address.numericLabel(i);
-                    offset += label * innerSize;
-                    innerSize *= dimension.size().orElseThrow(() ->
-                            new IllegalArgumentException("Unknown size of indexed dimension."));
-                }
+            for (int i = indexedIndexes.length; --i >= 0; ) {
+                offset += address.numericLabel(indexedIndexes[i]) * innerSize;
+                innerSize *= indexedSizes[i];
             }
             return offset;
         }
 
-        private TensorAddress denseOffsetToAddress(long denseOffset) {
+        private TensorAddress addressOf(int subspace, long denseOffset) {
             if (denseOffset < 0 || denseOffset > denseSubspaceSize) {
                 throw new IllegalArgumentException("Offset out of bounds");
             }
 
+            String[] labels = new String[type.dimensions().size()];
+            for (int i = 0; i < mappedIndexes.length; i++)
+                labels[mappedIndexes[i]] = sparse.label(subspace, i);
+
             long restSize = denseOffset;
             long innerSize = denseSubspaceSize;
-            long[] labels = new long[indexedDimensions.size()];
-
-            for (int i = 0; i < labels.length; ++i) {
-                TensorType.Dimension dimension = indexedDimensions.get(i);
-                long dimensionSize = dimension.size().orElseThrow(() ->
-                        new IllegalArgumentException("Unknown size of indexed dimension."));
-
-                innerSize /= dimensionSize;
-                labels[i] = restSize / innerSize;
+            for (int i = 0; i < indexedIndexes.length; ++i) {
+                innerSize /= indexedSizes[i];
+                labels[indexedIndexes[i]] = String.valueOf(restSize / innerSize);
                 restSize %= innerSize;
             }
             return TensorAddress.of(labels);
         }
 
-        private TensorAddress addressOf(TensorAddress sparsePart, long denseOffset) {
-            TensorAddress densePart = denseOffsetToAddress(denseOffset);
-            String[] labels = new String[type.dimensions().size()];
-            int mappedIndex = 0;
-            int indexedIndex = 0;
-            for (TensorType.Dimension d : type.dimensions()) {
-                if (d.isIndexed()) {
-                    labels[mappedIndex + indexedIndex] = densePart.label(indexedIndex);
-                    indexedIndex++;
-                } else {
-                    labels[mappedIndex + indexedIndex] = sparsePart.label(mappedIndex);
-                    mappedIndex++;
-                }
-            }
-            return TensorAddress.of(labels);
-        }
-
         @Override
         public String toString() {
             return "index into " + type;
         }
 
         private String contentToString(MixedTensor tensor) {
-            if (mappedDimensions.size() > 1) throw new IllegalStateException("Should be ensured by caller");
-            if (mappedDimensions.size() == 0) {
+            if (mappedIndexes.length > 1) throw new IllegalStateException("Should be ensured by caller");
+            if (mappedIndexes.length == 0) {
                 StringBuilder b = new StringBuilder();
-                denseSubspaceToString(tensor, 0, b);
+                if (sparse.size() > 0)
+                    denseSubspaceToString(tensor, 0, b);
                 return b.toString();
             }
 
             // Exactly 1 mapped dimension
             StringBuilder b = new StringBuilder("{");
-            sparseMap.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(entry -> {
-                b.append(TensorAddress.labelToString(entry.getKey().label(0 )));
+            IntStream.range(0, sparse.size()).boxed()
+                     .sorted(Comparator.comparing(subspace -> sparse.label(subspace, 0)))
+                     .forEach(subspace -> {
+                b.append(TensorAddress.labelToString(sparse.label(subspace, 0)));
                 b.append(":");
-                denseSubspaceToString(tensor, entry.getValue(), b);
+                denseSubspaceToString(tensor, subspace * denseSubspaceSize, b);
                 b.append(",");
             });
             if (b.length() > 1)
@@ -545,7 +526,7 @@ public class MixedTensor implements Tensor {
         }
 
         private double getDouble(long indexedSubspaceIndex, long indexInIndexedSubspace, MixedTensor tensor) {
-            return tensor.cells.get((int)(indexedSubspaceIndex + indexInIndexedSubspace)).getDoubleValue();
+            return tensor.values[(int)(indexedSubspaceIndex + indexInIndexedSubspace)];
         }
 
     }
@@ -28,6 +28,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.PrimitiveIterator;
 import java.util.Set;
 import java.util.function.DoubleBinaryOperator;
 import java.util.function.DoubleUnaryOperator;
@@ -79,6 +80,20 @@ public interface Tensor {
     /** Returns the values of this in some undefined order */
     Iterator<Double> valueIterator();
 
+    /**
+     * Returns the values of this in the same order as {@link #valueIterator}, as primitive doubles.
+     * This default boxes each value on the way, so implementations holding primitive values should override it.
+     */
+    default PrimitiveIterator.OfDouble doubleValueIterator() {
+        Iterator<Double> values = valueIterator();
+        return new PrimitiveIterator.OfDouble() {
+            @Override
+            public boolean hasNext() { return values.hasNext(); }
+            @Override
+            public double nextDouble() { return values.next(); }
+        };
+    }
+
     /**
      * Returns an immutable map of the cells of this in no particular order.
      * This may be expensive for some implementations - avoid when possible
@@ -94,7 +109,7 @@ public interface Tensor {
         if (type().dimensions().size() > 0)
             throw new IllegalStateException("Require a dimensionless tensor but has " + type());
         if (size() == 0) return Double.NaN;
-        return valueIterator().next();
+        return doubleValueIterator().nextDouble();
     }
 
     /**
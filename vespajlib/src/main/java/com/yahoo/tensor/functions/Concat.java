@@ -99,6 +99,8 @@ public class Concat<NAMETYPE extends Name> extends PrimitiveTensorFunction<NAMET
 
         TensorType concatType = type(a.type(), b.type());
         DimensionSizes concatSize = concatSize(concatType, aIndexed, bIndexed, dimension);
+        if (haveSameOtherDimensions(aIndexed, bIndexed))
+            return concatenateBlocks(aIndexed, bIndexed, concatType, concatSize);
 
         Tensor.Builder builder = Tensor.Builder.of(concatType, concatSize);
         long aDimensionLength = aIndexed.type().indexOfDimension(dimension).map(d -> aIndexed.dimensionSizes().size(d)).orElseThrow(RuntimeException::new);
@@ -109,6 +111,43 @@ public class Concat<NAMETYPE extends Name> extends PrimitiveTensorFunction<NAMET
         return builder.build();
     }
 
+    /** Returns whether the two tensors have the same dimensions, with the same sizes except in the concat dimension */
+    private boolean haveSameOtherDimensions(IndexedTensor a, IndexedTensor b) {
+        if ( ! a.type().dimensionNames().equals(b.type().dimensionNames())) return false;
+        for (int i = 0; i < a.type().dimensions().size(); i++) {
+            if (a.type().dimensions().get(i).name().equals(dimension)) continue;
+            if (a.dimensionSizes().size(i) != b.dimensionSizes().size(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Concatenates tensors having the same other dimensions by copying values in the standard value order:
+     * For each combination of the dimensions before the concat dimension the concatenation is a block
+     * of values from a followed by a block of values from b.
+     */
+    private Tensor concatenateBlocks(IndexedTensor a, IndexedTensor b, TensorType concatType, DimensionSizes concatSize) {
+        int concatDimensionIndex = concatType.indexOfDimension(dimension).get();
+        long outerSize = 1;
+        for (int i = 0; i < concatDimensionIndex; i++)
+            outerSize *= concatSize.size(i);
+        long innerSize = 1;
+        for (int i = concatDimensionIndex + 1; i < concatSize.dimensions(); i++)
+            innerSize *= concatSize.size(i);
+        int aBlockSize = (int)(a.dimensionSizes().size(concatDimensionIndex) * innerSize);
+        int bBlockSize = (int)(b.dimensionSizes().size(concatDimensionIndex) * innerSize);
+
+        double[] values = new double[(int)concatSize.totalSize()];
+        int index = 0;
+        for (int outer = 0; outer < outerSize; outer++) {
+            for (int i = 0; i < aBlockSize; i++)
+                values[index++] = a.get((long)outer * aBlockSize + i);
+            for (int i = 0; i < bBlockSize; i++)
+                values[index++] = b.get((long)outer * bBlockSize + i);
+        }
+        return IndexedTensor.Builder.of(concatType, concatSize, values).build();
+    }
+
     private void concatenateTo(IndexedTensor a, IndexedTensor b, long offset, TensorType concatType,
                                int[] aToIndexes, int[] bToIndexes, Tensor.Builder builder) {
         Set<String> otherADimensions = a.type().dimensionNames().stream().filter(d -> !d.equals(dimension)).collect(Collectors.toSet());
@@ -5,6 +5,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Sets;
 import com.yahoo.tensor.DimensionSizes;
 import com.yahoo.tensor.IndexedTensor;
+import com.yahoo.tensor.MappedAddresses;
+import com.yahoo.tensor.MappedTensor;
 import com.yahoo.tensor.PartialAddress;
 import com.yahoo.tensor.Tensor;
 import com.yahoo.tensor.TensorAddress;
@@ -14,6 +16,7 @@ import com.yahoo.tensor.evaluation.Name;
 import com.yahoo.tensor.evaluation.TypeContext;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -22,6 +25,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.PrimitiveIterator;
 import java.util.Set;
 import java.util.function.DoubleBinaryOperator;
 
@@ -95,6 +99,8 @@ public class Join<NAMETYPE extends Name> extends PrimitiveTensorFunction<NAMETYP
         // Choose join algorithm
         if (hasSingleIndexedDimension(a) && hasSingleIndexedDimension(b) && a.type().dimensions().get(0).name().equals(b.type().dimensions().get(0).name()))
             return indexedVectorJoin((IndexedTensor)a, (IndexedTensor)b, joinedType, combinator);
+        else if (isMapped(a) && isMapped(b))
+            return mappedJoin((MappedTensor)a, (MappedTensor)b, joinedType, combinator);
         else if (joinedType.dimensions().size() == a.type().dimensions().size() && joinedType.dimensions().size() == b.type().dimensions().size())
             return singleSpaceJoin(a, b, joinedType, combinator);
         else if (a.type().dimensions().containsAll(b.type().dimensions()))
@@ -110,14 +116,16 @@ public class Join<NAMETYPE extends Name> extends PrimitiveTensorFunction<NAMETYP
         return tensor.type().dimensions().size() == 1 && tensor.type().dimensions().get(0).isIndexed();
     }
 
+    private static boolean isMapped(Tensor tensor) {
+        return tensor instanceof MappedTensor && tensor.type().rank() > 0;
+    }
+
     private static Tensor indexedVectorJoin(IndexedTensor a, IndexedTensor b, TensorType type, DoubleBinaryOperator combinator) {
-        long joinedRank = Math.min(a.dimensionSizes().size(0), b.dimensionSizes().size(0));
-        Iterator<Double> aIterator = a.valueIterator();
-        Iterator<Double> bIterator = b.valueIterator();
-        IndexedTensor.Builder builder = IndexedTensor.Builder.of(type, new DimensionSizes.Builder(1).set(0, joinedRank).build());
+        int joinedRank = (int)Math.min(a.dimensionSizes().size(0), b.dimensionSizes().size(0));
+        double[] values = new double[joinedRank];
         for (int i = 0; i < joinedRank; i++)
-            builder.cell(combinator.applyAsDouble(aIterator.next(), bIterator.next()), i);
-        return builder.build();
+            values[i] = combinator.applyAsDouble(a.get(i), b.get(i));
+        return IndexedTensor.Builder.of(type, new DimensionSizes.Builder(1).set(0, joinedRank).build(), values).build();
     }
 
     /** When both tensors have the same dimensions, at most one cell matches a cell in the other tensor */
@@ -154,7 +162,7 @@ public class Join<NAMETYPE extends Name> extends PrimitiveTensorFunction<NAMETYP
 
         for (Iterator<IndexedTensor.SubspaceIterator> i = superspace.subspaceIterator(superDimensionNames, joinedSizes); i.hasNext(); ) {
             IndexedTensor.SubspaceIterator subspaceInSuper = i.next();
-            joinSubspaces(subspace.valueIterator(), subspace.size(),
+            joinSubspaces(subspace.doubleValueIterator(), subspace.size(),
                     subspaceInSuper, subspaceInSuper.size(),
                     reversedArgumentOrder, builder, combinator);
         }
@@ -162,7 +170,7 @@ public class Join<NAMETYPE extends Name> extends PrimitiveTensorFunction<NAMETYP
         return builder.build();
     }
 
-    private static void joinSubspaces(Iterator<Double> subspace, long subspaceSize,
+    private static void joinSubspaces(PrimitiveIterator.OfDouble subspace, long subspaceSize,
                                       Iterator<Tensor.Cell> superspace, long superspaceSize,
                                       boolean reversedArgumentOrder, IndexedTensor.Builder builder,
                                       DoubleBinaryOperator combinator) {
@@ -170,12 +178,12 @@ public class Join<NAMETYPE extends Name> extends PrimitiveTensorFunction<NAMETYP
         if (reversedArgumentOrder) {
             for (int i = 0; i < joinedLength; i++) {
                 Tensor.Cell supercell = superspace.next();
-                builder.cell(supercell, combinator.applyAsDouble(supercell.getValue(), subspace.next()));
+                builder.cell(supercell, combinator.applyAsDouble(supercell.getDoubleValue(), subspace.nextDouble()));
             }
         } else {
             for (int i = 0; i < joinedLength; i++) {
                 Tensor.Cell supercell = superspace.next();
-                builder.cell(supercell, combinator.applyAsDouble(subspace.next(), supercell.getValue()));
+                builder.cell(supercell, combinator.applyAsDouble(subspace.nextDouble(), supercell.getDoubleValue()));
             }
         }
     }
@@ -354,6 +362,99 @@ public class Join<NAMETYPE extends Name> extends PrimitiveTensorFunction<NAMETYP
     }
 
 
+    /**
+     * Hash join of two mapped tensors working on the label ids of their addresses rather than on addresses.
+     * The cells of the smaller tensor are grouped by their ids in the common dimensions, and the result is built
+     * on the label dictionaries of the arguments, such that labels are only looked up once per label in the common
+     * dimensions. The builder replaces these by compact dictionaries if the result uses few of their labels.
+     * This works for any combination of dimensions, including none in common.
+     */
+    private static Tensor mappedJoin(MappedTensor a, MappedTensor b, TensorType joinedType, DoubleBinaryOperator combinator) {
+        boolean swapTensors = a.size() > b.size();
+        if (swapTensors) {
+            MappedTensor temp = a;
+            a = b;
+            b = temp;
+        }
+        MappedAddresses aAddresses = a.addresses();
+        MappedAddresses bAddresses = b.addresses();
+
+        TensorType commonType = commonDimensions(a, b);
+        int[] aCommonIndexes = mapIndexes(commonType, a.type());
+        int[] bCommonIndexes = mapIndexes(commonType, b.type());
+
+        // Group the cells of a by their label ids in the common dimensions, in linked lists of cell indexes.
+        // If all dimensions of a are common, each cell is its own group and the addresses of a are the groups.
+        MappedAddresses.Labels[] commonLabels = new MappedAddresses.Labels[aCommonIndexes.length];
+        for (int c = 0; c < commonLabels.length; c++)
+            commonLabels[c] = aAddresses.labels(aCommonIndexes[c]);
+        boolean cellGroups = commonLabels.length == a.type().rank();
+        int[] groupHeads = null;
+        int[] nextInGroup = null;
+        int[] commonIds = new int[commonLabels.length];
+        MappedAddresses groups = aAddresses;
+        if ( ! cellGroups) {
+            MappedAddresses.Builder groupBuilder = new MappedAddresses.Builder(commonLabels);
+            groupHeads = new int[aAddresses.size()];
+            nextInGroup = new int[aAddresses.size()];
+            Arrays.fill(groupHeads, -1);
+            for (int i = aAddresses.size() - 1; i >= 0; i--) {
+                for (int c = 0; c < commonIds.length; c++)
+                    commonIds[c] = aAddresses.labelId(i, aCommonIndexes[c]);
+                int group = groupBuilder.add(commonIds);
+                nextInGroup[i] = groupHeads[group];
+                groupHeads[group] = i;
+            }
+            groups = groupBuilder.build();
+        }
+
+        // Map the label ids of b in the common dimensions to those of a
+        int[][] bToAIds = new int[commonLabels.length][];
+        for (int c = 0; c < bToAIds.length; c++) {
+            MappedAddresses.Labels bLabels = bAddresses.labels(bCommonIndexes[c]);
+            bToAIds[c] = new int[bLabels.size()];
+            for (int id = 0; id < bLabels.size(); id++)
+                bToAIds[c][id] = commonLabels[c].idOf(bLabels.label(id));
+        }
+
+        // Take each joined dimension from a if present there, and from b otherwise
+        int[] joinedFromA = new int[joinedType.rank()];
+        int[] joinedFromB = new int[joinedType.rank()];
+        MappedAddresses.Labels[] joinedLabels = new MappedAddresses.Labels[joinedType.rank()];
+        for (int j = 0; j < joinedType.rank(); j++) {
+            String dimension = joinedType.dimensions().get(j).name();
+            joinedFromA[j] = a.type().indexOfDimension(dimension).orElse(-1);
+            joinedFromB[j] = b.type().indexOfDimension(dimension).orElse(-1);
+            joinedLabels[j] = joinedFromA[j] >= 0 ? aAddresses.labels(joinedFromA[j]) : bAddresses.labels(joinedFromB[j]);
+        }
+
+        MappedTensor.Builder builder = MappedTensor.Builder.of(joinedType, joinedLabels);
+        int[] joinedIds = new int[joinedType.rank()];
+        for (int k = 0; k < bAddresses.size(); k++) {
+            int group = groupOf(k, bAddresses, bCommonIndexes, bToAIds, groups, commonIds);
+            if (group < 0) continue; // no match
+            for (int i = cellGroups ? group : groupHeads[group]; i >= 0; i = cellGroups ? -1 : nextInGroup[i]) {
+                for (int j = 0; j < joinedIds.length; j++)
+                    joinedIds[j] = joinedFromA[j] >= 0 ? aAddresses.labelId(i, joinedFromA[j])
+                                                       : bAddresses.labelId(k, joinedFromB[j]);
+                double joinedValue = swapTensors ? combinator.applyAsDouble(b.get(k), a.get(i))
+                                                 : combinator.applyAsDouble(a.get(i), b.get(k));
+                builder.cell(joinedIds, joinedValue);
+            }
+        }
+        return builder.build();
+    }
+
+    /** Returns the group of cells in a matching the cell at the given index in b, or -1 if none */
+    private static int groupOf(int bIndex, MappedAddresses bAddresses, int[] bCommonIndexes, int[][] bToAIds,
+                               MappedAddresses groups, int[] commonIds) {
+        for (int c = 0; c < commonIds.length; c++) {
+            commonIds[c] = bToAIds[c][bAddresses.labelId(bIndex, bCommonIndexes[c])];
+            if (commonIds[c] < 0) return -1;
+        }
+        return groups.indexOf(commonIds);
+    }
+
     /**
      * Returns the an array having one entry in order for each dimension of fromType
      * containing the index at which toType contains the same dimension name.
@@ -1,6 +1,7 @@
 // Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
 package com.yahoo.tensor.functions;
 
+import com.yahoo.tensor.IndexedTensor;
 import com.yahoo.tensor.Tensor;
 import com.yahoo.tensor.TensorAddress;
 import com.yahoo.tensor.TensorType;
@@ -59,6 +60,9 @@ public class Map<NAMETYPE extends Name> extends PrimitiveTensorFunction<NAMETYPE
     @Override
     public Tensor evaluate(EvaluationContext<NAMETYPE> context) {
         Tensor argument = argument().evaluate(context);
+        if (argument instanceof IndexedTensor)
+            return mapIndexed((IndexedTensor)argument);
+
         Tensor.Builder builder = Tensor.Builder.of(argument.type());
         for (Iterator<Tensor.Cell> i = argument.cellIterator(); i.hasNext(); ) {
             java.util.Map.Entry<TensorAddress, Double> cell = i.next();
@@ -67,6 +71,13 @@ public class Map<NAMETYPE extends Name> extends PrimitiveTensorFunction<NAMETYPE
         return builder.build();
     }
 
+    private Tensor mapIndexed(IndexedTensor argument) {
+        double[] values = new double[(int)argument.size()];
+        for (int i = 0; i < values.length; i++)
+            values[i] = mapper.applyAsDouble(argument.get(i));
+        return IndexedTensor.Builder.of(argument.type(), argument.dimensionSizes(), values).build();
+    }
+
     @Override
     public String toString(ToStringContext context) {
         return "map(" + argument.toString(context) + ", " + mapper + ")";
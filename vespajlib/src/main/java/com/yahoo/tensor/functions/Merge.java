@@ -21,6 +21,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.PrimitiveIterator;
 import java.util.Set;
 import java.util.function.DoubleBinaryOperator;
 
@@ -105,14 +106,14 @@ public class Merge<NAMETYPE extends Name> extends PrimitiveTensorFunction<NAMETY
         long bSize = b.dimensionSizes().size(0);
         long mergedSize = Math.max(aSize, bSize);
         long sharedSize = Math.min(aSize, bSize);
-        Iterator<Double> aIterator = a.valueIterator();
-        Iterator<Double> bIterator = b.valueIterator();
+        PrimitiveIterator.OfDouble aIterator = a.doubleValueIterator();
+        PrimitiveIterator.OfDouble bIterator = b.doubleValueIterator();
         IndexedTensor.Builder builder = IndexedTensor.Builder.of(type);
         for (long i = 0; i < sharedSize; i++)
-            builder.cell(combinator.applyAsDouble(aIterator.next(), bIterator.next()), i);
-        Iterator<Double> largestIterator = aSize > bSize ? aIterator : bIterator;
+            builder.cell(combinator.applyAsDouble(aIterator.nextDouble(), bIterator.nextDouble()), i);
+        PrimitiveIterator.OfDouble largestIterator = aSize > bSize ? aIterator : bIterator;
         for (long i = sharedSize; i < mergedSize; i++)
-            builder.cell(largestIterator.next(), i);
+            builder.cell(largestIterator.nextDouble(), i);
         return builder.build();
     }
 
@@ -2,7 +2,10 @@
 package com.yahoo.tensor.functions;
 
 import com.google.common.collect.ImmutableList;
+import com.yahoo.tensor.DimensionSizes;
 import com.yahoo.tensor.IndexedTensor;
+import com.yahoo.tensor.MappedAddresses;
+import com.yahoo.tensor.MappedTensor;
 import com.yahoo.tensor.Tensor;
 import com.yahoo.tensor.TensorAddress;
 import com.yahoo.tensor.TensorType;
@@ -18,6 +21,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.PrimitiveIterator;
 import java.util.Set;
 
 /**
@@ -135,6 +139,12 @@ public class Reduce<NAMETYPE extends Name> extends PrimitiveTensorFunction<NAMET
 
         TensorType reducedType = type(argument.type(), dimensions);
 
+        if (argument instanceof IndexedTensor && argument.size() > 0)
+            return reduceIndexed((IndexedTensor)argument, reducedType, dimensions, aggregator);
+
+        if (argument instanceof MappedTensor)
+            return reduceMapped((MappedTensor)argument, reducedType, aggregator);
+
         // Reduce cells
         Map<TensorAddress, ValueAggregator> aggregatingCells = new HashMap<>();
         for (Iterator<Tensor.Cell> i = argument.cellIterator(); i.hasNext(); ) {
@@ -164,10 +174,87 @@ public class Reduce<NAMETYPE extends Name> extends PrimitiveTensorFunction<NAMET
         return TensorAddress.of(reducedLabels);
     }
 
+    /**
+     * Reduces an indexed tensor by moving through it in the standard value order while keeping track of
+     * the position in the reduced tensor each value is aggregated into, such that no addresses are created.
+     */
+    private static Tensor reduceIndexed(IndexedTensor argument, TensorType reducedType, List<String> dimensions,
+                                        Aggregator aggregator) {
+        DimensionSizes sizes = argument.dimensionSizes();
+        int rank = sizes.dimensions();
+
+        // The step in the reduced tensor of each dimension of the argument, which is 0 for reduced dimensions
+        long[] reducedSteps = new long[rank];
+        DimensionSizes.Builder reducedSizes = new DimensionSizes.Builder(reducedType.dimensions().size());
+        int reducedDimension = reducedType.dimensions().size() - 1;
+        long reducedSize = 1;
+        for (int i = rank - 1; i >= 0; i--) {
+            if (dimensions.contains(argument.type().dimensions().get(i).name())) continue;
+            reducedSizes.set(reducedDimension--, sizes.size(i));
+            reducedSteps[i] = reducedSize;
+            reducedSize *= sizes.size(i);
+        }
+
+        ValueAggregator[] aggregators = new ValueAggregator[(int)reducedSize];
+        for (int i = 0; i < aggregators.length; i++)
+            aggregators[i] = ValueAggregator.ofType(aggregator);
+
+        long[] indexes = new long[rank];
+        long reducedIndex = 0;
+        for (long i = 0; i < argument.size(); i++) {
+            aggregators[(int)reducedIndex].aggregate(argument.get(i));
+            for (int d = rank - 1; d >= 0; d--) { // step to the next index in the standard value order
+                reducedIndex += reducedSteps[d];
+                if (++indexes[d] < sizes.size(d)) break;
+                reducedIndex -= reducedSteps[d] * indexes[d];
+                indexes[d] = 0;
+            }
+        }
+
+        IndexedTensor.Builder builder = IndexedTensor.Builder.of(reducedType, reducedSizes.build());
+        for (int i = 0; i < aggregators.length; i++)
+            ((IndexedTensor.DirectIndexBuilder)builder).cellByDirectIndex(i, aggregators[i].aggregatedValue());
+        return builder.build();
+    }
+
+    /**
+     * Reduces a mapped tensor by the label ids of its addresses. The reduced tensor is built on the label
+     * dictionaries of the argument, such that no labels are looked up, and the builder replaces these by compact
+     * dictionaries if the reduced tensor uses few of their labels.
+     */
+    private static Tensor reduceMapped(MappedTensor argument, TensorType reducedType, Aggregator aggregator) {
+        MappedAddresses addresses = argument.addresses();
+        int[] reducedToArgumentIndexes = Join.mapIndexes(reducedType, argument.type());
+        MappedAddresses.Labels[] reducedLabels = new MappedAddresses.Labels[reducedType.rank()];
+        for (int d = 0; d < reducedLabels.length; d++)
+            reducedLabels[d] = addresses.labels(reducedToArgumentIndexes[d]);
+
+        MappedAddresses.Builder reducedAddressesBuilder = new MappedAddresses.Builder(reducedLabels);
+        List<ValueAggregator> aggregators = new ArrayList<>();
+        int[] reducedIds = new int[reducedLabels.length];
+        for (int i = 0; i < addresses.size(); i++) {
+            for (int d = 0; d < reducedIds.length; d++)
+                reducedIds[d] = addresses.labelId(i, reducedToArgumentIndexes[d]);
+            int reducedIndex = reducedAddressesBuilder.add(reducedIds);
+            if (reducedIndex == aggregators.size())
+                aggregators.add(ValueAggregator.ofType(aggregator));
+            aggregators.get(reducedIndex).aggregate(argument.get(i));
+        }
+
+        MappedAddresses reducedAddresses = reducedAddressesBuilder.build();
+        MappedTensor.Builder builder = MappedTensor.Builder.of(reducedType, reducedLabels);
+        for (int i = 0; i < reducedAddresses.size(); i++) {
+            for (int d = 0; d < reducedIds.length; d++)
+                reducedIds[d] = reducedAddresses.labelId(i, d);
+            builder.cell(reducedIds, aggregators.get(i).aggregatedValue());
+        }
+        return builder.build();
+    }
+
     private static Tensor reduceAllGeneral(Tensor argument, Aggregator aggregator) {
         ValueAggregator valueAggregator = ValueAggregator.ofType(aggregator);
-        for (Iterator<Double> i = argument.valueIterator(); i.hasNext(); )
-            valueAggregator.aggregate(i.next());
+        for (PrimitiveIterator.OfDouble i = argument.doubleValueIterator(); i.hasNext(); )
+            valueAggregator.aggregate(i.nextDouble());
         return Tensor.Builder.of(TensorType.empty).cell((valueAggregator.aggregatedValue())).build();
     }
 
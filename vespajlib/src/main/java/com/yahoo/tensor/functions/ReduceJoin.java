@@ -11,6 +11,7 @@ import com.yahoo.tensor.evaluation.Name;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
 import java.util.function.DoubleBinaryOperator;
 import java.util.stream.Collectors;
 
@@ -33,6 +34,9 @@ public class ReduceJoin<NAMETYPE extends Name> extends CompositeTensorFunction<N
     private final Reduce.Aggregator aggregator;
     private final List<String> dimensions;
 
+    /** The types resolved for the argument types this was last evaluated with, which are usually the same each time */
+    private volatile ResolvedTypes resolvedTypes = null;
+
     public ReduceJoin(Reduce<NAMETYPE> reduce, Join<NAMETYPE> join) {
         this(join.arguments().get(0), join.arguments().get(1), join.combinator(), reduce.aggregator(), reduce.dimensions());
     }
@@ -71,12 +75,19 @@ public class ReduceJoin<NAMETYPE extends Name> extends CompositeTensorFunction<N
     public final Tensor evaluate(EvaluationContext<NAMETYPE> context) {
         Tensor a = argumentA.evaluate(context);
         Tensor b = argumentB.evaluate(context);
-        TensorType joinedType = new TensorType.Builder(a.type(), b.type()).build();
+        ResolvedTypes types = resolveTypes(a.type(), b.type());
 
-        if (canOptimize(a, b)) {
-            return evaluate((IndexedTensor)a, (IndexedTensor)b, joinedType);
+        if (a instanceof IndexedTensor && b instanceof IndexedTensor && types.canOptimize) {
+            return evaluate((IndexedTensor)a, (IndexedTensor)b, types);
         }
-        return Reduce.evaluate(Join.evaluate(a, b, joinedType, combinator), dimensions, aggregator);
+        return Reduce.evaluate(Join.evaluate(a, b, types.joinedType, combinator), dimensions, aggregator);
+    }
+
+    private ResolvedTypes resolveTypes(TensorType a, TensorType b) {
+        ResolvedTypes types = resolvedTypes;
+        if (types == null || ! types.a.equals(a) || ! types.b.equals(b))
+            resolvedTypes = types = new ResolvedTypes(a, b);
+        return types;
     }
 
     /**
@@ -89,22 +100,26 @@ public class ReduceJoin<NAMETYPE extends Name> extends CompositeTensorFunction<N
      *         given the two tensors.
      */
     public boolean canOptimize(Tensor a, Tensor b) {
-        if (a.type().dimensions().isEmpty() || b.type().dimensions().isEmpty())  // TODO: support scalars
-            return false;
         if ( ! (a instanceof IndexedTensor))
             return false;
-        if ( ! (a.type().dimensions().stream().allMatch(d -> d.type() == TensorType.Dimension.Type.indexedBound)))
-            return false;
         if ( ! (b instanceof IndexedTensor))
             return false;
-        if ( ! (b.type().dimensions().stream().allMatch(d -> d.type() == TensorType.Dimension.Type.indexedBound)))
+        return canOptimize(a.type(), b.type());
+    }
+
+    private boolean canOptimize(TensorType a, TensorType b) {
+        if (a.dimensions().isEmpty() || b.dimensions().isEmpty())  // TODO: support scalars
+            return false;
+        if ( ! (a.dimensions().stream().allMatch(d -> d.type() == TensorType.Dimension.Type.indexedBound)))
+            return false;
+        if ( ! (b.dimensions().stream().allMatch(d -> d.type() == TensorType.Dimension.Type.indexedBound)))
             return false;
 
-        TensorType commonDimensions = dimensionsInCommon((IndexedTensor)a, (IndexedTensor)b);
+        TensorType commonDimensions = dimensionsInCommon(a, b);
         if (dimensions.isEmpty()) {
-            if (a.type().dimensions().size() != commonDimensions.dimensions().size())
+            if (a.dimensions().size() != commonDimensions.dimensions().size())
                 return false;
-            if (b.type().dimensions().size() != commonDimensions.dimensions().size())
+            if (b.dimensions().size() != commonDimensions.dimensions().size())
                 return false;
         } else {
             for (TensorType.Dimension dimension : commonDimensions.dimensions()) {
@@ -116,100 +131,68 @@ public class ReduceJoin<NAMETYPE extends Name> extends CompositeTensorFunction<N
     }
 
     /**
-     * Evaluates the reduce-join. Special handling for common cases where the
-     * reduce dimension is the innermost dimension in both tensors.
+     * Evaluates the reduce-join. Special handling for common cases where there is
+     * one reduce dimension, and the arguments are vectors or matrixes.
      */
-    private Tensor evaluate(IndexedTensor a, IndexedTensor b, TensorType joinedType) {
-        TensorType reducedType = Reduce.outputType(joinedType, dimensions);
-
-        if (reduceDimensionIsInnermost(a, b)) {
-            if (a.type().dimensions().size() == 1 && b.type().dimensions().size() == 1) {
-                return vectorVectorProduct(a, b, reducedType);
-            }
-            if (a.type().dimensions().size() == 1 && b.type().dimensions().size() == 2) {
-                return vectorMatrixProduct(a, b, reducedType, false);
-            }
-            if (a.type().dimensions().size() == 2 && b.type().dimensions().size() == 1) {
-                return vectorMatrixProduct(b, a, reducedType, true);
-            }
-            if (a.type().dimensions().size() == 2 && b.type().dimensions().size() == 2) {
-                return matrixMatrixProduct(a, b, reducedType);
-            }
-        }
-        return evaluateGeneral(a, b, reducedType);
-    }
-
-    private Tensor vectorVectorProduct(IndexedTensor a, IndexedTensor b, TensorType reducedType) {
-        if ( a.type().dimensions().size() != 1 || b.type().dimensions().size() != 1) {
-            throw new IllegalArgumentException("Wrong dimension sizes for tensors for vector-vector product");
-        }
-        IndexedTensor.BoundBuilder builder = (IndexedTensor.BoundBuilder)IndexedTensor.Builder.of(reducedType);
-        long commonSize = Math.min(a.dimensionSizes().size(0), b.dimensionSizes().size(0));
-
-        Reduce.ValueAggregator agg = Reduce.ValueAggregator.ofType(aggregator);
-        for (int ic = 0; ic < commonSize; ++ic) {
-            double va = a.get(ic);
-            double vb = b.get(ic);
-            agg.aggregate(combinator.applyAsDouble(va, vb));
-        }
-        builder.cellByDirectIndex(0, agg.aggregatedValue());
-        return builder.build();
+    private Tensor evaluate(IndexedTensor a, IndexedTensor b, ResolvedTypes types) {
+        if (types.reduceDimension.isPresent() && a.type().rank() <= 2 && b.type().rank() <= 2)
+            return vectorOrMatrixProduct(a, b, types.reduceDimension.get(), types.reducedType);
+        return evaluateGeneral(a, b, types.reducedType);
     }
 
-    private Tensor vectorMatrixProduct(IndexedTensor a, IndexedTensor b, TensorType reducedType, boolean swapped) {
-        if ( a.type().dimensions().size() != 1 || b.type().dimensions().size() != 2) {
-            throw new IllegalArgumentException("Wrong dimension sizes for tensors for vector-matrix product");
-        }
+    /**
+     * Evaluates a product of two vectors or matrixes over the given dimension, where each argument
+     * may have the reduce dimension as either its inner or outer dimension.
+     */
+    private Tensor vectorOrMatrixProduct(IndexedTensor a, IndexedTensor b, String dimension, TensorType reducedType) {
         IndexedTensor.BoundBuilder builder = (IndexedTensor.BoundBuilder)IndexedTensor.Builder.of(reducedType);
-        DimensionSizes sizesA = a.dimensionSizes();
-        DimensionSizes sizesB = b.dimensionSizes();
+        Layout layoutA = new Layout(a, dimension, reducedType);
+        Layout layoutB = new Layout(b, dimension, reducedType);
+        long commonSize = Math.min(layoutA.reduceSize, layoutB.reduceSize);
+        long resultStrideA = layoutA.resultIndex < layoutB.resultIndex ? layoutB.otherSize : 1;
+        long resultStrideB = layoutB.resultIndex < layoutA.resultIndex ? layoutA.otherSize : 1;
 
         Reduce.ValueAggregator agg = Reduce.ValueAggregator.ofType(aggregator);
-        for (int ib = 0; ib < sizesB.size(0); ++ib) {
-            agg.reset();
-            for (int ic = 0; ic < Math.min(sizesA.size(0), sizesB.size(1)); ++ic) {
-                double va = a.get(ic);
-                double vb = b.get(ib * sizesB.size(1) + ic);
-                double result = swapped ? combinator.applyAsDouble(vb, va) : combinator.applyAsDouble(va, vb);
-                agg.aggregate(result);
+        for (long ia = 0; ia < layoutA.otherSize; ++ia) {
+            for (long ib = 0; ib < layoutB.otherSize; ++ib) {
+                double value = reduceJoin(a, ia * layoutA.otherStride, layoutA.reduceStride,
+                                          b, ib * layoutB.otherStride, layoutB.reduceStride,
+                                          commonSize, agg);
+                builder.cellByDirectIndex(ia * resultStrideA + ib * resultStrideB, value);
             }
-            builder.cellByDirectIndex(ib, agg.aggregatedValue());
         }
         return builder.build();
     }
 
-    private Tensor matrixMatrixProduct(IndexedTensor a, IndexedTensor b, TensorType reducedType) {
-        if ( a.type().dimensions().size() != 2 || b.type().dimensions().size() != 2) {
-            throw new IllegalArgumentException("Wrong dimension sizes for tensors for matrix-matrix product");
+    /**
+     * Returns the aggregate of combining the values of a and b starting at the given indexes and
+     * separated by the given strides. Sums of products are computed directly, without going through
+     * the combinator and aggregator.
+     */
+    private double reduceJoin(IndexedTensor a, long startA, long strideA, IndexedTensor b, long startB, long strideB,
+                              long length, Reduce.ValueAggregator agg) {
+        if (isDotProduct()) {
+            double sum = 0;
+            for (long i = 0; i < length; i++)
+                sum += a.get(startA + i * strideA) * b.get(startB + i * strideB);
+            return sum;
         }
-        IndexedTensor.BoundBuilder builder = (IndexedTensor.BoundBuilder)IndexedTensor.Builder.of(reducedType);
-        DimensionSizes sizesA = a.dimensionSizes();
-        DimensionSizes sizesB = b.dimensionSizes();
-        int iaToReduced = reducedType.indexOfDimension(a.type().dimensions().get(0).name()).get();
-        int ibToReduced = reducedType.indexOfDimension(b.type().dimensions().get(0).name()).get();
-        long strideA = iaToReduced < ibToReduced ? sizesB.size(0) : 1;
-        long strideB = ibToReduced < iaToReduced ? sizesA.size(0) : 1;
+        agg.reset();
+        for (long i = 0; i < length; i++)
+            agg.aggregate(combinator.applyAsDouble(a.get(startA + i * strideA), b.get(startB + i * strideB)));
+        return agg.aggregatedValue();
+    }
 
-        Reduce.ValueAggregator agg = Reduce.ValueAggregator.ofType(aggregator);
-        for (int ia = 0; ia < sizesA.size(0); ++ia) {
-            for (int ib = 0; ib < sizesB.size(0); ++ib) {
-                agg.reset();
-                for (int ic = 0; ic < Math.min(sizesA.size(1), sizesB.size(1)); ++ic) {
-                    double va = a.get(ia * sizesA.size(1) + ic);
-                    double vb = b.get(ib * sizesB.size(1) + ic);
-                    agg.aggregate(combinator.applyAsDouble(va, vb));
-                }
-                builder.cellByDirectIndex(ia * strideA + ib * strideB, agg.aggregatedValue());
-            }
-        }
-        return builder.build();
+    /** Returns whether this computes sums of products */
+    private boolean isDotProduct() {
+        return combinator instanceof ScalarFunctions.Multiply && aggregator == Reduce.Aggregator.sum;
     }
 
     private Tensor evaluateGeneral(IndexedTensor a, IndexedTensor b, TensorType reducedType) {
         IndexedTensor.BoundBuilder builder = (IndexedTensor.BoundBuilder)IndexedTensor.Builder.of(reducedType);
         TensorType onlyInA = Reduce.outputType(a.type(), dimensions);
         TensorType onlyInB = Reduce.outputType(b.type(), dimensions);
-        TensorType common = dimensionsInCommon(a, b);
+        TensorType common = dimensionsInCommon(a.type(), b.type());
 
         // pre-calculate strides for each index position
         long[] stridesA = strides(a.type());
@@ -267,10 +250,10 @@ public class ReduceJoin<NAMETYPE extends Name> extends CompositeTensorFunction<N
         return strides;
     }
 
-    private TensorType dimensionsInCommon(IndexedTensor a, IndexedTensor b) {
-        TensorType.Builder builder = new TensorType.Builder(TensorType.combinedValueType(a.type(), b.type()));
-        for (TensorType.Dimension aDim : a.type().dimensions()) {
-            for (TensorType.Dimension bDim : b.type().dimensions()) {
+    private TensorType dimensionsInCommon(TensorType a, TensorType b) {
+        TensorType.Builder builder = new TensorType.Builder(TensorType.combinedValueType(a, b));
+        for (TensorType.Dimension aDim : a.dimensions()) {
+            for (TensorType.Dimension bDim : b.dimensions()) {
                 if (aDim.name().equals(bDim.name())) {
                     if ( ! aDim.size().isPresent()) {
                         builder.set(aDim);
@@ -285,32 +268,76 @@ public class ReduceJoin<NAMETYPE extends Name> extends CompositeTensorFunction<N
         return builder.build();
     }
 
-    /**
-     * Tests if there is exactly one reduce dimension and it is the innermost
-     * dimension in both tensors.
-     */
-    private boolean reduceDimensionIsInnermost(Tensor a, Tensor b) {
+    /** Returns the reduce dimension if there is exactly one, and it is present in both tensors */
+    private Optional<String> singleReduceDimension(TensorType a, TensorType b) {
         List<String> reducingDimensions = dimensions;
         if (reducingDimensions.isEmpty()) {
-            reducingDimensions = dimensionsInCommon((IndexedTensor)a, (IndexedTensor)b).dimensions().stream()
+            reducingDimensions = dimensionsInCommon(a, b).dimensions().stream()
                     .map(TensorType.Dimension::name)
                     .collect(Collectors.toList());
         }
         if (reducingDimensions.size() != 1) {
-            return false;
+            return Optional.empty();
         }
         String dimension = reducingDimensions.get(0);
-        int indexInA = a.type().indexOfDimension(dimension).orElseThrow(() ->
-                new IllegalArgumentException("Reduce-Join dimension '" + dimension + "' missing in tensor A."));
-        if (indexInA != (a.type().dimensions().size() - 1)) {
-            return false;
+        if (a.dimension(dimension).isEmpty() || b.dimension(dimension).isEmpty()) {
+            return Optional.empty();
         }
-        int indexInB = b.type().indexOfDimension(dimension).orElseThrow(() ->
-                new IllegalArgumentException("Reduce-Join dimension '" + dimension + "' missing in tensor B."));
-        if (indexInB < (b.type().dimensions().size() - 1)) {
-            return false;
+        return Optional.of(dimension);
+    }
+
+    /** The types derived from a pair of argument types, and whether evaluation with those types can be optimized */
+    private class ResolvedTypes {
+
+        final TensorType a, b;
+        final TensorType joinedType;
+        final TensorType reducedType;
+        final boolean canOptimize;
+        final Optional<String> reduceDimension;
+
+        ResolvedTypes(TensorType a, TensorType b) {
+            this.a = a;
+            this.b = b;
+            this.joinedType = new TensorType.Builder(a, b).build();
+            this.reducedType = Reduce.outputType(joinedType, dimensions);
+            this.canOptimize = canOptimize(a, b);
+            this.reduceDimension = canOptimize ? singleReduceDimension(a, b) : Optional.empty();
         }
-        return true;
+
+    }
+
+    /** The positions of the values of a vector or matrix argument, relative to the dimension reduced over */
+    private static class Layout {
+
+        final long reduceSize;
+        final long reduceStride;
+
+        /** The size and stride of the other dimension of a matrix, and 1 and 0 for vectors */
+        final long otherSize;
+        final long otherStride;
+
+        /** The index of the other dimension in the result, or -1 for vectors */
+        final int resultIndex;
+
+        Layout(IndexedTensor tensor, String reduceDimension, TensorType reducedType) {
+            DimensionSizes sizes = tensor.dimensionSizes();
+            int reduceIndex = tensor.type().indexOfDimension(reduceDimension).get();
+            reduceSize = sizes.size(reduceIndex);
+            if (tensor.type().rank() == 1) {
+                reduceStride = 1;
+                otherSize = 1;
+                otherStride = 0;
+                resultIndex = -1;
+            }
+            else {
+                int otherIndex = 1 - reduceIndex;
+                reduceStride = reduceIndex == 0 ? sizes.size(1) : 1;
+                otherSize = sizes.size(otherIndex);
+                otherStride = otherIndex == 0 ? sizes.size(1) : 1;
+                resultIndex = reducedType.indexOfDimension(tensor.type().dimensions().get(otherIndex).name()).get();
+            }
+        }
+
     }
 
     @Override
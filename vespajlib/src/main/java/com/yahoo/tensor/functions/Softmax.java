@@ -2,7 +2,11 @@
 package com.yahoo.tensor.functions;
 
 import com.google.common.collect.ImmutableList;
+import com.yahoo.tensor.DimensionSizes;
+import com.yahoo.tensor.IndexedTensor;
+import com.yahoo.tensor.Tensor;
 import com.yahoo.tensor.TensorType;
+import com.yahoo.tensor.evaluation.EvaluationContext;
 import com.yahoo.tensor.evaluation.Name;
 
 import java.util.Collections;
@@ -45,6 +49,43 @@ public class Softmax<NAMETYPE extends Name> extends CompositeTensorFunction<NAME
                           ScalarFunctions.divide());
     }
 
+    @Override
+    public Tensor evaluate(EvaluationContext<NAMETYPE> context) {
+        Tensor argument = this.argument.evaluate(context);
+        if (argument instanceof IndexedTensor && argument.type().dimension(dimension).isPresent())
+            return evaluateDense((IndexedTensor)argument);
+        Tensor exp = argument.map(ScalarFunctions.exp());
+        return exp.join(exp.reduce(Reduce.Aggregator.sum, dimension), ScalarFunctions.divide());
+    }
+
+    /**
+     * Computes the exponentials of the argument once, sums them along the dimension in the standard value order,
+     * and divides each by its sum, without creating the intermediate tensors.
+     */
+    private Tensor evaluateDense(IndexedTensor argument) {
+        int dimensionIndex = argument.type().indexOfDimension(dimension).get();
+        DimensionSizes sizes = argument.dimensionSizes();
+        long dimensionSize = sizes.size(dimensionIndex);
+        long innerSize = 1;
+        for (int i = dimensionIndex + 1; i < sizes.dimensions(); i++)
+            innerSize *= sizes.size(i);
+
+        double[] values = new double[(int)argument.size()];
+        double[] sums = new double[dimensionSize == 0 ? 0 : (int)(values.length / dimensionSize)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.exp(argument.get(i));
+            sums[sumIndex(i, dimensionSize, innerSize)] += values[i];
+        }
+        for (int i = 0; i < values.length; i++)
+            values[i] /= sums[sumIndex(i, dimensionSize, innerSize)];
+        return IndexedTensor.Builder.of(argument.type(), sizes, values).build();
+    }
+
+    /** Returns the index of the sum the value at the given index is part of */
+    private static int sumIndex(long valueIndex, long dimensionSize, long innerSize) {
+        return (int)(valueIndex / (dimensionSize * innerSize) * innerSize + valueIndex % innerSize);
+    }
+
     @Override
     public String toString(ToStringContext context) {
         return "softmax(" + argument.toString(context) + ", " + dimension + ")";
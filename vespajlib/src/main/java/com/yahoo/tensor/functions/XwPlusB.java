@@ -2,6 +2,11 @@
 package com.yahoo.tensor.functions;
 
 import com.google.common.collect.ImmutableList;
+import com.yahoo.tensor.DimensionSizes;
+import com.yahoo.tensor.IndexedTensor;
+import com.yahoo.tensor.Tensor;
+import com.yahoo.tensor.TensorType;
+import com.yahoo.tensor.evaluation.EvaluationContext;
 import com.yahoo.tensor.evaluation.Name;
 
 import java.util.List;
@@ -43,6 +48,51 @@ public class XwPlusB<NAMETYPE extends Name> extends CompositeTensorFunction<NAME
                           ScalarFunctions.add());
     }
 
+    @Override
+    public Tensor evaluate(EvaluationContext<NAMETYPE> context) {
+        Tensor x = this.x.evaluate(context);
+        Tensor w = this.w.evaluate(context);
+        Tensor b = this.b.evaluate(context);
+        if (isDenseVectorMatrixVector(x, w, b))
+            return evaluateDense((IndexedTensor)x, (IndexedTensor)w, (IndexedTensor)b);
+        return x.join(w, ScalarFunctions.multiply()).reduce(Reduce.Aggregator.sum, dimension).join(b, ScalarFunctions.add());
+    }
+
+    /** Returns whether x is a vector in the dimension, w is a matrix of it and the dimension of b, which is a vector */
+    private boolean isDenseVectorMatrixVector(Tensor x, Tensor w, Tensor b) {
+        if ( ! (x instanceof IndexedTensor && w instanceof IndexedTensor && b instanceof IndexedTensor)) return false;
+        if (x.type().rank() != 1 || w.type().rank() != 2 || b.type().rank() != 1) return false;
+        if ( ! x.type().dimensions().get(0).name().equals(dimension)) return false;
+        String outputDimension = b.type().dimensions().get(0).name();
+        if (outputDimension.equals(dimension)) return false;
+        return w.type().dimensionNames().containsAll(List.of(dimension, outputDimension));
+    }
+
+    /**
+     * Computes each output value as the sum of products of x and a column of w, plus b, in one pass
+     * without creating the intermediate tensors. The values are added in the same order as when evaluating
+     * the primitive functions.
+     */
+    private Tensor evaluateDense(IndexedTensor x, IndexedTensor w, IndexedTensor b) {
+        int dimensionIndex = w.type().indexOfDimension(dimension).get();
+        long wSizeInDimension = w.dimensionSizes().size(dimensionIndex);
+        long wSizeInOutput = w.dimensionSizes().size(1 - dimensionIndex);
+        long strideInDimension = dimensionIndex == 0 ? wSizeInOutput : 1;
+        long strideInOutput = dimensionIndex == 0 ? 1 : wSizeInDimension;
+        long length = Math.min(x.size(), wSizeInDimension);
+
+        double[] values = new double[(int)Math.min(wSizeInOutput, b.size())];
+        for (int j = 0; j < values.length; j++) {
+            double sum = 0;
+            for (long i = 0; i < length; i++)
+                sum += x.get(i) * w.get(i * strideInDimension + j * strideInOutput);
+            values[j] = sum + b.get(j);
+        }
+        TensorType type = Join.outputType(Reduce.outputType(Join.outputType(x.type(), w.type()), List.of(dimension)),
+                                          b.type());
+        return IndexedTensor.Builder.of(type, new DimensionSizes.Builder(1).set(0, values.length).build(), values).build();
+    }
+
     @Override
     public String toString(ToStringContext context) {
         return "xw_plus_b(" + x.toString(context) + ", " +
@@ -0,0 +1,92 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.compress;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author agent
+ */
+public class AdaptiveCompressionPolicyTest {
+
+    private final Compressor compressor = new Compressor();
+
+    @Test
+    public void compressible_payloads_are_compressed() {
+        AdaptiveCompressionPolicy policy = new AdaptiveCompressionPolicy(1000, () -> 0.0);
+        byte[] payload = compressible();
+        for (int i = 0; i < AdaptiveCompressionPolicy.WINDOW; i++)
+            assertEquals(CompressionType.LZ4, compressor.compress(policy, payload, Optional.empty()).type());
+
+        assertEquals(CompressionType.LZ4, policy.selected());
+        assertTrue(policy.compressionRatio() < 0.5);
+        assertTrue(policy.nanosPerByte() > 0);
+        Compressor.Compression compressed = compressor.compress(policy, payload, Optional.of(100));
+        assertArrayEquals(Arrays.copyOf(payload, 100), compressor.decompress(compressed));
+    }
+
+    @Test
+    public void incompressible_payloads_are_probed_but_not_compressed() {
+        AdaptiveCompressionPolicy policy = new AdaptiveCompressionPolicy(1000, () -> 0.0);
+        byte[] random = incompressible();
+        for (int i = 0; i < AdaptiveCompressionPolicy.WINDOW; i++)
+            compressor.compress(policy, random, Optional.empty());
+        assertEquals(CompressionType.NONE, policy.selected());
+        assertTrue(policy.compressionRatio() > 0.95);
+
+        byte[] payload = compressible();
+        int compressed = 0;
+        for (int i = 0; i < AdaptiveCompressionPolicy.PROBE_INTERVAL; i++) {
+            Compressor.Compression compression = compressor.compress(policy, payload, Optional.empty());
+            if (compression.type() == CompressionType.LZ4) compressed++;
+            else assertEquals(payload, compression.data());
+        }
+        assertEquals("One payload in each probe interval is compressed", 1, compressed);
+
+        for (int i = 0; i < AdaptiveCompressionPolicy.PROBE_INTERVAL * AdaptiveCompressionPolicy.WINDOW; i++)
+            compressor.compress(policy, payload, Optional.empty());
+        assertEquals("Compression is resumed when it pays off again", CompressionType.LZ4, policy.selected());
+    }
+
+    @Test
+    public void payloads_are_not_compressed_when_the_cpu_is_saturated() {
+        AdaptiveCompressionPolicy policy = new AdaptiveCompressionPolicy(1000, () -> 1.0);
+        byte[] payload = compressible();
+        for (int i = 0; i < AdaptiveCompressionPolicy.WINDOW; i++)
+            compressor.compress(policy, payload, Optional.empty());
+        assertEquals(CompressionType.NONE, policy.selected());
+        assertTrue(policy.compressionRatio() < 0.5);
+    }
+
+    @Test
+    public void payloads_are_not_compressed_when_it_is_too_expensive() {
+        AdaptiveCompressionPolicy policy = new AdaptiveCompressionPolicy(0.0, () -> 0.0);
+        for (int i = 0; i < AdaptiveCompressionPolicy.WINDOW; i++)
+            policy.record(1000, 100, 1000);
+        assertEquals(CompressionType.NONE, policy.selected());
+        assertEquals(0.1, policy.compressionRatio(), 1e-9);
+        assertEquals(1.0, policy.nanosPerByte(), 1e-9);
+    }
+
+    private static byte[] compressible() {
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < 100; i++)
+            b.append("{\"title\":\"document ").append(i).append("\",\"body\":\"some text\"}");
+        return b.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] incompressible() {
+        byte[] bytes = new byte[4000];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,81 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.compress;
+
+import net.jpountz.lz4.LZ4Factory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the compression ratio and throughput of LZ4, deflate, and deflate with a trained dictionary,
+ * on small payloads resembling document summaries.
+ *
+ * @author agent
+ */
+public class DictionaryCompressionBenchmark {
+
+    private static final String[] words = { "vespa", "search", "engine", "document", "summary", "ranking", "tensor",
+                                            "query", "content", "node", "container", "cluster", "field", "index" };
+
+    public static void main(String[] args) {
+        int payloadCount = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        Random random = new Random(42);
+        List<byte[]> payloads = new ArrayList<>();
+        for (int i = 0; i < payloadCount; i++)
+            payloads.add(payload(i, random));
+
+        DictionaryCompressor dictionaryCompressor = new DictionaryCompressor();
+        dictionaryCompressor.setDictionary(CompressionDictionary.train(payloads.subList(0, 256), 16 * 1024));
+        LZ4Factory lz4 = LZ4Factory.fastestInstance();
+
+        for (int round = 0; round < 5; round++) {
+            System.out.println("Round " + round);
+            run("lz4", payloads, data -> lz4.fastCompressor().compress(data),
+                (data, size) -> lz4.fastDecompressor().decompress(data, size));
+            run("deflate", payloads, data -> DictionaryCompressor.compress(data, null), dictionaryCompressor::decompress);
+            run("deflate with dictionary", payloads, dictionaryCompressor::compress, dictionaryCompressor::decompress);
+        }
+    }
+
+    private static void run(String name, List<byte[]> payloads, Compress compress, Decompress decompress) {
+        long uncompressedBytes = 0;
+        long compressedBytes = 0;
+        List<byte[]> compressed = new ArrayList<>(payloads.size());
+        long start = System.nanoTime();
+        for (byte[] payload : payloads) {
+            byte[] data = compress.apply(payload);
+            compressed.add(data);
+            uncompressedBytes += payload.length;
+            compressedBytes += data.length;
+        }
+        long compressNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < payloads.size(); i++)
+            decompress.apply(compressed.get(i), payloads.get(i).length);
+        long decompressNanos = System.nanoTime() - start;
+        System.out.printf("  %-24s ratio %.3f, compress %7.1f MB/s, decompress %7.1f MB/s%n", name,
+                          (double) compressedBytes / uncompressedBytes,
+                          uncompressedBytes * 1000.0 / compressNanos, uncompressedBytes * 1000.0 / decompressNanos);
+    }
+
+    private static byte[] payload(int id, Random random) {
+        StringBuilder b = new StringBuilder();
+        b.append("{\"documentid\":\"id:namespace:doctype::").append(id).append("\",");
+        b.append("\"title\":\"");
+        for (int i = 0; i < 5; i++)
+            b.append(words[random.nextInt(words.length)]).append(' ');
+        b.append("\",\"url\":\"https://example.com/").append(words[random.nextInt(words.length)]).append('/').append(id);
+        b.append("\",\"timestamp\":").append(1600000000L + random.nextInt(10000000));
+        b.append(",\"relevance\":").append(random.nextDouble());
+        b.append(",\"source\":\"content-cluster\",\"summaryfeatures\":{\"attribute(popularity)\":")
+         .append(random.nextInt(1000)).append(",\"nativeRank(title)\":").append(random.nextDouble()).append("}}");
+        return b.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private interface Compress { byte[] apply(byte[] data); }
+
+    private interface Decompress { byte[] apply(byte[] data, int uncompressedSize); }
+
+}
@@ -0,0 +1,103 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.compress;
+
+import com.yahoo.concurrent.InThreadExecutorService;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author agent
+ */
+public class DictionaryCompressorTest {
+
+    @Test
+    public void trained_dictionary_compresses_similar_payloads_better() {
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            samples.add(payload(i));
+        CompressionDictionary dictionary = CompressionDictionary.train(samples, 4096);
+        assertTrue(dictionary.size() <= 4096);
+
+        byte[] payload = payload(1000);
+        byte[] withDictionary = DictionaryCompressor.compress(payload, dictionary);
+        byte[] withoutDictionary = DictionaryCompressor.compress(payload, null);
+        assertTrue(withDictionary.length * 2 < withoutDictionary.length);
+
+        DictionaryCompressor compressor = new DictionaryCompressor();
+        compressor.setDictionary(dictionary);
+        assertArrayEquals(payload, compressor.decompress(withDictionary, payload.length));
+        assertArrayEquals(payload, compressor.decompress(withoutDictionary, payload.length));
+    }
+
+    @Test
+    public void dictionary_is_trained_from_samples_and_retrained() {
+        DictionaryCompressor compressor = new DictionaryCompressor(1024, 10, 50, new InThreadExecutorService());
+        for (int i = 0; i < 9; i++)
+            compressor.sample(payload(i));
+        assertFalse(compressor.dictionary().isPresent());
+        byte[] payload = payload(100);
+        byte[] compressedWithoutDictionary = compressor.compress(payload);
+
+        compressor.sample(payload(9));
+        CompressionDictionary first = compressor.dictionary().get();
+        byte[] compressedWithFirst = compressor.compress(payload);
+        assertTrue(compressedWithFirst.length < compressedWithoutDictionary.length);
+
+        for (int i = 0; i < 49; i++)
+            compressor.sample(("other payload " + i + " with different content " + i).getBytes(StandardCharsets.UTF_8));
+        assertEquals("Retrained after the training interval", first, compressor.dictionary().get());
+        compressor.sample("other payload with different content".getBytes(StandardCharsets.UTF_8));
+        assertFalse(first.equals(compressor.dictionary().get()));
+
+        assertArrayEquals("Data compressed with earlier versions can be decompressed",
+                          payload, compressor.decompress(compressedWithFirst, payload.length));
+        assertArrayEquals(payload, compressor.decompress(compressedWithoutDictionary, payload.length));
+    }
+
+    @Test
+    public void dictionary_is_trained_by_the_executor_and_used_once_trained() {
+        Deque<Runnable> tasks = new ArrayDeque<>();
+        DictionaryCompressor compressor = new DictionaryCompressor(1024, 10, 50, tasks::add);
+        for (int i = 0; i < 20; i++)
+            compressor.sample(payload(i));
+        assertEquals("No samples are collected while training", 1, tasks.size());
+        assertFalse(compressor.dictionary().isPresent());
+
+        tasks.poll().run();
+        assertTrue(compressor.dictionary().isPresent());
+        byte[] payload = payload(100);
+        assertArrayEquals(payload, compressor.decompress(compressor.compress(payload), payload.length));
+    }
+
+    @Test
+    public void data_compressed_with_unknown_dictionary_is_rejected() {
+        List<byte[]> samples = List.of(payload(0), payload(1));
+        byte[] compressed = DictionaryCompressor.compress(payload(2), CompressionDictionary.train(samples, 1024));
+        try {
+            new DictionaryCompressor().decompress(compressed, payload(2).length);
+            fail("Expected exception");
+        }
+        catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("Data is compressed with unknown dictionary"));
+        }
+    }
+
+    private static byte[] payload(int i) {
+        return ("{\"documentid\":\"id:music:music::" + i + "\",\"title\":\"Song number " + i +
+                "\",\"artist\":\"The Artist\",\"year\":" + (1950 + i % 70) +
+                ",\"genre\":\"" + (i % 2 == 0 ? "rock" : "jazz") + "\",\"duration\":" + (120 + i) + "}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+}
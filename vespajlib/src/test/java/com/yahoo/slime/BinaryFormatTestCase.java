@@ -516,6 +516,23 @@ public class BinaryFormatTestCase {
         verifyEncoding(slime, expect);
     }
 
+    @Test
+    public void testEncodingReusesBufferOnlyForLaterEncodings() {
+        byte[] large = new byte[3 * 1024 * 1024];
+        large[large.length - 1] = 42;
+        Slime first = new Slime();
+        first.setObject().setData("data", large);
+        byte[] encodedLarge = BinaryFormat.encode(first);
+
+        Slime second = new Slime();
+        second.setObject().setData("data", new byte[] { 1, 2, 3 });
+        byte[] encodedSmall = BinaryFormat.encode(second);
+
+        assertEquals(42, BinaryFormat.decode(encodedLarge).get().field("data").asData()[large.length - 1]);
+        assertEquals(3, BinaryFormat.decode(encodedSmall).get().field("data").asData().length);
+        assertEquals(encodedSmall.length, BinaryFormat.encode(second).length);
+    }
+
     @Test
     public void testDecodingSlimeWithDifferentSymbolOrder() {
         byte[] data = {
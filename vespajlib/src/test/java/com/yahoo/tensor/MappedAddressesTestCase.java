@@ -0,0 +1,88 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.tensor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author agent
+ */
+public class MappedAddressesTestCase {
+
+    @Test
+    public void testAddressesAreIndexedInAddOrder() {
+        MappedAddresses.Builder builder = new MappedAddresses.Builder(2);
+        assertEquals(0, builder.add(new String[] { "a", "p" }));
+        assertEquals(1, builder.add(TensorAddress.ofLabels("b", "p")));
+        assertEquals(0, builder.add(new String[] { "a", "p" }));
+        assertEquals(2, builder.add(new String[] { "a", "q" }));
+        MappedAddresses addresses = builder.build();
+
+        assertEquals(3, addresses.size());
+        assertEquals(TensorAddress.ofLabels("b", "p"), addresses.address(1));
+        assertEquals("q", addresses.label(2, 1));
+        assertEquals(2, addresses.indexOf(TensorAddress.ofLabels("a", "q")));
+        assertEquals(-1, addresses.indexOf(TensorAddress.ofLabels("b", "q")));
+        assertEquals(-1, addresses.indexOf(TensorAddress.ofLabels("c", "p")));
+        assertEquals(-1, addresses.indexOf(TensorAddress.ofLabels("a")));
+        assertEquals(2, addresses.labels(0).size());
+        assertEquals(1, addresses.labels(1).idOf("q"));
+    }
+
+    @Test
+    public void testManyAddresses() {
+        MappedAddresses.Builder builder = new MappedAddresses.Builder(3);
+        for (int i = 0; i < 10000; i++)
+            assertEquals(i, builder.add(new String[] { "x" + i % 7, "y" + i, "z" + i % 3 }));
+        MappedAddresses addresses = builder.build();
+
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, addresses.indexOf(TensorAddress.ofLabels("x" + i % 7, "y" + i, "z" + i % 3)));
+            assertEquals("y" + i, addresses.label(i, 1));
+        }
+        assertEquals(-1, addresses.indexOf(TensorAddress.ofLabels("x1", "y0", "z0")));
+    }
+
+    @Test
+    public void testSharedLabels() {
+        MappedAddresses.Builder builder = new MappedAddresses.Builder(2);
+        builder.add(new String[] { "a", "p" });
+        builder.add(new String[] { "b", "q" });
+        MappedAddresses addresses = builder.build();
+
+        MappedAddresses.Builder sharingBuilder = new MappedAddresses.Builder(new MappedAddresses.Labels[] { addresses.labels(1) });
+        assertEquals(0, sharingBuilder.add(new int[] { addresses.labelId(1, 1) }));
+        assertEquals(1, sharingBuilder.add(new String[] { "r" }));
+        MappedAddresses shared = sharingBuilder.build();
+
+        assertEquals(TensorAddress.ofLabels("q"), shared.address(0));
+        assertEquals(TensorAddress.ofLabels("r"), shared.address(1));
+        assertEquals(-1, shared.indexOf(TensorAddress.ofLabels("p")));
+        assertEquals("Labels are copied before being added to", -1, addresses.labels(1).idOf("r"));
+    }
+
+    @Test
+    public void testCompact() {
+        MappedAddresses.Builder builder = new MappedAddresses.Builder(2);
+        for (int i = 0; i < 1000; i++)
+            builder.add(new String[] { "x" + i, "y" + i % 2 });
+        MappedAddresses addresses = builder.build();
+        assertSame(addresses, addresses.compact());
+
+        MappedAddresses.Builder sharingBuilder = new MappedAddresses.Builder(new MappedAddresses.Labels[] { addresses.labels(0),
+                                                                                                           addresses.labels(1) });
+        sharingBuilder.add(new int[] { addresses.labelId(500, 0), addresses.labelId(500, 1) });
+        sharingBuilder.add(new int[] { addresses.labelId(7, 0), addresses.labelId(7, 1) });
+        MappedAddresses compact = sharingBuilder.build().compact();
+
+        assertEquals(2, compact.labels(0).size());
+        assertSame("Small dictionaries are kept", addresses.labels(1), compact.labels(1));
+        assertEquals(TensorAddress.ofLabels("x500", "y0"), compact.address(0));
+        assertEquals(TensorAddress.ofLabels("x7", "y1"), compact.address(1));
+        assertEquals(1, compact.indexOf(TensorAddress.ofLabels("x7", "y1")));
+        assertEquals(-1, compact.indexOf(TensorAddress.ofLabels("x8", "y0")));
+    }
+
+}
@@ -0,0 +1,66 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.tensor.functions;
+
+import com.yahoo.tensor.Tensor;
+import com.yahoo.tensor.TensorType;
+import com.yahoo.tensor.evaluation.MapEvaluationContext;
+import com.yahoo.tensor.evaluation.Name;
+import com.yahoo.tensor.evaluation.VariableTensor;
+
+import java.util.List;
+
+/**
+ * Microbenchmark of the fused evaluation of dense tensor functions, compared to evaluating
+ * the primitive functions they are composed of.
+ *
+ * @author agent
+ */
+public class DenseKernelBenchmark {
+
+    private final MapEvaluationContext<Name> context = new MapEvaluationContext<>();
+
+    private DenseKernelBenchmark() {
+        context.put("x", Tensor.random(TensorType.fromSpec("tensor(x[256])")));
+        context.put("xy", Tensor.random(TensorType.fromSpec("tensor(x[256],y[64])")));
+        context.put("y", Tensor.random(TensorType.fromSpec("tensor(y[64])")));
+        context.put("by", Tensor.random(TensorType.fromSpec("tensor(b[16],y[64])")));
+    }
+
+    private double benchmark(TensorFunction<Name> function, int iterations) {
+        double result = 0;
+        for (int i = 0; i < iterations; i++) // warmup
+            result += function.evaluate(context).sum().asDouble();
+        long startTime = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+            result += function.evaluate(context).sum().asDouble();
+        long totalTime = System.nanoTime() - startTime;
+        if (result == 0) System.out.print(""); // use the result
+        return totalTime / 1000.0 / iterations;
+    }
+
+    private void compare(String name, TensorFunction<Name> fused, int iterations) {
+        double fusedTime = benchmark(fused, iterations);
+        double primitiveTime = benchmark(fused.toPrimitive(), iterations);
+        System.out.printf("%-14s fused: %8.2f us, primitive: %8.2f us%n", name, fusedTime, primitiveTime);
+    }
+
+    public static void main(String[] args) {
+        DenseKernelBenchmark benchmark = new DenseKernelBenchmark();
+        TensorFunction<Name> x = new VariableTensor<>("x");
+        TensorFunction<Name> xy = new VariableTensor<>("xy");
+        TensorFunction<Name> y = new VariableTensor<>("y");
+        TensorFunction<Name> by = new VariableTensor<>("by");
+        int iterations = 2000;
+        for (int i = 0; i < 3; i++) {
+            benchmark.compare("dot product",
+                              new ReduceJoin<>(y, y, ScalarFunctions.multiply(), Reduce.Aggregator.sum, List.of("y")),
+                              iterations * 10);
+            benchmark.compare("vector*matrix", new Matmul<>(x, xy, "x"), iterations);
+            benchmark.compare("matrix*matrix", new Matmul<>(by, xy, "y"), iterations / 10);
+            benchmark.compare("xw_plus_b", new XwPlusB<>(x, xy, y, "x"), iterations);
+            benchmark.compare("softmax", new Softmax<>(xy, "y"), iterations);
+            System.out.println();
+        }
+    }
+
+}
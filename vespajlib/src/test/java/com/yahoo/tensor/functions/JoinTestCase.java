@@ -1,7 +1,9 @@
 // Copyright 2017 Yahoo Holdings. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
 package com.yahoo.tensor.functions;
 
+import com.yahoo.tensor.MappedTensor;
 import com.yahoo.tensor.Tensor;
+import com.yahoo.tensor.TensorAddress;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
@@ -46,4 +48,34 @@ public class JoinTestCase {
                              .divide(Tensor.from("tensor(y[],z[]):{ {y:0,z:0}:2, {y:1,z:0}:4, {y:2,z:0}:6 }")));
     }
 
+    @Test
+    public void testMappedJoin() {
+        Tensor xy = Tensor.from("tensor(x{},y{}):{{x:a,y:p}:1, {x:a,y:q}:2, {x:b,y:p}:3}");
+
+        // Same dimensions
+        assertEquals(Tensor.from("tensor(x{},y{}):{{x:a,y:p}:10, {x:b,y:p}:90}"),
+                     xy.multiply(Tensor.from("tensor(x{},y{}):{{x:a,y:p}:10, {x:b,y:p}:30, {x:c,y:p}:50}")));
+
+        // Subspace, in both argument orders
+        Tensor y = Tensor.from("tensor(y{}):{p:2, r:5}");
+        assertEquals(Tensor.from("tensor(x{},y{}):{{x:a,y:p}:0.5, {x:b,y:p}:1.5}"), xy.divide(y));
+        assertEquals(Tensor.from("tensor(x{},y{}):{{x:a,y:p}:2, {x:b,y:p}:0.6666666666666666}"), y.divide(xy));
+
+        // Some dimensions in common
+        assertEquals(Tensor.from("tensor(x{},y{},z{}):{{x:a,y:p,z:u}:2, {x:a,y:p,z:v}:3, {x:b,y:p,z:u}:6, {x:b,y:p,z:v}:9, {x:a,y:q,z:u}:8}"),
+                     xy.multiply(Tensor.from("tensor(y{},z{}):{{y:p,z:u}:2, {y:p,z:v}:3, {y:q,z:u}:4}")));
+
+        // A small result does not keep the dictionaries of a large argument
+        Tensor.Builder largeBuilder = Tensor.Builder.of("tensor(x{},y{})");
+        for (int i = 0; i < 1000; i++)
+            largeBuilder.cell(TensorAddress.ofLabels("x" + i, "y" + i), i);
+        Tensor small = largeBuilder.build().multiply(Tensor.from("tensor(y{}):{y3:2, y5:3}"));
+        assertEquals(Tensor.from("tensor(x{},y{}):{{x:x3,y:y3}:6, {x:x5,y:y5}:15}"), small);
+        assertEquals(2, ((MappedTensor)small).addresses().labels(0).size());
+
+        // No dimensions in common
+        assertEquals(Tensor.from("tensor(x{},z{}):{{x:a,z:u}:1, {x:b,z:u}:2, {x:a,z:v}:3, {x:b,z:v}:6}"),
+                     Tensor.from("tensor(x{}):{a:1, b:2}").multiply(Tensor.from("tensor(z{}):{u:1, v:3}")));
+    }
+
 }
@@ -4,6 +4,8 @@ package com.yahoo.tensor.functions;
 import com.yahoo.tensor.Tensor;
 import org.junit.Test;
 
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -28,6 +30,27 @@ public class ReduceTestCase {
         assertNan(Tensor.Builder.of("tensor(x[1])").cell(Double.NaN, 0).build().median());
     }
 
+    @Test
+    public void testReduceIndexedDimensions() {
+        Tensor tensor = Tensor.from("tensor(x[2],y[3],z[2]):[[[1, 2], [3, 4], [5, 6]], [[7, 8], [9, 10], [11, 12]]]");
+        assertEquals(Tensor.from("tensor(x[2],z[2]):[[9, 12], [27, 30]]"), tensor.sum("y"));
+        assertEquals(Tensor.from("tensor(y[3]):[18, 26, 34]"), tensor.sum(List.of("x", "z")));
+        assertEquals(Tensor.from("tensor(x[2],y[3]):[[2, 4, 6], [8, 10, 12]]"), tensor.max("z"));
+        assertEquals(Tensor.from("tensor(y[3],z[2]):[[4, 5], [6, 7], [8, 9]]"), tensor.avg("x"));
+        assertEquals(Tensor.from("tensor<float>(y[2]):[4, 6]"),
+                     Tensor.from("tensor<float>(x[2],y[2]):[[1, 2], [3, 4]]").sum("x"));
+        assertEquals(Tensor.from("tensor(z[2]):[36, 42]"), tensor.sum("y").sum("x"));
+    }
+
+    @Test
+    public void testReduceMappedDimensions() {
+        Tensor tensor = Tensor.from("tensor(x{},y{},z{}):{{x:a,y:p,z:u}:1, {x:a,y:q,z:u}:2, {x:b,y:p,z:u}:3, {x:b,y:p,z:v}:4}");
+        assertEquals(Tensor.from("tensor(x{},z{}):{{x:a,z:u}:3, {x:b,z:u}:3, {x:b,z:v}:4}"), tensor.sum("y"));
+        assertEquals(Tensor.from("tensor(y{}):{p:8, q:2}"), tensor.sum(List.of("x", "z")));
+        assertEquals(Tensor.from("tensor(x{},y{}):{{x:a,y:p}:1, {x:a,y:q}:2, {x:b,y:p}:4}"), tensor.max("z"));
+        assertEquals(Tensor.from("tensor(z{}):{u:6, v:4}"), tensor.sum("y").sum("x"));
+    }
+
     private void assertNan(Tensor tensor) {
         assertTrue(tensor + " is NaN", Double.isNaN(tensor.asDouble()));
     }
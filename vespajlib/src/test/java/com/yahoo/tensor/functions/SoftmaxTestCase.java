@@ -0,0 +1,40 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.tensor.functions;
+
+import com.yahoo.tensor.Tensor;
+import com.yahoo.tensor.TensorAddress;
+import com.yahoo.tensor.evaluation.Name;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author agent
+ */
+public class SoftmaxTestCase {
+
+    @Test
+    public void testSoftmax() {
+        assertSoftmax("tensor(x[3]):[0.5, 0.25, 0.25]", "tensor(x[3]):[1, 0.30685281944, 0.30685281944]", "x");
+        assertSoftmax("tensor(x{}):{a:0.5, b:0.5}", "tensor(x{}):{a:2, b:2}", "x");
+    }
+
+    @Test
+    public void testDenseSoftmaxIsEvaluatedLikeThePrimitiveFunctions() {
+        Tensor argument = Tensor.from("tensor(x[2],y[3],z[2]):[[[1, 2], [3, -4], [5, 6]], [[0.7, 8], [-9, 10], [11, 0.12]]]");
+        for (String dimension : new String[] { "x", "y", "z" }) {
+            Softmax<Name> softmax = new Softmax<>(new ConstantTensor<>(argument), dimension);
+            assertEquals(softmax.toPrimitive().evaluate(), softmax.evaluate());
+        }
+    }
+
+    private void assertSoftmax(String expected, String argument, String dimension) {
+        Tensor result = new Softmax<>(new ConstantTensor<>(Tensor.from(argument)), dimension).evaluate();
+        assertEquals(Tensor.from(expected).type(), result.type());
+        for (Map.Entry<TensorAddress, Double> cell : Tensor.from(expected).cells().entrySet())
+            assertEquals(cell.getValue(), result.get(cell.getKey()), 1e-9);
+    }
+
+}
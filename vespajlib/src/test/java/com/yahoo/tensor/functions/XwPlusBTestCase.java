@@ -0,0 +1,37 @@
+// Copyright Verizon Media. Licensed under the terms of the Apache 2.0 license. See LICENSE in the project root.
+package com.yahoo.tensor.functions;
+
+import com.yahoo.tensor.Tensor;
+import com.yahoo.tensor.evaluation.Name;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author agent
+ */
+public class XwPlusBTestCase {
+
+    @Test
+    public void testXwPlusB() {
+        assertXwPlusB("tensor(y[2]):[23, 31]",
+                      "tensor(x[3]):[1, 2, 3]", "tensor(x[3],y[2]):[[1, 2], [3, 4], [5, 6]]", "tensor(y[2]):[1, 3]");
+        assertXwPlusB("tensor(a[2]):[23, 31]",
+                      "tensor(x[3]):[1, 2, 3]", "tensor(a[2],x[3]):[[1, 3, 5], [2, 4, 6]]", "tensor(a[2]):[1, 3]");
+        assertXwPlusB("tensor(y[2]):[8, 11.25]",
+                      "tensor(x[2]):[0.5, 2]", "tensor(x[2],y[2]):[[1, 0.5], [3, 4]]", "tensor(y[2]):[1.5, 3]");
+        assertXwPlusB("tensor(y{}):{a:23, b:31}",
+                      "tensor(x[3]):[1, 2, 3]", "tensor(x[3],y{}):{{x:0,y:a}:1, {x:1,y:a}:3, {x:2,y:a}:5, {x:0,y:b}:2, {x:1,y:b}:4, {x:2,y:b}:6}",
+                      "tensor(y{}):{a:1, b:3}");
+    }
+
+    private void assertXwPlusB(String expected, String x, String w, String b) {
+        XwPlusB<Name> xwPlusB = new XwPlusB<>(new ConstantTensor<>(Tensor.from(x)),
+                                              new ConstantTensor<>(Tensor.from(w)),
+                                              new ConstantTensor<>(Tensor.from(b)),
+                                              "x");
+        assertEquals(Tensor.from(expected), xwPlusB.evaluate());
+        assertEquals(xwPlusB.toPrimitive().evaluate(), xwPlusB.evaluate());
+    }
+
+}